@@ -1,6 +1,9 @@
 package com.example.secure_notes.config;
 
+import com.example.secure_notes.service.DbFailoverStatusService;
+import com.example.secure_notes.service.ReplicaLagService;
 import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -8,11 +11,18 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Profile;
 import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -40,11 +50,20 @@ public class FailoverDataSourceConfig implements DisposableBean {
     @Value("${spring.datasource.replica.password}")
     private String replicaPass;
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-        Thread t = new Thread(r, "db-failover-healthcheck");
-        t.setDaemon(true);
-        return t;
-    });
+    // Connections per pool, and how many of each pool may be checked out at once through the routing data source
+    @Value("${app.db.pool-size:10}")
+    private int poolSize;
+
+    @Value("${app.db.max-concurrent-connections:0}")
+    private int maxConcurrentConnections;
+
+    @Value("${app.db.connection-wait:30s}")
+    private Duration connectionWait;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ScheduledExecutorService scheduler;
 
     // Holds the currently active DataSource (Master or Replica)
     private final AtomicReference<HikariDataSource> currentDataSource = new AtomicReference<>();
@@ -52,12 +71,41 @@ public class FailoverDataSourceConfig implements DisposableBean {
     private HikariDataSource masterPool;
     private HikariDataSource replicaPool;
 
+    // One connection per node for the health check and lag sampling, so a busy pool cannot fail them
+    private HikariDataSource masterProbe;
+    private HikariDataSource replicaProbe;
+
+    // WAL positions as byte offsets, and the replica's replay lag (pg_last_xact_replay_timestamp is NULL before the first replayed commit)
+    static final String MASTER_LSN_SQL = "SELECT (pg_current_wal_lsn() - '0/0'::pg_lsn)::bigint";
+    // 1 once the transaction has written anything (a transaction id is only assigned on the first write)
+    private static final String WROTE_SQL = "SELECT (pg_current_xact_id_if_assigned() IS NOT NULL)::int";
+    static final String REPLICA_REPLAY_LSN_SQL = "SELECT (pg_last_wal_replay_lsn() - '0/0'::pg_lsn)::bigint";
+    private static final String REPLICA_LAG_SQL =
+            "SELECT (pg_last_wal_replay_lsn() - '0/0'::pg_lsn)::bigint, " +
+                    "coalesce(extract(epoch FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)::bigint";
+
+    private final DbFailoverStatusService failoverStatus;
+
+    // Whether read-only transactions may use the replica (sampled with every health check)
+    private final ReplicaLagService replicaLag;
+
+    private final MeterRegistry meterRegistry;
+
+    public FailoverDataSourceConfig(DbFailoverStatusService failoverStatus, ReplicaLagService replicaLag,
+                                    MeterRegistry meterRegistry) {
+        this.failoverStatus = failoverStatus;
+        this.replicaLag = replicaLag;
+        this.meterRegistry = meterRegistry;
+    }
+
     @Bean
     @Primary
     public DataSource dataSource() {
         // 1. Create Connection Pools
-        masterPool = createPool(masterUrl, masterUser, masterPass, "master");
-        replicaPool = createPool(replicaUrl, replicaUser, replicaPass, "replica");
+        masterPool = createPool(masterUrl, masterUser, masterPass, "master", poolSize);
+        replicaPool = createPool(replicaUrl, replicaUser, replicaPass, "replica", poolSize);
+        masterProbe = createPool(masterUrl, masterUser, masterPass, "master-probe", 1);
+        replicaProbe = createPool(replicaUrl, replicaUser, replicaPass, "replica-probe", 1);
 
         // 2. Initial State: Try Master, fallback to Replica
         if (isNodeHealthy(masterPool)) {
@@ -67,12 +115,28 @@ public class FailoverDataSourceConfig implements DisposableBean {
             currentDataSource.set(replicaPool);
             System.out.println(">>> INITIALIZED: Connected to REPLICA DB (Read-Only Mode)");
         }
+        failoverStatus.publish(currentDataSource.get() == replicaPool);
+        sampleReplicaLag();
 
-        // 3. Start Background Health Check (Every 5 seconds)
+        // 3. Start Background Health Check (Every 5 seconds); a virtual thread in virtual-thread mode
+        scheduler = Executors.newSingleThreadScheduledExecutor(virtualThreads
+                ? Thread.ofVirtual().name("db-failover-healthcheck").factory()
+                : Thread.ofPlatform().name("db-failover-healthcheck").daemon(true).factory());
         scheduler.scheduleAtFixedRate(this::checkHealthAndFailover, 5, 5, TimeUnit.SECONDS);
 
-        // 4. Return a wrapper that delegates to the active pool
-        return new RoutingDataSource(currentDataSource);
+        // 4. Return a wrapper that delegates to the active pool (or the replica for read-only work).
+        // The lazy proxy defers the physical connection until the first statement, when the
+        // transaction's read-only flag is known. Each pool has permits of its own, so reads on the
+        // replica neither count against the master's nor use up those writes need. Callers beyond
+        // a pool's permits wait in line there, not in the pool, whose short timeout is meant for
+        // failover. By default every pooled connection is a permit: the health check has its own
+        // connections, and RecordWritePosition uses the transaction's connection.
+        int permits = maxConcurrentConnections > 0 ? maxConcurrentConnections : poolSize;
+        Map<HikariDataSource, DataSource> limited = Map.of(
+                masterPool, new PermitLimitedDataSource(masterPool, "master", permits, connectionWait, meterRegistry),
+                replicaPool, new PermitLimitedDataSource(replicaPool, "replica", permits, connectionWait, meterRegistry));
+        return new LazyConnectionDataSourceProxy(
+                new RoutingDataSource(currentDataSource, replicaPool, limited, replicaLag));
     }
 
     private void checkHealthAndFailover() {
@@ -83,18 +147,69 @@ public class FailoverDataSourceConfig implements DisposableBean {
         if (!masterUp && active == masterPool) {
             System.err.println("!!! ALERT: MASTER DB DOWN. Switching to REPLICA.");
             currentDataSource.set(replicaPool);
+            failoverStatus.publish(true);
         }
 
         // SCENARIO 2: Master is back, currently on Replica -> Switch back to Master
         if (masterUp && active == replicaPool) {
             System.out.println(">>> INFO: MASTER DB RECOVERED. Switching back to MASTER.");
             currentDataSource.set(masterPool);
+            failoverStatus.publish(false);
+        }
+
+        sampleReplicaLag();
+    }
+
+    /**
+     * Measures how far the replica is behind the master and pushes the result to ReplicaLagService,
+     * which takes a missing or lagging replica out of read rotation.
+     */
+    private void sampleReplicaLag() {
+        long masterLsn = -1;
+        if (currentDataSource.get() == masterPool) {
+            try {
+                masterLsn = queryLong(masterProbe, MASTER_LSN_SQL);
+            } catch (SQLException e) {
+                // Master trouble is handled by the failover check; lag is then reported without a byte count
+            }
+        }
+
+        if (replicaPool == null || replicaPool.isClosed()) {
+            replicaLag.recordSample(false, masterLsn, 0, Duration.ZERO);
+            return;
+        }
+        try (Connection conn = replicaProbe.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(REPLICA_LAG_SQL)) {
+            rs.next();
+            long replayLsn = rs.getLong(1);
+            // Time since the last replayed commit is only lag while WAL is still waiting to be replayed
+            Duration lag = masterLsn >= 0 && replayLsn < masterLsn ? Duration.ofMillis(rs.getLong(2)) : Duration.ZERO;
+            replicaLag.recordSample(true, masterLsn, replayLsn, lag);
+        } catch (SQLException e) {
+            replicaLag.recordSample(false, masterLsn, 0, Duration.ZERO);
+        }
+    }
+
+    static long queryLong(DataSource ds, String sql) throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            return queryLong(conn, sql);
+        }
+    }
+
+    static long queryLong(Connection conn, String sql) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
         }
     }
 
+    // The node is probed on its own connection; a closed pool counts as down
     private boolean isNodeHealthy(HikariDataSource ds) {
         if (ds == null || ds.isClosed()) return false;
-        try (Connection conn = ds.getConnection()) {
+        HikariDataSource probe = ds == masterPool ? masterProbe : replicaProbe;
+        try (Connection conn = probe.getConnection()) {
             // Check if connection is valid with 1 second timeout
             return conn.isValid(1);
         } catch (SQLException e) {
@@ -102,43 +217,152 @@ public class FailoverDataSourceConfig implements DisposableBean {
         }
     }
 
-    private HikariDataSource createPool(String url, String user, String pass, String name) {
+    private HikariDataSource createPool(String url, String user, String pass, String name, int size) {
         HikariDataSource ds = new HikariDataSource();
         ds.setJdbcUrl(url);
         ds.setUsername(user);
         ds.setPassword(pass);
         ds.setPoolName("Hikari-" + name);
-        ds.setMaximumPoolSize(10);
+        ds.setMaximumPoolSize(size);
         ds.setConnectionTimeout(2000); // Fast failover (2s)
         ds.setValidationTimeout(1000);
+        ds.setReadOnly(name.startsWith("replica"));
+        // A JDBC batch of inserts is sent as multi-row INSERTs (see hibernate.jdbc.batch_size)
+        ds.addDataSourceProperty("reWriteBatchedInserts", "true");
         return ds;
     }
 
     @Override
     public void destroy() {
-        scheduler.shutdownNow();
+        if (scheduler != null) scheduler.shutdownNow();
         if (masterPool != null) masterPool.close();
         if (replicaPool != null) replicaPool.close();
+        if (masterProbe != null) masterProbe.close();
+        if (replicaProbe != null) replicaProbe.close();
     }
 
     /**
      * A lightweight wrapper that redirects calls to the currently active AtomicReference pool.
+     * While the master is active, read-only transactions ({@code @Transactional(readOnly = true)})
+     * are sent to the replica instead, as long as it is in rotation and has replayed the
+     * current user's last write. Writes on the master record their WAL position after commit
+     * (see RecordWritePosition). Connections come through each pool's permit limit.
      */
     static class RoutingDataSource extends AbstractDataSource {
         private final AtomicReference<HikariDataSource> dataSourceRef;
+        private final HikariDataSource replicaPool;
+        private final Map<HikariDataSource, DataSource> limited;
+        private final ReplicaLagService replicaLag;
 
-        public RoutingDataSource(AtomicReference<HikariDataSource> dataSourceRef) {
+        public RoutingDataSource(AtomicReference<HikariDataSource> dataSourceRef,
+                                 HikariDataSource replicaPool,
+                                 Map<HikariDataSource, DataSource> limited,
+                                 ReplicaLagService replicaLag) {
             this.dataSourceRef = dataSourceRef;
+            this.replicaPool = replicaPool;
+            this.limited = limited;
+            this.replicaLag = replicaLag;
         }
 
         @Override
         public Connection getConnection() throws SQLException {
-            return dataSourceRef.get().getConnection();
+            HikariDataSource pool = dataSourceRef.get();
+            DataSource active = limited.get(pool);
+            if (pool == replicaPool) {
+                return active.getConnection();
+            }
+
+            if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+                if (replicaLag.isInRotation()) {
+                    Connection replica = replicaConnectionIfCaughtUp();
+                    if (replica != null) return replica;
+                }
+            } else if (TransactionSynchronizationManager.isSynchronizationActive() && replicaLag.isTrackingWrites()) {
+                Connection conn = active.getConnection();
+                TransactionSynchronizationManager.registerSynchronization(new RecordWritePosition(conn, replicaLag));
+                return conn;
+            }
+            return active.getConnection();
+        }
+
+        // Null if the replica cannot serve this read (unreachable, or behind the user's last write)
+        private Connection replicaConnectionIfCaughtUp() {
+            long required = replicaLag.requiredReplayLsn();
+            Connection conn = null;
+            try {
+                conn = limited.get(replicaPool).getConnection();
+                if (required <= replicaLag.getReplayLsn()) {
+                    return conn;
+                }
+                // Not known to have caught up at the last sample: ask the replica itself
+                long replayed = queryLong(conn, REPLICA_REPLAY_LSN_SQL);
+                replicaLag.observeReplayLsn(replayed);
+                if (replayed >= required) {
+                    return conn;
+                }
+                conn.close();
+                replicaLag.countStaleFallback();
+                return null;
+            } catch (SQLException e) {
+                // Take the replica out of rotation until the next health check and serve from the master
+                replicaLag.markUnavailable();
+                System.err.println("!!! WARN: REPLICA unavailable for reads, using MASTER: " + e.getMessage());
+                if (conn != null) {
+                    try {
+                        conn.close();
+                    } catch (SQLException ignored) {
+                        // already broken
+                    }
+                }
+                return null;
+            }
         }
 
         @Override
         public Connection getConnection(String username, String password) throws SQLException {
-            return dataSourceRef.get().getConnection(username, password);
+            return limited.get(dataSourceRef.get()).getConnection(username, password);
+        }
+    }
+
+    /**
+     * Stores the master's WAL position after a read-write transaction in the user's session, so their
+     * following reads wait for the replica to replay it. Uses the transaction's own connection, which is
+     * still checked out until after afterCommit, and only if the transaction wrote something: that is
+     * known before commit (an assigned transaction id), the position that covers the commit record after it.
+     */
+    private static final class RecordWritePosition implements TransactionSynchronization {
+        private final Connection connection;
+        private final ReplicaLagService replicaLag;
+        private boolean wrote;
+
+        RecordWritePosition(Connection connection, ReplicaLagService replicaLag) {
+            this.connection = connection;
+            this.replicaLag = replicaLag;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            // Hibernate flushes pending entity changes only at commit, after this; they have to count too
+            for (Object resource : TransactionSynchronizationManager.getResourceMap().values()) {
+                if (resource instanceof EntityManagerHolder holder && holder.getEntityManager().isOpen()) {
+                    holder.getEntityManager().flush();
+                }
+            }
+            try {
+                wrote = queryLong(connection, WROTE_SQL) == 1;
+            } catch (SQLException e) {
+                System.err.println("!!! WARN: could not tell whether the transaction wrote: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void afterCommit() {
+            if (!wrote) return;
+            try {
+                replicaLag.recordWrite(queryLong(connection, MASTER_LSN_SQL));
+            } catch (SQLException e) {
+                System.err.println("!!! WARN: could not read master WAL position: " + e.getMessage());
+            }
         }
     }
-}
\ No newline at end of file
+}
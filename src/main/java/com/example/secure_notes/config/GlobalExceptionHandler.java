@@ -1,5 +1,6 @@
 package com.example.secure_notes.config;
 
+import com.example.secure_notes.service.PasswordHashingBusyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.ui.Model;
@@ -22,6 +23,15 @@ public class GlobalExceptionHandler {
         return "error/generic";
     }
 
+    // Registration while logins saturate the password hashing pool
+    @ExceptionHandler(PasswordHashingBusyException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handlePasswordHashingBusy(Model model) {
+        model.addAttribute("errorTitle", "Server busy");
+        model.addAttribute("errorMessage", "Too many requests are being processed. Please try again shortly.");
+        return "error/generic";
+    }
+
     @ExceptionHandler(Exception.class)
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     public String handleGenericException(Exception ex, Model model) {
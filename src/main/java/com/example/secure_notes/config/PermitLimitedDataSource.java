@@ -0,0 +1,127 @@
+package com.example.secure_notes.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps the connections checked out through it at once, so callers queue here instead of in the pool.
+ *
+ * With virtual threads there can be thousands of concurrent requests for ten pooled connections; waiting
+ * in Hikari would fail each of them after its short connectionTimeout (kept short for failover). Here they
+ * park in a fair semaphore, cheaply, for up to {@code maxWait}. A permit is returned when the connection
+ * is closed.
+ */
+public class PermitLimitedDataSource extends DelegatingDataSource {
+
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+
+    private final Timer waits;
+    private final Counter timeouts;
+
+    // name: the pool's, as the tag of the metrics
+    public PermitLimitedDataSource(DataSource target, String name, int maxConnections, Duration maxWait,
+                                   MeterRegistry meterRegistry) {
+        super(target);
+        this.permits = new Semaphore(maxConnections, true);
+        this.maxWaitNanos = maxWait.toNanos();
+
+        this.waits = Timer.builder("db.permits.wait")
+                .description("Time spent waiting for a JDBC connection permit")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .tag("pool", name)
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("db.permits.timeouts")
+                .description("Connection requests that gave up waiting for a permit")
+                .tag("pool", name)
+                .register(meterRegistry);
+        Gauge.builder("db.permits.available", permits, Semaphore::availablePermits)
+                .description("JDBC connection permits not in use")
+                .tag("pool", name)
+                .register(meterRegistry);
+        Gauge.builder("db.permits.waiting", permits, Semaphore::getQueueLength)
+                .description("Threads waiting for a JDBC connection permit")
+                .tag("pool", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return releasingOnClose(super.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        try {
+            return releasingOnClose(super.getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void acquire() throws SQLException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection permit");
+        }
+        waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTransientConnectionException("No connection permit within " + Duration.ofNanos(maxWaitNanos));
+        }
+    }
+
+    // The permit goes back on the first close(); everything else is passed through
+    private Connection releasingOnClose(Connection target) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "close":
+                            try {
+                                target.close();
+                            } finally {
+                                if (released.compareAndSet(false, true)) permits.release();
+                            }
+                            return null;
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -1,59 +1,72 @@
-package com.example.secure_notes.config;
-
-import jakarta.servlet.*;
-import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
-import org.springframework.stereotype.Component;
-
-import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-
-@Component
-public class RateLimitFilter implements Filter {
-
-    private static final Map<String, UserRequestState> requestCounts = new ConcurrentHashMap<>();
-    private static final int MAX_REQUESTS_PER_MINUTE = 100;
-    private static final long TIME_WINDOW_MS = 60 * 1000;
-
-    @Override
-    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
-            throws IOException, ServletException {
-
-        HttpServletRequest req = (HttpServletRequest) request;
-        HttpServletResponse res = (HttpServletResponse) response;
-
-        String clientIp = req.getHeader("X-Forwarded-For");
-        if (clientIp == null || clientIp.isEmpty()) {
-            clientIp = req.getRemoteAddr();
-        }
-
-        // Initialize state if new user
-        requestCounts.putIfAbsent(clientIp, new UserRequestState());
-        UserRequestState state = requestCounts.get(clientIp);
-
-        long currentTime = System.currentTimeMillis();
-
-        if (currentTime - state.lastResetTime.get() > TIME_WINDOW_MS) {
-            state.lastResetTime.set(currentTime);
-            state.requestCount.set(0);
-        }
-
-        int requests = state.requestCount.incrementAndGet();
-
-        if (requests > MAX_REQUESTS_PER_MINUTE) {
-            res.setStatus(429);
-            res.getWriter().write("Rate limit exceeded. Try again later.");
-            return;
-        }
-
-        chain.doFilter(request, response);
-    }
-
-    private static class UserRequestState {
-        final AtomicInteger requestCount = new AtomicInteger(0);
-        final AtomicLong lastResetTime = new AtomicLong(System.currentTimeMillis());
-    }
-}
\ No newline at end of file
+package com.example.secure_notes.config;
+
+import com.example.secure_notes.service.ClusterRateLimiter;
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Per-IP request limit, shared by all app nodes (see ClusterRateLimiter).
+ * Registered both as a servlet filter and in the security chain; OncePerRequestFilter counts each request once.
+ *
+ * Requests cost 1 by default; app.rate-limit.route-weights ("/path-prefix:weight,...") makes expensive
+ * routes cost more, and weight 0 exempts a route.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final ClusterRateLimiter rateLimiter;
+
+    // Longest prefix first
+    private final String[] weightedPrefixes;
+    private final int[] weights;
+
+    public RateLimitFilter(ClusterRateLimiter rateLimiter,
+                           @Value("${app.rate-limit.route-weights:}") String routeWeights) {
+        this.rateLimiter = rateLimiter;
+        String[] entries = Arrays.stream(routeWeights.split(","))
+                .map(String::trim)
+                .filter(e -> e.indexOf(':') > 0)
+                .sorted(Comparator.comparingInt((String e) -> e.lastIndexOf(':')).reversed())
+                .toArray(String[]::new);
+        this.weightedPrefixes = new String[entries.length];
+        this.weights = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            int sep = entries[i].lastIndexOf(':');
+            weightedPrefixes[i] = entries[i].substring(0, sep).trim();
+            weights[i] = Integer.parseInt(entries[i].substring(sep + 1).trim());
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+
+        String clientIp = req.getHeader("X-Forwarded-For");
+        if (clientIp == null || clientIp.isEmpty()) {
+            clientIp = req.getRemoteAddr();
+        }
+
+        if (!rateLimiter.tryAcquire(clientIp, weightOf(req.getRequestURI()))) {
+            res.setStatus(429);
+            res.getWriter().write("Rate limit exceeded. Try again later.");
+            return;
+        }
+
+        chain.doFilter(req, res);
+    }
+
+    int weightOf(String path) {
+        for (int i = 0; i < weightedPrefixes.length; i++) {
+            if (path.startsWith(weightedPrefixes[i])) return weights[i];
+        }
+        return 1;
+    }
+}
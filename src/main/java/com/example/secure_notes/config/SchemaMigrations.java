@@ -0,0 +1,347 @@
+package com.example.secure_notes.config;
+
+import com.example.secure_notes.service.EntityCacheEvictions;
+import com.example.secure_notes.service.UserCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Data migrations that Hibernate's ddl-auto=update cannot express.
+ * Runs after Hibernate has updated the schema; every step is idempotent, so it is safe on each start
+ * and on both app nodes.
+ *
+ * Each step runs in a transaction of its own, in order. A node started in failover mode finds the database
+ * read-only: the steps are skipped and run on its next start. Any other failure stops the start, rather than
+ * leave the application running against a half-migrated schema.
+ */
+@Configuration
+public class SchemaMigrations {
+
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    // SQLSTATE read_only_sql_transaction: a write on a hot standby
+    private static final String READ_ONLY_SQL_STATE = "25006";
+
+    private record Step(String name, Consumer<JdbcTemplate> migration) {}
+
+    @Bean
+    CommandLineRunner migrateSchema(JdbcTemplate jdbc, TransactionTemplate tx) {
+        List<Step> steps = List.of(
+                new Step("moveShareListsToNoteShares", this::moveShareListsToNoteShares),
+                new Step("backfillPaginationKeys", this::backfillPaginationKeys),
+                new Step("widenContent", this::widenContent),
+                new Step("addSearchVector", this::addSearchVector),
+                new Step("addLockSweepIndex", this::addLockSweepIndex),
+                new Step("createRateLimitTable", this::createRateLimitTable),
+                new Step("addUserChangeTrigger", this::addUserChangeTrigger),
+                new Step("addNoteChangeTrigger", this::addNoteChangeTrigger),
+                new Step("createNoteChunks", this::createNoteChunks),
+                new Step("createNoteRevisions", this::createNoteRevisions),
+                new Step("createAuditEvents", this::createAuditEvents));
+        return args -> {
+            for (Step step : steps) {
+                try {
+                    tx.executeWithoutResult(status -> step.migration().accept(jdbc));
+                } catch (DataAccessException e) {
+                    if (!isReadOnly(e)) {
+                        throw new IllegalStateException("Schema migration " + step.name() + " failed", e);
+                    }
+                    log.warn("Schema migration skipped from {} on, the database is read-only (failover mode); " +
+                            "it runs on the next start", step.name());
+                    return;
+                }
+            }
+        };
+    }
+
+    private static boolean isReadOnly(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sql && READ_ONLY_SQL_STATE.equals(sql.getSQLState())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the legacy comma-separated notes.shared_read_only / shared_read_write columns into note_shares,
+     * then drops them. Read-write wins if a user appears in both lists (that is what canWrite used to return).
+     */
+    private void moveShareListsToNoteShares(JdbcTemplate jdbc) {
+        Integer legacyColumns = jdbc.queryForObject(
+                "SELECT count(*) FROM information_schema.columns " +
+                        "WHERE table_schema = current_schema() AND table_name = 'notes' " +
+                        "AND column_name IN ('shared_read_only', 'shared_read_write')",
+                Integer.class);
+        if (legacyColumns == null || legacyColumns < 2) {
+            return;
+        }
+
+        int moved = jdbc.update("""
+                INSERT INTO note_shares (note_id, username, permission)
+                SELECT DISTINCT ON (n.id, lower(trim(u.name))) n.id, lower(trim(u.name)), u.permission
+                FROM notes n
+                CROSS JOIN LATERAL (
+                    SELECT name, 'READ_WRITE' AS permission, 0 AS priority
+                    FROM unnest(string_to_array(n.shared_read_write, ',')) AS name
+                    UNION ALL
+                    SELECT name, 'READ_ONLY', 1
+                    FROM unnest(string_to_array(n.shared_read_only, ',')) AS name
+                ) u
+                WHERE trim(u.name) <> '' AND lower(trim(u.name)) <> lower(n.owner_username)
+                ORDER BY n.id, lower(trim(u.name)), u.priority
+                ON CONFLICT DO NOTHING
+                """);
+        jdbc.execute("ALTER TABLE notes DROP COLUMN shared_read_only, DROP COLUMN shared_read_write");
+        log.info("Moved {} share entries to note_shares", moved);
+    }
+
+    /**
+     * Keyset pagination needs a non-null (created_at, id) on notes and its copy on note_shares.
+     * Also drops the share index that idx_note_shares_user_created replaced.
+     */
+    private void backfillPaginationKeys(JdbcTemplate jdbc) {
+        int notes = jdbc.update("UPDATE notes SET created_at = localtimestamp WHERE created_at IS NULL");
+        int shares = jdbc.update("""
+                UPDATE note_shares s SET note_created_at = n.created_at
+                FROM notes n
+                WHERE s.note_id = n.id AND s.note_created_at IS DISTINCT FROM n.created_at
+                """);
+        jdbc.execute("DROP INDEX IF EXISTS idx_note_shares_user_permission");
+        if (notes + shares > 0) {
+            log.info("Backfilled pagination keys ({} notes, {} shares)", notes, shares);
+        }
+    }
+
+    /**
+     * Lifts the varchar(5000) limit on notes.content; Note.MAX_CONTENT_LENGTH is checked by the application.
+     * Postgres compresses values in rows over 2 kB (pglz) and only decompresses them when the column is read,
+     * which list queries never do. toast_tuple_target = 512 then moves them out of the table itself, so list
+     * and index scans read short rows. The search column depends on content and is added back by addSearchVector.
+     */
+    private void widenContent(JdbcTemplate jdbc) {
+        String type = jdbc.queryForObject(
+                "SELECT data_type FROM information_schema.columns " +
+                        "WHERE table_schema = current_schema() AND table_name = 'notes' AND column_name = 'content'",
+                String.class);
+        if ("character varying".equals(type)) {
+            jdbc.execute("ALTER TABLE notes DROP COLUMN IF EXISTS search_vector");
+            jdbc.execute("ALTER TABLE notes ALTER COLUMN content TYPE text");
+            log.info("Changed notes.content to text");
+        }
+        Boolean tuned = jdbc.queryForObject(
+                "SELECT coalesce('toast_tuple_target=512' = ANY (reloptions), false) FROM pg_class " +
+                        "WHERE oid = 'notes'::regclass", Boolean.class);
+        if (!Boolean.TRUE.equals(tuned)) {
+            jdbc.execute("ALTER TABLE notes SET (toast_tuple_target = 512)");
+        }
+    }
+
+    /**
+     * Full-text search column for NoteRepository.search. A stored generated column, so Postgres keeps it
+     * in step with every insert and update of title/content. The 'simple' configuration (no stemming,
+     * no stop words) because notes are not written in one language; title matches rank above content.
+     * Chunked notes are indexed by their preview (the first Note.PREVIEW_LENGTH characters in content): the
+     * rest is in note_chunks, and a tsvector is limited to 1 MB anyway. The search page says so.
+     */
+    private void addSearchVector(JdbcTemplate jdbc) {
+        jdbc.execute("""
+                ALTER TABLE notes ADD COLUMN IF NOT EXISTS search_vector tsvector
+                GENERATED ALWAYS AS (
+                    setweight(to_tsvector('simple', coalesce(title, '')), 'A') ||
+                    setweight(to_tsvector('simple', coalesce(content, '')), 'B')
+                ) STORED
+                """);
+        jdbc.execute("CREATE INDEX IF NOT EXISTS idx_notes_search ON notes USING gin (search_vector)");
+    }
+
+    /**
+     * Partial index for LockExpirySweeper: only locked notes are indexed, so a sweep reads a handful of rows.
+     */
+    private void addLockSweepIndex(JdbcTemplate jdbc) {
+        jdbc.execute("CREATE INDEX IF NOT EXISTS idx_notes_locked_at ON notes (locked_at) WHERE is_locked = true");
+    }
+
+    /**
+     * Shared request counters for ClusterRateLimiter. UNLOGGED: no WAL and not replicated, which is fine for
+     * counters that only live for a window or two (the table is emptied after a crash, and not readable on the replica).
+     *
+     * rate_limit_lease() grants up to p_lease requests in one call. It keeps two fixed windows per client and
+     * counts the previous one with a weight that falls linearly over the current one (sliding-window estimate).
+     */
+    private void createRateLimitTable(JdbcTemplate jdbc) {
+        jdbc.execute("""
+                CREATE UNLOGGED TABLE IF NOT EXISTS rate_limit_windows (
+                    client_key   varchar(64) PRIMARY KEY,
+                    window_start timestamptz NOT NULL,
+                    granted      integer     NOT NULL,
+                    prev_granted integer     NOT NULL
+                )
+                """);
+        jdbc.execute("""
+                CREATE OR REPLACE FUNCTION rate_limit_lease(p_key varchar, p_limit integer, p_lease integer,
+                                                            p_need integer, p_window_secs double precision)
+                RETURNS TABLE (lease_granted integer, window_remaining_ms bigint)
+                LANGUAGE plpgsql AS $$
+                DECLARE
+                    win      interval := make_interval(secs => p_window_secs);
+                    w        rate_limit_windows%ROWTYPE;
+                    used     double precision;
+                    grant_n  integer;
+                BEGIN
+                    INSERT INTO rate_limit_windows (client_key, window_start, granted, prev_granted)
+                    VALUES (p_key, now(), 0, 0)
+                    ON CONFLICT (client_key) DO NOTHING;
+                    SELECT * INTO w FROM rate_limit_windows WHERE client_key = p_key FOR UPDATE;
+
+                    IF now() - w.window_start >= 2 * win THEN
+                        w.window_start := now();
+                        w.prev_granted := 0;
+                        w.granted := 0;
+                    ELSIF now() - w.window_start >= win THEN
+                        w.window_start := w.window_start + win;
+                        w.prev_granted := w.granted;
+                        w.granted := 0;
+                    END IF;
+
+                    used := w.prev_granted * (1 - extract(epoch FROM now() - w.window_start) / p_window_secs) + w.granted;
+                    grant_n := p_limit - ceil(used)::integer;
+                    grant_n := CASE WHEN grant_n >= p_need THEN least(grant_n, greatest(p_lease, p_need)) ELSE 0 END;
+
+                    UPDATE rate_limit_windows
+                    SET window_start = w.window_start, granted = w.granted + grant_n, prev_granted = w.prev_granted
+                    WHERE client_key = p_key;
+
+                    lease_granted := grant_n;
+                    window_remaining_ms := (extract(epoch FROM w.window_start + win - now()) * 1000)::bigint;
+                    RETURN NEXT;
+                END
+                $$
+                """);
+    }
+
+    /**
+     * Announces every change to a user on the UserCache channel, whatever made it (this app on any node, or
+     * a manual UPDATE), so cached users are dropped everywhere. NOTIFY is delivered on commit.
+     */
+    private void addUserChangeTrigger(JdbcTemplate jdbc) {
+        jdbc.execute("""
+                CREATE OR REPLACE FUNCTION notify_user_changed() RETURNS trigger
+                LANGUAGE plpgsql AS $$
+                BEGIN
+                    IF TG_OP <> 'INSERT' THEN
+                        PERFORM pg_notify('%1$s', OLD.username);
+                    END IF;
+                    IF TG_OP <> 'DELETE' AND (TG_OP = 'INSERT' OR NEW.username IS DISTINCT FROM OLD.username) THEN
+                        PERFORM pg_notify('%1$s', NEW.username);
+                    END IF;
+                    RETURN NULL;
+                END
+                $$
+                """.formatted(UserCache.CHANNEL));
+        jdbc.execute("""
+                CREATE OR REPLACE TRIGGER users_notify_changed
+                AFTER INSERT OR UPDATE OR DELETE ON users
+                FOR EACH ROW EXECUTE FUNCTION notify_user_changed()
+                """);
+    }
+
+    /**
+     * Announces the id of every updated or deleted note on the EntityCacheEvictions channel, so every node drops
+     * it from its second-level cache. Inserts need no announcement: a new id cannot be cached anywhere yet.
+     */
+    private void addNoteChangeTrigger(JdbcTemplate jdbc) {
+        jdbc.execute("""
+                CREATE OR REPLACE FUNCTION notify_note_changed() RETURNS trigger
+                LANGUAGE plpgsql AS $$
+                BEGIN
+                    PERFORM pg_notify('%s', OLD.id::text);
+                    RETURN NULL;
+                END
+                $$
+                """.formatted(EntityCacheEvictions.NOTE_CHANNEL));
+        jdbc.execute("""
+                CREATE OR REPLACE TRIGGER notes_notify_changed
+                AFTER UPDATE OR DELETE ON notes
+                FOR EACH ROW EXECUTE FUNCTION notify_note_changed()
+                """);
+    }
+
+    /**
+     * Content store for notes longer than Note.MAX_CONTENT_LENGTH (see NoteContentStore): the content in
+     * fixed-size pieces, numbered from 0. Deleted with the note, and dropped by a trigger whenever a note is given
+     * inline content again (content_hash cleared), whichever statement does it.
+     */
+    private void createNoteChunks(JdbcTemplate jdbc) {
+        jdbc.execute("""
+                CREATE TABLE IF NOT EXISTS note_chunks (
+                    note_id uuid    NOT NULL REFERENCES notes (id) ON DELETE CASCADE,
+                    seq     integer NOT NULL,
+                    data    bytea   NOT NULL,
+                    PRIMARY KEY (note_id, seq)
+                )
+                """);
+        jdbc.execute("""
+                CREATE OR REPLACE FUNCTION drop_note_chunks() RETURNS trigger
+                LANGUAGE plpgsql AS $$
+                BEGIN
+                    DELETE FROM note_chunks WHERE note_id = NEW.id;
+                    RETURN NULL;
+                END
+                $$
+                """);
+        jdbc.execute("""
+                CREATE OR REPLACE TRIGGER notes_drop_chunks
+                AFTER UPDATE OF content_hash ON notes
+                FOR EACH ROW WHEN (OLD.content_hash IS NOT NULL AND NEW.content_hash IS NULL)
+                EXECUTE FUNCTION drop_note_chunks()
+                """);
+    }
+
+    /**
+     * Earlier versions of notes (see NoteRevisions), by the version they had. kind: S the content, D edits back
+     * from the next newer version's content, N no content (chunked). Deleted with the note; replaced_at is for
+     * pruning by age.
+     */
+    private void createNoteRevisions(JdbcTemplate jdbc) {
+        jdbc.execute("""
+                CREATE TABLE IF NOT EXISTS note_revisions (
+                    note_id     uuid         NOT NULL REFERENCES notes (id) ON DELETE CASCADE,
+                    version     bigint       NOT NULL,
+                    replaced_at timestamp    NOT NULL,
+                    replaced_by varchar(255),
+                    title       varchar(255),
+                    kind        char(1)      NOT NULL CHECK (kind IN ('S', 'D', 'N')),
+                    body        text,
+                    PRIMARY KEY (note_id, version)
+                )
+                """);
+        jdbc.execute("CREATE INDEX IF NOT EXISTS idx_note_revisions_replaced_at ON note_revisions (replaced_at)");
+    }
+
+    /**
+     * Audit trail written by AuditLog. No foreign key to notes: the events of a deleted note are kept.
+     */
+    private void createAuditEvents(JdbcTemplate jdbc) {
+        jdbc.execute("""
+                CREATE TABLE IF NOT EXISTS audit_events (
+                    id          bigserial    PRIMARY KEY,
+                    occurred_at timestamp    NOT NULL,
+                    username    varchar(255) NOT NULL,
+                    action      varchar(32)  NOT NULL,
+                    note_id     uuid,
+                    detail      varchar(255)
+                )
+                """);
+        jdbc.execute("CREATE INDEX IF NOT EXISTS idx_audit_events_note ON audit_events (note_id, occurred_at)");
+        jdbc.execute("CREATE INDEX IF NOT EXISTS idx_audit_events_user ON audit_events (username, occurred_at)");
+    }
+}
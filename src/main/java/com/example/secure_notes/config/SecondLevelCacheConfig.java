@@ -0,0 +1,113 @@
+package com.example.secure_notes.config;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.User;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.entry.CacheEntry;
+import org.hibernate.cache.spi.support.AbstractReadWriteAccess;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import java.io.Serializable;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * Hibernate second-level cache regions for Note (with its shares) and User, held in Caffeine
+ * through JCache. Every region is bounded in size and time; the entries are kept current by
+ * NoteLookup (version check) and EntityCacheEvictions (LISTEN/NOTIFY from all nodes).
+ *
+ * A cached note holds its content, up to Note.MAX_CONTENT_LENGTH characters, so the Note region is
+ * bounded by the memory its entries take (see {@link #estimatedBytes}), not by their number.
+ */
+@Configuration
+public class SecondLevelCacheConfig {
+
+    // Region names are Hibernate's defaults: entity class name, and "<entity>.<field>" for collections
+    public static final String NOTE_REGION = Note.class.getName();
+    public static final String NOTE_SHARES_REGION = Note.class.getName() + ".shares";
+    public static final String USER_REGION = User.class.getName();
+
+    // Object headers, ids, dates and the like of one cached entity, besides its text
+    private static final int ENTRY_OVERHEAD_BYTES = 512;
+
+    // One cache manager per application context, so test contexts in one JVM do not share entries
+    @Bean(destroyMethod = "close")
+    public CacheManager entityCacheManager(@Value("${app.entity-cache.max-note-memory:64MB}") DataSize maxNoteMemory,
+                                           @Value("${app.entity-cache.max-notes:10000}") long maxNotes,
+                                           @Value("${app.entity-cache.max-users:10000}") long maxUsers,
+                                           @Value("${app.entity-cache.ttl:10m}") Duration ttl,
+                                           MeterRegistry meterRegistry) {
+        CacheManager manager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create("secure-notes-" + UUID.randomUUID()), getClass().getClassLoader());
+        CaffeineConfiguration<Object, Object> notes = regionConfig(ttl);
+        notes.setMaximumWeight(OptionalLong.of(maxNoteMemory.toBytes()));
+        notes.setWeigherFactory(Optional.of(FactoryBuilder.factoryOf(new EstimatedSize())));
+        JCacheMetrics.monitor(meterRegistry, manager.createCache(NOTE_REGION, notes));
+        createRegion(manager, NOTE_SHARES_REGION, maxNotes, ttl, meterRegistry);
+        createRegion(manager, USER_REGION, maxUsers, ttl, meterRegistry);
+        return manager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCache(CacheManager entityCacheManager) {
+        return properties -> {
+            properties.put("hibernate.cache.use_second_level_cache", true);
+            properties.put("hibernate.cache.region.factory_class", "jcache");
+            properties.put(ConfigSettings.CACHE_MANAGER, entityCacheManager);
+            // Only the regions above are cached; anything else would be an unbounded cache
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    /**
+     * Roughly the heap an entry takes: its text at two bytes a character, plus a fixed allowance for the
+     * rest. Entries are Hibernate's disassembled state, wrapped in a lock item by READ_WRITE regions.
+     */
+    public static int estimatedBytes(Object value) {
+        Object entry = value instanceof AbstractReadWriteAccess.Lockable item ? item.getValue() : value;
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        if (entry instanceof CacheEntry cached && cached.getDisassembledState() != null) {
+            for (Serializable field : cached.getDisassembledState()) {
+                if (field instanceof String text) bytes += 2L * text.length();
+            }
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static final class EstimatedSize implements Weigher<Object, Object>, Serializable {
+        @Override
+        public int weigh(Object key, Object value) {
+            return estimatedBytes(value);
+        }
+    }
+
+    private static void createRegion(CacheManager manager, String name, long maxSize, Duration ttl,
+                                     MeterRegistry meterRegistry) {
+        CaffeineConfiguration<Object, Object> config = regionConfig(ttl);
+        config.setMaximumSize(OptionalLong.of(maxSize));
+        JCacheMetrics.monitor(meterRegistry, manager.createCache(name, config));
+    }
+
+    private static CaffeineConfiguration<Object, Object> regionConfig(Duration ttl) {
+        CaffeineConfiguration<Object, Object> config = new CaffeineConfiguration<>();
+        config.setExpireAfterWrite(OptionalLong.of(ttl.toNanos()));
+        config.setStatisticsEnabled(true);
+        return config;
+    }
+
+}
@@ -1,16 +1,26 @@
 package com.example.secure_notes.config;
 
 
+import com.example.secure_notes.service.BoundedPasswordEncoder;
+import com.example.secure_notes.service.PasswordHashingBusyException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired; // Import this
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter; // Import this
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 import org.springframework.security.web.header.writers.CacheControlHeadersWriter;
+import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
 
 @Configuration
 @EnableWebSecurity
@@ -19,6 +29,25 @@ public class SecurityConfig {
     @Autowired
     private RateLimitFilter rateLimitFilter;
 
+    // JSON API for scripts (/api/**): HTTP Basic on every request and no session, so there is no cookie a
+    // cross-site request could ride on (hence no CSRF token). Responses set their own Cache-Control
+    // (private, no-cache) so clients can keep notes and revalidate them with ETags.
+    @Bean
+    @Order(1)
+    public SecurityFilterChain apiFilterChain(HttpSecurity http) throws Exception {
+        http
+                // A path pattern, not an MVC matcher: the context also starts without the web layer (benchmarks)
+                .securityMatcher(PathPatternRequestMatcher.withDefaults().matcher("/api/**"))
+                .addFilterBefore(rateLimitFilter, BasicAuthenticationFilter.class)
+                .headers(headers -> headers.cacheControl(cache -> cache.disable()))
+                .authorizeHttpRequests(auth -> auth.anyRequest().authenticated())
+                .httpBasic(Customizer.withDefaults())
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .csrf(csrf -> csrf.disable());
+
+        return http.build();
+    }
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
@@ -30,11 +59,13 @@ public class SecurityConfig {
                 )
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/register", "/css/**", "/login").permitAll()
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
                         .anyRequest().authenticated()
                 )
                 .formLogin(form -> form
                         .loginPage("/login")
                         .defaultSuccessUrl("/", true)
+                        .failureHandler(loginFailureHandler())
                         .permitAll()
                 )
                 .logout(logout -> logout.permitAll());
@@ -42,8 +73,26 @@ public class SecurityConfig {
         return http.build();
     }
 
+    // A saturated hashing pool is not a wrong password: answer 503 so the client retries
+    private AuthenticationFailureHandler loginFailureHandler() {
+        AuthenticationFailureHandler badCredentials = new SimpleUrlAuthenticationFailureHandler("/login?error");
+        return (req, res, ex) -> {
+            if (ex instanceof PasswordHashingBusyException) {
+                res.setStatus(503);
+                res.setHeader("Retry-After", "1");
+                res.getWriter().write("Too many logins in progress. Try again shortly.");
+            } else {
+                badCredentials.onAuthenticationFailure(req, res, ex);
+            }
+        };
+    }
+
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${app.password.bcrypt-strength:10}") int strength,
+                                           @Value("${app.password.hashing-threads:0}") int threads,
+                                           @Value("${app.password.hashing-queue:32}") int queueSize,
+                                           MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new BoundedPasswordEncoder(strength, poolSize, queueSize, meterRegistry);
     }
 }
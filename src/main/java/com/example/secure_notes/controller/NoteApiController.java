@@ -0,0 +1,513 @@
+package com.example.secure_notes.controller;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.NoteCursor;
+import com.example.secure_notes.model.NotePatch;
+import com.example.secure_notes.model.NoteSummary;
+import com.example.secure_notes.model.SharePermission;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.AuditLog;
+import com.example.secure_notes.service.DbFailoverStatusService;
+import com.example.secure_notes.service.NoteContentStore;
+import com.example.secure_notes.service.NoteEvents;
+import com.example.secure_notes.service.NoteLocks;
+import com.example.secure_notes.service.NoteLookup;
+import com.example.secure_notes.service.NoteRevisions;
+import com.example.secure_notes.service.UserCache;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.ErrorResponse;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.Principal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * JSON API over the same notes as the pages (list, get, create, update, lock, share), for scripts.
+ * Authenticated with HTTP Basic on every request (see SecurityConfig.apiFilterChain).
+ *
+ * Every note response carries a strong ETag built from Note.version, which every write bumps. A GET with a
+ * matching If-None-Match is answered 304 from a version-only query, before the note is loaded. Updates and
+ * share changes honour If-Match and answer 412 when the note has changed since. List items carry the version
+ * too, so a client can re-fetch only the notes that changed. Access rules are the pages': missing and
+ * not allowed both look like 404.
+ *
+ * Content of any length can be read and replaced as text/plain at /{id}/content (ranges supported). Notes whose
+ * content is over Note.MAX_CONTENT_LENGTH characters are chunked: their JSON has contentLength and contentHash
+ * instead of content. PATCH /{id} changes the content by edits against a given version (see NotePatch), so a
+ * small change to a long note sends, and writes, little of it.
+ */
+@RestController
+@RequestMapping("/api/notes")
+public class NoteApiController {
+
+    // Notes per list page
+    private static final int PAGE_SIZE = 50;
+
+    // Clients may keep a copy but must revalidate it (with the ETag) before every use
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    private final NoteRepository noteRepository;
+    private final NoteLookup noteLookup;
+    private final NoteContentStore noteContentStore;
+    private final NoteRevisions noteRevisions;
+    private final NoteEvents noteEvents;
+    private final AuditLog auditLog;
+    private final NoteLocks noteLocks;
+    private final UserCache userCache;
+    private final DbFailoverStatusService dbFailoverStatusService;
+
+    private final Counter notModified;
+    private final Counter preconditionFailed;
+
+    public record NoteInput(String title, String content) {}
+
+    public record ShareInput(SharePermission permission) {}
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record NoteJson(UUID id, long version, String title, String content,
+                           // Chunked notes only: UTF-8 bytes and SHA-256 (hex) of the content
+                           Long contentLength, String contentHash, String owner,
+                           LocalDateTime createdAt, boolean locked, String lockedBy,
+                           // Owner only
+                           List<String> readOnlyUsers, List<String> readWriteUsers) {}
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record NoteListItem(UUID id, long version, String title, String owner, LocalDateTime createdAt,
+                               boolean locked, SharePermission permission) {}
+
+    public record NotePage(List<NoteListItem> notes, String next) {}
+
+    public NoteApiController(NoteRepository noteRepository, NoteLookup noteLookup, NoteContentStore noteContentStore,
+                             NoteRevisions noteRevisions, NoteEvents noteEvents, AuditLog auditLog,
+                             NoteLocks noteLocks, UserCache userCache, DbFailoverStatusService dbFailoverStatusService,
+                             MeterRegistry meterRegistry) {
+        this.noteRepository = noteRepository;
+        this.noteLookup = noteLookup;
+        this.noteContentStore = noteContentStore;
+        this.noteRevisions = noteRevisions;
+        this.noteEvents = noteEvents;
+        this.auditLog = auditLog;
+        this.noteLocks = noteLocks;
+        this.userCache = userCache;
+        this.dbFailoverStatusService = dbFailoverStatusService;
+        this.notModified = Counter.builder("notes.api.not.modified")
+                .description("Conditional note reads answered 304 without loading the note")
+                .register(meterRegistry);
+        this.preconditionFailed = Counter.builder("notes.api.precondition.failed")
+                .description("Note writes refused with 412 because the note changed since the client's copy")
+                .register(meterRegistry);
+    }
+
+    // One keyset page of the user's own notes, or (shared=true) of the notes shared with them
+    @Transactional(readOnly = true)
+    @GetMapping
+    public NotePage listNotes(@RequestParam(value = "shared", defaultValue = "false") boolean shared,
+                              @RequestParam(value = "after", required = false) String after,
+                              Principal principal) {
+        String username = principal.getName();
+        NoteCursor cursor = NoteCursor.decode(after);
+        PageRequest page = PageRequest.ofSize(PAGE_SIZE);
+        Slice<NoteSummary> notes = shared
+                ? noteRepository.findSharedPage(Note.normalizeUsername(username), cursor.createdAt(), cursor.id(), page)
+                : noteRepository.findOwnedPage(username, cursor.createdAt(), cursor.id(), page);
+
+        List<NoteListItem> items = notes.getContent().stream()
+                .map(n -> new NoteListItem(n.getId(), n.getVersion(), n.getTitle(), n.getOwnerUsername(),
+                        n.getCreatedAt(), Boolean.TRUE.equals(n.getLocked()), n.getPermission()))
+                .toList();
+        String next = null;
+        if (notes.hasNext()) {
+            NoteListItem last = items.get(items.size() - 1);
+            next = new NoteCursor(last.createdAt(), last.id()).encode();
+        }
+        return new NotePage(items, next);
+    }
+
+    @Transactional(readOnly = true)
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getNote(@PathVariable("id") UUID id, @RequestHeader HttpHeaders headers,
+                                     Principal principal) {
+        String username = principal.getName();
+        Optional<Long> version = noteRepository.findReadableVersion(id, username, Note.normalizeUsername(username));
+        if (version.isEmpty()) {
+            return notFound();
+        }
+        if (anyMatches(headers.getIfNoneMatch(), version.get(), true)) {
+            notModified.increment();
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag(version.get())).cacheControl(REVALIDATE).build();
+        }
+        auditLog.record(username, AuditLog.Action.VIEW, id);
+        return noteLookup.findCurrent(id)
+                .<ResponseEntity<?>>map(note -> noteResponse(HttpStatus.OK, note, username))
+                .orElseGet(NoteApiController::notFound);
+    }
+
+    @Transactional
+    @PostMapping
+    public ResponseEntity<?> createNote(@RequestBody NoteInput input, Principal principal) {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            return failoverMode();
+        }
+        String problem = validate(input);
+        if (problem != null) {
+            return error(HttpStatus.BAD_REQUEST, problem);
+        }
+        Note note = noteRepository.save(new Note(input.title().strip(), contentOf(input), principal.getName()));
+        auditLog.record(principal.getName(), AuditLog.Action.CREATE, note.getId());
+        return ResponseEntity.created(URI.create("/api/notes/" + note.getId()))
+                .eTag(etag(note.getVersion()))
+                .cacheControl(REVALIDATE)
+                .body(toJson(note, principal.getName()));
+    }
+
+    // Saves unless someone else holds the edit lock (409); releases the caller's own lock, like the edit form
+    @Transactional
+    @PutMapping("/{id}")
+    public ResponseEntity<?> updateNote(@PathVariable("id") UUID id, @RequestBody NoteInput input,
+                                        @RequestHeader HttpHeaders headers, Principal principal) {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            return failoverMode();
+        }
+        String problem = validate(input);
+        if (problem != null) {
+            return error(HttpStatus.BAD_REQUEST, problem);
+        }
+        String username = principal.getName();
+        String sharee = Note.normalizeUsername(username);
+        Optional<Long> version = noteRepository.findWritableVersion(id, username, sharee);
+        if (version.isEmpty()) {
+            return notFound();
+        }
+
+        // The version the client saw is checked again in the UPDATE, in case the note changes in between
+        if (!headers.getIfMatch().isEmpty() && !anyMatches(headers.getIfMatch(), version.get(), false)) {
+            return preconditionFailed(version.get());
+        }
+        long expected = expectedVersion(headers, version.get());
+
+        // The note as it was is kept in its history if saved
+        NoteRevisions.Before before = noteRevisions.lock(id);
+        int saved = noteRepository.saveUnlessLocked(id, username, sharee, input.title().strip(), contentOf(input),
+                Note.LOCK_TIMEOUT.toSeconds(), expected);
+        if (saved > 0 && before != null) {
+            noteRevisions.record(before, input.title().strip(), contentOf(input), null, username);
+        }
+        if (saved > 0) {
+            auditLog.record(username, AuditLog.Action.EDIT, id);
+            noteEvents.publish(id, NoteEvents.Type.NOTE_UPDATED, username);
+        }
+        Optional<Note> current = noteLookup.findCurrent(id);
+        if (current.isEmpty()) {
+            return notFound();
+        }
+        Note note = current.get();
+        if (saved == 0) {
+            if (expected >= 0 && note.getVersion() != expected) {
+                return preconditionFailed(note.getVersion());
+            }
+            return error(HttpStatus.CONFLICT, "This note is locked by " + note.getLockedBy() + ".");
+        }
+        return noteResponse(HttpStatus.OK, note, username);
+    }
+
+    // The content as text/plain, whole or one byte range, streamed from the database
+    @Transactional(readOnly = true)
+    @GetMapping("/{id}/content")
+    public ResponseEntity<?> getContent(@PathVariable("id") UUID id, Principal principal, HttpServletRequest request,
+                                        HttpServletResponse response) throws IOException {
+        Optional<Note> note = noteLookup.findCurrent(id).filter(n -> n.canRead(principal.getName()));
+        if (note.isEmpty()) {
+            return notFound();
+        }
+        auditLog.record(principal.getName(), AuditLog.Action.VIEW, id, "content");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE.getHeaderValue());
+        NoteContentResponse.send(note.get(), noteContentStore, request, response);
+        return null;
+    }
+
+    // Replace the content with the request body (UTF-8 text, up to app.notes.max-content-size), under the same
+    // rules as PUT /{id}. The body is read to a temporary file before the note is touched, outside a transaction.
+    @PutMapping(value = "/{id}/content", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> replaceContent(@PathVariable("id") UUID id, @RequestHeader HttpHeaders headers,
+                                            HttpServletRequest request, Principal principal) throws IOException {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            return failoverMode();
+        }
+        String username = principal.getName();
+        Optional<Long> version = noteRepository.findWritableVersion(id, username, Note.normalizeUsername(username));
+        if (version.isEmpty()) {
+            return notFound();
+        }
+        if (!headers.getIfMatch().isEmpty() && !anyMatches(headers.getIfMatch(), version.get(), false)) {
+            return preconditionFailed(version.get());
+        }
+
+        try (NoteContentStore.Upload upload = noteContentStore.upload(request.getInputStream())) {
+            return savedResponse(id, username, noteContentStore.replace(id, username, upload,
+                    expectedVersion(headers, version.get())));
+        } catch (NoteContentStore.ContentRejectedException e) {
+            return error(e.isTooLarge() ? HttpStatus.PAYLOAD_TOO_LARGE : HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // Change the content by edits instead of sending all of it (and the title, if given), under the same lock
+    // rules as PUT /{id}. The edits refer to the version in If-Match, which is required: 428 without one, 412 if
+    // the note has changed since. Answers 204 with the new ETag; the client has the rest.
+    @PatchMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> patchNote(@PathVariable("id") UUID id, @RequestBody NotePatch patch,
+                                       @RequestHeader HttpHeaders headers, Principal principal) {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            return failoverMode();
+        }
+        String problem = patch == null ? "edits are required." : patch.problem();
+        if (problem == null && patch.title() != null) {
+            problem = validate(new NoteInput(patch.title(), null));
+        }
+        if (problem != null) {
+            return error(HttpStatus.BAD_REQUEST, problem);
+        }
+        List<String> ifMatch = headers.getIfMatch();
+        Long baseVersion = ifMatch.size() == 1 ? versionOf(ifMatch.get(0)) : null;
+        if (baseVersion == null) {
+            return error(HttpStatus.PRECONDITION_REQUIRED, "If-Match with the ETag the edits were made against is required.");
+        }
+        NotePatch stripped = patch.title() == null ? patch
+                : new NotePatch(patch.title().strip(), patch.baseLength(), patch.edits());
+        return savedResponse(id, principal.getName(),
+                noteContentStore.patch(id, principal.getName(), stripped, baseVersion, false));
+    }
+
+    private ResponseEntity<?> savedResponse(UUID id, String username, NoteContentStore.Replaced replaced) {
+        if (replaced.outcome() == NoteContentStore.Outcome.SAVED) {
+            auditLog.record(username, AuditLog.Action.EDIT, id);
+            noteEvents.publish(id, NoteEvents.Type.NOTE_UPDATED, username);
+        }
+        return switch (replaced.outcome()) {
+            case SAVED -> ResponseEntity.noContent().eTag(etag(replaced.version())).build();
+            case NOT_FOUND -> notFound();
+            case STALE -> preconditionFailed(replaced.version());
+            case LOCKED -> error(HttpStatus.CONFLICT, "This note is locked by " + replaced.lockedBy() + ".");
+            case INVALID -> error(HttpStatus.UNPROCESSABLE_ENTITY, "The edits do not fit the note's content.");
+            case TOO_LARGE -> error(HttpStatus.PAYLOAD_TOO_LARGE, "The content would be larger than allowed.");
+        };
+    }
+
+    // Take (or refresh) the edit lock, as opening the edit form does
+    @Transactional
+    @PostMapping("/{id}/lock")
+    public ResponseEntity<?> lockNote(@PathVariable("id") UUID id, Principal principal) {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            return failoverMode();
+        }
+        String username = principal.getName();
+        NoteLocks.Acquired acquired = noteLocks.acquire(id, username);
+        Optional<Note> note = noteLookup.findCurrent(id).filter(n -> n.canWrite(username));
+        if (note.isEmpty()) {
+            return notFound();
+        }
+        if (acquired == null) {
+            return error(HttpStatus.CONFLICT, "This note is locked by " + note.get().getLockedBy() + ".");
+        }
+        return noteResponse(HttpStatus.OK, note.get(), username);
+    }
+
+    // Release the caller's own lock without saving
+    @Transactional
+    @DeleteMapping("/{id}/lock")
+    public ResponseEntity<?> unlockNote(@PathVariable("id") UUID id, Principal principal) {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            return failoverMode();
+        }
+        String username = principal.getName();
+        if (noteRepository.unlock(id, username) > 0) {
+            noteEvents.publish(id, NoteEvents.Type.LOCK_RELEASED, username);
+            return ResponseEntity.noContent().build();
+        }
+        if (noteRepository.findWritableVersion(id, username, Note.normalizeUsername(username)).isEmpty()) {
+            return notFound();
+        }
+        return error(HttpStatus.CONFLICT, "This note is not locked by you.");
+    }
+
+    // Grant a user READ_ONLY or READ_WRITE access, replacing any earlier grant (owner only)
+    @Transactional
+    @PutMapping("/{id}/shares/{username}")
+    public ResponseEntity<?> shareNote(@PathVariable("id") UUID id, @PathVariable("username") String targetUsername,
+                                       @RequestBody ShareInput input, @RequestHeader HttpHeaders headers,
+                                       Principal principal) {
+        if (input == null || input.permission() == null) {
+            return error(HttpStatus.BAD_REQUEST, "permission must be READ_ONLY or READ_WRITE.");
+        }
+        return changeShares(id, headers, principal, note -> {
+            if (userCache.find(targetUsername).isEmpty()) {
+                return error(HttpStatus.BAD_REQUEST, "Unknown user.");
+            }
+            if (input.permission() == SharePermission.READ_WRITE) {
+                note.addReadWriteUser(targetUsername);
+            } else {
+                note.addReadOnlyUser(targetUsername);
+            }
+            auditLog.record(principal.getName(), AuditLog.Action.SHARE, id, targetUsername + " " + input.permission());
+            return null;
+        });
+    }
+
+    @Transactional
+    @DeleteMapping("/{id}/shares/{username}")
+    public ResponseEntity<?> unshareNote(@PathVariable("id") UUID id, @PathVariable("username") String targetUsername,
+                                         @RequestHeader HttpHeaders headers, Principal principal) {
+        return changeShares(id, headers, principal, note -> {
+            note.removeReadOnlyUser(targetUsername);
+            note.removeReadWriteUser(targetUsername);
+            auditLog.record(principal.getName(), AuditLog.Action.UNSHARE, id, targetUsername);
+            noteEvents.publish(id, NoteEvents.Type.ACCESS_REVOKED, targetUsername);
+            return null;
+        });
+    }
+
+    private interface ShareChange {
+        // Changes the note's shares, or returns an error response instead
+        ResponseEntity<?> apply(Note note);
+    }
+
+    private ResponseEntity<?> changeShares(UUID id, HttpHeaders headers, Principal principal, ShareChange change) {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            return failoverMode();
+        }
+        String username = principal.getName();
+        Optional<Note> found = noteLookup.findCurrent(id).filter(n -> n.isOwner(username));
+        if (found.isEmpty()) {
+            return notFound();
+        }
+        Note note = found.get();
+        // A note changed by someone else after this check fails the flush (optimistic lock), see below
+        if (!headers.getIfMatch().isEmpty() && !anyMatches(headers.getIfMatch(), note.getVersion(), false)) {
+            return preconditionFailed(note.getVersion());
+        }
+        ResponseEntity<?> refused = change.apply(note);
+        if (refused != null) {
+            return refused;
+        }
+        note = noteRepository.saveAndFlush(note);
+        return noteResponse(HttpStatus.OK, note, username);
+    }
+
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<?> handleConcurrentChange() {
+        preconditionFailed.increment();
+        return error(HttpStatus.PRECONDITION_FAILED, "The note was changed by someone else. Fetch it and retry.");
+    }
+
+    // JSON errors instead of the HTML error page; no exception details (see GlobalExceptionHandler)
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<?> handleException(Exception ex) {
+        if (ex instanceof HttpMessageNotReadableException || ex instanceof TypeMismatchException) {
+            return error(HttpStatus.BAD_REQUEST, "Bad request.");
+        }
+        if (ex instanceof ErrorResponse response && response.getStatusCode().is4xxClientError()) {
+            return error(HttpStatus.valueOf(response.getStatusCode().value()), "Bad request.");
+        }
+        return error(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred. Please try again later.");
+    }
+
+    private ResponseEntity<?> noteResponse(HttpStatus status, Note note, String username) {
+        return ResponseEntity.status(status)
+                .eTag(etag(note.getVersion()))
+                .cacheControl(REVALIDATE)
+                .body(toJson(note, username));
+    }
+
+    private static NoteJson toJson(Note note, String username) {
+        boolean owner = note.isOwner(username);
+        return new NoteJson(note.getId(), note.getVersion(), note.getTitle(),
+                note.isChunked() ? null : note.getContent(), note.getContentLength(), note.getContentHash(),
+                note.getOwnerUsername(), note.getCreatedAt(), note.isLocked(), note.getLockedBy(),
+                owner ? note.getReadOnlyUsers() : null, owner ? note.getReadWriteUsers() : null);
+    }
+
+    private static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    // Version an If-Match (already checked against currentVersion) pins the write to; -1 for none or "*"
+    private static long expectedVersion(HttpHeaders headers, long currentVersion) {
+        List<String> ifMatch = headers.getIfMatch();
+        return ifMatch.isEmpty() || ifMatch.contains("*") ? -1 : currentVersion;
+    }
+
+    // The version in a strong ETag of ours, or null
+    private static Long versionOf(String tag) {
+        if (tag.length() < 3 || !tag.startsWith("\"") || !tag.endsWith("\"")) return null;
+        try {
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // If-None-Match compares weakly (a W/ tag matches too), If-Match strongly; "*" matches any version
+    private static boolean anyMatches(List<String> tags, long version, boolean weak) {
+        String etag = etag(version);
+        for (String tag : tags) {
+            if (tag.equals("*") || tag.equals(etag) || (weak && tag.equals("W/" + etag))) return true;
+        }
+        return false;
+    }
+
+    private static String validate(NoteInput input) {
+        if (input == null || input.title() == null || input.title().isBlank()) return "title is required.";
+        if (input.title().strip().length() > Note.MAX_TITLE_LENGTH) {
+            return "title is longer than " + Note.MAX_TITLE_LENGTH + " characters.";
+        }
+        if (input.content() != null && input.content().length() > Note.MAX_CONTENT_LENGTH) {
+            return "content is longer than " + Note.MAX_CONTENT_LENGTH + " characters.";
+        }
+        return null;
+    }
+
+    private static String contentOf(NoteInput input) {
+        return input.content() == null ? "" : input.content();
+    }
+
+    private ResponseEntity<?> preconditionFailed(long currentVersion) {
+        preconditionFailed.increment();
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                .eTag(etag(currentVersion))
+                .body(Map.of("error", "The note was changed by someone else. Fetch it and retry."));
+    }
+
+    private static ResponseEntity<?> notFound() {
+        return error(HttpStatus.NOT_FOUND, "Note not found.");
+    }
+
+    private static ResponseEntity<?> failoverMode() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "30")
+                .body(Map.of("error", "Currently experiencing server issues, only reading notes is possible."));
+    }
+
+    private static ResponseEntity<?> error(HttpStatus status, String message) {
+        return ResponseEntity.status(status).body(Map.of("error", message));
+    }
+}
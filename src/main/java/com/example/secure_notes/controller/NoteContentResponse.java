@@ -0,0 +1,105 @@
+package com.example.secure_notes.controller;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.service.NoteContentStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Sends a note's content as text/plain: whole, or the one byte range asked for with a Range header (206, or 416
+ * if it starts past the end). Chunked content is copied from NoteContentStore as it is read, so memory use does
+ * not depend on the note's size; inline content is in the note already. The ETag is the note's version, as in
+ * the JSON API, and If-None-Match / If-Range are honoured; chunked notes also get their SHA-256 (Repr-Digest).
+ * Call within a read-only transaction, after the access check. Cache-Control is left to the caller.
+ */
+final class NoteContentResponse {
+
+    private NoteContentResponse() {}
+
+    static void send(Note note, NoteContentStore store, HttpServletRequest request,
+                     HttpServletResponse response) throws IOException {
+        String etag = "\"" + note.getVersion() + "\"";
+        byte[] inline = note.isChunked() ? null
+                : (note.getContent() == null ? "" : note.getContent()).getBytes(StandardCharsets.UTF_8);
+        long length = inline == null ? note.getContentLength() : inline.length;
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (note.isChunked()) {
+            response.setHeader("Repr-Digest", "sha-256=:" + Base64.getEncoder().encodeToString(
+                    HexFormat.of().parseHex(note.getContentHash())) + ":");
+        }
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag, true)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long first = 0;
+        long last = length - 1;
+        HttpRange range = requestedRange(request, etag);
+        if (range != null) {
+            try {
+                first = range.getRangeStart(length);
+                last = range.getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                first = length;
+            }
+            if (first >= length) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + first + "-" + last + "/" + length);
+        }
+
+        response.setContentType("text/plain;charset=UTF-8");
+        response.setContentLengthLong(last - first + 1);
+        if (last < first) {
+            return;
+        }
+        OutputStream out = response.getOutputStream();
+        if (inline != null) {
+            out.write(inline, (int) first, (int) (last - first + 1));
+        } else {
+            try (InputStream in = store.openRange(note.getId(), first, last)) {
+                in.transferTo(out);
+            }
+        }
+    }
+
+    // A single byte range; several ranges or an unparsable header are ignored (the whole content is sent),
+    // as is a Range whose If-Range names another version
+    private static HttpRange requestedRange(HttpServletRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null) return null;
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !matches(ifRange, etag, false)) return null;
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // If-None-Match compares weakly (a W/ tag matches too), If-Range strongly and without "*"
+    private static boolean matches(String header, String etag, boolean weak) {
+        if (header == null) return false;
+        for (String tag : header.split(",")) {
+            tag = tag.strip();
+            if (tag.equals(etag) || (weak && (tag.equals("*") || tag.equals("W/" + etag)))) return true;
+        }
+        return false;
+    }
+}
@@ -1,21 +1,48 @@
 package com.example.secure_notes.controller;
 
 import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.NoteCursor;
+import com.example.secure_notes.model.NotePatch;
+import com.example.secure_notes.model.NoteSearchHit;
+import com.example.secure_notes.model.NoteSummary;
 import com.example.secure_notes.repository.NoteRepository;
 import com.example.secure_notes.repository.UserRepository;
+import com.example.secure_notes.service.AuditLog;
 import com.example.secure_notes.service.DbFailoverStatusService;
+import com.example.secure_notes.service.NoteContentStore;
+import com.example.secure_notes.service.NoteEvents;
+import com.example.secure_notes.service.NoteExporter;
+import com.example.secure_notes.service.NoteImporter;
+import com.example.secure_notes.service.NoteLocks;
+import com.example.secure_notes.service.NoteLookup;
+import com.example.secure_notes.service.NoteRevisions;
+import com.example.secure_notes.service.UserCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.security.access.AccessDeniedException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 import java.security.Principal;
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -25,18 +52,43 @@ import java.util.stream.Collectors;
 public class NoteController {
 
     private final NoteRepository noteRepository;
+    private final NoteLookup noteLookup;
+    private final NoteContentStore noteContentStore;
+    private final NoteExporter noteExporter;
+    private final NoteImporter noteImporter;
+    private final NoteRevisions noteRevisions;
+    private final NoteEvents noteEvents;
+    private final AuditLog auditLog;
+    private final NoteLocks noteLocks;
+    private final ObjectMapper objectMapper;
     private final UserRepository userRepository;
+    private final UserCache userCache;
     private final DbFailoverStatusService dbFailoverStatusService;
 
-    /**
-     * Lock lease duration. If a note stays locked longer than this without activity,
-     * the lock is considered expired and can be taken by another authorized user.
-     */
-    private static final Duration LOCK_TIMEOUT = Duration.ofMinutes(3);
+    // Notes per list page (owned and shared lists are paged separately)
+    private static final int PAGE_SIZE = 20;
 
-    public NoteController(NoteRepository noteRepository, UserRepository userRepository, DbFailoverStatusService dbFailoverStatusService) {
+    // Search input limits: ranked results cannot be keyset-paged, so deep offsets are capped
+    private static final int MAX_SEARCH_LENGTH = 200;
+    private static final int MAX_SEARCH_PAGE = 50;
+
+    public NoteController(NoteRepository noteRepository, NoteLookup noteLookup, NoteContentStore noteContentStore,
+                          NoteExporter noteExporter, NoteImporter noteImporter, NoteRevisions noteRevisions,
+                          NoteEvents noteEvents, AuditLog auditLog, NoteLocks noteLocks, ObjectMapper objectMapper,
+                          UserRepository userRepository, UserCache userCache,
+                          DbFailoverStatusService dbFailoverStatusService) {
         this.noteRepository = noteRepository;
+        this.noteLookup = noteLookup;
+        this.noteContentStore = noteContentStore;
+        this.noteExporter = noteExporter;
+        this.noteImporter = noteImporter;
+        this.noteRevisions = noteRevisions;
+        this.noteEvents = noteEvents;
+        this.auditLog = auditLog;
+        this.noteLocks = noteLocks;
+        this.objectMapper = objectMapper;
         this.userRepository = userRepository;
+        this.userCache = userCache;
         this.dbFailoverStatusService = dbFailoverStatusService;
     }
 
@@ -53,9 +105,14 @@ public class NoteController {
         return false;
     }
 
-    // List all notes for current user (owned + shared)
+    // List notes for current user (owned + shared), one keyset page of each.
+    // Read-only handlers are served by the replica while it is healthy; writes always go to the active pool.
+    @Transactional(readOnly = true)
     @GetMapping
-    public String listNotes(Model model, Principal principal, @ModelAttribute("failoverMessage") String failoverMessage) {
+    public String listNotes(Model model, Principal principal,
+                            @ModelAttribute("failoverMessage") String failoverMessage,
+                            @RequestParam(value = "after", required = false) String after,
+                            @RequestParam(value = "sharedAfter", required = false) String sharedAfter) {
         if (principal == null) {
             return "redirect:/login";
         }
@@ -65,32 +122,132 @@ public class NoteController {
         }
 
         String username = principal.getName();
+        PageRequest page = PageRequest.ofSize(PAGE_SIZE);
 
-        // Get user's own notes
-        List<Note> ownNotes = noteRepository.findByOwnerUsernameOrderByCreatedAtDesc(username);
+        // Get user's own notes (summaries only, no content)
+        NoteCursor ownCursor = NoteCursor.decode(after);
+        Slice<NoteSummary> ownNotes = noteRepository.findOwnedPage(username, ownCursor.createdAt(), ownCursor.id(), page);
 
-        // Get notes shared with user (filter to ensure accurate match)
-        List<Note> sharedNotes = noteRepository.findSharedWithUser(username)
-                .stream()
-                .filter(n -> n.canRead(username) && !n.isOwner(username))
-                .collect(Collectors.toList());
+        // Get notes shared with user, with the granted permission, in one indexed query
+        NoteCursor sharedCursor = NoteCursor.decode(sharedAfter);
+        Slice<NoteSummary> sharedNotes = noteRepository.findSharedPage(Note.normalizeUsername(username),
+                sharedCursor.createdAt(), sharedCursor.id(), page);
 
-        // Build a map of noteId -> permission type for shared notes
-        Map<UUID, String> sharedNotePermissions = new java.util.HashMap<>();
-        for (Note note : sharedNotes) {
-            if (note.canWrite(username)) {
-                sharedNotePermissions.put(note.getId(), "readwrite");
-            } else {
-                sharedNotePermissions.put(note.getId(), "readonly");
-            }
-        }
+        model.addAttribute("notes", ownNotes.getContent());
+        model.addAttribute("sharedNotes", sharedNotes.getContent());
 
-        model.addAttribute("notes", ownNotes);
-        model.addAttribute("sharedNotes", sharedNotes);
-        model.addAttribute("sharedNotePermissions", sharedNotePermissions);
+        // Cursors for the page links; each list pages independently and keeps the other one's position
+        model.addAttribute("after", after);
+        model.addAttribute("sharedAfter", sharedAfter);
+        model.addAttribute("notesNext", nextCursor(ownNotes));
+        model.addAttribute("sharedNext", nextCursor(sharedNotes));
         return "notes";
     }
 
+    private static String nextCursor(Slice<NoteSummary> slice) {
+        if (!slice.hasNext()) return null;
+        NoteSummary last = slice.getContent().get(slice.getNumberOfElements() - 1);
+        return new NoteCursor(last.getCreatedAt(), last.getId()).encode();
+    }
+
+    // Full-text search over the user's own and shared notes, ranked, one page at a time
+    @Transactional(readOnly = true)
+    @GetMapping("/search")
+    public String searchNotes(@RequestParam(value = "q", required = false) String query,
+                              @RequestParam(value = "page", defaultValue = "0") int page,
+                              Model model, Principal principal) {
+        addFailoverFlag(model);
+        String q = query == null ? "" : query.strip();
+        page = Math.max(0, Math.min(page, MAX_SEARCH_PAGE));
+        model.addAttribute("q", q);
+        model.addAttribute("page", page);
+        // Chunked notes are indexed by their preview only (see SchemaMigrations.addSearchVector)
+        model.addAttribute("searchedLength", Note.PREVIEW_LENGTH);
+
+        if (q.isEmpty() || q.length() > MAX_SEARCH_LENGTH) {
+            model.addAttribute("hits", List.of());
+            model.addAttribute("hasNext", false);
+            return "note_search";
+        }
+
+        String username = principal.getName();
+        // One extra row tells whether there is a next page
+        List<NoteSearchHit> hits = noteRepository.search(q, username, Note.normalizeUsername(username),
+                PAGE_SIZE + 1, page * PAGE_SIZE);
+        model.addAttribute("hasNext", hits.size() > PAGE_SIZE);
+        model.addAttribute("hits", hits.size() > PAGE_SIZE ? hits.subList(0, PAGE_SIZE) : hits);
+        return "note_search";
+    }
+
+    // Download every note the user owns or has been granted: format=ndjson (default) or zip (Markdown files).
+    // Written to the response as rows arrive from a database cursor, so memory use does not depend on the
+    // number of notes. Read-only, so it runs on the replica while that is in rotation (and in failover mode).
+    @Transactional(readOnly = true)
+    @GetMapping("/export")
+    public void exportNotes(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                            Principal principal, HttpServletResponse response) throws IOException {
+        NoteExporter.Format exportFormat = NoteExporter.Format.fromParameter(format);
+        if (exportFormat == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        response.setContentType(exportFormat.contentType());
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + exportFormat.fileName() + "\"");
+        noteExporter.export(principal.getName(), exportFormat, response.getOutputStream());
+    }
+
+    // Import notes from a file uploaded with the form on the notes page (NDJSON or ZIP, as exported).
+    // The upload is spooled to disk by the multipart resolver and parsed from there batch by batch.
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public String importNotesForm(@RequestParam("file") MultipartFile file,
+                                  @RequestParam(value = "format", required = false) String format,
+                                  Principal principal, RedirectAttributes ra) throws IOException {
+        if (blockWriteIfFailover(ra)) {
+            return "redirect:/notes";
+        }
+        NoteExporter.Format importFormat = format != null ? NoteExporter.Format.fromParameter(format)
+                : String.valueOf(file.getOriginalFilename()).toLowerCase().endsWith(".zip")
+                ? NoteExporter.Format.ZIP : NoteExporter.Format.NDJSON;
+        if (importFormat == null || file.isEmpty()) {
+            ra.addFlashAttribute("importMessage", "Choose an NDJSON or ZIP file to import.");
+            return "redirect:/notes";
+        }
+
+        NoteImporter.Result result;
+        try (InputStream in = file.getInputStream()) {
+            result = noteImporter.importNotes(principal.getName(), importFormat, in, (imported, skipped) -> {});
+        }
+        String message = "Imported " + result.imported() + " note(s)"
+                + (result.skipped() > 0 ? ", skipped " + result.skipped() : "") + "."
+                + (result.error() != null ? " Stopped early: " + result.error() + "." : "");
+        ra.addFlashAttribute("importMessage", message);
+        ra.addFlashAttribute("importProblems", result.problems());
+        return "redirect:/notes";
+    }
+
+    // Import for scripts: the request body is the NDJSON or ZIP file itself, parsed as it arrives.
+    // Progress is streamed back as NDJSON, one line per committed batch, then the full result.
+    @PostMapping(value = "/import", consumes = {"application/x-ndjson", "application/zip"})
+    public void importNotesStream(Principal principal, HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        if (dbFailoverStatusService.isFailoverMode()) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        NoteExporter.Format importFormat = MediaType.parseMediaType(request.getContentType())
+                .isCompatibleWith(MediaType.parseMediaType("application/zip"))
+                ? NoteExporter.Format.ZIP : NoteExporter.Format.NDJSON;
+
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+        NoteImporter.Result result = noteImporter.importNotes(principal.getName(), importFormat,
+                request.getInputStream(), (imported, skipped) -> {
+                    out.write("{\"imported\":" + imported + ",\"skipped\":" + skipped + "}\n");
+                    out.flush();
+                });
+        out.write(objectMapper.writeValueAsString(result) + "\n");
+    }
+
     // Show form to create a new note
     @GetMapping("/new")
     public String newNoteForm(Model model, RedirectAttributes ra) {
@@ -105,26 +262,41 @@ public class NoteController {
     }
 
     // Handle create
+    @Transactional
     @PostMapping
     public String createNote(@ModelAttribute("note") Note note, BindingResult result, Principal principal, RedirectAttributes ra) {
         if (blockWriteIfFailover(ra)) {
             return "redirect:/notes";
         }
+        checkLengths(note, result);
         if (result.hasErrors()) {
             return "note_form";
         }
         // Enforce ownership server-side (SECURITY: ignore any client-sent ownerUsername)
         note.setOwnerUsername(principal.getName());
         note.setCreatedAt(LocalDateTime.now());
-        noteRepository.save(note);
+        note = noteRepository.save(note);
+        auditLog.record(principal.getName(), AuditLog.Action.CREATE, note.getId());
         return "redirect:/notes";
     }
 
+    // The content column has no length limit of its own; the application's limits are checked here
+    private static void checkLengths(Note note, BindingResult result) {
+        if (note.getTitle() != null && note.getTitle().length() > Note.MAX_TITLE_LENGTH) {
+            result.rejectValue("title", "tooLong", "The title can be at most " + Note.MAX_TITLE_LENGTH + " characters.");
+        }
+        if (note.getContent() != null && note.getContent().length() > Note.MAX_CONTENT_LENGTH) {
+            result.rejectValue("content", "tooLong",
+                    "The content can be at most " + Note.MAX_CONTENT_LENGTH + " characters.");
+        }
+    }
+
     // View a single note (owner or shared user)
+    @Transactional(readOnly = true)
     @GetMapping("/{id}")
     public String viewNote(@PathVariable("id") UUID id, Model model, Principal principal) {
         String username = principal.getName();
-        Optional<Note> noteOpt = noteRepository.findById(id);
+        Optional<Note> noteOpt = noteLookup.findCurrent(id);
 
         if (noteOpt.isEmpty()) {
             throw new AccessDeniedException("Note not found");
@@ -136,6 +308,7 @@ public class NoteController {
             throw new AccessDeniedException("You do not have permission to view this note.");
         }
 
+        auditLog.record(username, AuditLog.Action.VIEW, id);
         addFailoverFlag(model);
         model.addAttribute("note", note);
         model.addAttribute("isOwner", note.isOwner(username));
@@ -143,7 +316,71 @@ public class NoteController {
         return "note_view";
     }
 
+    // The note's whole content as text/plain (or a byte range of it), streamed: the view page shows only the
+    // start of a chunked note and links here for the rest
+    @Transactional(readOnly = true)
+    @GetMapping("/{id}/content")
+    public void noteContent(@PathVariable("id") UUID id, Principal principal, HttpServletRequest request,
+                            HttpServletResponse response) throws IOException {
+        Optional<Note> note = noteLookup.findCurrent(id).filter(n -> n.canRead(principal.getName()));
+        if (note.isEmpty()) {
+            throw new AccessDeniedException("Note not found");
+        }
+        auditLog.record(principal.getName(), AuditLog.Action.VIEW, id, "content");
+        NoteContentResponse.send(note.get(), noteContentStore, request, response);
+    }
+
+    // Earlier versions of the note, newest first (see NoteRevisions)
+    @Transactional(readOnly = true)
+    @GetMapping("/{id}/history")
+    public String noteHistory(@PathVariable("id") UUID id, Model model, Principal principal) {
+        Note note = readableNote(id, principal);
+        auditLog.record(principal.getName(), AuditLog.Action.VIEW, id, "history");
+        addFailoverFlag(model);
+        model.addAttribute("note", note);
+        model.addAttribute("revisions", noteRevisions.history(id));
+        return "note_history";
+    }
+
+    // One earlier version: its title and, if kept, its content, rebuilt from the revisions after it
+    @Transactional(readOnly = true)
+    @GetMapping("/{id}/history/{version}")
+    public String noteRevision(@PathVariable("id") UUID id, @PathVariable("version") long version, Model model,
+                               Principal principal) {
+        Note note = readableNote(id, principal);
+        NoteRevisions.Revision revision = noteRevisions.history(id).stream()
+                .filter(r -> r.version() == version)
+                .findFirst()
+                .orElseThrow(() -> new AccessDeniedException("Version not found"));
+        auditLog.record(principal.getName(), AuditLog.Action.VIEW, id, "version " + version);
+        addFailoverFlag(model);
+        model.addAttribute("note", note);
+        model.addAttribute("revision", revision);
+        model.addAttribute("content", noteRevisions.content(id, version).orElse(null));
+        return "note_revision";
+    }
+
+    // Lock and update events for the note's page, as Server-Sent Events (see NoteEvents); 503 if this node has
+    // all the subscribers it takes
+    @Transactional(readOnly = true)
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> noteEvents(@PathVariable("id") UUID id, Principal principal) {
+        readableNote(id, principal);
+        SseEmitter emitter = noteEvents.subscribe(id, principal.getName());
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "60").build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    private Note readableNote(UUID id, Principal principal) {
+        return noteLookup.findCurrent(id)
+                .filter(n -> n.canRead(principal.getName()))
+                .orElseThrow(() -> new AccessDeniedException("Note not found"));
+    }
+
     // Show edit form (respect lock)
+    @Transactional
     @GetMapping("/{id}/edit")
     public String editNoteForm(@PathVariable("id") UUID id, Model model, Principal principal, RedirectAttributes ra) {
         if (dbFailoverStatusService.isFailoverMode()) {
@@ -153,32 +390,36 @@ public class NoteController {
         }
 
         String username = principal.getName();
-        Optional<Note> noteOpt = noteRepository.findById(id);
+        Optional<Note> noteOpt = noteLookup.findCurrent(id);
 
-        if (noteOpt.isEmpty()) {
+        // Security check: missing or not writable looks the same
+        if (noteOpt.isEmpty() || !noteOpt.get().canWrite(username)) {
             return "error/404";
         }
 
         Note note = noteOpt.get();
 
-        // Security check: can user write to this note?
-        if (!note.canWrite(username)) {
-            return "error/404";
+        // The form holds only the start of a chunked note; saving it would cut the note short. Checked before
+        // locking: a lock taken only to be released would bump the version (and every client's ETag) twice
+        if (note.isChunked()) {
+            addFailoverFlag(model);
+            model.addAttribute("error", "This note is too long to edit here. Replace its content through the API.");
+            model.addAttribute("note", note);
+            model.addAttribute("isOwner", note.isOwner(username));
+            model.addAttribute("canWrite", note.canWrite(username));
+            return "note_view";
         }
 
-        // Expire stale locks (prevents indefinite locking if a user closes tab / navigates away)
-        if (note.isLocked() && note.getLockedAt() != null) {
-            Duration age = Duration.between(note.getLockedAt(), LocalDateTime.now());
-            if (age.compareTo(LOCK_TIMEOUT) > 0) {
-                note.setLocked(false);
-                note.setLockedBy(null);
-                note.setLockedAt(null);
-                noteRepository.save(note);
-            }
+        // Acquire/refresh lock in one statement: write access, and the lock is free, ours or expired
+        NoteLocks.Acquired acquired = noteLocks.acquire(id, username);
+        noteOpt = noteLookup.findCurrent(id);
+        if (noteOpt.isEmpty() || !noteOpt.get().canWrite(username)) {
+            return "error/404";
         }
+        note = noteOpt.get();
 
-        // Check lock (after expiry logic)
-        if (note.isLocked() && !username.equals(note.getLockedBy())) {
+        // Held by someone else (and not expired)
+        if (acquired == null) {
             addFailoverFlag(model);
             model.addAttribute("error", "This note is locked by " + note.getLockedBy() + ". Please try again later.");
             model.addAttribute("note", note);
@@ -187,74 +428,113 @@ public class NoteController {
             return "note_view";
         }
 
-        // Acquire/refresh lock
-        note.setLocked(true);
-        note.setLockedBy(username);
-        note.setLockedAt(LocalDateTime.now());
-        noteRepository.save(note);
-
         addFailoverFlag(model);
         model.addAttribute("note", note);
         return "note_form";
     }
 
-    // Handle update + release lock
+    // The edit lock expired (and may have been taken by someone else) before the form was saved
+    private static final String LOCK_LOST = "You no longer hold the edit lock on this note (it expired), "
+            + "so your changes could not be saved. Please edit it again.";
+
+    // Handle update + release lock. The form's script sends only the changed part of the content, as one edit
+    // against the version the form was opened at (baseVersion); without the script the whole content comes.
+    @Transactional
     @PostMapping("/{id}")
     public String updateNote(@PathVariable("id") UUID id,
                              @ModelAttribute("note") Note updated,
                              BindingResult result,
+                             @RequestParam(value = "baseVersion", required = false) Long baseVersion,
+                             @RequestParam(value = "baseLength", required = false) Long baseLength,
+                             @RequestParam(value = "editAt", required = false) Integer editAt,
+                             @RequestParam(value = "editDelete", required = false) Integer editDelete,
+                             @RequestParam(value = "editInsert", required = false) String editInsert,
                              Principal principal,
                              RedirectAttributes ra) {
         if (blockWriteIfFailover(ra)) {
             return "redirect:/notes";
         }
 
-        String username = principal.getName();
-        Optional<Note> noteOpt = noteRepository.findById(id);
-
-        if (noteOpt.isEmpty()) {
-            return "error/404";
-        }
-
-        Note existing = noteOpt.get();
-
-        // Security check: can user write?
-        if (!existing.canWrite(username)) {
-            return "error/404";
+        checkLengths(updated, result);
+        if (result.hasErrors()) {
+            return "note_form";
         }
 
-        // Must hold lock to edit
-        if (!existing.isLocked() || !username.equals(existing.getLockedBy())) {
+        String username = principal.getName();
+        if (baseVersion != null && editAt != null && editDelete != null) {
+            NotePatch patch = new NotePatch(updated.getTitle(), baseLength,
+                    List.of(new NotePatch.Edit(editAt, editDelete, editInsert)));
+            NoteContentStore.Outcome outcome = patch.problem() != null ? NoteContentStore.Outcome.INVALID
+                    : noteContentStore.patch(id, username, patch, baseVersion, true).outcome();
+            if (outcome == NoteContentStore.Outcome.SAVED) {
+                auditLog.record(username, AuditLog.Action.EDIT, id);
+                noteEvents.publish(id, NoteEvents.Type.NOTE_UPDATED, username);
+            }
+            // Nothing is saved unless SAVED; the user is told why
+            String error = switch (outcome) {
+                case SAVED, NOT_FOUND -> null;
+                case LOCKED -> LOCK_LOST;
+                // Changed since the form was opened (the lock expired, or a second form refreshed it):
+                // the edit's position no longer fits
+                case STALE -> "The note was changed while you were editing it, "
+                        + "so your changes could not be saved. Please edit it again.";
+                case INVALID -> "Your changes did not fit the note's content and could not be saved. "
+                        + "Please edit it again.";
+                case TOO_LARGE -> "The content can be at most " + Note.MAX_CONTENT_LENGTH
+                        + " characters, so your changes could not be saved.";
+            };
+            if (outcome == NoteContentStore.Outcome.NOT_FOUND) {
+                return "error/404";
+            }
+            if (error != null) {
+                ra.addFlashAttribute("error", error);
+            }
             return "redirect:/notes/" + id;
         }
 
-        if (result.hasErrors()) {
-            return "note_form";
-        }
+        // Save + release lock in one statement; only applies while the user can write and holds the lock.
+        // The note as it was is kept in its history if saved.
+        NoteRevisions.Before before = noteRevisions.lock(id);
+        int saved = noteRepository.saveAndUnlock(id, username, Note.normalizeUsername(username),
+                updated.getTitle(), updated.getContent());
 
-        existing.setTitle(updated.getTitle());
-        existing.setContent(updated.getContent());
-        existing.setLocked(false);
-        existing.setLockedBy(null);
-        existing.setLockedAt(null);
-        noteRepository.save(existing);
+        if (saved > 0) {
+            if (before != null) {
+                noteRevisions.record(before, updated.getTitle(), Objects.requireNonNullElse(updated.getContent(), ""),
+                        null, username);
+            }
+            auditLog.record(username, AuditLog.Action.EDIT, id);
+            noteEvents.publish(id, NoteEvents.Type.NOTE_UPDATED, username);
+        } else {
+            // Security check: missing or not writable looks the same; otherwise the lock was not held
+            Optional<Note> noteOpt = noteLookup.findCurrent(id);
+            if (noteOpt.isEmpty() || !noteOpt.get().canWrite(username)) {
+                return "error/404";
+            }
+            ra.addFlashAttribute("error", LOCK_LOST);
+        }
 
         return "redirect:/notes/" + id;
     }
 
     // Delete (owner only)
+    @Transactional
     @PostMapping("/{id}/delete")
     public String deleteNote(@PathVariable("id") UUID id, Principal principal, RedirectAttributes ra) {
         if (blockWriteIfFailover(ra)) {
             return "redirect:/notes";
         }
         String username = principal.getName();
-        noteRepository.findByIdAndOwnerUsername(id, username)
-                .ifPresent(noteRepository::delete);
+        noteLookup.findCurrent(id).filter(n -> n.isOwner(username)).ifPresent(note -> {
+            noteRepository.delete(note);
+            auditLog.record(username, AuditLog.Action.DELETE, id);
+            noteEvents.publish(id, NoteEvents.Type.NOTE_DELETED, username);
+        });
         return "redirect:/notes";
     }
 
     // Show share form (owner only)
+    @Transactional(readOnly = true)
     @GetMapping("/{id}/share")
     public String shareNoteForm(@PathVariable("id") UUID id, Model model, Principal principal, RedirectAttributes ra) {
         if (dbFailoverStatusService.isFailoverMode()) {
@@ -264,7 +544,7 @@ public class NoteController {
         }
 
         String username = principal.getName();
-        Optional<Note> noteOpt = noteRepository.findByIdAndOwnerUsername(id, username);
+        Optional<Note> noteOpt = noteLookup.findCurrent(id).filter(n -> n.isOwner(username));
 
         if (noteOpt.isEmpty()) {
             return "error/404";
@@ -273,6 +553,9 @@ public class NoteController {
         Note note = noteOpt.get();
         addFailoverFlag(model);
         model.addAttribute("note", note);
+        // Resolved here: the share collection cannot be loaded lazily once the view renders
+        model.addAttribute("readOnlyUsers", note.getReadOnlyUsers());
+        model.addAttribute("readWriteUsers", note.getReadWriteUsers());
 
         // Get all users except owner for sharing dropdown
         var allUsers = userRepository.findAll()
@@ -285,6 +568,7 @@ public class NoteController {
     }
 
     // Handle adding share permission
+    @Transactional
     @PostMapping("/{id}/share")
     public String addSharePermission(@PathVariable("id") UUID id,
                                      @RequestParam("username") String targetUsername,
@@ -296,7 +580,7 @@ public class NoteController {
         }
 
         String username = principal.getName();
-        Optional<Note> noteOpt = noteRepository.findByIdAndOwnerUsername(id, username);
+        Optional<Note> noteOpt = noteLookup.findCurrent(id).filter(n -> n.isOwner(username));
 
         if (noteOpt.isEmpty()) {
             return "error/404";
@@ -305,7 +589,7 @@ public class NoteController {
         Note note = noteOpt.get();
 
         // Validate target user exists
-        if (userRepository.findByUsername(targetUsername).isEmpty()) {
+        if (userCache.find(targetUsername).isEmpty()) {
             return "redirect:/notes/" + id + "/share?error=usernotfound";
         }
 
@@ -317,10 +601,12 @@ public class NoteController {
         }
 
         noteRepository.save(note);
+        auditLog.record(username, AuditLog.Action.SHARE, id, targetUsername + " " + permission);
         return "redirect:/notes/" + id + "/share?success";
     }
 
     // Remove share permission
+    @Transactional
     @PostMapping("/{id}/unshare")
     public String removeSharePermission(@PathVariable("id") UUID id,
                                         @RequestParam("username") String targetUsername,
@@ -331,7 +617,7 @@ public class NoteController {
         }
 
         String username = principal.getName();
-        Optional<Note> noteOpt = noteRepository.findByIdAndOwnerUsername(id, username);
+        Optional<Note> noteOpt = noteLookup.findCurrent(id).filter(n -> n.isOwner(username));
 
         if (noteOpt.isEmpty()) {
             return "error/404";
@@ -341,29 +627,23 @@ public class NoteController {
         note.removeReadOnlyUser(targetUsername);
         note.removeReadWriteUser(targetUsername);
         noteRepository.save(note);
+        auditLog.record(username, AuditLog.Action.UNSHARE, id, targetUsername);
+        noteEvents.publish(id, NoteEvents.Type.ACCESS_REVOKED, targetUsername);
 
         return "redirect:/notes/" + id + "/share";
     }
 
     // Cancel edit (release lock without saving)
+    @Transactional
     @PostMapping("/{id}/cancel-edit")
     public String cancelEdit(@PathVariable("id") UUID id, Principal principal, RedirectAttributes ra) {
         if (blockWriteIfFailover(ra)) {
             return "redirect:/notes";
         }
 
-        String username = principal.getName();
-        Optional<Note> noteOpt = noteRepository.findById(id);
-
-        if (noteOpt.isPresent()) {
-            Note note = noteOpt.get();
-            // Only release lock if current user holds it
-            if (note.isLocked() && username.equals(note.getLockedBy())) {
-                note.setLocked(false);
-                note.setLockedBy(null);
-                note.setLockedAt(null);
-                noteRepository.save(note);
-            }
+        // Only releases the lock if the current user holds it
+        if (noteRepository.unlock(id, principal.getName()) > 0) {
+            noteEvents.publish(id, NoteEvents.Type.LOCK_RELEASED, principal.getName());
         }
 
         return "redirect:/notes";
@@ -2,8 +2,10 @@ package com.example.secure_notes.controller;
 
 import com.example.secure_notes.model.User;
 import com.example.secure_notes.repository.UserRepository;
+import com.example.secure_notes.service.UserCache;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -16,6 +18,7 @@ import java.util.regex.Pattern;
 public class RegistrationController {
 
     private final UserRepository userRepository;
+    private final UserCache userCache;
     private final PasswordEncoder passwordEncoder;
 
     // Username: 3-20 chars, alphanumeric + underscore only (prevents SQL injection, XSS)
@@ -32,8 +35,9 @@ public class RegistrationController {
             "anonymous", "guest", "test", "support", "help", "info"
     );
 
-    public RegistrationController(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public RegistrationController(UserRepository userRepository, UserCache userCache, PasswordEncoder passwordEncoder) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
         this.passwordEncoder = passwordEncoder;
     }
 
@@ -42,6 +46,8 @@ public class RegistrationController {
         return "register";
     }
 
+    // Read-write so the "username taken" check runs on the master, not a possibly stale replica
+    @Transactional
     @PostMapping("/register")
     public String registerUser(@RequestParam("username") String username,
                                @RequestParam("password") String password,
@@ -90,9 +96,10 @@ public class RegistrationController {
             return "register";
         }
 
-        // Check if username already exists (case-insensitive check)
-        if (userRepository.findByUsername(username).isPresent() ||
-            userRepository.findByUsername(usernameLower).isPresent()) {
+        // Check if username already exists (case-insensitive check). A cached user is reliably taken;
+        // a miss is looked up on the master (this transaction is read-write).
+        if (userCache.find(username).isPresent() ||
+            (!usernameLower.equals(username) && userCache.find(usernameLower).isPresent())) {
             model.addAttribute("error", "Username already exists. Please choose another.");
             return "register";
         }
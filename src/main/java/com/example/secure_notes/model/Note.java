@@ -1,13 +1,42 @@
 package com.example.secure_notes.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
 
 @Entity
-@Table(name = "notes")
+@Table(name = "notes", indexes = {
+        // Keyset pagination of a user's own notes (see NoteRepository.findOwnedPage)
+        @Index(name = "idx_notes_owner_created", columnList = "owner_username, created_at DESC, id DESC")
+})
+// Second-level cached; NoteLookup checks the cached version against the database on every read
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Note {
 
+    /**
+     * Lock lease duration. If a note stays locked longer than this without activity,
+     * the lock is considered expired and can be taken by another authorized user.
+     * Compared against the database clock (see NoteLocks.acquire).
+     */
+    public static final Duration LOCK_TIMEOUT = Duration.ofMinutes(3);
+
+    // Longest title (varchar default) the notes table takes, and longest content the application accepts
+    // (content is an unbounded text column; see SchemaMigrations.widenContent for how it is stored)
+    public static final int MAX_TITLE_LENGTH = 255;
+    public static final int MAX_CONTENT_LENGTH = 100_000;
+
+    // Longer content is kept in chunks (see NoteContentStore); the content column then holds this much of it
+    public static final int PREVIEW_LENGTH = 10_000;
+
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
@@ -19,9 +48,15 @@ public class Note {
     @Column(nullable = false)
     private String title;
 
-    @Column(nullable = false, length = 5000)
+    @Column(nullable = false, columnDefinition = "text")
     private String content;
 
+    // Set for chunked notes only: size in bytes (UTF-8) and SHA-256 (hex) of the whole content,
+    // which is in note_chunks; `content` is its first PREVIEW_LENGTH characters. Written by NoteContentStore.
+    private Long contentLength;
+    @Column(length = 64)
+    private String contentHash;
+
     // Owner username used for access control
     @Column(nullable = false)
     private String ownerUsername;
@@ -34,13 +69,19 @@ public class Note {
     private LocalDateTime lockedAt;
     private LocalDateTime createdAt;
 
-    // Comma-separated usernames with read-only access
-    @Column(length = 1000)
-    private String sharedReadOnly = "";
+    // Users this note is shared with (note_shares table, one row per user)
+    @ElementCollection
+    @CollectionTable(name = "note_shares",
+            joinColumns = @JoinColumn(name = "note_id"),
+            uniqueConstraints = @UniqueConstraint(name = "uk_note_shares_note_user", columnNames = {"note_id", "username"}),
+            indexes = @Index(name = "idx_note_shares_user_created", columnList = "username, note_created_at DESC, note_id DESC"))
+    @OrderBy("username")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    private Set<NoteShare> shares = new LinkedHashSet<>();
 
-    // Comma-separated usernames with read-write access
-    @Column(length = 1000)
-    private String sharedReadWrite = "";
+    // Parsed view of `shares` for access checks; built on first use and dropped whenever the shares change
+    @Transient
+    private transient Acl acl;
 
     // Default constructor required by JPA
     public Note() {}
@@ -66,6 +107,12 @@ public class Note {
     public String getContent() { return content; }
     public void setContent(String content) { this.content = content; }
 
+    public boolean isChunked() { return contentHash != null; }
+
+    public Long getContentLength() { return contentLength; }
+
+    public String getContentHash() { return contentHash; }
+
     public String getOwnerUsername() { return ownerUsername; }
     public void setOwnerUsername(String ownerUsername) { this.ownerUsername = ownerUsername; }
 
@@ -85,83 +132,131 @@ public class Note {
     public void setLockedAt(LocalDateTime lockedAt) { this.lockedAt = lockedAt; }
 
     public LocalDateTime getCreatedAt() { return createdAt; }
-    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
-
-    public String getSharedReadOnly() { return sharedReadOnly; }
-    public void setSharedReadOnly(String sharedReadOnly) {
-        this.sharedReadOnly = (sharedReadOnly == null ? "" : sharedReadOnly);
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+        syncShareTimestamps();
     }
 
-    public String getSharedReadWrite() { return sharedReadWrite; }
-    public void setSharedReadWrite(String sharedReadWrite) {
-        this.sharedReadWrite = (sharedReadWrite == null ? "" : sharedReadWrite);
-    }
+    public List<String> getReadOnlyUsers() { return sharedUsers(SharePermission.READ_ONLY); }
+
+    public List<String> getReadWriteUsers() { return sharedUsers(SharePermission.READ_WRITE); }
+
+    // Comma-separated views of the share lists
+    public String getSharedReadOnly() { return String.join(",", getReadOnlyUsers()); }
+
+    public String getSharedReadWrite() { return String.join(",", getReadWriteUsers()); }
 
     // --- Access control helpers ---
 
     public boolean canRead(String username) {
         if (username.equals(ownerUsername)) return true;
-        if (containsUser(sharedReadOnly, username)) return true;
-        if (containsUser(sharedReadWrite, username)) return true;
-        return false;
+        return acl().readers().contains(username);
     }
 
     public boolean canWrite(String username) {
         if (username.equals(ownerUsername)) return true;
-        if (containsUser(sharedReadWrite, username)) return true;
-        return false;
+        return acl().writers().contains(username);
     }
 
     public boolean isOwner(String username) {
         return username.equals(ownerUsername);
     }
 
-    private boolean containsUser(String list, String username) {
-        if (list == null || list.isBlank()) return false;
-        String[] users = list.split(",");
-        for (String u : users) {
-            if (u.trim().equalsIgnoreCase(username)) return true;
+    /**
+     * Share usernames are matched case-insensitively, so they are stored and queried in this form.
+     */
+    public static String normalizeUsername(String username) {
+        return username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private record Acl(UsernameSet readers, UsernameSet writers) {}
+
+    private Acl acl() {
+        Acl current = acl;
+        if (current == null) {
+            List<String> readers = new ArrayList<>(shares.size());
+            List<String> writers = new ArrayList<>();
+            for (NoteShare share : shares) {
+                readers.add(share.getUsername());
+                if (share.getPermission() == SharePermission.READ_WRITE) writers.add(share.getUsername());
+            }
+            current = new Acl(UsernameSet.of(readers), UsernameSet.of(writers));
+            acl = current;
         }
-        return false;
+        return current;
     }
 
-    public void addReadOnlyUser(String username) {
-        if (!containsUser(sharedReadOnly, username) && !username.equals(ownerUsername)) {
-            removeReadWriteUser(username);
-            sharedReadOnly = appendUser(sharedReadOnly, username);
+    // Hibernate re-populates `shares` on load/refresh, so start from a fresh ACL
+    @PostLoad
+    private void resetAcl() {
+        acl = null;
+    }
+
+    @PrePersist
+    private void defaultCreatedAt() {
+        if (createdAt == null) {
+            setCreatedAt(LocalDateTime.now());
         }
     }
 
-    public void addReadWriteUser(String username) {
-        if (!containsUser(sharedReadWrite, username) && !username.equals(ownerUsername)) {
-            removeReadOnlyUser(username);
-            sharedReadWrite = appendUser(sharedReadWrite, username);
+    // note_shares keeps a copy of createdAt for paging; re-stamp the rows if it changes
+    private void syncShareTimestamps() {
+        if (shares.isEmpty()) return;
+        List<NoteShare> current = new ArrayList<>(shares);
+        shares.clear();
+        for (NoteShare share : current) {
+            shares.add(new NoteShare(share.getUsername(), share.getPermission(), createdAt));
+        }
+    }
+
+    private List<String> sharedUsers(SharePermission permission) {
+        return shares.stream()
+                .filter(s -> s.getPermission() == permission)
+                .map(NoteShare::getUsername)
+                .toList();
+    }
+
+    private NoteShare findShare(String username) {
+        String normalized = normalizeUsername(username);
+        for (NoteShare share : shares) {
+            if (share.getUsername().equals(normalized)) return share;
         }
+        return null;
+    }
+
+    public void addReadOnlyUser(String username) {
+        grant(username, SharePermission.READ_ONLY);
+    }
+
+    public void addReadWriteUser(String username) {
+        grant(username, SharePermission.READ_WRITE);
     }
 
     public void removeReadOnlyUser(String username) {
-        sharedReadOnly = removeFromList(sharedReadOnly, username);
+        revoke(username, SharePermission.READ_ONLY);
     }
 
     public void removeReadWriteUser(String username) {
-        sharedReadWrite = removeFromList(sharedReadWrite, username);
+        revoke(username, SharePermission.READ_WRITE);
     }
 
-    private String appendUser(String list, String username) {
-        if (list == null || list.isBlank()) return username;
-        return list + "," + username;
+    // A user holds at most one permission per note; granting a new one replaces the old one
+    private void grant(String username, SharePermission permission) {
+        if (ownerUsername != null && normalizeUsername(ownerUsername).equals(normalizeUsername(username))) return;
+        NoteShare existing = findShare(username);
+        if (existing != null) {
+            if (existing.getPermission() == permission) return;
+            shares.remove(existing);
+        }
+        shares.add(new NoteShare(normalizeUsername(username), permission, createdAt));
+        acl = null;
     }
 
-    private String removeFromList(String list, String username) {
-        if (list == null || list.isBlank()) return "";
-        String[] users = list.split(",");
-        StringBuilder sb = new StringBuilder();
-        for (String u : users) {
-            if (!u.trim().equalsIgnoreCase(username)) {
-                if (sb.length() > 0) sb.append(",");
-                sb.append(u.trim());
-            }
+    private void revoke(String username, SharePermission permission) {
+        NoteShare existing = findShare(username);
+        if (existing != null && existing.getPermission() == permission) {
+            shares.remove(existing);
+            acl = null;
         }
-        return sb.toString();
     }
 }
@@ -0,0 +1,39 @@
+package com.example.secure_notes.model;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Keyset pagination position in a (createdAt DESC, id DESC) ordered note list:
+ * the next page starts strictly after this note.
+ */
+public record NoteCursor(LocalDateTime createdAt, UUID id) {
+
+    // Sorts after every real note, so "after START" is the first page
+    public static final NoteCursor START =
+            new NoteCursor(LocalDateTime.of(9999, 12, 31, 0, 0), new UUID(-1L, -1L));
+
+    /**
+     * Opaque, URL-safe form used in the "next page" links.
+     */
+    public String encode() {
+        String raw = createdAt + "_" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a cursor produced by {@link #encode()}; anything missing or malformed means the first page.
+     */
+    public static NoteCursor decode(String token) {
+        if (token == null || token.isBlank()) return START;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('_');
+            return new NoteCursor(LocalDateTime.parse(raw.substring(0, sep)), UUID.fromString(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            return START;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.secure_notes.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A change to a note's content as edits (and optionally a new title), made against one version of the note.
+ * Positions count UTF-16 code units, as Java and JavaScript strings do, and refer to the content before any
+ * edit; edits are in order and do not overlap. baseLength, if given, is the length of that content, checked
+ * when the patch is applied.
+ *
+ * The patch is applied while the content is copied, so a chunked note is patched without holding it in memory.
+ */
+public record NotePatch(String title, Long baseLength, List<Edit> edits) {
+
+    public static final int MAX_EDITS = 1000;
+
+    // Changed lines a diff looks for before it settles for one edit over everything between the first and the last
+    private static final int MAX_DIFF_LINES = 500;
+
+    public record Edit(int at, int delete, String insert) {
+        public Edit {
+            insert = insert == null ? "" : insert;
+        }
+    }
+
+    /**
+     * UTF-8 bytes at the start and at the end of the content that applying the patch left as they were.
+     */
+    public record Applied(long prefixBytes, long suffixBytes) {}
+
+    public NotePatch {
+        edits = edits == null ? List.of() : edits;
+    }
+
+    /**
+     * What is wrong with the edits themselves (null if nothing); whether they fit the content is found out when
+     * the patch is applied.
+     */
+    public String problem() {
+        if (edits.size() > MAX_EDITS) return "at most " + MAX_EDITS + " edits per patch.";
+        long end = 0;
+        for (Edit edit : edits) {
+            if (edit == null) return "edits must not be null.";
+            if (edit.at() < 0 || edit.delete() < 0) return "edit positions and lengths must not be negative.";
+            if (edit.at() < end) return "edits must be in order and must not overlap.";
+            // Postgres text cannot hold NUL
+            if (edit.insert().indexOf('\0') >= 0) return "content must not contain a NUL character.";
+            end = (long) edit.at() + edit.delete();
+        }
+        return null;
+    }
+
+    /**
+     * The patched content, or null if the edits do not fit it (past its end, another base length, or splitting
+     * a surrogate pair).
+     */
+    public String apply(String base) {
+        StringWriter out = new StringWriter(base.length());
+        try {
+            if (apply(new StringReader(base), out) == null) return null;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        String patched = out.toString();
+        return StandardCharsets.UTF_8.newEncoder().canEncode(patched) ? patched : null;
+    }
+
+    /**
+     * Copies the base content from `in` to `out` with the edits applied; null if they do not fit it. A split
+     * surrogate pair is only caught by `out` (an encoding writer that reports malformed input).
+     */
+    public Applied apply(Reader in, Writer out) throws IOException {
+        Copy copy = new Copy(in, out);
+        long position = 0;
+        long prefixBytes = -1;
+        for (Edit edit : edits) {
+            if (!copy.chars(edit.at() - position, true)) return null;
+            if (prefixBytes < 0) prefixBytes = copy.bytes;
+            if (!copy.chars(edit.delete(), false)) return null;
+            out.write(edit.insert());
+            position = (long) edit.at() + edit.delete();
+        }
+        long beforeSuffix = copy.bytes;
+        copy.chars(-1, true);
+        if (baseLength != null && copy.read != baseLength) return null;
+        return new Applied(prefixBytes < 0 ? copy.bytes : prefixBytes, copy.bytes - beforeSuffix);
+    }
+
+    /**
+     * The patch that undoes this one, given the content it was applied to: edits to the patched content that
+     * give `base` back.
+     */
+    public NotePatch inverse(String base) {
+        List<Edit> undo = new ArrayList<>(edits.size());
+        long shift = 0;
+        for (Edit edit : edits) {
+            undo.add(new Edit((int) (edit.at() + shift), edit.insert().length(),
+                    base.substring(edit.at(), edit.at() + edit.delete())));
+            shift += edit.insert().length() - edit.delete();
+        }
+        return new NotePatch(null, null, undo);
+    }
+
+    /**
+     * Edits that turn `from` into `to`: the lines that differ (Myers' diff over the part between the common start
+     * and end), each cut down to the characters that differ. With more than MAX_DIFF_LINES changed lines, one
+     * edit over all of that part.
+     */
+    public static NotePatch between(String from, String to) {
+        int prefix = 0;
+        int shorter = Math.min(from.length(), to.length());
+        while (prefix < shorter && from.charAt(prefix) == to.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < shorter - prefix
+                && from.charAt(from.length() - 1 - suffix) == to.charAt(to.length() - 1 - suffix)) suffix++;
+        if (prefix == from.length() && prefix == to.length()) {
+            return new NotePatch(null, null, List.of());
+        }
+        // Not between the halves of a surrogate pair
+        if (prefix > 0 && Character.isHighSurrogate(from.charAt(prefix - 1))) prefix--;
+        if (suffix > 0 && Character.isLowSurrogate(from.charAt(from.length() - suffix))) suffix--;
+        String a = from.substring(prefix, from.length() - suffix);
+        String b = to.substring(prefix, to.length() - suffix);
+        int[] aLines = lineStarts(a);
+        int[] bLines = lineStarts(b);
+
+        List<int[]> hunks = diffLines(lines(a, aLines), lines(b, bLines));
+        if (hunks == null) {
+            hunks = List.of(new int[]{0, aLines.length - 1, 0, bLines.length - 1});
+        }
+        List<Edit> edits = new ArrayList<>(hunks.size());
+        for (int[] hunk : hunks) {
+            edits.add(trimmed(prefix + aLines[hunk[0]], a.substring(aLines[hunk[0]], aLines[hunk[1]]),
+                    b.substring(bLines[hunk[2]], bLines[hunk[3]])));
+        }
+        return new NotePatch(null, null, edits);
+    }
+
+    // Where each line starts (a line ends after its \n), and the end of the text as the last entry
+    private static int[] lineStarts(String text) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < text.length(); i = text.indexOf('\n', i) < 0 ? text.length() : text.indexOf('\n', i) + 1) {
+            starts.add(i);
+        }
+        starts.add(text.length());
+        return starts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static String[] lines(String text, int[] starts) {
+        String[] lines = new String[starts.length - 1];
+        for (int i = 0; i < lines.length; i++) lines[i] = text.substring(starts[i], starts[i + 1]);
+        return lines;
+    }
+
+    // Myers' O(ND) diff over the lines: the differing stretches as {aFrom, aTo, bFrom, bTo} line indexes (ends
+    // exclusive), in order; null if there are more than MAX_DIFF_LINES changed lines
+    private static List<int[]> diffLines(String[] a, String[] b) {
+        int n = a.length;
+        int m = b.length;
+        int max = Math.min(n + m, MAX_DIFF_LINES);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[x].equals(b[y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return hunks(trace, d, n, m, offset);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Walks the trace back from the end, one inserted or deleted line per step, merging adjacent ones
+    private static List<int[]> hunks(List<int[]> trace, int steps, int n, int m, int offset) {
+        List<int[]> hunks = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = steps; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? k + 1 : k - 1;
+            int prevX = v[offset + prevK];
+            int prevY = prevX - prevK;
+            int[] hunk = prevK == k + 1
+                    ? new int[]{prevX, prevX, prevY, prevY + 1}
+                    : new int[]{prevX, prevX + 1, prevY, prevY};
+            int[] next = hunks.isEmpty() ? null : hunks.get(hunks.size() - 1);
+            if (next != null && next[0] == hunk[1] && next[2] == hunk[3]) {
+                next[0] = hunk[0];
+                next[2] = hunk[2];
+            } else {
+                hunks.add(hunk);
+            }
+            x = prevX;
+            y = prevY;
+        }
+        Collections.reverse(hunks);
+        return hunks;
+    }
+
+    // An edit replacing `removed` (at `at`) with `inserted`, without the characters they start and end with alike
+    private static Edit trimmed(int at, String removed, String inserted) {
+        int start = 0;
+        int shorter = Math.min(removed.length(), inserted.length());
+        while (start < shorter && removed.charAt(start) == inserted.charAt(start)) start++;
+        if (start > 0 && Character.isHighSurrogate(removed.charAt(start - 1))) start--;
+        int end = 0;
+        while (end < shorter - start && removed.charAt(removed.length() - 1 - end)
+                == inserted.charAt(inserted.length() - 1 - end)) end++;
+        if (end > 0 && Character.isLowSurrogate(removed.charAt(removed.length() - end))) end--;
+        return new Edit(at + start, removed.length() - start - end,
+                inserted.substring(start, inserted.length() - end));
+    }
+
+    // Copies (or skips) characters of the base, counting them and the UTF-8 bytes copied
+    private static class Copy {
+        private final Reader in;
+        private final Writer out;
+        private final char[] buffer = new char[8192];
+        private long read;
+        private long bytes;
+
+        Copy(Reader in, Writer out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        // `count` characters, or all that are left if negative; false if the base ends first
+        boolean chars(long count, boolean write) throws IOException {
+            while (count != 0) {
+                int n = in.read(buffer, 0, count < 0 ? buffer.length : (int) Math.min(count, buffer.length));
+                if (n < 0) return count < 0;
+                read += n;
+                if (count > 0) count -= n;
+                if (!write) continue;
+                out.write(buffer, 0, n);
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    // A surrogate pair is 4 bytes, 2 for each half
+                    bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.secure_notes.model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One full-text search result: a note the caller may read, its rank and a content snippet
+ * with the matched words wrapped in {@link #MATCH_START} / {@link #MATCH_END}.
+ */
+public interface NoteSearchHit {
+
+    // Private-use characters, so the markers cannot be confused with (or injected as) HTML
+    String MATCH_START = "\uE000";
+    String MATCH_END = "\uE001";
+
+    UUID getId();
+
+    String getTitle();
+
+    LocalDateTime getCreatedAt();
+
+    String getOwnerUsername();
+
+    // Permission granted to the current user; null for the user's own notes
+    SharePermission getPermission();
+
+    Float getRank();
+
+    String getSnippet();
+
+    default boolean isOwned() {
+        return getPermission() == null;
+    }
+
+    /**
+     * The snippet split into plain and matched parts, for escaped rendering.
+     */
+    default List<Part> getSnippetParts() {
+        return Part.split(getSnippet());
+    }
+
+    record Part(String text, boolean match) {
+
+        static List<Part> split(String snippet) {
+            List<Part> parts = new ArrayList<>();
+            if (snippet == null) return parts;
+            int pos = 0;
+            while (pos < snippet.length()) {
+                int start = snippet.indexOf(MATCH_START, pos);
+                if (start < 0) break;
+                int end = snippet.indexOf(MATCH_END, start);
+                if (end < 0) break;
+                if (start > pos) parts.add(new Part(snippet.substring(pos, start), false));
+                parts.add(new Part(snippet.substring(start + MATCH_START.length(), end), true));
+                pos = end + MATCH_END.length();
+            }
+            if (pos < snippet.length()) {
+                parts.add(new Part(snippet.substring(pos).replace(MATCH_START, "").replace(MATCH_END, ""), false));
+            }
+            return parts;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.secure_notes.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * One row of the note_shares table: a user the note is shared with and the granted permission.
+ * Usernames are stored normalized (see {@link Note#normalizeUsername(String)}) so lookups can use the index.
+ * The note's creation time is copied here so "shared with me" pages can be read in index order.
+ */
+@Embeddable
+public class NoteShare {
+
+    @Column(nullable = false, length = 100)
+    private String username;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private SharePermission permission;
+
+    // Copy of Note.createdAt (keyset pagination key)
+    private LocalDateTime noteCreatedAt;
+
+    // Default constructor required by JPA
+    protected NoteShare() {}
+
+    public NoteShare(String username, SharePermission permission, LocalDateTime noteCreatedAt) {
+        this.username = username;
+        this.permission = permission;
+        this.noteCreatedAt = noteCreatedAt;
+    }
+
+    public String getUsername() { return username; }
+
+    public SharePermission getPermission() { return permission; }
+
+    public LocalDateTime getNoteCreatedAt() { return noteCreatedAt; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NoteShare other)) return false;
+        return Objects.equals(username, other.username) && permission == other.permission
+                && Objects.equals(noteCreatedAt, other.noteCreatedAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(username, permission, noteCreatedAt);
+    }
+}
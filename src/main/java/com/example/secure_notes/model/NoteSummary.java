@@ -0,0 +1,30 @@
+package com.example.secure_notes.model;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Read-only projection of a note for list views: no content, no share lists, not tracked by Hibernate.
+ */
+public interface NoteSummary {
+
+    UUID getId();
+
+    // Changes with every write to the note (see Note.version); API clients compare it to their copy
+    Long getVersion();
+
+    String getTitle();
+
+    LocalDateTime getCreatedAt();
+
+    Boolean getLocked();
+
+    String getOwnerUsername();
+
+    // Permission granted to the current user; null for the user's own notes
+    SharePermission getPermission();
+
+    default boolean isReadWrite() {
+        return getPermission() == SharePermission.READ_WRITE;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.secure_notes.model;
+
+/**
+ * Access level granted to a user a note is shared with.
+ */
+public enum SharePermission {
+    READ_ONLY,
+    READ_WRITE
+}
@@ -1,9 +1,13 @@
 package com.example.secure_notes.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Entity
 @Table(name = "users") // 'user' e cuvânt rezervat în PostgreSQL, deci folosim 'users'
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE) // golit pe toate nodurile la orice schimbare (user_changed)
 public class User {
 
     @Id
@@ -0,0 +1,12 @@
+package com.example.secure_notes.model;
+
+/**
+ * Immutable copy of a users row, as kept in the user cache. Never handed to Spring Security directly:
+ * it erases the credentials of the UserDetails it authenticated, so each login gets a fresh one.
+ */
+public record UserSnapshot(Long id, String username, String passwordHash, String role) {
+
+    public static UserSnapshot of(User user) {
+        return new UserSnapshot(user.getId(), user.getUsername(), user.getPassword(), user.getRole());
+    }
+}
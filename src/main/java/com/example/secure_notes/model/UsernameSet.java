@@ -0,0 +1,86 @@
+package com.example.secure_notes.model;
+
+import java.util.Collection;
+
+/**
+ * Immutable, case-insensitive set of usernames used for note access checks.
+ *
+ * Open addressing over a power-of-two table, hashing and comparing case-folded characters in place,
+ * so {@link #contains(String)} neither allocates nor normalizes the argument. Hash and equality fold
+ * the same way (see {@link #fold}), or names such as "ı" and "I" would be equal but land in different slots.
+ */
+final class UsernameSet {
+
+    static final UsernameSet EMPTY = new UsernameSet(new String[0], 0, 32);
+
+    private final String[] table;
+    private final int size;
+    private final int shift;
+
+    private UsernameSet(String[] table, int size, int shift) {
+        this.table = table;
+        this.size = size;
+        this.shift = shift;
+    }
+
+    static UsernameSet of(Collection<String> usernames) {
+        if (usernames.isEmpty()) return EMPTY;
+
+        // Keep the load factor at or below 0.5 so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(2, usernames.size()) * 2 - 1) << 1;
+        int shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        String[] table = new String[capacity];
+        int size = 0;
+        for (String username : usernames) {
+            int slot = slot(username, shift);
+            while (table[slot] != null && !sameName(table[slot], username)) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (table[slot] == null) {
+                table[slot] = username;
+                size++;
+            }
+        }
+        return new UsernameSet(table, size, shift);
+    }
+
+    boolean contains(String username) {
+        if (size == 0 || username == null) return false;
+        int mask = table.length - 1;
+        int slot = slot(username, shift);
+        String candidate;
+        while ((candidate = table[slot]) != null) {
+            if (sameName(candidate, username)) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Fibonacci hashing: similar names such as user1, user2, ... would otherwise land in one probe run
+    private static int slot(String username, int shift) {
+        int h = 0;
+        for (int i = 0; i < username.length(); i++) {
+            h = 31 * h + fold(username.charAt(i));
+        }
+        return (h * 0x9E3779B9) >>> shift;
+    }
+
+    private static boolean sameName(String a, String b) {
+        if (a.length() != b.length()) return false;
+        for (int i = 0; i < a.length(); i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y && fold(x) != fold(y)) return false;
+        }
+        return true;
+    }
+
+    // The folding of String.equalsIgnoreCase: through upper case, then lower case
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -1,20 +1,169 @@
 package com.example.secure_notes.repository;
 
 import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.NoteSearchHit;
+import com.example.secure_notes.model.NoteSummary;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface NoteRepository extends JpaRepository<Note, UUID> {
-    List<Note> findByOwnerUsernameOrderByCreatedAtDesc(String ownerUsername);
-
     Optional<Note> findByIdAndOwnerUsername(UUID id, String ownerUsername);
 
-    // Find notes shared with a user (read-only or read-write)
-    @Query("SELECT n FROM Note n WHERE n.sharedReadOnly LIKE %:username% OR n.sharedReadWrite LIKE %:username%")
-    List<Note> findSharedWithUser(@Param("username") String username);
+    // Current version only (primary key lookup), to validate a second-level cached Note
+    @Query("SELECT n.version FROM Note n WHERE n.id = :id")
+    Optional<Long> findVersionById(@Param("id") UUID id);
+
+    // Current version of a note the user may read (owner or any share), or may write; empty if missing or not
+    // allowed. Answers conditional API requests without loading the note. Sharee = Note.normalizeUsername.
+    @Query(value = "SELECT version FROM notes WHERE id = :id AND (owner_username = :username OR EXISTS " +
+            "(SELECT 1 FROM note_shares s WHERE s.note_id = notes.id AND s.username = :sharee))", nativeQuery = true)
+    Optional<Long> findReadableVersion(@Param("id") UUID id,
+                                       @Param("username") String username,
+                                       @Param("sharee") String sharee);
+
+    @Query(value = "SELECT version FROM notes WHERE id = :id AND " + WRITABLE_BY_USER, nativeQuery = true)
+    Optional<Long> findWritableVersion(@Param("id") UUID id,
+                                       @Param("username") String username,
+                                       @Param("sharee") String sharee);
+
+    // Keyset pagination: notes strictly after (createdAt, id), newest first. Pass a Pageable for the page size only
+    // (page 0); every page is an index range scan on idx_notes_owner_created, whatever its position.
+    @Transactional(readOnly = true)
+    @Query("SELECT n.id AS id, n.version AS version, n.title AS title, n.createdAt AS createdAt, n.isLocked AS locked, " +
+            "n.ownerUsername AS ownerUsername FROM Note n " +
+            "WHERE n.ownerUsername = :owner AND (n.createdAt, n.id) < (:createdAt, :id) " +
+            "ORDER BY n.createdAt DESC, n.id DESC")
+    Slice<NoteSummary> findOwnedPage(@Param("owner") String ownerUsername,
+                                     @Param("createdAt") LocalDateTime afterCreatedAt,
+                                     @Param("id") UUID afterId,
+                                     Pageable pageable);
+
+    // One page of the notes shared with a user, read in order from idx_note_shares_user_created.
+    // Native because the keyset condition must use note_shares columns only to become an index range.
+    // The username must be normalized with Note.normalizeUsername.
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT n.id AS id, n.version AS version, n.title AS title, n.created_at AS createdAt, n.is_locked AS locked, " +
+            "n.owner_username AS ownerUsername, s.permission AS permission " +
+            "FROM note_shares s JOIN notes n ON n.id = s.note_id " +
+            "WHERE s.username = :username AND (s.note_created_at, s.note_id) < (:createdAt, :id) " +
+            "ORDER BY s.note_created_at DESC, s.note_id DESC", nativeQuery = true)
+    Slice<NoteSummary> findSharedPage(@Param("username") String username,
+                                      @Param("createdAt") LocalDateTime afterCreatedAt,
+                                      @Param("id") UUID afterId,
+                                      Pageable pageable);
+
+    // Exports: every note the user owns, or every note shared with them, read through a server-side cursor in
+    // index order. Rows are fetched EXPORT_FETCH_SIZE at a time (Postgres only does so inside a transaction),
+    // and loaded read-only (no dirty-checking snapshots). Close the stream, and detach each note once used.
+    // The sharee must be normalized with Note.normalizeUsername.
+    String EXPORT_FETCH_SIZE = "500";
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT n FROM Note n WHERE n.ownerUsername = :owner ORDER BY n.createdAt DESC, n.id DESC")
+    Stream<Note> streamOwned(@Param("owner") String ownerUsername);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT n FROM Note n JOIN n.shares s WHERE s.username = :sharee " +
+            "ORDER BY s.noteCreatedAt DESC, n.id DESC")
+    Stream<Note> streamShared(@Param("sharee") String sharee);
+
+    // Edit lock, each operation a single conditional UPDATE on the database clock, so two app nodes cannot both
+    // acquire a lock and the lease timeout does not depend on node clocks. Each returns the number of rows changed
+    // (1 = done, 0 = note missing, not writable by the user, or lock held by someone else). Acquiring the lock is
+    // NoteLocks.acquire, which also returns the previous holder.
+    // The write ACL is checked in the same statement: owner, or a READ_WRITE share (sharee = Note.normalizeUsername).
+    // The version is bumped so an entity loaded before the change cannot overwrite it.
+    // NATIVE_SPACES: without it Hibernate drops every second-level cache region after a native UPDATE; the changed
+    // note is caught by NoteLookup's version check (and evicted on all nodes by the notes trigger) instead.
+    String NATIVE_SPACES = "notes_edit_lock";
+    String WRITABLE_BY_USER = "(owner_username = :username OR EXISTS (SELECT 1 FROM note_shares s " +
+            "WHERE s.note_id = notes.id AND s.username = :sharee AND s.permission = 'READ_WRITE'))";
+
+    // Content given as a string is stored in the row; chunks of earlier content are dropped by a trigger
+    // (see SchemaMigrations.createNoteChunks)
+    String INLINE_CONTENT = "content_length = NULL, content_hash = NULL, ";
+
+    // Save title/content and release the lock, only while the user holds it
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = NATIVE_SPACES))
+    @Query(value = "UPDATE notes SET title = :title, content = :content, " + INLINE_CONTENT +
+            "is_locked = false, locked_by = NULL, locked_at = NULL, version = version + 1 " +
+            "WHERE id = :id AND is_locked = true AND locked_by = :username AND " + WRITABLE_BY_USER,
+            nativeQuery = true)
+    int saveAndUnlock(@Param("id") UUID id,
+                      @Param("username") String username,
+                      @Param("sharee") String sharee,
+                      @Param("title") String title,
+                      @Param("content") String content);
+
+    // API update: save title/content unless someone else holds an unexpired lock, releasing the user's own lock.
+    // With expectedVersion >= 0 (If-Match) the note must still be at that version.
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = NATIVE_SPACES))
+    @Query(value = "UPDATE notes SET title = :title, content = :content, " + INLINE_CONTENT +
+            "is_locked = false, locked_by = NULL, locked_at = NULL, version = version + 1 " +
+            "WHERE id = :id AND " + WRITABLE_BY_USER + " AND (is_locked = false OR locked_by = :username " +
+            "OR locked_at IS NULL OR locked_at < localtimestamp - make_interval(secs => :timeoutSeconds)) " +
+            "AND (:expectedVersion < 0 OR version = :expectedVersion)",
+            nativeQuery = true)
+    int saveUnlessLocked(@Param("id") UUID id,
+                         @Param("username") String username,
+                         @Param("sharee") String sharee,
+                         @Param("title") String title,
+                         @Param("content") String content,
+                         @Param("timeoutSeconds") double timeoutSeconds,
+                         @Param("expectedVersion") long expectedVersion);
+
+    // Release the lock without saving, only if the user holds it
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = NATIVE_SPACES))
+    @Query(value = "UPDATE notes SET is_locked = false, locked_by = NULL, locked_at = NULL, version = version + 1 " +
+            "WHERE id = :id AND is_locked = true AND locked_by = :username", nativeQuery = true)
+    int unlock(@Param("id") UUID id, @Param("username") String username);
+
+    // Full-text search over the notes the caller owns or has been granted, best match first.
+    // Matches come from the GIN index on notes.search_vector; the ACL is part of the WHERE clause.
+    // Of a chunked note only the preview in notes.content is indexed, and snippets come from it too.
+    // Snippets are built for the requested page only (inner LIMIT), ts_headline has to re-parse the content.
+    // The username must be normalized with Note.normalizeUsername; the owner is the principal name as stored.
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT p.id AS id, p.title AS title, p.createdAt AS createdAt, p.ownerUsername AS ownerUsername, " +
+            "p.permission AS permission, p.rank AS rank, " +
+            "ts_headline('simple', p.content, websearch_to_tsquery('simple', :query), " +
+            "'StartSel=" + NoteSearchHit.MATCH_START + ", StopSel=" + NoteSearchHit.MATCH_END + ", " +
+            "MaxFragments=2, MaxWords=30, MinWords=10, FragmentDelimiter=\" … \"') AS snippet " +
+            "FROM (SELECT n.id, n.title, n.content, n.created_at AS createdAt, n.owner_username AS ownerUsername, " +
+            "s.permission, ts_rank_cd(n.search_vector, q) AS rank " +
+            "FROM notes n CROSS JOIN websearch_to_tsquery('simple', :query) q " +
+            "LEFT JOIN note_shares s ON s.note_id = n.id AND s.username = :username " +
+            "WHERE n.search_vector @@ q AND (n.owner_username = :owner OR s.note_id IS NOT NULL) " +
+            "ORDER BY rank DESC, n.created_at DESC, n.id DESC " +
+            "LIMIT :limit OFFSET :offset) p " +
+            "ORDER BY p.rank DESC, p.createdAt DESC, p.id DESC", nativeQuery = true)
+    List<NoteSearchHit> search(@Param("query") String query,
+                               @Param("owner") String ownerUsername,
+                               @Param("username") String username,
+                               @Param("limit") int limit,
+                               @Param("offset") int offset);
 }
@@ -2,9 +2,19 @@ package com.example.secure_notes.repository;
 
 import com.example.secure_notes.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     // Spring generează automat codul SQL pentru metoda asta doar din numele ei!
     Optional<User> findByUsername(String username);
+
+    // Re-hash on login (cost factor raised); the users trigger tells every node's user cache
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.password = :password WHERE u.username = :username")
+    int updatePassword(@Param("username") String username, @Param("password") String password);
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+package com.example.secure_notes.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audit trail of what users do with notes (audit_events): views, edits, shares, unshares, lock steals and so on.
+ *
+ * Recording never waits for the database: {@link #record} puts the event in a bounded in-memory buffer and
+ * returns, and one background thread writes the buffer to the table in JDBC batches (multi-row INSERTs, see
+ * reWriteBatchedInserts), one transaction per batch. While the master is unreachable (failover mode, or a batch
+ * failed) the writer keeps what it has and retries every retry-interval; events recorded meanwhile wait in the
+ * buffer, and once it is full new ones are dropped and counted (audit.events.dropped) rather than slowing
+ * requests down. Dropped events are also logged, as a count, when writing resumes.
+ */
+@Service
+public class AuditLog implements DisposableBean {
+
+    public enum Action { VIEW, CREATE, EDIT, DELETE, SHARE, UNSHARE, LOCK_STEAL }
+
+    /**
+     * One audited action: who did it to which note, and any detail (e.g. the user a note was shared with).
+     */
+    public record Event(LocalDateTime at, String username, Action action, UUID noteId, String detail) {}
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final DbFailoverStatusService failoverStatus;
+    private final ArrayBlockingQueue<Event> buffer;
+    private final int batchSize;
+    private final long flushMillis;
+    private final long retryMillis;
+
+    private final Counter recorded;
+    private final Counter dropped;
+    private final Counter written;
+    private final Counter failedBatches;
+    private final Timer batchTime;
+
+    private volatile boolean running;
+    private Thread thread;
+    private long droppedSinceLog;
+
+    public AuditLog(JdbcTemplate jdbc, TransactionTemplate tx, DbFailoverStatusService failoverStatus,
+                    MeterRegistry meterRegistry,
+                    @Value("${app.audit.buffer-size:65536}") int bufferSize,
+                    @Value("${app.audit.batch-size:500}") int batchSize,
+                    @Value("${app.audit.flush-interval:1s}") Duration flushInterval,
+                    @Value("${app.audit.retry-interval:5s}") Duration retryInterval) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.failoverStatus = failoverStatus;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.batchSize = batchSize;
+        this.flushMillis = flushInterval.toMillis();
+        this.retryMillis = retryInterval.toMillis();
+        this.recorded = Counter.builder("audit.events.recorded")
+                .description("Audit events put in the buffer")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("audit.events.dropped")
+                .description("Audit events dropped because the buffer was full (database slow or unreachable)")
+                .register(meterRegistry);
+        this.written = Counter.builder("audit.events.written")
+                .description("Audit events written to the database")
+                .register(meterRegistry);
+        this.failedBatches = Counter.builder("audit.batches.failed")
+                .description("Audit batches that could not be written and are retried")
+                .register(meterRegistry);
+        this.batchTime = Timer.builder("audit.batch.time")
+                .description("Time to write one batch of audit events")
+                .register(meterRegistry);
+        Gauge.builder("audit.buffer.size", buffer, ArrayBlockingQueue::size)
+                .description("Audit events waiting to be written")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Puts the event in the buffer, or drops it if the buffer is full; never blocks.
+     */
+    public void record(String username, Action action, UUID noteId, String detail) {
+        if (buffer.offer(new Event(LocalDateTime.now(), column(username), action, noteId, column(detail)))) {
+            recorded.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    public void record(String username, Action action, UUID noteId) {
+        record(username, action, noteId, null);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "audit-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        synchronized (this) {
+            running = false;
+            if (thread == null) return;
+            thread.interrupt();
+        }
+        // Whatever the writer still had is written on its way out
+        thread.join(10_000);
+    }
+
+    private void run() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        while (running || !batch.isEmpty() || !buffer.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    // Waits for the first event, then takes what else is there; a full batch goes at once
+                    Event first = running ? buffer.poll(flushMillis, TimeUnit.MILLISECONDS) : buffer.poll();
+                    if (first == null) continue;
+                    batch.add(first);
+                    buffer.drainTo(batch, batchSize - 1);
+                }
+                if (failoverStatus.isFailoverMode() || !write(batch)) {
+                    if (!running) break; // shutting down: the rest is lost
+                    Thread.sleep(retryMillis);
+                    continue;
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                // destroy(): write what is left, without waiting
+                continue;
+            }
+        }
+        if (!batch.isEmpty() || !buffer.isEmpty()) {
+            System.err.println("!!! AUDIT: " + (batch.size() + buffer.size()) + " event(s) not written at shutdown");
+        }
+    }
+
+    // False if the batch could not be written (it is kept and retried)
+    private boolean write(List<Event> batch) {
+        try {
+            batchTime.record(() -> tx.executeWithoutResult(status -> jdbc.batchUpdate(
+                    "INSERT INTO audit_events (occurred_at, username, action, note_id, detail) VALUES (?, ?, ?, ?, ?)",
+                    batch, batch.size(), (ps, event) -> {
+                        ps.setTimestamp(1, Timestamp.valueOf(event.at()));
+                        ps.setString(2, event.username());
+                        ps.setString(3, event.action().name());
+                        ps.setObject(4, event.noteId());
+                        ps.setString(5, event.detail());
+                    })));
+        } catch (DataAccessException e) {
+            failedBatches.increment();
+            System.err.println("!!! AUDIT WRITE FAILED (" + batch.size() + " event(s) kept): "
+                    + e.getMostSpecificCause().getMessage());
+            return false;
+        }
+        written.increment(batch.size());
+        long droppedNow = (long) dropped.count();
+        if (droppedNow > droppedSinceLog) {
+            System.err.println("!!! AUDIT: " + (droppedNow - droppedSinceLog) + " event(s) dropped, buffer was full");
+            droppedSinceLog = droppedNow;
+        }
+        return true;
+    }
+
+    // Fits the varchar(255) columns: one bad value would otherwise fail its whole batch on every retry
+    private static String column(String value) {
+        if (value == null) return null;
+        value = value.replace("\0", "");
+        return value.length() > 255 ? value.substring(0, 255) : value;
+    }
+
+    /**
+     * Events waiting in the buffer (not counting a batch being written).
+     */
+    public int pending() {
+        return buffer.size();
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.secure_notes.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BCrypt on a small dedicated pool, so a burst of logins cannot occupy every request thread.
+ *
+ * At most {@code threads} hashes run at once and {@code queueSize} more wait. The calling thread is parked
+ * until its own hash is done, so this is also the bound on request threads held here: at most
+ * {@code threads + queueSize} callers are let in (a semaphore, taken without waiting), and any further call
+ * fails at once with {@link PasswordHashingBusyException} (503) instead of parking another thread. Keep that
+ * sum well below the request thread count (server.tomcat.threads.max) so other pages stay served during a
+ * burst of logins. upgradeEncoding is true for hashes made with a lower cost than the configured one, so they
+ * are re-hashed at the next successful login.
+ */
+public final class BoundedPasswordEncoder implements PasswordEncoder {
+
+    private final BCryptPasswordEncoder bcrypt;
+    private final ThreadPoolExecutor pool;
+    private final Semaphore callers;
+
+    private final Timer verifications;
+    private final Counter rejected;
+
+    public BoundedPasswordEncoder(int strength, int threads, int queueSize, MeterRegistry meterRegistry) {
+        this.bcrypt = new BCryptPasswordEncoder(strength);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "password-hashing-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        // The queue is bounded by the callers let in
+        this.callers = new Semaphore(threads + queueSize);
+
+        this.verifications = Timer.builder("auth.password.verify")
+                .description("Password verification time, including the wait for a hashing thread")
+                .tag("cost", Integer.toString(strength))
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.rejected = Counter.builder("auth.password.rejected")
+                .description("Password hashes refused because the hashing pool was saturated")
+                .register(meterRegistry);
+        Gauge.builder("auth.password.active", pool, ThreadPoolExecutor::getActiveCount)
+                .description("Password hashes running")
+                .register(meterRegistry);
+        Gauge.builder("auth.password.queued", pool, p -> p.getQueue().size())
+                .description("Password hashes waiting for a hashing thread")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run(() -> bcrypt.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        long start = System.nanoTime();
+        boolean matches = run(() -> bcrypt.matches(rawPassword, encodedPassword));
+        verifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return matches;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return bcrypt.upgradeEncoding(encodedPassword);
+    }
+
+    // Called by Spring on shutdown (inferred destroy method)
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private <T> T run(Callable<T> hash) {
+        if (!callers.tryAcquire()) {
+            rejected.increment();
+            throw new PasswordHashingBusyException();
+        }
+        try {
+            Future<T> result = pool.submit(hash);
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new PasswordHashingBusyException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw new IllegalStateException(e.getCause());
+            }
+        } finally {
+            callers.release();
+        }
+    }
+}
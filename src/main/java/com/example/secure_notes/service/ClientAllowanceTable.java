@@ -0,0 +1,247 @@
+package com.example.secure_notes.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed-capacity, lock-striped table of per-client request allowances for this node.
+ *
+ * Each client holds either the rest of a lease it got from the shared counter, or a "blocked until"
+ * mark once the shared counter refused it. Memory is allocated once: when a client's probe window
+ * is full, the slot of an expired entry, or else the least recently used one, is taken over.
+ * Losing an entry is safe: the client just asks the shared counter again.
+ *
+ * Only one caller at a time leases for a client: NEED_LEASE marks the lease as in flight, and until
+ * {@link #applyLease} (or {@link #cancelLease}) clears the mark, other callers for that client get
+ * LEASE_PENDING and can {@link #awaitLease} instead of each asking the shared counter. A mark older than
+ * LEASE_TIMEOUT is given up, so a stuck caller does not hold the client up for good.
+ *
+ * All times are System.nanoTime() values passed in by the caller (only awaitLease reads the clock).
+ * No I/O happens under a stripe lock.
+ */
+public final class ClientAllowanceTable {
+
+    public static final int TAKEN = 1;
+    public static final int NEED_LEASE = 0;
+    public static final int BLOCKED = -1;
+    public static final int LEASE_PENDING = 2;
+
+    private static final long LEASE_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+    // Slots looked at per client; bounds both lookup cost and the LRU approximation
+    private static final int MAX_PROBE = 8;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ClientAllowanceTable(int capacity, int stripeCount) {
+        int stripesPow2 = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        int slotsPerStripe = Integer.highestOneBit(Math.max(MAX_PROBE, capacity / stripesPow2 - 1) << 1);
+        this.stripes = new Stripe[stripesPow2];
+        for (int i = 0; i < stripesPow2; i++) {
+            stripes[i] = new Stripe(slotsPerStripe);
+        }
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripesPow2);
+    }
+
+    /**
+     * Takes {@code weight} requests from the client's allowance: TAKEN, BLOCKED (refused by the shared
+     * counter, still within the block time), LEASE_PENDING (nothing usable left, another caller is leasing)
+     * or NEED_LEASE (nothing usable left; the caller must now applyLease or cancelLease).
+     */
+    public int take(ClientKey key, int weight, long now) {
+        long hash = mix(key);
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            long[] data = stripe.data;
+            int at = stripe.find(key, (int) hash, now, true, evictions);
+            data[at + LAST_ACCESS] = now;
+            if (now - data[at + VALID_UNTIL] < 0) {
+                long remaining = data[at + REMAINING];
+                if (remaining < 0) {
+                    return BLOCKED;
+                }
+                if (remaining >= weight) {
+                    data[at + REMAINING] = remaining - weight;
+                    return TAKEN;
+                }
+            }
+            if (now - data[at + LEASING_UNTIL] < 0) {
+                return LEASE_PENDING;
+            }
+            data[at + LEASING_UNTIL] = now + LEASE_TIMEOUT;
+            return NEED_LEASE;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits while another caller's lease for the client is in flight, at most until it times out. False if
+     * interrupted.
+     */
+    public boolean awaitLease(ClientKey key) {
+        long hash = mix(key);
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                int at = stripe.find(key, (int) hash, now, false, evictions);
+                if (at < 0) return true;
+                long wait = stripe.data[at + LEASING_UNTIL] - now;
+                if (wait <= 0) return true;
+                stripe.leased.awaitNanos(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the in-flight mark of a lease that will not be applied (the lease call failed).
+     */
+    public void cancelLease(ClientKey key, long now) {
+        long hash = mix(key);
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            int at = stripe.find(key, (int) hash, now, false, evictions);
+            if (at >= 0) stripe.data[at + LEASING_UNTIL] = now;
+            stripe.leased.signalAll();
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Records a lease from the shared counter and takes {@code weight} from it. If fewer than {@code weight}
+     * requests were granted, the client is blocked until {@code blockedUntil} and false is returned.
+     */
+    public boolean applyLease(ClientKey key, int weight, int granted, long validUntil, long blockedUntil, long now) {
+        long hash = mix(key);
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            long[] data = stripe.data;
+            int at = stripe.find(key, (int) hash, now, true, evictions);
+            data[at + LAST_ACCESS] = now;
+            data[at + LEASING_UNTIL] = now;
+            stripe.leased.signalAll();
+            if (granted < weight) {
+                data[at + REMAINING] = -1;
+                data[at + VALID_UNTIL] = blockedUntil;
+                return false;
+            }
+            // A concurrent lease for the same client may have landed first: keep both
+            long left = now - data[at + VALID_UNTIL] < 0 ? Math.max(0, data[at + REMAINING]) : 0;
+            data[at + REMAINING] = left + granted - weight;
+            data[at + VALID_UNTIL] = validUntil;
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    public int capacity() {
+        return stripes.length * stripes[0].slots;
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    // Murmur3 finalizer over both halves
+    private static long mix(ClientKey key) {
+        long h = key.hi() * 0x9E3779B97F4A7C15L ^ key.lo();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Slot layout: one run of longs per client, so a lookup touches one or two cache lines
+    private static final int HI = 0;
+    private static final int LO = 1;
+    private static final int VALID_UNTIL = 2;
+    private static final int LAST_ACCESS = 3;
+    private static final int REMAINING = 4;   // requests left, or -1 while blocked
+    private static final int LEASING_UNTIL = 5; // a lease is in flight until then
+    private static final int STRIDE = 6;
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition leased = lock.newCondition();
+        final long[] data;
+        final boolean[] used;
+        final int slots;
+        int size;
+
+        Stripe(int slots) {
+            this.slots = slots;
+            this.data = new long[slots * STRIDE];
+            this.used = new boolean[slots];
+        }
+
+        // Offset of the key's slot in data, or -1 if absent and !insert. Slots are never emptied again, so the
+        // first free slot ends the search; a full window is resolved by evicting expired, then LRU.
+        int find(ClientKey key, int hash, long now, boolean insert, AtomicLong evictions) {
+            int mask = slots - 1;
+            int victim = -1;
+            boolean victimExpired = false;
+            for (int p = 0; p < MAX_PROBE; p++) {
+                int slot = (hash + p) & mask;
+                int at = slot * STRIDE;
+                if (!used[slot]) {
+                    if (!insert) return -1;
+                    used[slot] = true;
+                    size++;
+                    return claim(at, key, now);
+                }
+                if (data[at + HI] == key.hi() && data[at + LO] == key.lo()) {
+                    return at;
+                }
+                boolean expired = now - data[at + VALID_UNTIL] >= 0 && now - data[at + LEASING_UNTIL] >= 0;
+                if (victim < 0 || (expired && !victimExpired)
+                        || (expired == victimExpired && data[at + LAST_ACCESS] - data[victim + LAST_ACCESS] < 0)) {
+                    victim = at;
+                    victimExpired = expired;
+                }
+            }
+            if (!insert) return -1;
+            evictions.incrementAndGet();
+            return claim(victim, key, now);
+        }
+
+        private int claim(int at, ClientKey key, long now) {
+            data[at + HI] = key.hi();
+            data[at + LO] = key.lo();
+            data[at + VALID_UNTIL] = now;
+            data[at + LAST_ACCESS] = now;
+            data[at + REMAINING] = 0;
+            data[at + LEASING_UNTIL] = now;
+            return at;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.secure_notes.service;
+
+/**
+ * A client IP address as 128 bits, the key for rate limiting.
+ *
+ * IPv4 addresses are stored IPv4-mapped (::ffff:a.b.c.d), so both spellings are one client.
+ * Anything that does not parse as an address (the X-Forwarded-For header is client-controlled)
+ * is reduced to a 64-bit hash under the {@link #HASHED} prefix.
+ */
+public record ClientKey(long hi, long lo) {
+
+    // Prefix of keys that are hashes of unparseable input
+    static final long HASHED = -1L;
+
+    private static final long IPV4_MAPPED = 0xFFFF_0000_0000L;
+
+    /**
+     * Parses the first entry of an X-Forwarded-For style value (or a plain address) without creating substrings.
+     */
+    public static ClientKey parse(String value) {
+        if (value == null) return new ClientKey(HASHED, 0);
+
+        // First list entry, trimmed, without [brackets] or %zone
+        int from = 0;
+        int to = value.indexOf(',');
+        if (to < 0) to = value.length();
+        while (from < to && value.charAt(from) == ' ') from++;
+        while (to > from && value.charAt(to - 1) == ' ') to--;
+        if (to - from > 2 && value.charAt(from) == '[' && value.charAt(to - 1) == ']') {
+            from++;
+            to--;
+        }
+        int zone = value.indexOf('%', from);
+        int end = zone >= 0 && zone < to ? zone : to;
+
+        long v4 = parseIpv4(value, from, end);
+        if (v4 >= 0) return new ClientKey(0, IPV4_MAPPED | v4);
+        ClientKey v6 = parseIpv6(value, from, end);
+        if (v6 != null) return v6;
+        return new ClientKey(HASHED, hash(value, from, to));
+    }
+
+    /**
+     * Canonical text form, used as the shared (database) key.
+     */
+    @Override
+    public String toString() {
+        if (hi == 0 && (lo & 0xFFFF_FFFF_0000_0000L) == IPV4_MAPPED) {
+            return ((lo >>> 24) & 0xFF) + "." + ((lo >>> 16) & 0xFF) + "." + ((lo >>> 8) & 0xFF) + "." + (lo & 0xFF);
+        }
+        if (hi == HASHED) {
+            return "h:" + Long.toHexString(lo);
+        }
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            long word = i < 4 ? hi : lo;
+            int shift = 48 - 16 * (i & 3);
+            if (i > 0) sb.append(':');
+            sb.append(Long.toHexString((word >>> shift) & 0xFFFF));
+        }
+        return sb.toString();
+    }
+
+    // Dotted quad in [from, to) as an unsigned 32-bit value, or -1
+    private static long parseIpv4(String s, int from, int to) {
+        long address = 0;
+        int octets = 0;
+        int i = from;
+        while (i < to) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                value = value * 10 + (s.charAt(i) - '0');
+                if (++digits > 3 || value > 255) return -1;
+                i++;
+            }
+            if (digits == 0 || octets == 4) return -1;
+            address = (address << 8) | value;
+            octets++;
+            if (i < to) {
+                if (s.charAt(i) != '.' || i + 1 == to) return -1;
+                i++;
+            }
+        }
+        return octets == 4 ? address : -1;
+    }
+
+    private static ClientKey parseIpv6(String s, int from, int to) {
+        int[] groups = new int[8];
+        int count = 0;
+        int gapAt = -1;
+        int i = from;
+        if (to - from >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+            gapAt = 0;
+            i += 2;
+        }
+        while (i < to) {
+            int value = 0;
+            int digits = 0;
+            int j = i;
+            int h;
+            while (j < to && (h = Character.digit(s.charAt(j), 16)) >= 0) {
+                if (++digits > 4) {
+                    value = -1;
+                    break;
+                }
+                value = (value << 4) | h;
+                j++;
+            }
+            if (j < to && s.charAt(j) == '.') {
+                // Embedded IPv4 tail, e.g. ::ffff:10.0.0.1
+                long v4 = parseIpv4(s, i, to);
+                if (v4 < 0 || count > 6) return null;
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xFFFF);
+                break;
+            }
+            if (digits == 0 || value < 0 || count == 8) return null;
+            groups[count++] = value;
+            i = j;
+            if (i == to) break;
+            if (s.charAt(i) != ':' || i + 1 == to) return null;
+            i++;
+            if (s.charAt(i) == ':') {
+                if (gapAt >= 0) return null;
+                gapAt = count;
+                i++;
+            }
+        }
+        if (gapAt < 0 ? count != 8 : count > 7) return null;
+
+        long hi = 0;
+        long lo = 0;
+        int zeros = 8 - count;
+        int next = 0;
+        for (int k = 0; k < 8; k++) {
+            int group = gapAt >= 0 && k >= gapAt && k < gapAt + zeros ? 0 : groups[next++];
+            if (k < 4) hi = (hi << 16) | group;
+            else lo = (lo << 16) | group;
+        }
+        return new ClientKey(hi, lo);
+    }
+
+    // FNV-1a over the raw characters
+    private static long hash(String s, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.secure_notes.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-client request limit shared by all app nodes through Postgres.
+ *
+ * Each client gets {@code app.rate-limit.requests-per-window} requests per sliding window, counted
+ * in the UNLOGGED table rate_limit_windows by the rate_limit_lease() function (see SchemaMigrations).
+ * A node does not ask the database for every request: it leases up to {@code app.rate-limit.lease-size}
+ * requests at a time into a bounded {@link ClientAllowanceTable} and serves them from memory. A refused
+ * client is blocked locally for about the time one lease needs to free up, so a flooding client costs
+ * one database call per block, not one per request. Concurrent requests of a client that needs a new lease
+ * wait for the one request that is leasing for it, as they would for a lock.
+ *
+ * Leased requests are counted before they are used, so the cluster never admits more than the
+ * limit. The error bound is on the other side: a client may be refused up to
+ * (nodes - 1) x lease-size requests early, while requests leased to another node stay unused.
+ * In failover mode (or if the database cannot be reached) each node limits on its own.
+ */
+@Service
+public class ClusterRateLimiter {
+
+    private static final String LEASE_SQL = "SELECT lease_granted, window_remaining_ms FROM rate_limit_lease(?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final DbFailoverStatusService failoverStatus;
+    private final int limit;
+    private final int leaseSize;
+    private final Duration window;
+
+    private final Counter dbLeases;
+    private final Counter localLeases;
+    private final Counter rejected;
+
+    private final ClientAllowanceTable allowances;
+
+    public ClusterRateLimiter(JdbcTemplate jdbc, DbFailoverStatusService failoverStatus, MeterRegistry meterRegistry,
+                              @Value("${app.rate-limit.requests-per-window:100}") int limit,
+                              @Value("${app.rate-limit.window:1m}") Duration window,
+                              @Value("${app.rate-limit.lease-size:10}") int leaseSize,
+                              @Value("${app.rate-limit.max-clients:100000}") int maxClients) {
+        this.jdbc = jdbc;
+        this.failoverStatus = failoverStatus;
+        this.limit = limit;
+        this.window = window;
+        this.leaseSize = Math.max(1, Math.min(leaseSize, limit));
+        this.allowances = new ClientAllowanceTable(maxClients, 64);
+        this.dbLeases = Counter.builder("ratelimit.leases")
+                .description("Request allowances leased by this node")
+                .tag("source", "database")
+                .register(meterRegistry);
+        this.localLeases = Counter.builder("ratelimit.leases")
+                .description("Request allowances leased by this node")
+                .tag("source", "local")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ratelimit.rejected")
+                .description("Requests refused with 429")
+                .register(meterRegistry);
+        Gauge.builder("ratelimit.clients", allowances, ClientAllowanceTable::size)
+                .description("Clients tracked in this node's allowance table")
+                .register(meterRegistry);
+        FunctionCounter.builder("ratelimit.evictions", allowances, ClientAllowanceTable::evictions)
+                .description("Clients dropped from the full allowance table (they lease again on their next request)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Takes {@code weight} requests from the client's allowance. False means the client is over the limit.
+     */
+    public boolean tryAcquire(String clientIp, int weight) {
+        if (weight <= 0) return true;
+        ClientKey key = ClientKey.parse(clientIp);
+        while (true) {
+            long now = System.nanoTime();
+            int state = allowances.take(key, weight, now);
+            if (state == ClientAllowanceTable.TAKEN) return true;
+            if (state == ClientAllowanceTable.LEASE_PENDING) {
+                // Another request for this client is leasing: wait for it instead of asking the database too
+                if (allowances.awaitLease(key)) continue;
+                break;
+            }
+            if (state == ClientAllowanceTable.NEED_LEASE) {
+                Lease lease;
+                try {
+                    lease = lease(key, weight);
+                } catch (RuntimeException e) {
+                    allowances.cancelLease(key, System.nanoTime());
+                    throw e;
+                }
+                long windowEnd = now + TimeUnit.MILLISECONDS.toNanos(Math.max(1, lease.windowRemainingMillis()));
+                // Roughly the time the sliding window needs to free one lease worth of requests
+                long blockedUntil = Math.min(windowEnd, now + window.toNanos() * Math.max(leaseSize, weight) / limit);
+                if (allowances.applyLease(key, weight, lease.granted(), windowEnd, blockedUntil, now)) {
+                    return true;
+                }
+            }
+            break;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    private Lease lease(ClientKey key, int weight) {
+        if (!failoverStatus.isFailoverMode()) {
+            try {
+                Lease lease = jdbc.queryForObject(LEASE_SQL,
+                        (rs, i) -> new Lease(rs.getInt(1), rs.getLong(2)),
+                        key.toString(), limit, Math.max(leaseSize, weight), weight, window.toSeconds());
+                dbLeases.increment();
+                return lease;
+            } catch (DataAccessException e) {
+                System.err.println("!!! RATE LIMIT: shared state unavailable, limiting locally: "
+                        + e.getMostSpecificCause().getMessage());
+            }
+        }
+        // Node-local fallback: the whole window's allowance at once (replica is read-only, or the DB is unreachable)
+        localLeases.increment();
+        return new Lease(limit, window.toMillis());
+    }
+
+    /**
+     * Drops shared rows of clients that have been idle for a whole sliding window.
+     */
+    @Scheduled(fixedDelayString = "${app.rate-limit.window:1m}", initialDelayString = "${app.rate-limit.window:1m}")
+    public void evictExpired() {
+        if (failoverStatus.isFailoverMode()) {
+            return;
+        }
+        try {
+            jdbc.update("DELETE FROM rate_limit_windows WHERE window_start <= now() - 2 * make_interval(secs => ?)",
+                    window.toSeconds());
+        } catch (DataAccessException e) {
+            System.err.println("!!! RATE LIMIT: cleanup failed: " + e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    private record Lease(int granted, long windowRemainingMillis) {
+    }
+}
@@ -1,32 +1,61 @@
 package com.example.secure_notes.service;
 
-import com.example.secure_notes.model.User;
+import com.example.secure_notes.model.UserSnapshot;
 import com.example.secure_notes.repository.UserRepository;
+import org.springframework.dao.DataAccessException;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 @Service
-public class CustomUserDetailsService implements UserDetailsService {
+public class CustomUserDetailsService implements UserDetailsService, UserDetailsPasswordService {
 
+    private final UserCache userCache;
     private final UserRepository userRepository;
+    private final DbFailoverStatusService failoverStatus;
 
-    public CustomUserDetailsService(UserRepository userRepository) {
+    public CustomUserDetailsService(UserCache userCache, UserRepository userRepository,
+                                    DbFailoverStatusService failoverStatus) {
+        this.userCache = userCache;
         this.userRepository = userRepository;
+        this.failoverStatus = failoverStatus;
     }
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        // Căutăm userul în SQL
-        User user = userRepository.findByUsername(username)
+        // Căutăm userul în cache (sau în SQL, la miss)
+        UserSnapshot user = userCache.find(username)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
         // Îl transformăm într-un obiect pe care îl înțelege Spring Security
         return org.springframework.security.core.userdetails.User
-                .withUsername(user.getUsername())
-                .password(user.getPassword()) // Va fi parola criptată
-                .roles(user.getRole())
+                .withUsername(user.username())
+                .password(user.passwordHash()) // Va fi parola criptată
+                .roles(user.role())
                 .build();
     }
-}
\ No newline at end of file
+
+    /**
+     * Called by Spring Security after a successful login whose hash uses a lower cost than configured.
+     * Best effort: if the hash cannot be stored (e.g. running on the replica), the old one keeps working
+     * and is upgraded at a later login.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        if (failoverStatus.isFailoverMode()) {
+            return user;
+        }
+        try {
+            userRepository.updatePassword(user.getUsername(), newPassword);
+            userCache.invalidate(user.getUsername()); // this node at once; the others via the users trigger
+        } catch (DataAccessException e) {
+            System.err.println("!!! PASSWORD REHASH SKIPPED for " + user.getUsername() + ": " + e.getMostSpecificCause().getMessage());
+            return user;
+        }
+        return org.springframework.security.core.userdetails.User.withUserDetails(user)
+                .password(newPassword)
+                .build();
+    }
+}
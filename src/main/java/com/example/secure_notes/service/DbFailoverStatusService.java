@@ -1,41 +1,71 @@
 package com.example.secure_notes.service;
 
-import javax.sql.DataSource;
-import java.sql.Connection;
-
-import org.springframework.beans.factory.annotation.Value;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+
 /**
- * Detects whether the application is currently operating in database failover mode.
+ * Tells whether the application is currently operating in database failover mode.
  * The failover mode is defined as: master DB is not reachable, but a DB connection
  * is still possible (typically the replica).
+ *
+ * The state is pushed here by the health-check loop in FailoverDataSourceConfig, so reading
+ * it is a volatile read and never touches the database.
  */
 @Service
 public class DbFailoverStatusService {
 
-    private final DataSource dataSource;
-    private final String masterJdbcUrl;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Counter switchesToReplica;
+    private final Counter switchesToMaster;
+
+    private volatile FailoverStatus status = new FailoverStatus(false, 0, Instant.now());
 
-    public DbFailoverStatusService(DataSource dataSource,
-                                   @Value("${spring.datasource.master.url:}") String masterJdbcUrl) {
-        this.dataSource = dataSource;
-        this.masterJdbcUrl = masterJdbcUrl;
+    public DbFailoverStatusService(ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry) {
+        this.eventPublisher = eventPublisher;
+        this.switchesToReplica = Counter.builder("db.failover.switches")
+                .description("Number of switch-overs between master and replica")
+                .tag("target", "replica")
+                .register(meterRegistry);
+        this.switchesToMaster = Counter.builder("db.failover.switches")
+                .description("Number of switch-overs between master and replica")
+                .tag("target", "master")
+                .register(meterRegistry);
+        Gauge.builder("db.failover.mode", this, s -> s.isFailoverMode() ? 1 : 0)
+                .description("1 while running on the replica, 0 while running on the master")
+                .register(meterRegistry);
     }
 
     public boolean isFailoverMode() {
-        // If master URL isn't configured, we can't make a strong statement.
-        if (masterJdbcUrl == null || masterJdbcUrl.isBlank()) {
-            return false;
+        return status.failoverMode();
+    }
+
+    public FailoverStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Records a new failover state. Does nothing if the state did not change; otherwise bumps
+     * the epoch, counts the switch-over and publishes a {@link FailoverStateChangedEvent}.
+     */
+    public synchronized void publish(boolean failoverMode) {
+        FailoverStatus previous = status;
+        if (previous.failoverMode() == failoverMode) {
+            return;
         }
 
-        try (Connection c = dataSource.getConnection()) {
-            String currentUrl = c.getMetaData().getURL();
-            // If we can connect and current URL isn't master, we assume we're on replica.
-            return currentUrl != null && !currentUrl.equals(masterJdbcUrl);
-        } catch (Exception ignored) {
-            return false;
+        FailoverStatus current = previous.next(failoverMode);
+        status = current;
+
+        if (failoverMode) {
+            switchesToReplica.increment();
+        } else {
+            switchesToMaster.increment();
         }
+        eventPublisher.publishEvent(new FailoverStateChangedEvent(previous, current));
     }
 }
-
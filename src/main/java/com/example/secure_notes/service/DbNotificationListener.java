@@ -0,0 +1,145 @@
+package com.example.secure_notes.service;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Receives Postgres NOTIFY messages for the whole application, over one dedicated connection to the master
+ * (outside the pools: a LISTEN is tied to its session, and notifications are not replicated to the replica).
+ *
+ * While the master is unreachable the listener retries every few seconds. Notifications sent in the
+ * meantime are lost, so after every (re)connect each subscriber's resync callback runs, e.g. to drop a cache.
+ */
+@Service
+public class DbNotificationListener implements DisposableBean {
+
+    private static final int POLL_MILLIS = 500;
+    private static final long RECONNECT_MILLIS = 5000;
+
+    private final String url;
+    private final String user;
+    private final String pass;
+
+    private final Map<String, CopyOnWriteArrayList<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Runnable> resyncCallbacks = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private Thread thread;
+
+    public DbNotificationListener(@Value("${spring.datasource.master.url}") String url,
+                                  @Value("${spring.datasource.master.username}") String user,
+                                  @Value("${spring.datasource.master.password}") String pass) {
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+    }
+
+    /**
+     * Calls {@code handler} with the payload of every notification on {@code channel}, on the listener thread.
+     * {@code onResync} runs after every (re)connect, when notifications may have been missed.
+     */
+    public void subscribe(String channel, Consumer<String> handler, Runnable onResync) {
+        handlers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(handler);
+        resyncCallbacks.add(onResync);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "db-notification-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void destroy() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(url, user, pass)) {
+                listen(conn);
+            } catch (SQLException e) {
+                if (connected) {
+                    System.err.println("!!! DB NOTIFICATIONS: connection lost: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void listen(Connection conn) throws SQLException, InterruptedException {
+        PGConnection pg = conn.unwrap(PGConnection.class);
+        Set<String> listening = new HashSet<>();
+        listenToNewChannels(conn, listening);
+        connected = true;
+        System.out.println(">>> DB NOTIFICATIONS: listening on " + listening);
+        resyncCallbacks.forEach(this::runSafely);
+
+        while (running) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            listenToNewChannels(conn, listening);
+            // Blocks up to POLL_MILLIS; fails fast once the connection is gone
+            PGNotification[] notifications = pg.getNotifications(POLL_MILLIS);
+            if (notifications == null) continue;
+            for (PGNotification n : notifications) {
+                var channelHandlers = handlers.get(n.getName());
+                if (channelHandlers == null) continue;
+                for (Consumer<String> handler : channelHandlers) {
+                    runSafely(() -> handler.accept(n.getParameter()));
+                }
+            }
+        }
+    }
+
+    // Channel names are fixed identifiers chosen in code, never user input
+    private void listenToNewChannels(Connection conn, Set<String> listening) throws SQLException {
+        for (String channel : handlers.keySet()) {
+            if (listening.add(channel)) {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + channel);
+                }
+            }
+        }
+    }
+
+    private void runSafely(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            System.err.println("!!! DB NOTIFICATIONS: handler failed: " + e.getMessage());
+        }
+    }
+}
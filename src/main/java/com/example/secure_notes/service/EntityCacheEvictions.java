@@ -0,0 +1,52 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.config.SecondLevelCacheConfig;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Cache;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+
+/**
+ * Drops second-level cache entries when another node (or anything else) changes the row behind them.
+ *
+ * A trigger on notes (see SchemaMigrations) sends the id of every updated or deleted note on
+ * {@link #NOTE_CHANNEL}; user changes arrive on the user cache's channel. Users change rarely and are
+ * announced by username, so the whole User region is dropped. After a reconnect everything is dropped.
+ */
+@Service
+public class EntityCacheEvictions {
+
+    public static final String NOTE_CHANNEL = "note_changed";
+
+    private final Cache cache;
+    private final Counter noteEvictions;
+
+    public EntityCacheEvictions(EntityManagerFactory entityManagerFactory, DbNotificationListener notifications,
+                                MeterRegistry meterRegistry) {
+        this.cache = entityManagerFactory.getCache().unwrap(Cache.class);
+        this.noteEvictions = Counter.builder("notes.cache.evictions")
+                .description("Cached notes dropped because the note changed")
+                .register(meterRegistry);
+
+        notifications.subscribe(NOTE_CHANNEL, id -> evictNote(UUID.fromString(id)), this::evictAll);
+        notifications.subscribe(UserCache.CHANNEL, username -> cache.evictEntityData(User.class), this::evictAll);
+    }
+
+    /**
+     * Drops the note and its shares from this node's cache.
+     */
+    public void evictNote(UUID id) {
+        cache.evictEntityData(Note.class, id);
+        cache.evictCollectionData(SecondLevelCacheConfig.NOTE_SHARES_REGION, id);
+        noteEvictions.increment();
+    }
+
+    public void evictAll() {
+        cache.evictAllRegions();
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.secure_notes.service;
+
+/**
+ * Published by {@link DbFailoverStatusService} whenever the active database switches
+ * between master and replica.
+ */
+public record FailoverStateChangedEvent(FailoverStatus previous, FailoverStatus current) {
+}
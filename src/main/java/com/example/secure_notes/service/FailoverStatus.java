@@ -0,0 +1,17 @@
+package com.example.secure_notes.service;
+
+import java.time.Instant;
+
+/**
+ * Immutable snapshot of the database failover state.
+ *
+ * @param failoverMode true while the application runs against the replica (read-only mode)
+ * @param epoch        incremented on every switch-over, so readers can detect changes cheaply
+ * @param changedAt    when this state became active
+ */
+public record FailoverStatus(boolean failoverMode, long epoch, Instant changedAt) {
+
+    public FailoverStatus next(boolean failoverMode) {
+        return new FailoverStatus(failoverMode, epoch + 1, Instant.now());
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.Note;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Releases expired note locks in the background, so they stop showing as locked before
+ * anyone opens the note again.
+ *
+ * Every run releases all locks older than {@link Note#LOCK_TIMEOUT} in one UPDATE. Runs are
+ * coordinated through a transaction-scoped Postgres advisory lock: when several app nodes
+ * fire at the same time, only the one that gets the lock sweeps, the others skip the run.
+ * The released notes are evicted from this node's entity cache right away; other nodes hear
+ * of them through the notes trigger. Subscribed pages get a lock-released event (see NoteEvents).
+ */
+@Service
+public class LockExpirySweeper {
+
+    // Advisory lock key, unique to this job within the database
+    public static final long SWEEPER_LOCK_KEY = 0x5EC0_0001L;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final DbFailoverStatusService failoverStatus;
+    private final EntityCacheEvictions cacheEvictions;
+    private final NoteEvents noteEvents;
+
+    private final Counter swept;
+    private final DistributionSummary sweptAge;
+    private volatile long heldLocks;
+    private volatile double oldestHeldAgeSeconds;
+
+    public LockExpirySweeper(JdbcTemplate jdbc, TransactionTemplate tx,
+                             DbFailoverStatusService failoverStatus, EntityCacheEvictions cacheEvictions,
+                             NoteEvents noteEvents, MeterRegistry meterRegistry) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.failoverStatus = failoverStatus;
+        this.cacheEvictions = cacheEvictions;
+        this.noteEvents = noteEvents;
+        this.swept = Counter.builder("notes.locks.swept")
+                .description("Expired note locks released by the sweeper")
+                .register(meterRegistry);
+        this.sweptAge = DistributionSummary.builder("notes.locks.swept.age")
+                .description("Age of expired locks when they were released")
+                .baseUnit("seconds")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("notes.locks.held", this, s -> s.heldLocks)
+                .description("Note locks held after the last sweep")
+                .register(meterRegistry);
+        Gauge.builder("notes.locks.oldest.age", this, s -> s.oldestHeldAgeSeconds)
+                .description("Age of the oldest lock still held after the last sweep")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${app.locks.sweep-interval:30s}", fixedDelayString = "${app.locks.sweep-interval:30s}")
+    public void sweepScheduled() {
+        if (failoverStatus.isFailoverMode()) {
+            return; // replica is read-only; locks are swept again once the master is back
+        }
+        try {
+            sweep();
+        } catch (DataAccessException e) {
+            System.err.println("!!! LOCK SWEEP FAILED: " + e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    /**
+     * One sweep. Returns the number of locks released, or -1 if another node holds the sweeper lock.
+     */
+    public int sweep() {
+        List<Released> released = tx.execute(status -> {
+            Boolean leader = jdbc.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, SWEEPER_LOCK_KEY);
+            if (!Boolean.TRUE.equals(leader)) {
+                return null;
+            }
+
+            // SKIP LOCKED: a note being saved right now is left to the next run instead of blocking this one
+            List<Released> rows = jdbc.query("""
+                    WITH expired AS (
+                        SELECT id, locked_at FROM notes
+                        WHERE is_locked = true
+                          AND (locked_at IS NULL OR locked_at < localtimestamp - make_interval(secs => ?))
+                        FOR UPDATE SKIP LOCKED
+                    )
+                    UPDATE notes n
+                    SET is_locked = false, locked_by = NULL, locked_at = NULL, version = n.version + 1
+                    FROM expired e
+                    WHERE n.id = e.id
+                    RETURNING n.id, coalesce(extract(epoch FROM localtimestamp - e.locked_at), 0)::float8
+                    """, (rs, i) -> new Released(rs.getObject(1, UUID.class), rs.getDouble(2)),
+                    (double) Note.LOCK_TIMEOUT.toSeconds());
+            // Pages waiting for these notes hear of it once the sweep commits
+            rows.forEach(r -> noteEvents.publish(r.id(), NoteEvents.Type.LOCK_RELEASED, ""));
+
+            Map<String, Object> held = jdbc.queryForMap("""
+                    SELECT count(*) AS held, coalesce(extract(epoch FROM localtimestamp - min(locked_at)), 0)::float8 AS oldest
+                    FROM notes WHERE is_locked = true
+                    """);
+            heldLocks = ((Number) held.get("held")).longValue();
+            oldestHeldAgeSeconds = ((Number) held.get("oldest")).doubleValue();
+            return rows;
+        });
+
+        if (released == null) {
+            return -1;
+        }
+        if (!released.isEmpty()) {
+            released.forEach(r -> cacheEvictions.evictNote(r.id()));
+            swept.increment(released.size());
+            released.forEach(r -> sweptAge.record(r.ageSeconds()));
+            System.out.println(">>> LOCK SWEEP: released " + released.size() + " expired lock(s)");
+        }
+        return released.size();
+    }
+
+    private record Released(UUID id, double ageSeconds) {}
+}
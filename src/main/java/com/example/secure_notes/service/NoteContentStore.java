@@ -0,0 +1,540 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.NotePatch;
+import com.example.secure_notes.repository.NoteRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Note content too long for the notes row. Such a note keeps metadata in the row (length, SHA-256, and the first
+ * Note.PREVIEW_LENGTH characters as `content`, which the pages and search use) and the whole content, as UTF-8,
+ * in note_chunks: CHUNK_SIZE bytes per row, numbered from 0. So loading the note never loads the content, and
+ * any byte range of it is read from the chunks that hold it, a few at a time.
+ *
+ * Writing is in two steps. {@link #upload} reads the new content from the client to a temporary file, checking
+ * it (UTF-8, size limit) and hashing it on the way, without a database connection. {@link #replace} then stores
+ * it in one transaction: content of up to Note.MAX_CONTENT_LENGTH characters in the row as usual, longer content
+ * in chunks.
+ */
+@Service
+public class NoteContentStore {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    // Chunks fetched per round trip when reading, and inserted per JDBC batch when writing
+    private static final int FETCH_CHUNKS = 4;
+    private static final int INSERT_CHUNKS = 16;
+
+    /**
+     * New content, checked and stored in a temporary file (deleted on close). {@code text} is the whole content
+     * if it is short enough for the row, otherwise its preview.
+     */
+    public record Upload(Path file, long length, String hash, String text, boolean chunked) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public enum Outcome { SAVED, NOT_FOUND, STALE, LOCKED, INVALID, TOO_LARGE }
+
+    /**
+     * Result of {@link #replace} and {@link #patch}: the note's version after the save, or its current version if
+     * not saved.
+     */
+    public record Replaced(Outcome outcome, long version, String lockedBy) {}
+
+    /**
+     * The upload is not valid UTF-8 text, or (tooLarge) exceeds the configured size.
+     */
+    public static class ContentRejectedException extends Exception {
+        private final boolean tooLarge;
+
+        public ContentRejectedException(String message, boolean tooLarge) {
+            super(message);
+            this.tooLarge = tooLarge;
+        }
+
+        public boolean isTooLarge() { return tooLarge; }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final TransactionTemplate tx;
+    private final NoteRevisions revisions;
+    private final long maxContentBytes;
+
+    private final DistributionSummary storedChunks;
+    private final Counter readBytes;
+
+    public NoteContentStore(JdbcTemplate jdbc, TransactionTemplate tx, NoteRevisions revisions,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.notes.max-content-size:64MB}") DataSize maxContentSize) {
+        this.jdbc = jdbc;
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbc);
+        this.tx = tx;
+        this.revisions = revisions;
+        this.maxContentBytes = maxContentSize.toBytes();
+        this.storedChunks = DistributionSummary.builder("notes.content.chunks")
+                .description("Chunks written per chunked note saved")
+                .register(meterRegistry);
+        this.readBytes = Counter.builder("notes.content.read")
+                .description("Bytes of chunked note content read")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reads new content to a temporary file. The stream is read to the end (or the limit) but not closed.
+     */
+    public Upload upload(InputStream in) throws IOException, ContentRejectedException {
+        Path file = Files.createTempFile("note-content", ".tmp");
+        try {
+            return upload(in, file, new BufferedOutputStream(Files.newOutputStream(file), CHUNK_SIZE));
+        } catch (IOException | ContentRejectedException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    // Content already in a file (patched), checked the same way
+    private Upload examine(Path file) throws IOException, ContentRejectedException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return upload(in, file, OutputStream.nullOutputStream());
+        }
+    }
+
+    // Reads the content from `in`, copying it to `copy` (the file) as it is checked
+    private Upload upload(InputStream in, Path file, OutputStream copy) throws IOException, ContentRejectedException {
+        MessageDigest sha256 = sha256();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        // Undecoded bytes: at most 3 left over from the previous read (a split character) plus one read
+        ByteBuffer bytes = ByteBuffer.allocate(buffer.length + 4);
+        CharBuffer chars = CharBuffer.allocate(bytes.capacity());
+        // The whole text while it fits in the row, then only the preview
+        StringBuilder text = new StringBuilder();
+        long length = 0;
+        long charCount = 0;
+
+        try (OutputStream out = copy) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                length += n;
+                if (length > maxContentBytes) {
+                    throw new ContentRejectedException("Content is larger than " + maxContentBytes + " bytes.", true);
+                }
+                out.write(buffer, 0, n);
+                sha256.update(buffer, 0, n);
+                bytes.put(buffer, 0, n).flip();
+                charCount += decode(decoder, bytes, chars, false, text);
+                bytes.compact();
+            }
+            bytes.flip();
+            charCount += decode(decoder, bytes, chars, true, text);
+            chars.clear();
+            if (decoder.flush(chars).isError() || bytes.hasRemaining()) {
+                throw new ContentRejectedException("Content is not valid UTF-8 text.", false);
+            }
+        }
+
+        boolean chunked = charCount > Note.MAX_CONTENT_LENGTH;
+        if (chunked) {
+            int end = Note.PREVIEW_LENGTH;
+            // Do not end the preview with half a surrogate pair
+            if (Character.isHighSurrogate(text.charAt(end - 1))) end--;
+            text.setLength(end);
+        }
+        return new Upload(file, length, HexFormat.of().formatHex(sha256.digest()), text.toString(), chunked);
+    }
+
+    // Decodes what it can, keeps up to MAX_CONTENT_LENGTH characters + 1 of text, returns the characters decoded
+    private static int decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput,
+                              StringBuilder text) throws ContentRejectedException {
+        chars.clear();
+        CoderResult result = decoder.decode(bytes, chars, endOfInput);
+        if (result.isError()) {
+            throw new ContentRejectedException("Content is not valid UTF-8 text.", false);
+        }
+        chars.flip();
+        int decoded = chars.remaining();
+        for (int i = 0; i < decoded; i++) {
+            // Postgres text cannot hold NUL
+            if (chars.get(i) == '\0') throw new ContentRejectedException("Content contains a NUL character.", false);
+        }
+        int keep = Math.min(decoded, Note.MAX_CONTENT_LENGTH + 1 - text.length());
+        if (keep > 0) text.append(chars, 0, keep);
+        return decoded;
+    }
+
+    /**
+     * Replaces the note's content with the upload, unless someone else holds an unexpired edit lock (LOCKED),
+     * or, with expectedVersion >= 0, the note is no longer at that version (STALE). Releases the user's own lock
+     * and bumps the version, like NoteRepository.saveUnlessLocked. NOT_FOUND: missing or not writable by the user.
+     */
+    public Replaced replace(UUID id, String username, Upload upload, long expectedVersion) {
+        return tx.execute(status -> {
+            Map<String, Object> row = lockRow(id, username, REVISION_COLUMNS);
+            Replaced refused = check(row, expectedVersion, false);
+            return refused != null ? refused : save(before(id, row), username, null, upload);
+        });
+    }
+
+    /**
+     * Stores the upload as the content of a note inserted in the current transaction (imports). There is no lock,
+     * version or revision to mind: nobody else can have seen the note yet.
+     */
+    public void storeNew(UUID id, Upload upload) {
+        jdbc.update("UPDATE notes SET content = ?, content_length = ?, content_hash = ? WHERE id = ?",
+                upload.text(), upload.chunked() ? upload.length() : null, upload.chunked() ? upload.hash() : null, id);
+        if (upload.chunked()) {
+            storedChunks.record(insertChunks(id, upload.file(), 0, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Applies the patch to the note as of baseVersion (STALE if it is no longer at that version: the edits'
+     * positions refer to it). INVALID if the edits do not fit the content, TOO_LARGE if the result is over the
+     * size limit. The lock rules are replace()'s, or with fromForm the edit form's: the user must hold the lock,
+     * and the positions count line breaks as the browser sends them (CRLF). A form edit is also TOO_LARGE past
+     * Note.MAX_CONTENT_LENGTH, as the note would become chunked and the form could no longer edit it.
+     *
+     * Only what changed is written: the content column only if there are edits, and of a chunked note only the
+     * chunks from the one with the first edit on (up to the one with the last edit if the length in bytes is
+     * the same). The patched content is written to a temporary file on the way, read from the chunks.
+     */
+    public Replaced patch(UUID id, String username, NotePatch patch, long baseVersion, boolean fromForm) {
+        return tx.execute(status -> {
+            Map<String, Object> row = lockRow(id, username, REVISION_COLUMNS);
+            Replaced refused = check(row, baseVersion, fromForm);
+            if (refused != null) {
+                return refused;
+            }
+            NoteRevisions.Before before = before(id, row);
+            String title = patch.title() != null ? patch.title() : before.title();
+            Number chunkedLength = (Number) row.get("content_length");
+            Replaced patched;
+            if (patch.edits().isEmpty()) {
+                patched = save(before, username, title, null);
+            } else if (chunkedLength == null) {
+                String base = fromForm ? before.content().replaceAll("\r\n|\r|\n", "\r\n") : before.content();
+                patched = patchInline(before, username, title, base, patch, fromForm);
+            } else if (fromForm) {
+                // The form never has the whole of a chunked note
+                patched = new Replaced(Outcome.INVALID, -1, null);
+            } else {
+                patched = patchChunked(before, username, title, chunkedLength.longValue(), patch);
+            }
+            // Nothing is written unless saved
+            if (patched.outcome() != Outcome.SAVED) {
+                return new Replaced(patched.outcome(), ((Number) row.get("version")).longValue(), null);
+            }
+            return patched;
+        });
+    }
+
+    // The note's version and lock state (plus `columns`), its row locked until commit; null if missing or not
+    // writable by the user. mine: the user holds the lock; held: someone else holds it and it has not expired.
+    private Map<String, Object> lockRow(UUID id, String username, String columns) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("id", id)
+                .addValue("username", username)
+                .addValue("sharee", Note.normalizeUsername(username))
+                .addValue("timeoutSeconds", (double) Note.LOCK_TIMEOUT.toSeconds());
+        List<Map<String, Object>> rows = namedJdbc.queryForList(
+                "SELECT version, locked_by, (is_locked AND locked_by = :username) AS mine, " +
+                        "(is_locked AND locked_by <> :username AND locked_at IS NOT NULL " +
+                        "AND locked_at >= localtimestamp - make_interval(secs => :timeoutSeconds)) AS held" + columns +
+                        " FROM notes WHERE id = :id AND " + NoteRepository.WRITABLE_BY_USER + " FOR UPDATE",
+                params);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    // What lockRow needs for the revision a save keeps (see NoteRevisions)
+    private static final String REVISION_COLUMNS = ", title, content, content_length";
+
+    private static NoteRevisions.Before before(UUID id, Map<String, Object> row) {
+        String content = row.get("content") == null ? "" : (String) row.get("content");
+        return new NoteRevisions.Before(id, ((Number) row.get("version")).longValue(), (String) row.get("title"),
+                row.get("content_length") == null ? content : null);
+    }
+
+    // Why the write may not go ahead, or null if it may
+    private static Replaced check(Map<String, Object> row, long expectedVersion, boolean lockNeeded) {
+        if (row == null) {
+            return new Replaced(Outcome.NOT_FOUND, -1, null);
+        }
+        long version = ((Number) row.get("version")).longValue();
+        String lockedBy = (String) row.get("locked_by");
+        if (expectedVersion >= 0 && version != expectedVersion) {
+            return new Replaced(Outcome.STALE, version, lockedBy);
+        }
+        if (lockNeeded ? !Boolean.TRUE.equals(row.get("mine")) : Boolean.TRUE.equals(row.get("held"))) {
+            return new Replaced(Outcome.LOCKED, version, lockedBy);
+        }
+        return null;
+    }
+
+    // Saves the title (if not null) and the upload (if not null), all chunks of it, releasing the lock
+    private Replaced save(NoteRevisions.Before before, String username, String title, Upload upload) {
+        UUID id = before.noteId();
+        Long newVersion = upload == null
+                ? jdbc.queryForObject("UPDATE notes SET title = ?, " + RELEASE_LOCK, Long.class, title, id)
+                : jdbc.queryForObject("UPDATE notes SET title = coalesce(?, title), content = ?, content_length = ?, " +
+                        "content_hash = ?, " + RELEASE_LOCK, Long.class, title, upload.text(),
+                upload.chunked() ? upload.length() : null, upload.chunked() ? upload.hash() : null, id);
+        if (upload != null) {
+            jdbc.update("DELETE FROM note_chunks WHERE note_id = ?", id);
+            if (upload.chunked()) {
+                storedChunks.record(insertChunks(id, upload.file(), 0, Integer.MAX_VALUE));
+            }
+        }
+        revisions.record(before, title != null ? title : before.title(),
+                upload == null ? before.content() : upload.chunked() ? null : upload.text(), null, username);
+        return new Replaced(Outcome.SAVED, newVersion, null);
+    }
+
+    private static final String RELEASE_LOCK = "is_locked = false, locked_by = NULL, locked_at = NULL, " +
+            "version = version + 1 WHERE id = ? RETURNING version";
+
+    private Replaced patchInline(NoteRevisions.Before before, String username, String title, String base,
+                                 NotePatch patch, boolean fromForm) {
+        String content = patch.apply(base);
+        if (content == null) {
+            return new Replaced(Outcome.INVALID, -1, null);
+        }
+        if (content.length() <= Note.MAX_CONTENT_LENGTH) {
+            Long newVersion = jdbc.queryForObject("UPDATE notes SET title = ?, content = ?, " +
+                    NoteRepository.INLINE_CONTENT + RELEASE_LOCK, Long.class, title, content, before.noteId());
+            // The patch is the change to the stored content unless its line breaks were converted for the form
+            revisions.record(before, title, content, base.equals(before.content()) ? patch : null, username);
+            return new Replaced(Outcome.SAVED, newVersion, null);
+        }
+        // Grown too long for the row: chunked, unless it came from the form, which can only edit what fits
+        if (fromForm) {
+            return new Replaced(Outcome.TOO_LARGE, -1, null);
+        }
+        try (Upload upload = upload(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))) {
+            return save(before, username, title, upload);
+        } catch (ContentRejectedException e) {
+            return new Replaced(e.isTooLarge() ? Outcome.TOO_LARGE : Outcome.INVALID, -1, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Replaced patchChunked(NoteRevisions.Before before, String username, String title, long length,
+                                  NotePatch patch) {
+        UUID id = before.noteId();
+        Path file = null;
+        try {
+            file = Files.createTempFile("note-content", ".tmp");
+            NotePatch.Applied applied;
+            try (Reader in = new InputStreamReader(openRange(id, 0, Math.max(length - 1, 0)),
+                    StandardCharsets.UTF_8.newDecoder());
+                 Writer out = new OutputStreamWriter(new BufferedOutputStream(Files.newOutputStream(file), CHUNK_SIZE),
+                         StandardCharsets.UTF_8.newEncoder())) {
+                applied = patch.apply(in, out);
+            } catch (CharacterCodingException e) {
+                // An edit split a surrogate pair
+                applied = null;
+            }
+            if (applied == null) {
+                return new Replaced(Outcome.INVALID, -1, null);
+            }
+
+            try (Upload upload = examine(file)) {
+                if (!upload.chunked()) {
+                    return save(before, username, title, upload);
+                }
+                Long newVersion = jdbc.queryForObject("UPDATE notes SET title = ?, content = ?, content_length = ?, " +
+                                "content_hash = ?, " + RELEASE_LOCK, Long.class,
+                        title, upload.text(), upload.length(), upload.hash(), id);
+                // Chunks before the first edit are unchanged; so are those after the last if nothing moved
+                int firstSeq = (int) (applied.prefixBytes() / CHUNK_SIZE);
+                int lastSeq = upload.length() == length
+                        ? (int) ((length - applied.suffixBytes() - 1) / CHUNK_SIZE) : Integer.MAX_VALUE;
+                if (lastSeq >= firstSeq) {
+                    jdbc.update("DELETE FROM note_chunks WHERE note_id = ? AND seq BETWEEN ? AND ?",
+                            id, firstSeq, lastSeq);
+                    storedChunks.record(insertChunks(id, upload.file(), firstSeq, lastSeq));
+                }
+                revisions.record(before, title, null, null, username);
+                return new Replaced(Outcome.SAVED, newVersion, null);
+            }
+        } catch (ContentRejectedException e) {
+            return new Replaced(e.isTooLarge() ? Outcome.TOO_LARGE : Outcome.INVALID, -1, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // Already gone if examined
+            if (file != null) file.toFile().delete();
+        }
+    }
+
+    // Inserts the chunks firstSeq..lastSeq of the file's content (those there are); returns how many
+    private int insertChunks(UUID id, Path file, int firstSeq, int lastSeq) {
+        try (InputStream in = Files.newInputStream(file)) {
+            in.skipNBytes((long) firstSeq * CHUNK_SIZE);
+            List<Object[]> batch = new ArrayList<>(INSERT_CHUNKS);
+            int seq = firstSeq;
+            for (byte[] data; seq <= lastSeq && (data = in.readNBytes(CHUNK_SIZE)).length > 0; ) {
+                batch.add(new Object[]{id, seq++, data});
+                if (batch.size() == INSERT_CHUNKS) {
+                    jdbc.batchUpdate("INSERT INTO note_chunks (note_id, seq, data) VALUES (?, ?, ?)", batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                jdbc.batchUpdate("INSERT INTO note_chunks (note_id, seq, data) VALUES (?, ?, ?)", batch);
+            }
+            return seq - firstSeq;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the uploaded content back", e);
+        }
+    }
+
+    /**
+     * The bytes first..last (inclusive) of a chunked note's content, read from the chunks that hold them,
+     * FETCH_CHUNKS per round trip, by one query (one snapshot). Call within a transaction, which keeps the
+     * connection and lets Postgres fetch in steps, and close the stream before it ends.
+     */
+    public InputStream openRange(UUID id, long first, long last) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Chunks are read within a transaction");
+        }
+        int firstSeq = (int) (first / CHUNK_SIZE);
+        int lastSeq = (int) (last / CHUNK_SIZE);
+        // Statement and result set are closed by the stream. Not JdbcTemplate.queryForStream: it releases
+        // the connection it gets back from the statement, which behind the connection proxies (see
+        // FailoverDataSourceConfig) is not the transaction's, so it would be closed.
+        PreparedStatement statement = jdbc.execute((ConnectionCallback<PreparedStatement>) connection -> {
+            PreparedStatement ps = connection.prepareStatement(
+                    "SELECT data FROM note_chunks WHERE note_id = ? AND seq BETWEEN ? AND ? ORDER BY seq");
+            ps.setObject(1, id);
+            ps.setInt(2, firstSeq);
+            ps.setInt(3, lastSeq);
+            ps.setFetchSize(FETCH_CHUNKS);
+            return ps;
+        });
+        try {
+            return new ChunkInputStream(statement, statement.executeQuery(),
+                    first - (long) firstSeq * CHUNK_SIZE, last - first + 1);
+        } catch (SQLException e) {
+            JdbcUtils.closeStatement(statement);
+            throw jdbc.getExceptionTranslator().translate("Reading note chunks", null, e);
+        }
+    }
+
+    /**
+     * The whole content of a chunked note, see {@link #openRange}.
+     */
+    public InputStream open(Note note) {
+        return openRange(note.getId(), 0, Math.max(note.getContentLength() - 1, 0));
+    }
+
+    // Reads `remaining` bytes from the chunks, starting `skip` bytes into the first
+    private class ChunkInputStream extends InputStream {
+        private final PreparedStatement statement;
+        private final ResultSet chunks;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private long skip;
+        private long remaining;
+
+        ChunkInputStream(PreparedStatement statement, ResultSet chunks, long skip, long remaining) {
+            this.statement = statement;
+            this.chunks = chunks;
+            this.skip = skip;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (position == chunk.length) {
+                if (remaining == 0 || !next()) return -1;
+                readBytes.increment(chunk.length);
+                position = (int) Math.min(skip, chunk.length);
+                skip -= position;
+            }
+            int n = (int) Math.min(Math.min(len, chunk.length - position), remaining);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            remaining -= n;
+            if (remaining == 0) position = chunk.length;
+            return n;
+        }
+
+        private boolean next() throws IOException {
+            try {
+                if (!chunks.next()) return false;
+                chunk = chunks.getBytes(1);
+                return true;
+            } catch (SQLException e) {
+                throw new IOException("Reading note chunks failed", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            JdbcUtils.closeResultSet(chunks);
+            JdbcUtils.closeStatement(statement);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.Note;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live events per note (lock taken, lock released, note saved, note deleted) for browsers subscribed over
+ * Server-Sent Events, so a page showing "locked by" learns when the note is free without reloading. A user whose
+ * share is removed hears that, and their streams for the note end.
+ *
+ * {@link #publish} sends the event with pg_notify in the writer's transaction, so it goes out only if the write
+ * commits, and every node (this one too) hears it through DbNotificationListener and passes it on to its own
+ * subscribers. A subscriber is an open async request and nothing else: no thread and no connection while idle,
+ * and notifications for notes nobody here watches are dropped after one map lookup. Each subscription has a
+ * short queue of its own, written by a virtual thread while it has something to send, never by the listener. A
+ * client that stops reading therefore holds up only its own stream, and is dropped once MAX_PENDING events wait
+ * for it or a write has not finished within write-timeout.
+ *
+ * A node takes at most max-subscribers subscriptions, and one user at most max-subscribers-per-user of them, so
+ * a single account cannot use up the node's subscriptions and shut everyone else out.
+ *
+ * A heartbeat comment every heartbeat interval keeps proxies from closing idle streams and finds clients that
+ * have gone; subscriptions end after the timeout and the browser opens a new one. After the listener reconnects,
+ * when events may have been missed, subscribers get a resync event.
+ */
+@Service
+public class NoteEvents implements DisposableBean {
+
+    public static final String CHANNEL = "note_events";
+
+    public enum Type {
+        LOCK_ACQUIRED("lock-acquired"),
+        LOCK_RELEASED("lock-released"),
+        NOTE_UPDATED("note-updated"),
+        NOTE_DELETED("note-deleted"),
+        // Sent only to the user named in the event, whose subscriptions to the note then end
+        ACCESS_REVOKED("access-revoked");
+
+        private final String eventName;
+
+        Type(String eventName) {
+            this.eventName = eventName;
+        }
+
+        public String eventName() { return eventName; }
+    }
+
+    // Events waiting for one slow client; one more ends its subscription
+    private static final int MAX_PENDING = 32;
+
+    private final JdbcTemplate jdbc;
+    private final long timeoutMillis;
+    private final int maxSubscribers;
+    private final int maxPerUser;
+    private final long writeTimeoutNanos;
+
+    private final Map<UUID, Map<SseEmitter, Subscription>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final Map<String, Integer> userSubscriptions = new ConcurrentHashMap<>();
+    // A virtual thread per subscription that has something to send, so a write that blocks holds up only its own
+    private final ExecutorService sender = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("note-events-", 0).factory());
+
+    private final Counter sent;
+    private final Counter refused;
+    private final Counter dropped;
+
+    public NoteEvents(JdbcTemplate jdbc, DbNotificationListener notifications, MeterRegistry meterRegistry,
+                      @Value("${app.notes.events.timeout:30m}") Duration timeout,
+                      @Value("${app.notes.events.max-subscribers:10000}") int maxSubscribers,
+                      @Value("${app.notes.events.max-subscribers-per-user:20}") int maxPerUser,
+                      @Value("${app.notes.events.write-timeout:10s}") Duration writeTimeout) {
+        this.jdbc = jdbc;
+        this.timeoutMillis = timeout.toMillis();
+        this.maxSubscribers = maxSubscribers;
+        this.maxPerUser = maxPerUser;
+        this.writeTimeoutNanos = writeTimeout.toNanos();
+        this.sent = Counter.builder("notes.events.sent")
+                .description("Note events sent to subscribed browsers")
+                .register(meterRegistry);
+        this.refused = Counter.builder("notes.events.refused")
+                .description("Note event subscriptions refused because the node or the user had the most allowed")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("notes.events.dropped")
+                .description("Note event subscriptions ended because their client stopped reading")
+                .register(meterRegistry);
+        Gauge.builder("notes.events.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Open note event subscriptions on this node")
+                .register(meterRegistry);
+
+        notifications.subscribe(CHANNEL, this::deliver, this::resync);
+    }
+
+    /**
+     * Announces the event to the note's subscribers on all nodes once the current transaction commits (at once
+     * without one). `by` is the user who caused it, for ACCESS_REVOKED the user who lost access.
+     */
+    public void publish(UUID noteId, Type type, String by) {
+        jdbc.queryForList("SELECT pg_notify(?, ?)", CHANNEL, noteId + " " + type.name() + " " + by);
+    }
+
+    /**
+     * A new subscription of the user to the note's events, or null if this node has max-subscribers already or
+     * the user has max-subscribers-per-user. The caller checks that the user may read the note.
+     */
+    public SseEmitter subscribe(UUID noteId, String username) {
+        if (!reserve(username)) {
+            refused.increment();
+            return null;
+        }
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            release(username);
+            refused.increment();
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscription subscription = new Subscription(noteId, username, emitter);
+        subscribers.compute(noteId, (id, subscriptions) -> {
+            subscriptions = subscriptions == null ? new ConcurrentHashMap<>() : subscriptions;
+            subscriptions.put(emitter, subscription);
+            return subscriptions;
+        });
+        Runnable remove = () -> unsubscribe(noteId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        return subscriberCount.get();
+    }
+
+    public int subscriptionsOf(String username) {
+        return userSubscriptions.getOrDefault(username, 0);
+    }
+
+    /**
+     * Ends the subscription as if its client had gone; nothing is sent to it any more.
+     */
+    public void unsubscribe(UUID noteId, SseEmitter emitter) {
+        subscribers.computeIfPresent(noteId, (id, subscriptions) -> {
+            Subscription subscription = subscriptions.remove(emitter);
+            if (subscription != null) {
+                subscriberCount.decrementAndGet();
+                release(subscription.username);
+                subscription.pending.clear();
+            }
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    // Check and count in one map operation, so a release running at the same time cannot drop the count in between
+    private boolean reserve(String username) {
+        boolean[] reserved = new boolean[1];
+        userSubscriptions.compute(username, (u, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxPerUser) return count;
+            reserved[0] = true;
+            return current + 1;
+        });
+        return reserved[0];
+    }
+
+    // One subscription of the user fewer; users without any are dropped from the map
+    private void release(String username) {
+        userSubscriptions.computeIfPresent(username, (u, count) -> count > 1 ? count - 1 : null);
+    }
+
+    // On the listener thread: payload "<note id> <type> <user>"
+    private void deliver(String payload) {
+        String[] parts = payload.split(" ", 3);
+        UUID noteId = UUID.fromString(parts[0]);
+        Map<SseEmitter, Subscription> subscriptions = subscribers.get(noteId);
+        if (subscriptions == null) {
+            return;
+        }
+        Type type = Type.valueOf(parts[1]);
+        String by = parts.length > 2 ? parts[2] : "";
+        for (Subscription subscription : subscriptions.values()) {
+            if (type == Type.ACCESS_REVOKED) {
+                // Access is checked when a stream opens, so one of a user who lost it must not go on
+                if (Note.normalizeUsername(subscription.username).equals(Note.normalizeUsername(by))) {
+                    subscription.enqueue(new Outgoing(SseEmitter.event().name(type.eventName()).data(""), true, true));
+                }
+                continue;
+            }
+            subscription.enqueue(new Outgoing(SseEmitter.event().name(type.eventName()).data(by),
+                    true, type == Type.NOTE_DELETED));
+        }
+    }
+
+    private void resync() {
+        subscribers.values().forEach(subscriptions -> subscriptions.values().forEach(subscription ->
+                subscription.enqueue(new Outgoing(SseEmitter.event().name("resync").data(""), false, false))));
+    }
+
+    /**
+     * Sends each stream a heartbeat comment, and ends the ones whose client has not taken a write for
+     * write-timeout: their connection is stalled, and nothing more would reach them anyway.
+     */
+    @Scheduled(initialDelayString = "${app.notes.events.heartbeat:30s}",
+            fixedDelayString = "${app.notes.events.heartbeat:30s}")
+    public void heartbeat() {
+        long now = System.nanoTime();
+        subscribers.values().forEach(subscriptions -> subscriptions.values().forEach(subscription -> {
+            long since = subscription.writingSince;
+            if (since != 0 && now - since > writeTimeoutNanos) {
+                subscription.end(new IOException("No write to the client for " + writeTimeoutNanos / 1_000_000 + " ms"));
+            } else {
+                subscription.enqueue(new Outgoing(SseEmitter.event().comment(""), false, false));
+            }
+        }));
+    }
+
+    // last: the subscription is over once the event is sent
+    private record Outgoing(SseEmitter.SseEventBuilder event, boolean counted, boolean last) {}
+
+    // One open stream. Its events wait in a queue of its own and are written by at most one sender at a time
+    private final class Subscription {
+        final UUID noteId;
+        final String username;
+        final SseEmitter emitter;
+        final BlockingQueue<Outgoing> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+        final AtomicBoolean sending = new AtomicBoolean();
+        // System.nanoTime() when the write under way began, 0 while none is
+        volatile long writingSince;
+
+        Subscription(UUID noteId, String username, SseEmitter emitter) {
+            this.noteId = noteId;
+            this.username = username;
+            this.emitter = emitter;
+        }
+
+        void enqueue(Outgoing outgoing) {
+            if (!pending.offer(outgoing)) {
+                end(new IOException("Client is " + MAX_PENDING + " events behind"));
+                return;
+            }
+            if (sending.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Outgoing outgoing;
+                while ((outgoing = pending.poll()) != null) {
+                    if (!write(outgoing)) return;
+                }
+                sending.set(false);
+                // An event queued after the poll above found nothing, whose enqueue saw this drain still running
+                if (pending.isEmpty() || !sending.compareAndSet(false, true)) return;
+            }
+        }
+
+        // False once the subscription is over
+        private boolean write(Outgoing outgoing) {
+            if (outgoing.last()) {
+                unsubscribe(noteId, emitter);
+            }
+            writingSince = System.nanoTime();
+            try {
+                emitter.send(outgoing.event());
+                if (outgoing.counted()) sent.increment();
+            } catch (IOException | IllegalStateException e) {
+                unsubscribe(noteId, emitter);
+                emitter.completeWithError(e);
+                return false;
+            } finally {
+                writingSince = 0;
+            }
+            if (outgoing.last()) {
+                emitter.complete();
+                return false;
+            }
+            return true;
+        }
+
+        // The client stopped reading: drop the subscription at once, and close the stream on another thread, as
+        // that waits for the stalled write
+        void end(IOException cause) {
+            unsubscribe(noteId, emitter);
+            dropped.increment();
+            sender.execute(() -> emitter.completeWithError(cause));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        sender.shutdownNow();
+        subscribers.values().forEach(subscriptions -> subscriptions.keySet().forEach(SseEmitter::complete));
+        subscribers.clear();
+        userSubscriptions.clear();
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Writes all notes a user owns or has been granted, one at a time, as they come off a database cursor.
+ *
+ * Notes are read through {@link NoteRepository#streamOwned} and {@link NoteRepository#streamShared}
+ * (fetch size rows per round trip) and each one is detached once written, so memory use is the same
+ * for ten notes or a million. The content of chunked notes is copied from NoteContentStore as it is read, so
+ * long notes do not add to it either. Call within a read-only transaction: Postgres only uses a cursor inside one.
+ */
+@Service
+public class NoteExporter {
+
+    public enum Format {
+        // One JSON object per line
+        NDJSON("application/x-ndjson;charset=UTF-8", "notes.ndjson"),
+        // One Markdown file per note: notes/... for owned notes, shared/<owner>/... for the others
+        // (written with StreamingZipWriter, whose central directory is kept on disk, not in memory)
+        ZIP("application/zip", "notes.zip");
+
+        private final String contentType;
+        private final String fileName;
+
+        Format(String contentType, String fileName) {
+            this.contentType = contentType;
+            this.fileName = fileName;
+        }
+
+        public String contentType() { return contentType; }
+
+        public String fileName() { return fileName; }
+
+        // Null for an unknown format
+        public static Format fromParameter(String value) {
+            for (Format f : values()) {
+                if (f.name().equalsIgnoreCase(value)) return f;
+            }
+            return null;
+        }
+    }
+
+    // One exported note (NDJSON line; the Markdown front matter has the same fields)
+    private record ExportedNote(UUID id, String title, String content, String owner, boolean shared,
+                                LocalDateTime createdAt, Long version) {
+
+        static ExportedNote of(Note note, boolean shared) {
+            return new ExportedNote(note.getId(), note.getTitle(), note.getContent(), note.getOwnerUsername(),
+                    shared, note.getCreatedAt(), note.getVersion());
+        }
+    }
+
+    // Longest file name part taken from a title or username
+    private static final int MAX_NAME_LENGTH = 60;
+
+    private final NoteRepository noteRepository;
+    private final NoteContentStore noteContentStore;
+    private final EntityManager entityManager;
+    private final ObjectWriter json;
+    private final Map<Format, Counter> exported = new EnumMap<>(Format.class);
+
+    public NoteExporter(NoteRepository noteRepository, NoteContentStore noteContentStore, EntityManager entityManager,
+                        ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.noteRepository = noteRepository;
+        this.noteContentStore = noteContentStore;
+        this.entityManager = entityManager;
+        // The servlet stream is flushed by its own buffer, not after every note
+        this.json = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        for (Format f : Format.values()) {
+            exported.put(f, Counter.builder("notes.exported")
+                    .description("Notes written by exports")
+                    .tag("format", f.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Writes the user's owned notes, newest first, then the notes shared with them. Returns the number written.
+     * The stream is left open.
+     */
+    public long export(String username, Format format, OutputStream out) throws IOException {
+        long count;
+        if (format == Format.NDJSON) {
+            try (JsonGenerator gen = json.createGenerator(out)) {
+                count = writeAll(username, (note, shared) -> {
+                    if (note.isChunked()) {
+                        writeChunkedJson(gen, note, shared);
+                    } else {
+                        json.writeValue(gen, ExportedNote.of(note, shared));
+                    }
+                    gen.writeRaw('\n');
+                });
+            }
+        } else {
+            try (StreamingZipWriter zip = new StreamingZipWriter(out)) {
+                count = writeAll(username, (note, shared) -> writeMarkdownEntry(zip, note, shared));
+                zip.finish();
+            }
+        }
+        exported.get(format).increment(count);
+        return count;
+    }
+
+    // Owned notes, then shared ones; one cursor open at a time
+    private long writeAll(String username, NoteWriter writer) throws IOException {
+        // Rows are loaded as the stream advances, after the query's own cache hints have been reset, so the
+        // whole session skips the second-level cache; an export would otherwise evict every hot note
+        entityManager.setProperty(AvailableSettings.JAKARTA_SHARED_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+        long count;
+        try (Stream<Note> owned = noteRepository.streamOwned(username)) {
+            count = writeEach(owned, false, writer);
+        }
+        try (Stream<Note> shared = noteRepository.streamShared(Note.normalizeUsername(username))) {
+            count += writeEach(shared, true, writer);
+        }
+        return count;
+    }
+
+    // The fields of ExportedNote, in the same order, with the content copied from the chunks
+    private void writeChunkedJson(JsonGenerator gen, Note note, boolean shared) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName("id");
+        json.writeValue(gen, note.getId());
+        gen.writeStringField("title", note.getTitle());
+        gen.writeFieldName("content");
+        try (Reader content = new InputStreamReader(noteContentStore.open(note), StandardCharsets.UTF_8)) {
+            gen.writeString(content, -1);
+        }
+        gen.writeStringField("owner", note.getOwnerUsername());
+        gen.writeBooleanField("shared", shared);
+        gen.writeFieldName("createdAt");
+        json.writeValue(gen, note.getCreatedAt());
+        gen.writeFieldName("version");
+        json.writeValue(gen, note.getVersion());
+        gen.writeEndObject();
+    }
+
+    private void writeMarkdownEntry(StreamingZipWriter zip, Note note, boolean shared) throws IOException {
+        String dir = shared ? "shared/" + fileNamePart(note.getOwnerUsername()) + "/" : "notes/";
+        String name = dir + fileNamePart(note.getTitle()) + "-" + note.getId() + ".md";
+
+        // Front matter values as JSON strings, which are valid YAML whatever the title contains
+        String frontMatter = "---\n" +
+                "id: " + note.getId() + "\n" +
+                "title: " + json.writeValueAsString(note.getTitle()) + "\n" +
+                "owner: " + json.writeValueAsString(note.getOwnerUsername()) + "\n" +
+                "created: " + (note.getCreatedAt() == null ? "" : note.getCreatedAt()) + "\n" +
+                "version: " + note.getVersion() + "\n" +
+                "---\n\n";
+        if (!note.isChunked()) {
+            String markdown = frontMatter + (note.getContent() == null ? "" : note.getContent()) + "\n";
+            zip.addEntry(name, note.getCreatedAt(), markdown.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        try (InputStream content = noteContentStore.open(note);
+             InputStream markdown = new SequenceInputStream(Collections.enumeration(List.of(
+                     new ByteArrayInputStream(frontMatter.getBytes(StandardCharsets.UTF_8)), content,
+                     new ByteArrayInputStream(new byte[]{'\n'}))))) {
+            zip.addEntry(name, note.getCreatedAt(), markdown);
+        }
+    }
+
+    private interface NoteWriter {
+        void write(Note note, boolean shared) throws IOException;
+    }
+
+    // Writes each note, then drops it from the persistence context so the session does not grow
+    private long writeEach(Stream<Note> notes, boolean shared, NoteWriter writer) throws IOException {
+        long count = 0;
+        Iterator<Note> it = notes.iterator();
+        while (it.hasNext()) {
+            Note note = it.next();
+            writer.write(note, shared);
+            entityManager.detach(note);
+            count++;
+        }
+        return count;
+    }
+
+    // Title or username as a file name: letters, digits, '.', '-', '_' only, never empty or a dot name
+    static String fileNamePart(String s) {
+        String cleaned = s == null ? "" : s.strip().replaceAll("[^\\p{L}\\p{N}._-]+", "_");
+        if (cleaned.length() > MAX_NAME_LENGTH) cleaned = cleaned.substring(0, MAX_NAME_LENGTH);
+        cleaned = cleaned.replaceAll("^[._]+", "");
+        return cleaned.isEmpty() ? "note" : cleaned;
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.Note;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports notes from an upload in the formats NoteExporter writes: NDJSON (one note per line, with at
+ * least a title) or a ZIP of Markdown files (optional front matter; otherwise the first "# " line or the
+ * file name is the title). Notes marked as shared, i.e. someone else's, are skipped.
+ *
+ * The upload is parsed as it is read, and notes are inserted batch by batch: up to {@code batchSize} are
+ * parsed, then persisted in one transaction, flushed as one JDBC batch (hibernate.jdbc.batch_size) and
+ * cleared from the session. Memory use is one batch, whatever the size of the upload. Every batch is
+ * committed on its own, so a broken upload keeps the notes read before the problem.
+ *
+ * Content longer than Note.MAX_CONTENT_LENGTH (as exported from a chunked note) is stored in chunks through
+ * NoteContentStore, the note in a transaction of its own, up to app.notes.max-content-size like an upload.
+ */
+@Service
+public class NoteImporter {
+
+    // Room for the front matter in a zip entry besides the content
+    private static final int MAX_FRONT_MATTER_BYTES = 4096;
+    // A batch is also inserted once its notes hold this many characters, so long notes do not pile up
+    private static final long MAX_BATCH_CHARS = 2_000_000;
+    // Problems kept for the report; the rest are only counted
+    private static final int MAX_PROBLEMS = 20;
+
+    /**
+     * After each committed batch.
+     */
+    public interface ProgressListener {
+        void onProgress(long imported, long skipped) throws IOException;
+    }
+
+    /**
+     * Outcome of an import. {@code error} is set when the upload could not be read to the end.
+     */
+    public record Result(long imported, long skipped, List<String> problems, String error) {}
+
+    // One note as read from the upload; fields other than these are ignored
+    private record ImportedNote(String title, String content, LocalDateTime createdAt, Boolean shared) {}
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate tx;
+    private final NoteContentStore contentStore;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader ndjson;
+    private final int batchSize;
+    // Zip entries larger than this cannot hold a valid note and are not read
+    private final int maxEntryBytes;
+
+    private final Counter imported;
+    private final Counter skipped;
+    private final Timer batches;
+
+    public NoteImporter(EntityManager entityManager, TransactionTemplate tx, NoteContentStore contentStore,
+                        ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                        @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}") int batchSize,
+                        @Value("${app.notes.max-content-size:64MB}") DataSize maxContentSize) {
+        this.entityManager = entityManager;
+        this.tx = tx;
+        this.contentStore = contentStore;
+        this.objectMapper = objectMapper;
+        this.ndjson = objectMapper.readerFor(ImportedNote.class);
+        this.batchSize = batchSize;
+        this.maxEntryBytes = (int) Math.min(maxContentSize.toBytes() + MAX_FRONT_MATTER_BYTES, Integer.MAX_VALUE - 8);
+        this.imported = Counter.builder("notes.imported")
+                .description("Notes inserted by imports")
+                .register(meterRegistry);
+        this.skipped = Counter.builder("notes.import.skipped")
+                .description("Uploaded notes that were invalid or not the uploader's")
+                .register(meterRegistry);
+        this.batches = Timer.builder("notes.import.batch")
+                .description("Time to insert and commit one batch of imported notes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Imports the upload as notes owned by the user. The input stream is read to the end but not closed.
+     */
+    public Result importNotes(String username, NoteExporter.Format format, InputStream in,
+                              ProgressListener progress) throws IOException {
+        Batch batch = new Batch(username, progress);
+        try {
+            if (format == NoteExporter.Format.NDJSON) {
+                readNdjson(in, batch);
+            } else {
+                readZip(in, batch);
+            }
+        } catch (JsonProcessingException e) {
+            batch.flush();
+            return batch.result(e.getLocation() == null ? "Invalid JSON"
+                    : "Invalid JSON at line " + e.getLocation().getLineNr());
+        } catch (ZipException e) {
+            batch.flush();
+            return batch.result("Invalid ZIP file");
+        }
+        batch.flush();
+        return batch.result(null);
+    }
+
+    private void readNdjson(InputStream in, Batch batch) throws IOException {
+        try (MappingIterator<ImportedNote> it = ndjson.without(JsonParser.Feature.AUTO_CLOSE_SOURCE).readValues(in)) {
+            while (it.hasNextValue()) {
+                long line = it.getCurrentLocation().getLineNr();
+                batch.add(it.nextValue(), "line " + line);
+            }
+        }
+    }
+
+    // Sequential read of the local entries, no temporary file; directories and non-Markdown files are ignored
+    private void readZip(InputStream in, Batch batch) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in, StandardCharsets.UTF_8);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.toLowerCase().endsWith(".md")) continue;
+            byte[] bytes = zip.readNBytes(maxEntryBytes + 1);
+            if (bytes.length > maxEntryBytes) {
+                batch.skip(name + ": too large");
+                continue;
+            }
+            batch.add(parseMarkdown(name, new String(bytes, StandardCharsets.UTF_8)), name);
+        }
+    }
+
+    private ImportedNote parseMarkdown(String fileName, String text) {
+        text = text.replace("\r\n", "\n");
+        String title = null;
+        LocalDateTime createdAt = null;
+        boolean shared = fileName.startsWith("shared/");
+
+        if (text.startsWith("---\n")) {
+            int end = text.indexOf("\n---\n", 3);
+            if (end >= 0) {
+                for (String line : text.substring(4, Math.max(4, end)).split("\n")) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) continue;
+                    String key = line.substring(0, colon).strip();
+                    String value = line.substring(colon + 1).strip();
+                    if (key.equals("title")) title = frontMatterString(value);
+                    if (key.equals("created")) createdAt = parseTime(value);
+                }
+                text = text.substring(end + 5);
+                if (text.startsWith("\n")) text = text.substring(1);
+            }
+        } else if (text.startsWith("# ")) {
+            int newline = text.indexOf('\n');
+            title = (newline < 0 ? text.substring(2) : text.substring(2, newline)).strip();
+            text = newline < 0 ? "" : text.substring(newline + 1).stripLeading();
+        }
+        if (title == null) {
+            String base = fileName.substring(fileName.lastIndexOf('/') + 1);
+            title = base.substring(0, base.length() - ".md".length());
+        }
+        // The exporter ends every file with a newline of its own
+        if (text.endsWith("\n")) text = text.substring(0, text.length() - 1);
+        return new ImportedNote(title, text, createdAt, shared);
+    }
+
+    // Quoted values are JSON strings (as exported); anything else is taken as is
+    private String frontMatterString(String value) {
+        if (value.startsWith("\"")) {
+            try {
+                return objectMapper.readValue(value, String.class);
+            } catch (JsonProcessingException e) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    private static LocalDateTime parseTime(String value) {
+        try {
+            return value.isEmpty() ? null : LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Notes parsed but not yet inserted, and the running totals
+    private class Batch {
+        private final String username;
+        private final ProgressListener progress;
+        private final List<Note> pending = new ArrayList<>();
+        private final List<String> problems = new ArrayList<>();
+        private long pendingChars;
+        private long importedCount;
+        private long skippedCount;
+
+        Batch(String username, ProgressListener progress) {
+            this.username = username;
+            this.progress = progress;
+        }
+
+        void add(ImportedNote in, String where) throws IOException {
+            String problem = validate(in);
+            if (problem != null) {
+                skip(where + ": " + problem);
+                return;
+            }
+            String content = in.content() == null ? "" : in.content();
+            if (content.length() > Note.MAX_CONTENT_LENGTH) {
+                addChunked(in, content, where);
+                return;
+            }
+            Note note = new Note(in.title().strip(), content, username);
+            if (in.createdAt() != null) note.setCreatedAt(in.createdAt());
+            pending.add(note);
+            pendingChars += note.getContent().length();
+            if (pending.size() >= batchSize || pendingChars >= MAX_BATCH_CHARS) flush();
+        }
+
+        // Stored as the editor stores it, after the notes read before it
+        private void addChunked(ImportedNote in, String content, String where) throws IOException {
+            flush();
+            try (NoteContentStore.Upload upload = contentStore.upload(
+                    new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))) {
+                Note note = new Note(in.title().strip(), upload.text(), username);
+                if (in.createdAt() != null) note.setCreatedAt(in.createdAt());
+                batches.record(() -> tx.executeWithoutResult(status -> {
+                    entityManager.setProperty(AvailableSettings.JAKARTA_SHARED_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+                    entityManager.persist(note);
+                    entityManager.flush();
+                    contentStore.storeNew(note.getId(), upload);
+                    entityManager.clear();
+                }));
+            } catch (NoteContentStore.ContentRejectedException e) {
+                skip(where + ": " + e.getMessage());
+                return;
+            }
+            importedCount++;
+            imported.increment();
+            progress.onProgress(importedCount, skippedCount);
+        }
+
+        void skip(String problem) {
+            skippedCount++;
+            skipped.increment();
+            if (problems.size() < MAX_PROBLEMS) problems.add(problem);
+        }
+
+        // One transaction per batch: persist, flush (one JDBC batch), clear the session
+        void flush() throws IOException {
+            if (pending.isEmpty()) return;
+            batches.record(() -> tx.executeWithoutResult(status -> {
+                // Imported notes are not read back soon; keep them from evicting cached ones
+                entityManager.setProperty(AvailableSettings.JAKARTA_SHARED_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+                pending.forEach(entityManager::persist);
+                entityManager.flush();
+                entityManager.clear();
+            }));
+            importedCount += pending.size();
+            imported.increment(pending.size());
+            pending.clear();
+            pendingChars = 0;
+            progress.onProgress(importedCount, skippedCount);
+        }
+
+        Result result(String error) {
+            return new Result(importedCount, skippedCount, List.copyOf(problems), error);
+        }
+    }
+
+    private static String validate(ImportedNote note) {
+        if (note == null) return "empty";
+        if (Boolean.TRUE.equals(note.shared())) return "shared by another user";
+        if (note.title() == null || note.title().isBlank()) return "missing title";
+        if (note.title().strip().length() > Note.MAX_TITLE_LENGTH) return "title longer than " + Note.MAX_TITLE_LENGTH;
+        return null;
+    }
+}
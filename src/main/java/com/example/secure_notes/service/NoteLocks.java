@@ -0,0 +1,74 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Takes a note's edit lock, for the edit form and the API alike.
+ *
+ * Like the other lock operations (see NoteRepository) this is one conditional UPDATE on the database clock:
+ * the user must be able to write the note, and the lock must be free, theirs already (the lease is refreshed)
+ * or expired. The same statement returns who held the lock before, read from the row it locked, so a lock
+ * taken over from another user is audited as a lock steal without a read beforehand that could be outdated
+ * by the time of the UPDATE. Call within a transaction.
+ */
+@Service
+public class NoteLocks {
+
+    /**
+     * The lock is the user's. previousHolder: who held it before (null if nobody did); version: the note's new version.
+     */
+    public record Acquired(String previousHolder, long version) {}
+
+    // The sub-select locks the row first, so what it returns is what the UPDATE replaced
+    private static final String ACQUIRE_SQL =
+            "UPDATE notes SET is_locked = true, locked_by = :username, locked_at = localtimestamp, " +
+                    "version = version + 1 " +
+                    "FROM (SELECT id, CASE WHEN is_locked THEN locked_by END AS holder FROM notes " +
+                    "WHERE id = :id AND " + NoteRepository.WRITABLE_BY_USER + " FOR UPDATE) previous " +
+                    "WHERE notes.id = previous.id AND (is_locked = false OR locked_by = :username " +
+                    "OR locked_at IS NULL OR locked_at < localtimestamp - make_interval(secs => :timeoutSeconds)) " +
+                    "RETURNING previous.holder, notes.version";
+
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final AuditLog auditLog;
+    private final NoteEvents noteEvents;
+
+    public NoteLocks(JdbcTemplate jdbc, AuditLog auditLog, NoteEvents noteEvents) {
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbc);
+        this.auditLog = auditLog;
+        this.noteEvents = noteEvents;
+    }
+
+    /**
+     * Takes or refreshes the user's lock; null if the note is missing, not writable by the user, or locked by
+     * someone else.
+     */
+    public Acquired acquire(UUID id, String username) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("id", id)
+                .addValue("username", username)
+                .addValue("sharee", Note.normalizeUsername(username))
+                .addValue("timeoutSeconds", (double) Note.LOCK_TIMEOUT.toSeconds());
+        List<Acquired> rows = namedJdbc.query(ACQUIRE_SQL, params,
+                (rs, i) -> new Acquired(rs.getString(1), rs.getLong(2)));
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Acquired acquired = rows.get(0);
+        // A user refreshing their own lease changes nothing the note's viewers need to hear about
+        if (username.equals(acquired.previousHolder())) return acquired;
+        if (acquired.previousHolder() != null) {
+            auditLog.record(username, AuditLog.Action.LOCK_STEAL, id, acquired.previousHolder());
+        }
+        noteEvents.publish(id, NoteEvents.Type.LOCK_ACQUIRED, username);
+        return acquired;
+    }
+}
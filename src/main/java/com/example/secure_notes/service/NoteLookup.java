@@ -0,0 +1,59 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Loads a note by id through the second-level cache, but never an outdated one.
+ *
+ * Every write to a note bumps its version, whichever node or statement made it. So each read first
+ * fetches the current version (a primary key lookup, no content) and only uses the cached note if it
+ * is that version or newer (newer: this read runs on a replica that has not replayed the write yet).
+ * Otherwise the entry is dropped and the note is read from the database. Call within a transaction.
+ */
+@Service
+public class NoteLookup {
+
+    private final NoteRepository noteRepository;
+    private final EntityManager entityManager;
+    private final EntityCacheEvictions evictions;
+
+    private final Counter staleEntries;
+
+    public NoteLookup(NoteRepository noteRepository, EntityManager entityManager, EntityCacheEvictions evictions,
+                      MeterRegistry meterRegistry) {
+        this.noteRepository = noteRepository;
+        this.entityManager = entityManager;
+        this.evictions = evictions;
+        this.staleEntries = Counter.builder("notes.cache.stale")
+                .description("Cached notes found outdated by the version check and reloaded")
+                .register(meterRegistry);
+    }
+
+    public Optional<Note> findCurrent(UUID id) {
+        Optional<Long> currentVersion = noteRepository.findVersionById(id);
+        if (currentVersion.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Note note = entityManager.find(Note.class, id);
+        if (note != null && isOlder(note.getVersion(), currentVersion.get())) {
+            staleEntries.increment();
+            entityManager.detach(note);
+            evictions.evictNote(id);
+            note = entityManager.find(Note.class, id);
+        }
+        return Optional.ofNullable(note);
+    }
+
+    private static boolean isOlder(Long cached, Long current) {
+        return cached == null || (current != null && cached < current);
+    }
+}
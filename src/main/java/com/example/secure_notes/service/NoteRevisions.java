@@ -0,0 +1,264 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.NotePatch;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Earlier versions of notes (note_revisions). A save that changes a note's title or content keeps what it
+ * replaced as a revision, numbered with the replaced version. Most revisions hold a reverse delta: the edits
+ * (NotePatch) that turn the next newer version's content back into theirs, so they take about as much space as
+ * the change. Every snapshot-every-th holds the whole content instead, and a version is rebuilt from the nearest
+ * snapshot above it (or the note itself) with at most snapshot-every - 1 deltas.
+ *
+ * Deltas only depend on newer revisions, so the oldest can be dropped without touching the rest: a note keeps
+ * its latest max-revisions, and revisions older than `keep` are pruned in the background (one node per run, as
+ * LockExpirySweeper). Content longer than the row holds (chunked) is not kept; such revisions have the title
+ * and time only.
+ *
+ * Call {@link #lock} and {@link #record} within the save's transaction, lock before the save.
+ */
+@Service
+public class NoteRevisions {
+
+    // Advisory lock key, unique to this job within the database
+    public static final long PRUNE_LOCK_KEY = 0x5EC0_0002L;
+
+    // What a revision holds: the content (snapshot), edits back from the next newer version, or no content
+    private static final String SNAPSHOT = "S";
+    private static final String DELTA = "D";
+    private static final String NO_CONTENT = "N";
+
+    private static final TypeReference<List<NotePatch.Edit>> EDITS = new TypeReference<>() {};
+
+    /**
+     * A note as it was before a save; content is null if it was chunked.
+     */
+    public record Before(UUID noteId, long version, String title, String content) {}
+
+    /**
+     * One earlier version of a note: replaced at that time by that user.
+     */
+    public record Revision(long version, LocalDateTime replacedAt, String replacedBy, String title,
+                           boolean contentKept) {}
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final ObjectMapper objectMapper;
+    private final DbFailoverStatusService failoverStatus;
+    private final int snapshotEvery;
+    private final int maxRevisions;
+    private final Duration keep;
+
+    private final Counter snapshots;
+    private final Counter deltas;
+    private final DistributionSummary storedChars;
+    private final Counter pruned;
+
+    public NoteRevisions(JdbcTemplate jdbc, TransactionTemplate tx, ObjectMapper objectMapper,
+                         DbFailoverStatusService failoverStatus, MeterRegistry meterRegistry,
+                         @Value("${app.notes.history.snapshot-every:20}") int snapshotEvery,
+                         @Value("${app.notes.history.max-revisions:100}") int maxRevisions,
+                         @Value("${app.notes.history.keep:90d}") Duration keep) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.objectMapper = objectMapper;
+        this.failoverStatus = failoverStatus;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.maxRevisions = Math.max(1, maxRevisions);
+        this.keep = keep;
+        this.snapshots = Counter.builder("notes.revisions.saved").tag("kind", "snapshot")
+                .description("Note revisions kept, by what they hold")
+                .register(meterRegistry);
+        this.deltas = Counter.builder("notes.revisions.saved").tag("kind", "delta")
+                .description("Note revisions kept, by what they hold")
+                .register(meterRegistry);
+        this.storedChars = DistributionSummary.builder("notes.revisions.size")
+                .description("Characters stored per note revision (content or delta)")
+                .register(meterRegistry);
+        this.pruned = Counter.builder("notes.revisions.pruned")
+                .description("Note revisions dropped for their age")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The note as it is now, its row locked until the transaction ends; null if it does not exist.
+     */
+    public Before lock(UUID noteId) {
+        List<Before> rows = jdbc.query("SELECT version, title, content, content_length FROM notes WHERE id = ? FOR UPDATE",
+                (rs, i) -> new Before(noteId, rs.getLong("version"), rs.getString("title"),
+                        rs.getObject("content_length") != null ? null
+                                : rs.getString("content") == null ? "" : rs.getString("content")), noteId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Keeps `before` as a revision, if the save changed the title or content. `content` is the new content (null
+     * if chunked); `applied`, if known, the patch that turned before's content into it, else the two are diffed.
+     */
+    public void record(Before before, String title, String content, NotePatch applied, String savedBy) {
+        boolean contentChanged = before.content() == null || !before.content().equals(content);
+        if (!contentChanged && Objects.equals(before.title(), title)) {
+            return;
+        }
+
+        String kind;
+        String body;
+        if (before.content() == null) {
+            kind = NO_CONTENT;
+            body = null;
+        } else if (content == null || deltasSinceSnapshot(before.noteId()) >= snapshotEvery - 1) {
+            kind = SNAPSHOT;
+            body = before.content();
+        } else {
+            NotePatch undo = applied != null ? applied.inverse(before.content())
+                    : NotePatch.between(content, before.content());
+            body = toJson(undo.edits());
+            kind = DELTA;
+            // A rewrite: the content itself is smaller
+            if (body.length() >= before.content().length()) {
+                kind = SNAPSHOT;
+                body = before.content();
+            }
+        }
+
+        jdbc.update("INSERT INTO note_revisions (note_id, version, replaced_at, replaced_by, title, kind, body) " +
+                        "VALUES (?, ?, localtimestamp, ?, ?, ?, ?)",
+                before.noteId(), before.version(), savedBy, before.title(), kind, body);
+        // Oldest first, beyond the last maxRevisions
+        jdbc.update("DELETE FROM note_revisions WHERE note_id = ? AND version <= (SELECT version FROM note_revisions " +
+                "WHERE note_id = ? ORDER BY version DESC OFFSET ? LIMIT 1)", before.noteId(), before.noteId(), maxRevisions);
+        if (body != null) {
+            (SNAPSHOT.equals(kind) ? snapshots : deltas).increment();
+            storedChars.record(body.length());
+        }
+    }
+
+    // Deltas newer than the newest snapshot; the next revision is a snapshot once there are snapshotEvery - 1
+    private int deltasSinceSnapshot(UUID noteId) {
+        return jdbc.queryForObject("SELECT count(*) FROM note_revisions WHERE note_id = ? AND version > " +
+                "coalesce((SELECT max(version) FROM note_revisions WHERE note_id = ? AND kind <> 'D'), -1)",
+                Integer.class, noteId, noteId);
+    }
+
+    /**
+     * The note's revisions, newest first.
+     */
+    public List<Revision> history(UUID noteId) {
+        return jdbc.query("SELECT version, replaced_at, replaced_by, title, kind FROM note_revisions " +
+                        "WHERE note_id = ? ORDER BY version DESC",
+                (rs, i) -> new Revision(rs.getLong("version"), rs.getObject("replaced_at", LocalDateTime.class),
+                        rs.getString("replaced_by"), rs.getString("title"), !NO_CONTENT.equals(rs.getString("kind"))),
+                noteId);
+    }
+
+    /**
+     * The content of the note at `version`, rebuilt from the nearest snapshot above it (or the note's current
+     * content) and the deltas in between; empty if there is no such revision or its content was not kept.
+     */
+    public Optional<String> content(UUID noteId, long version) {
+        // The revision, the newer ones up to the first that is not a delta, newest first
+        List<Map<String, Object>> chain = jdbc.queryForList("""
+                SELECT version, kind, body FROM note_revisions
+                WHERE note_id = ? AND version >= ? AND version <= coalesce(
+                    (SELECT min(version) FROM note_revisions WHERE note_id = ? AND version >= ? AND kind <> 'D'),
+                    9223372036854775807)
+                ORDER BY version DESC
+                """, noteId, version, noteId, version);
+        if (chain.isEmpty() || ((Number) chain.get(chain.size() - 1).get("version")).longValue() != version) {
+            return Optional.empty();
+        }
+
+        String content;
+        int next;
+        String top = (String) chain.get(0).get("kind");
+        if (SNAPSHOT.equals(top)) {
+            content = (String) chain.get(0).get("body");
+            next = 1;
+        } else if (NO_CONTENT.equals(top)) {
+            return Optional.empty();
+        } else {
+            List<String> current = jdbc.queryForList(
+                    "SELECT content FROM notes WHERE id = ? AND content_length IS NULL", String.class, noteId);
+            if (current.isEmpty()) {
+                return Optional.empty();
+            }
+            content = current.get(0) == null ? "" : current.get(0);
+            next = 0;
+        }
+        for (int i = next; i < chain.size(); i++) {
+            content = new NotePatch(null, null, fromJson((String) chain.get(i).get("body"))).apply(content);
+            if (content == null) {
+                throw new IllegalStateException("Revision " + chain.get(i).get("version") + " of note " + noteId
+                        + " does not apply to the version after it");
+            }
+        }
+        return Optional.of(content);
+    }
+
+    @Scheduled(initialDelayString = "${app.notes.history.prune-interval:1h}",
+            fixedDelayString = "${app.notes.history.prune-interval:1h}")
+    public void pruneScheduled() {
+        if (failoverStatus.isFailoverMode()) {
+            return; // replica is read-only; pruned on a later run
+        }
+        try {
+            prune();
+        } catch (DataAccessException e) {
+            System.err.println("!!! HISTORY PRUNE FAILED: " + e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    /**
+     * Drops revisions older than `keep`. Returns how many, or -1 if another node holds the prune lock.
+     */
+    public int prune() {
+        Integer dropped = tx.execute(status -> {
+            Boolean leader = jdbc.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, PRUNE_LOCK_KEY);
+            if (!Boolean.TRUE.equals(leader)) {
+                return -1;
+            }
+            return jdbc.update("DELETE FROM note_revisions WHERE replaced_at < localtimestamp - make_interval(secs => ?)",
+                    (double) keep.toSeconds());
+        });
+        if (dropped != null && dropped > 0) {
+            pruned.increment(dropped);
+            System.out.println(">>> HISTORY PRUNE: dropped " + dropped + " revision(s) older than " + keep.toDays() + " days");
+        }
+        return dropped == null ? -1 : dropped;
+    }
+
+    private String toJson(List<NotePatch.Edit> edits) {
+        try {
+            return objectMapper.writeValueAsString(edits);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<NotePatch.Edit> fromJson(String body) {
+        try {
+            return objectMapper.readValue(body, EDITS);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.secure_notes.service;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+/**
+ * Thrown when the password hashing pool is saturated. Answered with 503, not as a failed login:
+ * the credentials were never checked.
+ */
+public class PasswordHashingBusyException extends AuthenticationServiceException {
+
+    public PasswordHashingBusyException() {
+        super("Password hashing pool is saturated");
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.secure_notes.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether the replica is fresh enough to serve a read.
+ *
+ * Replica lag is sampled by the health-check loop in FailoverDataSourceConfig. A replica that
+ * is unreachable or lags more than {@code app.replica.max-lag} is out of read rotation.
+ *
+ * For read-your-writes, the master WAL position after each committed write is kept in the
+ * user's session; that user's reads only go to the replica once it has replayed up to that
+ * position, or once {@code app.replica.read-your-writes-bound} has passed since the write.
+ * WAL positions (pg_lsn) are handled as byte offsets.
+ */
+@Service
+public class ReplicaLagService {
+
+    private static final String SESSION_WRITE_POSITION = ReplicaLagService.class.getName() + ".WRITE_POSITION";
+
+    private final Duration maxLag;
+    private final Duration readYourWritesBound;
+    private final Counter staleFallbacks;
+
+    private volatile boolean inRotation;
+    private volatile Duration lag = Duration.ZERO;
+    private volatile long lagBytes;
+
+    // Highest WAL position the replica is known to have replayed (sampled or seen on a read)
+    private final AtomicLong replayLsn = new AtomicLong();
+
+    public ReplicaLagService(MeterRegistry meterRegistry,
+                             @Value("${app.replica.max-lag:30s}") Duration maxLag,
+                             @Value("${app.replica.read-your-writes-bound:10s}") Duration readYourWritesBound) {
+        this.maxLag = maxLag;
+        this.readYourWritesBound = readYourWritesBound;
+        this.staleFallbacks = Counter.builder("db.replica.stale.fallbacks")
+                .description("Read-only transactions sent to the master because the replica had not replayed the user's last write")
+                .register(meterRegistry);
+        Gauge.builder("db.replica.lag.seconds", this, s -> s.lag.toMillis() / 1000.0)
+                .description("Replication replay lag of the replica")
+                .register(meterRegistry);
+        Gauge.builder("db.replica.lag.bytes", this, s -> s.lagBytes)
+                .description("WAL bytes the replica still has to replay")
+                .register(meterRegistry);
+        Gauge.builder("db.replica.in.rotation", this, s -> s.inRotation ? 1 : 0)
+                .description("1 while read-only transactions may use the replica")
+                .register(meterRegistry);
+    }
+
+    public boolean isInRotation() {
+        return inRotation;
+    }
+
+    public Duration getLag() {
+        return lag;
+    }
+
+    public long getReplayLsn() {
+        return replayLsn.get();
+    }
+
+    /**
+     * Records one health-check sample. {@code masterLsn} is negative when the master was not sampled.
+     */
+    public void recordSample(boolean replicaUp, long masterLsn, long replicaReplayLsn, Duration replicaLag) {
+        boolean wasInRotation = inRotation;
+        if (replicaUp) {
+            observeReplayLsn(replicaReplayLsn);
+            lag = replicaLag;
+            lagBytes = masterLsn < 0 ? 0 : Math.max(0, masterLsn - replicaReplayLsn);
+        }
+        inRotation = replicaUp && replicaLag.compareTo(maxLag) <= 0;
+
+        if (wasInRotation && !inRotation) {
+            System.err.println("!!! WARN: REPLICA out of read rotation (" + (replicaUp ? "lag " + replicaLag : "unreachable") + ")");
+        } else if (!wasInRotation && inRotation) {
+            System.out.println(">>> INFO: REPLICA in read rotation (lag " + replicaLag + ")");
+        }
+    }
+
+    /**
+     * Takes the replica out of rotation until the next health-check sample.
+     */
+    public void markUnavailable() {
+        inRotation = false;
+    }
+
+    public void observeReplayLsn(long lsn) {
+        replayLsn.accumulateAndGet(lsn, Math::max);
+    }
+
+    public void countStaleFallback() {
+        staleFallbacks.increment();
+    }
+
+    /**
+     * True when the current thread serves an HTTP request that has a session to remember writes in.
+     * Background work (schedulers, the audit writer) and sessionless requests are not tracked.
+     */
+    public boolean isTrackingWrites() {
+        return RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes request
+                && request.getRequest().getSession(false) != null;
+    }
+
+    /**
+     * Remembers the master WAL position of a committed write in the current user's session.
+     */
+    public void recordWrite(long masterLsn) {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request == null) return;
+        WritePosition previous = (WritePosition) request.getAttribute(SESSION_WRITE_POSITION, RequestAttributes.SCOPE_SESSION);
+        long lsn = previous == null ? masterLsn : Math.max(previous.lsn(), masterLsn);
+        request.setAttribute(SESSION_WRITE_POSITION, new WritePosition(lsn, Instant.now()), RequestAttributes.SCOPE_SESSION);
+    }
+
+    /**
+     * WAL position the replica must have replayed before it may serve the current user; 0 if any replica state will do.
+     */
+    public long requiredReplayLsn() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request == null) return 0;
+        WritePosition position = (WritePosition) request.getAttribute(SESSION_WRITE_POSITION, RequestAttributes.SCOPE_SESSION);
+        if (position == null || position.writtenAt().plus(readYourWritesBound).isBefore(Instant.now())) {
+            return 0;
+        }
+        return position.lsn();
+    }
+
+    private record WritePosition(long lsn, Instant writtenAt) implements Serializable {
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.secure_notes.service;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a ZIP archive one entry at a time without keeping anything per entry in memory.
+ *
+ * java.util.zip.ZipOutputStream holds every entry until it writes the central directory at the end
+ * (a few hundred bytes per file: hundreds of MB for a million notes). Here each entry's central directory
+ * record goes to a temporary file as soon as the entry is written, and that file is copied to the output
+ * by {@link #finish()}. Entries are deflated in memory first, so their sizes and CRC are in the local header;
+ * entries given as a stream are deflated as they are read, and their sizes and CRC follow the data
+ * (data descriptor). Zip64 records are added once there are more than 65535 entries or the archive passes 4 GB.
+ * Not thread-safe; the output stream is not closed.
+ */
+public class StreamingZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8_NAMES = 0x0800;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private final OutputStream out;
+    private final Path centralDirectoryFile;
+    private final OutputStream centralDirectory;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private byte[] compressed = new byte[8192];
+
+    private long offset;
+    private long entries;
+    private long centralDirectorySize;
+    private boolean finished;
+
+    public StreamingZipWriter(OutputStream out) throws IOException {
+        this.out = out;
+        this.centralDirectoryFile = Files.createTempFile("zip-central-directory", ".tmp");
+        this.centralDirectory = new BufferedOutputStream(Files.newOutputStream(centralDirectoryFile));
+    }
+
+    public void addEntry(String name, LocalDateTime time, byte[] content) throws IOException {
+        byte[] nameBytes = entryName(name);
+        int compressedSize = deflate(content);
+        crc.reset();
+        crc.update(content);
+        long dosTime = dosTime(time);
+        long localHeaderOffset = offset;
+
+        write(localHeader(nameBytes, FLAG_UTF8_NAMES, dosTime, (int) crc.getValue(), compressedSize, content.length));
+        write(compressed, compressedSize);
+        addCentralRecord(nameBytes, FLAG_UTF8_NAMES, dosTime, compressedSize, content.length, localHeaderOffset);
+    }
+
+    /**
+     * Adds an entry read from the stream, which is deflated as it is read and not closed. Memory use does
+     * not depend on the entry's size, but the entry (compressed and not) must stay under 4 GB.
+     */
+    public void addEntry(String name, LocalDateTime time, InputStream content) throws IOException {
+        byte[] nameBytes = entryName(name);
+        int flags = FLAG_UTF8_NAMES | FLAG_DATA_DESCRIPTOR;
+        long dosTime = dosTime(time);
+        long localHeaderOffset = offset;
+        write(localHeader(nameBytes, flags, dosTime, 0, 0, 0));
+
+        crc.reset();
+        deflater.reset();
+        long size = 0;
+        long dataStart = offset;
+        byte[] buffer = new byte[8192];
+        for (int n; (n = content.read(buffer)) >= 0; ) {
+            crc.update(buffer, 0, n);
+            size += n;
+            deflater.setInput(buffer, 0, n);
+            while (!deflater.needsInput()) {
+                write(compressed, deflater.deflate(compressed));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            write(compressed, deflater.deflate(compressed));
+        }
+        long compressedSize = offset - dataStart;
+        if (size >= MAX_32 || compressedSize >= MAX_32) throw new IOException("Entry too large: " + name);
+
+        write(header(16)
+                .putInt(DATA_DESCRIPTOR)
+                .putInt((int) crc.getValue())
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .array());
+        addCentralRecord(nameBytes, flags, dosTime, compressedSize, size, localHeaderOffset);
+    }
+
+    private byte[] entryName(String name) {
+        if (finished) throw new IllegalStateException("Archive already finished");
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_16) throw new IllegalArgumentException("Entry name too long");
+        return nameBytes;
+    }
+
+    private static byte[] localHeader(byte[] nameBytes, int flags, long dosTime, int crc, long compressedSize,
+                                      long size) {
+        return header(30 + nameBytes.length)
+                .putInt(LOCAL_HEADER)
+                .putShort((short) VERSION)
+                .putShort((short) flags)
+                .putShort((short) METHOD_DEFLATED)
+                .putInt((int) dosTime)
+                .putInt(crc)
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes)
+                .array();
+    }
+
+    // Central directory record, to the temporary file; the CRC is taken from the crc field
+    private void addCentralRecord(byte[] nameBytes, int flags, long dosTime, long compressedSize, long size,
+                                  long localHeaderOffset) throws IOException {
+        // Local header offsets past 4 GB go into a Zip64 extra field
+        boolean zip64 = localHeaderOffset >= MAX_32;
+        int extraLength = zip64 ? 12 : 0;
+        ByteBuffer central = header(46 + nameBytes.length + extraLength)
+                .putInt(CENTRAL_HEADER)
+                .putShort((short) VERSION_ZIP64)
+                .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION))
+                .putShort((short) flags)
+                .putShort((short) METHOD_DEFLATED)
+                .putInt((int) dosTime)
+                .putInt((int) crc.getValue())
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) extraLength)
+                .putShort((short) 0)   // comment
+                .putShort((short) 0)   // disk
+                .putShort((short) 0)   // internal attributes
+                .putInt(0)             // external attributes
+                .putInt((int) Math.min(localHeaderOffset, MAX_32))
+                .put(nameBytes);
+        if (zip64) {
+            central.putShort((short) 0x0001).putShort((short) 8).putLong(localHeaderOffset);
+        }
+
+        centralDirectory.write(central.array());
+        centralDirectorySize += central.capacity();
+        entries++;
+    }
+
+    /**
+     * Writes the central directory and end records. The archive is complete after this.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        centralDirectory.close();
+        long centralDirectoryOffset = offset;
+        offset += Files.copy(centralDirectoryFile, out);
+        Files.deleteIfExists(centralDirectoryFile);
+
+        if (entries > MAX_16 || centralDirectoryOffset >= MAX_32 || centralDirectorySize >= MAX_32) {
+            long zip64EndOffset = offset;
+            write(header(56)
+                    .putInt(ZIP64_END)
+                    .putLong(44)       // size of the rest of this record
+                    .putShort((short) VERSION_ZIP64)
+                    .putShort((short) VERSION_ZIP64)
+                    .putInt(0)         // this disk
+                    .putInt(0)         // central directory disk
+                    .putLong(entries)
+                    .putLong(entries)
+                    .putLong(centralDirectorySize)
+                    .putLong(centralDirectoryOffset)
+                    .array());
+            write(header(20)
+                    .putInt(ZIP64_LOCATOR)
+                    .putInt(0)
+                    .putLong(zip64EndOffset)
+                    .putInt(1)         // total disks
+                    .array());
+        }
+        write(header(22)
+                .putInt(END)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) Math.min(entries, MAX_16))
+                .putShort((short) Math.min(entries, MAX_16))
+                .putInt((int) Math.min(centralDirectorySize, MAX_32))
+                .putInt((int) Math.min(centralDirectoryOffset, MAX_32))
+                .putShort((short) 0)   // comment
+                .array());
+        out.flush();
+        deflater.end();
+    }
+
+    // Drops the temporary file; an unfinished archive is left incomplete
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            centralDirectory.close();
+            deflater.end();
+        }
+        Files.deleteIfExists(centralDirectoryFile);
+    }
+
+    private int deflate(byte[] content) {
+        deflater.reset();
+        deflater.setInput(content);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        return length;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        write(bytes, bytes.length);
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        offset += length;
+    }
+
+    private static ByteBuffer header(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // MS-DOS date (high 16 bits) and time (low 16 bits), local time, 2-second resolution, 1980-2107
+    static long dosTime(LocalDateTime t) {
+        if (t == null || t.getYear() < 1980) return (1 << 21) | (1 << 16);
+        int year = Math.min(t.getYear(), 2107) - 1980;
+        return (long) year << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.secure_notes.service;
+
+import com.example.secure_notes.model.UserSnapshot;
+import com.example.secure_notes.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, time-limited cache of users by username, in front of UserRepository.findByUsername.
+ *
+ * A trigger on the users table (see SchemaMigrations) sends a NOTIFY on {@link #CHANNEL} for every
+ * inserted, updated or deleted user; every node drops that entry, and drops everything after it may
+ * have missed notifications. The TTL bounds staleness if notifications are lost some other way.
+ * Unknown usernames are not cached, so lookups of made-up names cannot push real users out.
+ */
+@Service
+public class UserCache {
+
+    public static final String CHANNEL = "user_changed";
+
+    private record Entry(UserSnapshot user, long loadedAt) {}
+
+    private final UserRepository userRepository;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries;
+
+    // Bumped by every invalidation: a load that raced with one is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter invalidations;
+
+    public UserCache(UserRepository userRepository, DbNotificationListener notifications, MeterRegistry meterRegistry,
+                     @Value("${app.users.cache.max-size:10000}") int maxSize,
+                     @Value("${app.users.cache.ttl:5m}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.ttlNanos = ttl.toNanos();
+        // Access-ordered: the least recently used user goes first once the cache is full
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+
+        this.hits = Counter.builder("users.cache.gets")
+                .description("User lookups by username")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("users.cache.gets")
+                .description("User lookups by username")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.invalidations = Counter.builder("users.cache.invalidations")
+                .description("User cache entries dropped because the user changed")
+                .register(meterRegistry);
+        Gauge.builder("users.cache.size", this, UserCache::size)
+                .description("Users currently cached")
+                .register(meterRegistry);
+
+        notifications.subscribe(CHANNEL, this::invalidate, this::invalidateAll);
+    }
+
+    /**
+     * The user with exactly this username, from the cache or else from the database.
+     */
+    public Optional<UserSnapshot> find(String username) {
+        if (username == null) return Optional.empty();
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(username);
+        }
+        if (entry != null && now - entry.loadedAt() < ttlNanos) {
+            hits.increment();
+            return Optional.of(entry.user());
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        Optional<UserSnapshot> user = userRepository.findByUsername(username).map(UserSnapshot::of);
+        synchronized (entries) {
+            if (user.isPresent() && generation.get() == loadGeneration) {
+                entries.put(username, new Entry(user.get(), now));
+            } else {
+                entries.remove(username);
+            }
+        }
+        return user;
+    }
+
+    public void invalidate(String username) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(username);
+        }
+        invalidations.increment();
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
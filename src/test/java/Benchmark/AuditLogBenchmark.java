@@ -0,0 +1,87 @@
+package Benchmark;
+
+import com.example.secure_notes.SecureNotesApplication;
+import com.example.secure_notes.service.AuditLog;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Audit events from THREADS request threads at once, recorded two ways: through AuditLog (buffer, background
+ * batches) and written synchronously, one INSERT transaction per event as a controller would. Reports the time
+ * a request thread spends per event, and for AuditLog how long the writer takes to catch up.
+ *
+ * Starts the application without the web server; run main() on the test classpath after {@code mvn test-compile};
+ * it is not part of the test phase.
+ */
+public class AuditLogBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 5000;
+    private static final String USER = "audit_bench";
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(SecureNotesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.show-sql=false", "--logging.level.root=WARN")) {
+            AuditLog audit = ctx.getBean(AuditLog.class);
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            TransactionTemplate tx = ctx.getBean(TransactionTemplate.class);
+            MeterRegistry meters = ctx.getBean(MeterRegistry.class);
+            UUID noteId = UUID.randomUUID();
+            int events = THREADS * EVENTS_PER_THREAD;
+            try {
+                System.out.printf("%d threads x %d events%n", THREADS, EVENTS_PER_THREAD);
+                System.out.printf("%-14s %16s %16s%n", "", "us/event (req)", "all written (ms)");
+
+                double writtenBefore = meters.get("audit.events.written").counter().count();
+                long start = System.nanoTime();
+                long requestNanos = run(() -> audit.record(USER, AuditLog.Action.VIEW, noteId, "bench"));
+                while (meters.get("audit.events.written").counter().count() - writtenBefore < events) {
+                    Thread.sleep(5);
+                }
+                System.out.printf("%-14s %16.2f %16d   dropped: %.0f%n", "AuditLog", requestNanos / 1e3 / events,
+                        (System.nanoTime() - start) / 1_000_000, meters.get("audit.events.dropped").counter().count());
+
+                start = System.nanoTime();
+                requestNanos = run(() -> tx.executeWithoutResult(status -> jdbc.update(
+                        "INSERT INTO audit_events (occurred_at, username, action, note_id, detail) VALUES (?, ?, ?, ?, ?)",
+                        Timestamp.valueOf(LocalDateTime.now()), USER, "VIEW", noteId, "bench")));
+                System.out.printf("%-14s %16.2f %16d%n", "synchronous", requestNanos / 1e3 / events,
+                        (System.nanoTime() - start) / 1_000_000);
+            } finally {
+                jdbc.update("DELETE FROM audit_events WHERE username = ?", USER);
+            }
+        }
+    }
+
+    // Total time the threads spent in the action
+    private static long run(Runnable action) throws InterruptedException {
+        long[] nanos = new long[THREADS];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int index = t;
+            Thread thread = new Thread(() -> {
+                long begin = System.nanoTime();
+                for (int i = 0; i < EVENTS_PER_THREAD; i++) action.run();
+                nanos[index] = System.nanoTime() - begin;
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        long total = 0;
+        for (long n : nanos) total += n;
+        return total;
+    }
+}
@@ -0,0 +1,61 @@
+package Benchmark;
+
+import com.example.secure_notes.service.BoundedPasswordEncoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password verification latency per BCrypt cost factor (app.password.bcrypt-strength), called directly
+ * and through BoundedPasswordEncoder (hand-off to the hashing pool). Pick the highest cost whose
+ * latency is acceptable per login on the production hardware.
+ *
+ * Run main() on the test classpath after {@code mvn test-compile}; it is not part of the test phase.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BCryptCostBenchmark {
+
+    @Param({"8", "10", "11", "12", "13"})
+    private int cost;
+
+    private BCryptPasswordEncoder direct;
+    private BoundedPasswordEncoder pooled;
+    private String hash;
+
+    @Setup
+    public void setUp() {
+        direct = new BCryptPasswordEncoder(cost);
+        pooled = new BoundedPasswordEncoder(cost, 1, 1, new SimpleMeterRegistry());
+        hash = direct.encode("correct horse battery staple");
+    }
+
+    @TearDown
+    public void tearDown() {
+        pooled.shutdown();
+    }
+
+    @Benchmark
+    public boolean verifyDirect() {
+        return direct.matches("correct horse battery staple", hash);
+    }
+
+    @Benchmark
+    public boolean verifyPooled() {
+        return pooled.matches("correct horse battery staple", hash);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(BCryptCostBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+package Benchmark;
+
+import com.example.secure_notes.model.Note;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access-check cost of Note.canRead / canWrite (pre-parsed ACL sets) against the previous
+ * comma-separated implementation, for notes shared with 1, 50 and 500 users.
+ *
+ * Run main() on the test classpath after {@code mvn test-compile}; it is not part of the test phase.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoteAclBenchmark {
+
+    @Param({"1", "50", "500"})
+    private int grantees;
+
+    private Note note;
+    private String legacyReadOnly;
+    private String legacyReadWrite;
+
+    // Last grantee (worst case for the linear scan) and a user with no access
+    private String lastReader;
+    private String stranger;
+
+    @Setup
+    public void setUp() {
+        note = new Note("t", "c", "owner");
+        StringBuilder readOnly = new StringBuilder();
+        StringBuilder readWrite = new StringBuilder();
+        for (int i = 0; i < grantees; i++) {
+            String user = "user" + i;
+            if (i % 2 == 0) {
+                note.addReadOnlyUser(user);
+                readOnly.append(readOnly.isEmpty() ? "" : ",").append(user);
+            } else {
+                note.addReadWriteUser(user);
+                readWrite.append(readWrite.isEmpty() ? "" : ",").append(user);
+            }
+        }
+        legacyReadOnly = readOnly.toString();
+        legacyReadWrite = readWrite.toString();
+        lastReader = "User" + (grantees - 1);
+        stranger = "mallory";
+    }
+
+    @Benchmark
+    public boolean canRead_grantee() {
+        return note.canRead(lastReader);
+    }
+
+    @Benchmark
+    public boolean canRead_stranger() {
+        return note.canRead(stranger);
+    }
+
+    @Benchmark
+    public boolean canWrite_grantee() {
+        return note.canWrite(lastReader);
+    }
+
+    @Benchmark
+    public boolean legacyCanRead_grantee() {
+        return legacyContainsUser(legacyReadOnly, lastReader) || legacyContainsUser(legacyReadWrite, lastReader);
+    }
+
+    @Benchmark
+    public boolean legacyCanRead_stranger() {
+        return legacyContainsUser(legacyReadOnly, stranger) || legacyContainsUser(legacyReadWrite, stranger);
+    }
+
+    @Benchmark
+    public boolean legacyCanWrite_grantee() {
+        return legacyContainsUser(legacyReadWrite, lastReader);
+    }
+
+    // Previous Note.containsUser, kept here as the baseline
+    private static boolean legacyContainsUser(String list, String username) {
+        if (list == null || list.isBlank()) return false;
+        String[] users = list.split(",");
+        for (String u : users) {
+            if (u.trim().equalsIgnoreCase(username)) return true;
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(NoteAclBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
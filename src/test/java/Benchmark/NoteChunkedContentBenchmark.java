@@ -0,0 +1,165 @@
+package Benchmark;
+
+import com.example.secure_notes.SecureNotesApplication;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.NoteContentStore;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Large notes through NoteContentStore: time to store content of a few sizes, to read it whole and to read
+ * 4 KiB from its end, and the heap a whole read takes: streamed from the chunks as the download endpoints do,
+ * against reading it into one String (what loading the content as an entity column amounts to).
+ *
+ * Run with a small heap to see the difference, e.g. -Xmx96m: the streamed reads stay near the application's own
+ * heap whatever the note's size, the String does not fit from some size on. Starts the application without the web server;
+ * run main() on the test classpath after {@code mvn test-compile}; it is not part of the test phase.
+ */
+public class NoteChunkedContentBenchmark {
+
+    private static final int[] SIZES_MB = {1, 10, 40};
+    private static final int RANGE_READS = 50;
+    private static final String OWNER = "chunk_bench";
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(SecureNotesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.show-sql=false", "--logging.level.root=WARN",
+                        "--app.notes.max-content-size=100MB")) {
+            NoteRepository notes = ctx.getBean(NoteRepository.class);
+            NoteContentStore store = ctx.getBean(NoteContentStore.class);
+            TransactionTemplate tx = new TransactionTemplate(ctx.getBean(TransactionTemplate.class).getTransactionManager());
+            tx.setReadOnly(true);
+
+            System.out.printf("max heap %d MB%n", Runtime.getRuntime().maxMemory() >> 20);
+            System.out.printf("%6s %9s %9s %10s %12s %13s%n",
+                    "MB", "store s", "read s", "range ms", "stream heap", "String heap");
+            for (int mb : SIZES_MB) {
+                UUID id = notes.save(new Note("Benchmark", "", OWNER)).getId();
+                try {
+                    run(store, tx, id, mb);
+                } finally {
+                    notes.deleteById(id);
+                }
+            }
+        }
+    }
+
+    private static void run(NoteContentStore store, TransactionTemplate tx, UUID id, int mb) throws Exception {
+        long size = (long) mb << 20;
+        long start = System.nanoTime();
+        try (NoteContentStore.Upload upload = store.upload(new TextStream(size))) {
+            NoteContentStore.Replaced replaced = store.replace(id, OWNER, upload, -1);
+            if (replaced.outcome() != NoteContentStore.Outcome.SAVED) throw new IllegalStateException(replaced.toString());
+        }
+        double storeSeconds = (System.nanoTime() - start) / 1e9;
+
+        // Whole content streamed to nowhere, then ranges from the end
+        resetPeaks();
+        start = System.nanoTime();
+        long read = tx.execute(status -> copy(store, id, 0, size - 1));
+        double readSeconds = (System.nanoTime() - start) / 1e9;
+        long streamHeap = heapPeak();
+        if (read != size) throw new IllegalStateException("Read " + read + " of " + size);
+
+        start = System.nanoTime();
+        for (int i = 0; i < RANGE_READS; i++) {
+            tx.execute(status -> copy(store, id, size - 4096, size - 1));
+        }
+        double rangeMillis = (System.nanoTime() - start) / 1e6 / RANGE_READS;
+
+        String stringHeap;
+        resetPeaks();
+        try {
+            String text = tx.execute(status -> {
+                try (InputStream in = store.openRange(id, 0, size - 1)) {
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            stringHeap = (heapPeak() >> 20) + " MB";
+            if (text.isEmpty()) throw new IllegalStateException();
+        } catch (OutOfMemoryError e) {
+            stringHeap = "out of memory";
+        }
+
+        System.out.printf("%6d %9.2f %9.2f %10.2f %9d MB %13s%n",
+                mb, storeSeconds, readSeconds, rangeMillis, streamHeap >> 20, stringHeap);
+    }
+
+    private static long copy(NoteContentStore store, UUID id, long first, long last) {
+        try (InputStream in = store.openRange(id, first, last)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Heap in use at its highest since resetPeaks(), after a GC at the start
+    private static final List<MemoryPoolMXBean> HEAP = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(p -> p.getType() == MemoryType.HEAP).toList();
+
+    private static void resetPeaks() {
+        System.gc();
+        HEAP.forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    private static long heapPeak() {
+        return HEAP.stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+    }
+
+    // `size` bytes of numbered lines with some multi-byte characters, generated as read
+    private static class TextStream extends InputStream {
+        private final long size;
+        private long position;
+        private byte[] line = new byte[0];
+        private int linePosition;
+        private int lineNumber;
+
+        TextStream(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == size) return -1;
+            int n = 0;
+            while (n < len && position < size) {
+                if (linePosition == line.length) {
+                    line = ("Line " + lineNumber++ + ": notes, ümlauts and ✓ marks\n").getBytes(StandardCharsets.UTF_8);
+                    // Pad the end with ASCII, so the content is valid UTF-8 at any size
+                    if (line.length > size - position) {
+                        line = " ".repeat((int) (size - position)).getBytes(StandardCharsets.US_ASCII);
+                    }
+                    linePosition = 0;
+                }
+                int take = Math.min(len - n, line.length - linePosition);
+                System.arraycopy(line, linePosition, b, off + n, take);
+                n += take;
+                linePosition += take;
+                position += take;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package Benchmark;
+
+import com.example.secure_notes.SecureNotesApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage and CPU cost of note content at the sizes the raised limit allows: how Postgres stores the
+ * text column as it is (pglz, TOAST threshold 2 kB), as SchemaMigrations configures it (TOAST threshold
+ * lowered), and uncompressed; plus java.util.zip deflate on the same notes, for comparison with
+ * compressing in the application.
+ *
+ * Notes are cut from real English text: the files or directories given as arguments, by default the
+ * license texts in /usr/share/common-licenses. Uses scratch tables on the master (dropped at the end).
+ * Run main() on the test classpath after {@code mvn test-compile}; it is not part of the test phase.
+ */
+public class NoteContentStorageBenchmark {
+
+    // Note sizes (characters) and how many of each: mostly short notes, a tail of long ones
+    private static final int[] SIZES = {300, 1_000, 3_000, 10_000, 50_000};
+    private static final int[] COUNTS = {3_000, 2_000, 1_000, 300, 60};
+    private static final int READ_ROUNDS = 5;
+
+    private record Variant(String name, String columnSetup, String tableSetup) {}
+
+    private static final Variant[] VARIANTS = {
+            new Variant("uncompressed", "ALTER COLUMN content SET STORAGE EXTERNAL", null),
+            new Variant("pglz, 2 kB", null, null),
+            new Variant("pglz, 512 B", null, "toast_tuple_target = 512"),
+    };
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        List<String> notes = notes(corpus(args.length > 0 ? args : new String[]{"/usr/share/common-licenses"}));
+        long chars = notes.stream().mapToLong(String::length).sum();
+        long bytes = notes.stream().mapToLong(n -> n.getBytes(StandardCharsets.UTF_8).length).sum();
+        System.out.printf("%d notes, %.1f MB of UTF-8 text%n%n", notes.size(), bytes / 1e6);
+
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(SecureNotesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.show-sql=false", "--logging.level.root=WARN")) {
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            System.out.printf("%-14s %9s %9s %9s %9s %11s %12s%n",
+                    "storage", "heap MB", "toast MB", "total MB", "insert s", "list scan ms", "read all ms");
+            for (Variant variant : VARIANTS) {
+                measure(jdbc, variant, notes);
+            }
+        }
+
+        System.out.printf("%n%-14s %9s %11s %11s%n", "java.util.zip", "total MB", "deflate MB/s", "inflate MB/s");
+        for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION}) {
+            deflate(notes, level, bytes);
+        }
+        System.out.printf("(%d characters)%n", chars);
+    }
+
+    private static void measure(JdbcTemplate jdbc, Variant variant, List<String> notes) {
+        jdbc.execute("DROP TABLE IF EXISTS bench_note_content");
+        jdbc.execute("CREATE TABLE bench_note_content (id bigint PRIMARY KEY, owner_username varchar(255), " +
+                "title varchar(255), content text)" +
+                (variant.tableSetup() == null ? "" : " WITH (" + variant.tableSetup() + ")"));
+        if (variant.columnSetup() != null) {
+            jdbc.execute("ALTER TABLE bench_note_content " + variant.columnSetup());
+        }
+        try {
+            long start = System.nanoTime();
+            List<Object[]> rows = new ArrayList<>();
+            for (int i = 0; i < notes.size(); i++) {
+                rows.add(new Object[]{i, "bench", "Note " + i, notes.get(i)});
+                if (rows.size() == 500 || i == notes.size() - 1) {
+                    jdbc.batchUpdate("INSERT INTO bench_note_content VALUES (?, ?, ?, ?)", rows);
+                    rows.clear();
+                }
+            }
+            double insertSeconds = (System.nanoTime() - start) / 1e9;
+            jdbc.execute("VACUUM ANALYZE bench_note_content");
+
+            long heap = jdbc.queryForObject("SELECT pg_relation_size('bench_note_content')", Long.class);
+            long total = jdbc.queryForObject("SELECT pg_table_size('bench_note_content')", Long.class);
+
+            // What the note lists read (no content), and what reading every note's text costs
+            double listMillis = best(() -> jdbc.queryForObject(
+                    "SELECT count(title) FROM bench_note_content WHERE owner_username = 'bench'", Long.class));
+            // A substring search, so every value is read (length() can be answered from the TOAST header)
+            double readMillis = best(() -> jdbc.queryForObject(
+                    "SELECT count(*) FROM bench_note_content WHERE strpos(content, '#no such text#') > 0", Long.class));
+            System.out.printf("%-14s %9.1f %9.1f %9.1f %9.2f %11.1f %12.1f%n", variant.name(),
+                    heap / 1e6, (total - heap) / 1e6, total / 1e6, insertSeconds, listMillis, readMillis);
+        } finally {
+            jdbc.execute("DROP TABLE IF EXISTS bench_note_content");
+        }
+    }
+
+    private static double best(Runnable query) {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < READ_ROUNDS; i++) {
+            long start = System.nanoTime();
+            query.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    private static void deflate(List<String> notes, int level, long bytes) throws DataFormatException {
+        // Second of two rounds, after the JIT has compiled the loops
+        for (int round = 0; round < 2; round++) {
+            deflateRound(notes, level, bytes, round == 1);
+        }
+    }
+
+    private static void deflateRound(List<String> notes, int level, long bytes, boolean print)
+            throws DataFormatException {
+        List<byte[]> compressed = new ArrayList<>(notes.size());
+        Deflater deflater = new Deflater(level, true);
+        byte[] buffer = new byte[64 * 1024];
+        long start = System.nanoTime();
+        for (String note : notes) {
+            deflater.reset();
+            deflater.setInput(note.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            compressed.add(out.toByteArray());
+        }
+        double deflateSeconds = (System.nanoTime() - start) / 1e9;
+
+        Inflater inflater = new Inflater(true);
+        start = System.nanoTime();
+        for (byte[] data : compressed) {
+            inflater.reset();
+            inflater.setInput(data);
+            while (!inflater.finished()) {
+                if (inflater.inflate(buffer) == 0 && inflater.needsInput()) break;
+            }
+        }
+        double inflateSeconds = (System.nanoTime() - start) / 1e9;
+        long total = compressed.stream().mapToLong(c -> c.length).sum();
+        if (!print) return;
+        System.out.printf("%-14s %9.1f %11.0f %11.0f%n", level == Deflater.BEST_SPEED ? "level 1" : "level 6",
+                total / 1e6, bytes / 1e6 / deflateSeconds, bytes / 1e6 / inflateSeconds);
+    }
+
+    // Paragraphs of the corpus, whitespace within lines kept as written
+    private static List<String> corpus(String[] paths) throws Exception {
+        List<String> paragraphs = new ArrayList<>();
+        for (String path : paths) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(Path.of(path))) {
+                files = walk.filter(Files::isRegularFile).sorted().toList();
+            }
+            for (Path file : files) {
+                String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).replace("\r\n", "\n");
+                for (String paragraph : text.split("\n\\s*\n")) {
+                    if (!paragraph.isBlank()) paragraphs.add(paragraph.strip());
+                }
+            }
+        }
+        if (paragraphs.isEmpty()) throw new IllegalArgumentException("No text found in the corpus");
+        return paragraphs;
+    }
+
+    // Consecutive paragraphs joined up to each size, continuing through the corpus (wrapping around)
+    private static List<String> notes(List<String> paragraphs) {
+        List<String> notes = new ArrayList<>();
+        int next = 0;
+        for (int s = 0; s < SIZES.length; s++) {
+            for (int i = 0; i < COUNTS[s]; i++) {
+                StringBuilder note = new StringBuilder();
+                while (note.length() < SIZES[s]) {
+                    if (!note.isEmpty()) note.append("\n\n");
+                    note.append(paragraphs.get(next));
+                    next = (next + 1) % paragraphs.size();
+                }
+                note.setLength(SIZES[s]);
+                notes.add(note.toString());
+            }
+        }
+        return notes;
+    }
+}
@@ -0,0 +1,80 @@
+package Benchmark;
+
+import com.example.secure_notes.SecureNotesApplication;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.NoteRevisions;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A note of about 50 KB saved ROUNDS times with one line changed each time, as the controllers save it (the note
+ * locked, the update, the revision). Reports the time per save, the space the revisions take in the table (after
+ * Postgres' compression) against keeping a whole copy per save, and the time to show the oldest and a middle one.
+ *
+ * Starts the application without the web server; run main() on the test classpath after {@code mvn test-compile};
+ * it is not part of the test phase.
+ */
+public class NoteHistoryBenchmark {
+
+    private static final int LINES = 1500;
+    private static final int ROUNDS = 100;
+    private static final String OWNER = "history_bench";
+
+    public static void main(String[] args) {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(SecureNotesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.show-sql=false", "--logging.level.root=WARN")) {
+            NoteRepository notes = ctx.getBean(NoteRepository.class);
+            NoteRevisions revisions = ctx.getBean(NoteRevisions.class);
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            TransactionTemplate tx = ctx.getBean(TransactionTemplate.class);
+
+            String[] lines = new String[LINES];
+            for (int i = 0; i < LINES; i++) {
+                lines[i] = "Line " + i + ": " + UUID.nameUUIDFromBytes(("line" + i).getBytes()) + "\n";
+            }
+            UUID id = notes.save(new Note("Benchmark", String.join("", lines), OWNER)).getId();
+            try {
+                int size = String.join("", lines).length();
+                long start = System.nanoTime();
+                for (int i = 0; i < ROUNDS; i++) {
+                    lines[(i * 37) % LINES] = "Edited in round " + i + "\n";
+                    String content = String.join("", lines);
+                    tx.executeWithoutResult(status -> {
+                        NoteRevisions.Before before = revisions.lock(id);
+                        jdbc.update("UPDATE notes SET content = ?, version = version + 1 WHERE id = ?", content, id);
+                        revisions.record(before, before.title(), content, null, OWNER);
+                    });
+                }
+                double msPerSave = (System.nanoTime() - start) / 1e6 / ROUNDS;
+
+                long stored = jdbc.queryForObject("SELECT coalesce(sum(pg_column_size(body)), 0) FROM note_revisions " +
+                        "WHERE note_id = ?", Long.class, id);
+                long copies = jdbc.queryForObject("SELECT coalesce(sum(pg_column_size(content)), 0) FROM notes " +
+                        "WHERE id = ?", Long.class, id) * ROUNDS;
+                List<Long> versions = jdbc.queryForList("SELECT version FROM note_revisions WHERE note_id = ? " +
+                        "ORDER BY version", Long.class, id);
+
+                System.out.printf("note: %d KB, %d saves of one changed line, %.1f ms/save%n", size >> 10, ROUNDS, msPerSave);
+                System.out.printf("revisions stored: %d KB (a copy per save: %d KB)%n", stored >> 10, copies >> 10);
+                for (long version : List.of(versions.get(0), versions.get(versions.size() / 2))) {
+                    start = System.nanoTime();
+                    for (int i = 0; i < 20; i++) {
+                        revisions.content(id, version).orElseThrow();
+                    }
+                    System.out.printf("show version %d: %.2f ms%n", version, (System.nanoTime() - start) / 1e6 / 20);
+                }
+            } finally {
+                notes.deleteById(id);
+            }
+        }
+    }
+}
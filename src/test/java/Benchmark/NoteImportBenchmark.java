@@ -0,0 +1,116 @@
+package Benchmark;
+
+import com.example.secure_notes.SecureNotesApplication;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.NoteExporter;
+import com.example.secure_notes.service.NoteImporter;
+import com.example.secure_notes.service.StreamingZipWriter;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * Notes per second into the master: one save() per note (what posting the form once per note costs,
+ * without HTTP), against NoteImporter with NDJSON and ZIP uploads at a few JDBC batch sizes.
+ *
+ * Starts the application without the web server (master and replica databases must be running).
+ * Run main() on the test classpath after {@code mvn test-compile}; it is not part of the test phase.
+ */
+public class NoteImportBenchmark {
+
+    private static final int SAVE_PER_NOTE = 5_000;
+    private static final int IMPORTED = 100_000;
+    private static final int[] BATCH_SIZES = {1, 50, 500};
+    private static final String OWNER = "import_bench";
+
+    public static void main(String[] args) throws Exception {
+        // DevTools would restart main() in its own class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        Path ndjson = Files.createTempFile("import-bench", ".ndjson");
+        Path zip = Files.createTempFile("import-bench", ".zip");
+        try {
+            writeUploads(ndjson, zip);
+            System.out.printf("%-14s %6s %8s %10s%n", "mode", "batch", "notes", "notes/s");
+            for (int batchSize : BATCH_SIZES) {
+                run(batchSize, ndjson, zip);
+            }
+        } finally {
+            Files.deleteIfExists(ndjson);
+            Files.deleteIfExists(zip);
+        }
+    }
+
+    private static void run(int batchSize, Path ndjson, Path zip) throws Exception {
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(SecureNotesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.properties.hibernate.jdbc.batch_size=" + batchSize,
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN")) {
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            NoteImporter importer = ctx.getBean(NoteImporter.class);
+
+            if (batchSize == BATCH_SIZES[0]) {
+                NoteRepository repository = ctx.getBean(NoteRepository.class);
+                clear(jdbc);
+                long start = System.nanoTime();
+                for (int i = 0; i < SAVE_PER_NOTE; i++) {
+                    repository.save(new Note("Note " + i, content(i), OWNER));
+                }
+                print("save per note", "-", SAVE_PER_NOTE, start);
+            }
+
+            for (NoteExporter.Format format : NoteExporter.Format.values()) {
+                clear(jdbc);
+                long start = System.nanoTime();
+                NoteImporter.Result result;
+                try (InputStream in = Files.newInputStream(format == NoteExporter.Format.ZIP ? zip : ndjson)) {
+                    result = importer.importNotes(OWNER, format, in, (imported, skipped) -> {});
+                }
+                if (result.imported() != IMPORTED) throw new IllegalStateException("Imported " + result);
+                print("import " + format.name().toLowerCase(), String.valueOf(batchSize), IMPORTED, start);
+            }
+            clear(jdbc);
+        }
+    }
+
+    private static void writeUploads(Path ndjson, Path zip) throws Exception {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(ndjson))) {
+            for (int i = 0; i < IMPORTED; i++) {
+                out.write(("{\"title\":\"Note " + i + "\",\"content\":\"" + content(i) + "\",\"createdAt\":\""
+                        + LocalDateTime.now() + "\"}\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(zip));
+             StreamingZipWriter writer = new StreamingZipWriter(out)) {
+            for (int i = 0; i < IMPORTED; i++) {
+                writer.addEntry("notes/note-" + i + ".md", LocalDateTime.now(),
+                        ("# Note " + i + "\n\n" + content(i)).getBytes(StandardCharsets.UTF_8));
+            }
+            writer.finish();
+        }
+    }
+
+    // About 500 characters, like a short note
+    private static String content(int i) {
+        return ("Some imported text for note " + i + ". ").repeat(14);
+    }
+
+    private static void clear(JdbcTemplate jdbc) {
+        jdbc.update("DELETE FROM notes WHERE owner_username = ?", OWNER);
+    }
+
+    private static void print(String mode, String batch, int notes, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-14s %6s %8d %10.0f%n", mode, batch, notes, notes / seconds);
+    }
+}
@@ -0,0 +1,120 @@
+package Benchmark;
+
+import com.example.secure_notes.SecureNotesApplication;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.NotePatch;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.NoteContentStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A one-character change to a long (chunked) note, saved three ways through NoteContentStore: the whole content
+ * replaced, as PUT /api/notes/{id}/content does; a patch of the same length in bytes, in the middle; and a patch
+ * that adds a line at the end. Reports the time per save, the bytes the client sends, and the chunks written.
+ *
+ * Starts the application without the web server; run main() on the test classpath after {@code mvn test-compile};
+ * it is not part of the test phase.
+ */
+public class NotePatchBenchmark {
+
+    private static final int SIZE_MB = 8;
+    private static final int ROUNDS = 20;
+    private static final String OWNER = "patch_bench";
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(SecureNotesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.show-sql=false", "--logging.level.root=WARN")) {
+            NoteRepository notes = ctx.getBean(NoteRepository.class);
+            NoteContentStore store = ctx.getBean(NoteContentStore.class);
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            DistributionSummary chunks = ctx.getBean(MeterRegistry.class).get("notes.content.chunks").summary();
+
+            // ASCII after the first line, so past it a character is a byte
+            StringBuilder text = new StringBuilder("Grüße\n");
+            for (int i = 0; text.length() < SIZE_MB << 20; i++) {
+                text.append("Line ").append(i).append(": notes and things\n");
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            int extraBytes = bytes.length - text.length();
+            int middle = bytes.length / 2;
+
+            UUID id = notes.save(new Note("Benchmark", "", OWNER)).getId();
+            try {
+                try (NoteContentStore.Upload upload = store.upload(new ByteArrayInputStream(bytes))) {
+                    check(store.replace(id, OWNER, upload, -1));
+                }
+                System.out.printf("note: %d MB, %d chunks of %d KiB%n", bytes.length >> 20,
+                        (bytes.length + NoteContentStore.CHUNK_SIZE - 1) / NoteContentStore.CHUNK_SIZE,
+                        NoteContentStore.CHUNK_SIZE >> 10);
+                System.out.printf("%-22s %10s %14s %16s%n", "", "ms/save", "request bytes", "chunks written");
+
+                double before = chunks.totalAmount();
+                long start = System.nanoTime();
+                for (int i = 0; i < ROUNDS; i++) {
+                    bytes[middle] = (byte) ('a' + i % 26);
+                    try (NoteContentStore.Upload upload = store.upload(new ByteArrayInputStream(bytes))) {
+                        check(store.replace(id, OWNER, upload, -1));
+                    }
+                }
+                report("replace whole", start, bytes.length, chunks.totalAmount() - before);
+
+                before = chunks.totalAmount();
+                start = System.nanoTime();
+                int request = 0;
+                for (int i = 0; i < ROUNDS; i++) {
+                    NotePatch patch = new NotePatch(null, null,
+                            List.of(new NotePatch.Edit(middle - extraBytes, 1, String.valueOf((char) ('a' + i % 26)))));
+                    request = patchJson(patch).length;
+                    check(store.patch(id, OWNER, patch, version(jdbc, id), false));
+                }
+                report("patch, same length", start, request, chunks.totalAmount() - before);
+
+                before = chunks.totalAmount();
+                start = System.nanoTime();
+                long length = jdbc.queryForObject("SELECT content_length FROM notes WHERE id = ?", Long.class, id);
+                for (int i = 0; i < ROUNDS; i++) {
+                    int chars = (int) (length - extraBytes);
+                    String line = "Appended line " + i + "\n";
+                    NotePatch patch = new NotePatch(null, null, List.of(new NotePatch.Edit(chars, 0, line)));
+                    request = patchJson(patch).length;
+                    check(store.patch(id, OWNER, patch, version(jdbc, id), false));
+                    length += line.length();
+                }
+                report("patch, append", start, request, chunks.totalAmount() - before);
+            } finally {
+                notes.deleteById(id);
+            }
+        }
+    }
+
+    private static void check(NoteContentStore.Replaced replaced) {
+        if (replaced.outcome() != NoteContentStore.Outcome.SAVED) throw new IllegalStateException(replaced.toString());
+    }
+
+    private static long version(JdbcTemplate jdbc, UUID id) {
+        return jdbc.queryForObject("SELECT version FROM notes WHERE id = ?", Long.class, id);
+    }
+
+    private static byte[] patchJson(NotePatch patch) {
+        NotePatch.Edit edit = patch.edits().get(0);
+        return ("{\"edits\":[{\"at\":" + edit.at() + ",\"delete\":" + edit.delete() + ",\"insert\":\""
+                + edit.insert().replace("\n", "\\n") + "\"}]}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void report(String name, long start, int requestBytes, double chunksWritten) {
+        System.out.printf("%-22s %10.1f %14d %16.1f%n", name, (System.nanoTime() - start) / 1e6 / ROUNDS,
+                requestBytes, chunksWritten / ROUNDS);
+    }
+}
@@ -0,0 +1,121 @@
+package Benchmark;
+
+import com.example.secure_notes.service.ClientAllowanceTable;
+import com.example.secure_notes.service.ClientKey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-request cost and retained memory of the node-local rate limit state: the bounded
+ * ClientAllowanceTable (with ClientKey parsing) against the previous RateLimitFilter map,
+ * for 1k, 100k and 10M distinct client IPs requesting round-robin.
+ *
+ * The table's leases are served locally (no database), so this measures the in-memory path
+ * that most requests take. The retained heap of each variant is printed after setup.
+ *
+ * Run main() on the test classpath after {@code mvn test-compile}; it is not part of the test phase.
+ * The 10M case needs a few GB of heap for the previous map (see jvmArgsAppend).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RateLimiterBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    private int distinctClients;
+
+    @Param({"table", "legacy"})
+    private String variant;
+
+    // Same defaults as application.properties
+    private static final int MAX_CLIENTS = 100_000;
+    private static final int LEASE = 10;
+    private static final long VALID_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // Header bytes; each request decodes a fresh String, as the servlet container does
+    private byte[][] clientIps;
+    private int next;
+
+    private ClientAllowanceTable table;
+    private Map<String, LegacyState> legacy;
+
+    @Setup
+    public void setUp() {
+        clientIps = new byte[distinctClients][];
+        for (int i = 0; i < distinctClients; i++) {
+            int ip = 0x0A00_0000 + i;
+            clientIps[i] = ((ip >>> 24) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF))
+                    .getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        long before = usedHeap();
+        if (variant.equals("table")) {
+            table = new ClientAllowanceTable(MAX_CLIENTS, 64);
+            for (byte[] ip : clientIps) tableRequest(new String(ip, StandardCharsets.ISO_8859_1));
+        } else {
+            legacy = new ConcurrentHashMap<>();
+            for (byte[] ip : clientIps) legacyRequest(new String(ip, StandardCharsets.ISO_8859_1));
+        }
+        System.out.println();
+        System.out.println(">>> " + variant + " @ " + distinctClients + " clients: retained ~"
+                + (usedHeap() - before) / (1024 * 1024) + " MB");
+    }
+
+    @Benchmark
+    public boolean request() {
+        String ip = new String(clientIps[next], StandardCharsets.ISO_8859_1);
+        next = next + 1 == clientIps.length ? 0 : next + 1;
+        return table != null ? tableRequest(ip) : legacyRequest(ip);
+    }
+
+    private boolean tableRequest(String ip) {
+        ClientKey key = ClientKey.parse(ip);
+        long now = System.nanoTime();
+        int state = table.take(key, 1, now);
+        if (state == ClientAllowanceTable.TAKEN) return true;
+        if (state != ClientAllowanceTable.NEED_LEASE) return false;
+        // Stands in for the shared-counter lease
+        return table.applyLease(key, 1, LEASE, now + VALID_NANOS, now + VALID_NANOS, now);
+    }
+
+    // Previous RateLimitFilter.doFilter logic, kept here as the baseline
+    private boolean legacyRequest(String clientIp) {
+        legacy.putIfAbsent(clientIp, new LegacyState());
+        LegacyState state = legacy.get(clientIp);
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - state.lastResetTime.get() > 60_000) {
+            state.lastResetTime.set(currentTime);
+            state.requestCount.set(0);
+        }
+        return state.requestCount.incrementAndGet() <= 100;
+    }
+
+    private static final class LegacyState {
+        final AtomicInteger requestCount = new AtomicInteger(0);
+        final AtomicLong lastResetTime = new AtomicLong(System.currentTimeMillis());
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RateLimiterBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,211 @@
+package Benchmark;
+
+import com.example.secure_notes.SecureNotesApplication;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.User;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.repository.UserRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP load test of the list, view and edit endpoints, once on Tomcat's platform thread pool and once
+ * with spring.threads.virtual.enabled=true, at several numbers of concurrent clients.
+ *
+ * Starts the whole application (master and replica databases must be running) on a random port, with
+ * rate limiting switched off. Every client works on its own note, logged in as one of a few users.
+ * Run main() on the test classpath after {@code mvn test-compile}; it is not part of the test phase.
+ */
+public class WebLoadBenchmark {
+
+    private static final int USERS = 8;
+    private static final int[] CONCURRENCY = {50, 400, 2000};
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(10);
+
+    private static final Pattern CSRF = Pattern.compile("name=\"_csrf\"\\s+value=\"([^\"]+)\"");
+
+    private enum Endpoint { LIST, VIEW, EDIT }
+
+    private record Result(long ok, long errors, double throughput, double p50Millis, double p99Millis) {}
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-8s %-5s %6s %10s %8s %9s %9s%n", "mode", "op", "conc", "req/s", "errors", "p50 ms", "p99 ms");
+        for (boolean virtual : new boolean[]{false, true}) {
+            run(virtual);
+        }
+    }
+
+    private static void run(boolean virtual) throws Exception {
+        int maxClients = Arrays.stream(CONCURRENCY).max().orElseThrow();
+        // As command-line arguments, so they win over application.properties
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(SecureNotesApplication.class)
+                .run("--server.port=0",
+                        "--spring.threads.virtual.enabled=" + virtual,
+                        "--app.rate-limit.route-weights=/:0",
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN")) {
+            String base = "http://localhost:" + ctx.getEnvironment().getProperty("local.server.port");
+            List<UUID> notes = createNotes(ctx, maxClients);
+
+            HttpClient[] sessions = new HttpClient[USERS];
+            for (int u = 0; u < USERS; u++) {
+                sessions[u] = login(base, "load_user" + u);
+            }
+
+            String mode = virtual ? "virtual" : "platform";
+            for (Endpoint endpoint : Endpoint.values()) {
+                for (int clients : CONCURRENCY) {
+                    load(base, sessions, notes, endpoint, clients, WARMUP);
+                    Result r = load(base, sessions, notes, endpoint, clients, MEASUREMENT);
+                    System.out.printf("%-8s %-5s %6d %10.0f %8d %9.1f %9.1f%n", mode, endpoint.name().toLowerCase(),
+                            clients, r.throughput(), r.errors(), r.p50Millis(), r.p99Millis());
+                }
+            }
+        }
+    }
+
+    // One note per client; client i is logged in as user i % USERS, the note's owner
+    private static List<UUID> createNotes(ConfigurableApplicationContext ctx, int count) {
+        UserRepository users = ctx.getBean(UserRepository.class);
+        PasswordEncoder encoder = ctx.getBean(PasswordEncoder.class);
+        NoteRepository noteRepository = ctx.getBean(NoteRepository.class);
+        ctx.getBean(JdbcTemplate.class).update("DELETE FROM notes WHERE owner_username LIKE 'load_user%'");
+
+        for (int u = 0; u < USERS; u++) {
+            if (users.findByUsername("load_user" + u).isEmpty()) {
+                users.save(new User("load_user" + u, encoder.encode("password"), "USER"));
+            }
+        }
+        List<Note> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batch.add(new Note("Load note " + i, "Some content for note " + i, "load_user" + (i % USERS)));
+        }
+        return noteRepository.saveAll(batch).stream().map(Note::getId).toList();
+    }
+
+    private static HttpClient login(String base, String username) throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager())
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        String csrf = csrfToken(client.send(HttpRequest.newBuilder(URI.create(base + "/login")).build(),
+                HttpResponse.BodyHandlers.ofString()).body());
+        HttpResponse<Void> res = client.send(post(base + "/login",
+                "username=" + username + "&password=password&_csrf=" + enc(csrf)), HttpResponse.BodyHandlers.discarding());
+        if (res.statusCode() != 302 || res.headers().firstValue("Location").orElse("").contains("error")) {
+            throw new IllegalStateException("Login failed for " + username);
+        }
+        return client;
+    }
+
+    private static Result load(String base, HttpClient[] sessions, List<UUID> notes, Endpoint endpoint,
+                               int clients, Duration duration) throws Exception {
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        List<Future<long[]>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                HttpClient session = sessions[i % USERS];
+                UUID note = notes.get(i);
+                futures.add(executor.submit(() -> client(base, session, note, endpoint, end)));
+            }
+        }
+        // Requests started before the deadline are waited for, so this can exceed the duration
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long ok = 0;
+        long errors = 0;
+        List<long[]> latencies = new ArrayList<>();
+        for (Future<long[]> f : futures) {
+            long[] l = f.get();
+            errors += l[0];
+            ok += l.length - 1;
+            latencies.add(Arrays.copyOfRange(l, 1, l.length));
+        }
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        double p50 = all.length == 0 ? 0 : all[all.length / 2] / 1e6;
+        double p99 = all.length == 0 ? 0 : all[(int) (all.length * 0.99)] / 1e6;
+        return new Result(ok, errors, ok / elapsedSeconds, p50, p99);
+    }
+
+    // Repeats the operation until the deadline. Returns {errors, latency of each successful operation...}
+    private static long[] client(String base, HttpClient session, UUID note, Endpoint endpoint, long end) {
+        long[] latencies = new long[1024];
+        int n = 1;
+        long errors = 0;
+        while (System.nanoTime() < end) {
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                ok = switch (endpoint) {
+                    case LIST -> get(session, base + "/notes").statusCode() == 200;
+                    case VIEW -> get(session, base + "/notes/" + note).statusCode() == 200;
+                    case EDIT -> edit(session, base, note);
+                };
+            } catch (Exception e) {
+                ok = false;
+            }
+            if (!ok) {
+                errors++;
+                continue;
+            }
+            if (n == latencies.length) latencies = Arrays.copyOf(latencies, n * 2);
+            latencies[n++] = System.nanoTime() - start;
+        }
+        latencies[0] = errors;
+        return Arrays.copyOf(latencies, n);
+    }
+
+    // Open the edit form (takes the lock), then save (writes and releases it)
+    private static boolean edit(HttpClient session, String base, UUID note) throws Exception {
+        HttpResponse<String> form = get(session, base + "/notes/" + note + "/edit");
+        if (form.statusCode() != 200) return false;
+        String body = "title=Edited&content=" + enc("Edited at " + System.nanoTime()) + "&_csrf=" + enc(csrfToken(form.body()));
+        return session.send(post(base + "/notes/" + note, body), HttpResponse.BodyHandlers.discarding()).statusCode() == 302;
+    }
+
+    private static HttpResponse<String> get(HttpClient session, String url) throws Exception {
+        return session.send(HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(60)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest post(String url, String form) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+    }
+
+    private static String csrfToken(String html) {
+        Matcher m = CSRF.matcher(html);
+        if (!m.find()) throw new IllegalStateException("No CSRF token in page");
+        return m.group(1);
+    }
+
+    private static String enc(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+}
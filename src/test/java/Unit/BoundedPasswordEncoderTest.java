@@ -0,0 +1,54 @@
+package Unit;
+
+import com.example.secure_notes.service.BoundedPasswordEncoder;
+import com.example.secure_notes.service.PasswordHashingBusyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedPasswordEncoderTest {
+
+    @Test
+    void verifiesAndUpgradesLowerCostHashes() {
+        BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(6, 1, 4, new SimpleMeterRegistry());
+        try {
+            String hash = encoder.encode("secret");
+            assertTrue(hash.startsWith("$2a$06$"));
+            assertTrue(encoder.matches("secret", hash));
+            assertFalse(encoder.matches("wrong", hash));
+
+            assertTrue(encoder.upgradeEncoding(new BCryptPasswordEncoder(4).encode("secret")));
+            assertFalse(encoder.upgradeEncoding(hash));
+        } finally {
+            encoder.shutdown();
+        }
+    }
+
+    @Test
+    void failsFastWhenPoolAndQueueAreFull() throws Exception {
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        // Slow enough that the first two calls are still running/queued when the third arrives
+        BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(14, 1, 1, metrics);
+        try {
+            String hash = "$2a$14$" + "x".repeat(53);
+            CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(() -> encoder.matches("a", hash));
+            CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> encoder.matches("b", hash));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (metrics.get("auth.password.queued").gauge().value() < 1) {
+                assertTrue(System.currentTimeMillis() < deadline, "second hash never queued");
+                Thread.sleep(5);
+            }
+
+            assertThrows(PasswordHashingBusyException.class, () -> encoder.matches("c", hash));
+            assertEquals(1, metrics.get("auth.password.rejected").counter().count());
+            running.cancel(true);
+            queued.cancel(true);
+        } finally {
+            encoder.shutdown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package Unit;
+
+import com.example.secure_notes.service.ClientAllowanceTable;
+import com.example.secure_notes.service.ClientKey;
+import org.junit.jupiter.api.Test;
+
+import static com.example.secure_notes.service.ClientAllowanceTable.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientAllowanceTableTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void leaseIsConsumedByWeightThenNeedsRenewal() {
+        ClientAllowanceTable table = new ClientAllowanceTable(1024, 4);
+        ClientKey client = ClientKey.parse("10.0.0.1");
+
+        assertEquals(NEED_LEASE, table.take(client, 1, 0));
+        assertTrue(table.applyLease(client, 1, 5, 60 * SECOND, SECOND, 0));   // 4 left
+        assertEquals(TAKEN, table.take(client, 2, 1));                        // 2 left
+        assertEquals(TAKEN, table.take(client, 2, 2));                        // 0 left
+        assertEquals(NEED_LEASE, table.take(client, 1, 3));
+    }
+
+    @Test
+    void onlyOneCallerLeasesForAClientAtATime() {
+        ClientAllowanceTable table = new ClientAllowanceTable(1024, 4);
+        ClientKey client = ClientKey.parse("10.0.0.5");
+
+        assertEquals(NEED_LEASE, table.take(client, 1, 0));
+        assertEquals(LEASE_PENDING, table.take(client, 1, 1));
+        assertTrue(table.awaitLease(ClientKey.parse("10.0.0.6")));     // no lease in flight: returns at once
+        assertTrue(table.applyLease(client, 1, 5, 60 * SECOND, SECOND, 2));
+        assertEquals(TAKEN, table.take(client, 1, 3));
+
+        // A failed lease lets the next caller try; a stuck one is given up after its timeout
+        assertEquals(TAKEN, table.take(client, 3, 4));
+        assertEquals(NEED_LEASE, table.take(client, 1, 5));
+        table.cancelLease(client, 6);
+        assertEquals(NEED_LEASE, table.take(client, 1, 7));
+        assertEquals(LEASE_PENDING, table.take(client, 1, 4 * SECOND));
+        assertEquals(NEED_LEASE, table.take(client, 1, 6 * SECOND));
+    }
+
+    @Test
+    void refusedClientIsBlockedUntilTheBlockEnds() {
+        ClientAllowanceTable table = new ClientAllowanceTable(1024, 4);
+        ClientKey client = ClientKey.parse("10.0.0.2");
+
+        assertFalse(table.applyLease(client, 1, 0, 60 * SECOND, 5 * SECOND, 0));
+        assertEquals(BLOCKED, table.take(client, 1, 4 * SECOND));
+        assertEquals(NEED_LEASE, table.take(client, 1, 5 * SECOND));
+    }
+
+    @Test
+    void leaseExpiresWithItsWindow() {
+        ClientAllowanceTable table = new ClientAllowanceTable(1024, 4);
+        ClientKey client = ClientKey.parse("10.0.0.3");
+
+        table.applyLease(client, 1, 10, 60 * SECOND, SECOND, 0);
+        assertEquals(TAKEN, table.take(client, 1, 59 * SECOND));
+        assertEquals(NEED_LEASE, table.take(client, 1, 60 * SECOND));
+    }
+
+    @Test
+    void memoryStaysBoundedUnderManyDistinctClients() {
+        ClientAllowanceTable table = new ClientAllowanceTable(1024, 4);
+        int capacity = table.capacity();
+
+        for (int i = 0; i < 100_000; i++) {
+            table.applyLease(new ClientKey(0, 0xFFFF_0000_0000L | i), 1, 10, 60 * SECOND, SECOND, i);
+        }
+
+        assertEquals(capacity, table.size());
+        assertTrue(table.evictions() >= 100_000 - capacity);
+    }
+
+    @Test
+    void recentlyUsedClientSurvivesEviction() {
+        ClientAllowanceTable table = new ClientAllowanceTable(64, 1);
+        ClientKey busy = ClientKey.parse("10.0.0.4");
+        table.applyLease(busy, 1, 1000, 3600 * SECOND, SECOND, 0);
+
+        // A stream of one-off clients, while the busy one keeps making requests
+        for (int i = 1; i <= 10_000; i++) {
+            table.applyLease(new ClientKey(0, 0xFFFF_0B00_0000L | i), 1, 10, 3600 * SECOND, SECOND, 2L * i);
+            assertEquals(TAKEN, table.take(busy, 1, 2L * i + 1), "busy client lost its lease at " + i);
+            if (i % 900 == 0) table.applyLease(busy, 1, 1000, 3600 * SECOND, SECOND, 2L * i + 1);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package Unit;
+
+import com.example.secure_notes.service.ClientKey;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientKeyTest {
+
+    @Test
+    void ipv4InAllSpellingsIsOneClient() {
+        ClientKey key = ClientKey.parse("10.1.2.3");
+        assertEquals(key, ClientKey.parse(" 10.1.2.3 , 172.16.0.1"), "First X-Forwarded-For entry counts");
+        assertEquals(key, ClientKey.parse("::ffff:10.1.2.3"));
+        assertEquals(key, ClientKey.parse("::ffff:a01:203"));
+        assertEquals("10.1.2.3", key.toString());
+    }
+
+    @Test
+    void ipv6IsParsedWithCompression() {
+        assertEquals(ClientKey.parse("2001:db8:0:0:0:0:0:1"), ClientKey.parse("2001:DB8::1"));
+        assertEquals(ClientKey.parse("2001:db8::1"), ClientKey.parse("[2001:db8::1]"));
+        assertEquals(ClientKey.parse("fe80::1"), ClientKey.parse("fe80::1%eth0"));
+        assertEquals("2001:db8:0:0:0:0:0:1", ClientKey.parse("2001:db8::1").toString());
+        assertEquals(new ClientKey(0, 0), ClientKey.parse("::"));
+    }
+
+    @Test
+    void garbageIsHashedNotRejected() {
+        ClientKey garbage = ClientKey.parse("not-an-ip");
+        assertEquals(garbage, ClientKey.parse("not-an-ip"));
+        assertNotEquals(garbage, ClientKey.parse("also-not-an-ip"));
+        assertTrue(garbage.toString().startsWith("h:"));
+
+        for (String bad : new String[]{"256.1.1.1", "1.2.3", "1.2.3.4.5", "1::2::3", "12345::1", ":1", "", "1.2.3.4:8080"}) {
+            assertTrue(ClientKey.parse(bad).toString().startsWith("h:"), bad);
+        }
+    }
+}
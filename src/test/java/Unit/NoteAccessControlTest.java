@@ -109,6 +109,20 @@ public class NoteAccessControlTest {
         assertTrue(note.canWrite("BOB"));
     }
 
+    @Test
+    void namesThatLowerCaseDifferentlyStillMatch() {
+        Note note = newOwnedNote("alice");
+        // Dotless ı upper-cases to I, so it equals "i" ignoring case although it lower-cases to itself
+        for (int i = 0; i < 100; i++) {
+            note.addReadWriteUser("bıb" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(note.canWrite("BIB" + i));
+            assertTrue(note.canWrite("bib" + i));
+        }
+        assertFalse(note.canWrite("bob0"));
+    }
+
     @Test
     void ownerCannotBeAddedToShareLists() {
         Note note = newOwnedNote("alice");
@@ -118,4 +132,32 @@ public class NoteAccessControlTest {
         assertTrue(note.getSharedReadOnly() == null || note.getSharedReadOnly().isBlank());
         assertTrue(note.getSharedReadWrite() == null || note.getSharedReadWrite().isBlank());
     }
+
+    @Test
+    void accessChecksFollowShareChangesAfterFirstCheck() {
+        Note note = newOwnedNote("alice");
+        assertFalse(note.canRead("bob"));
+
+        note.addReadOnlyUser("bob");
+        assertTrue(note.canRead("bob"));
+        assertFalse(note.canWrite("bob"));
+
+        note.addReadWriteUser("bob");
+        assertTrue(note.canWrite("bob"));
+
+        note.removeReadWriteUser("bob");
+        assertFalse(note.canRead("bob"));
+    }
+
+    @Test
+    void manyGranteesAreAllFound() {
+        Note note = newOwnedNote("alice");
+        for (int i = 0; i < 500; i++) {
+            note.addReadWriteUser("user" + i);
+        }
+        for (int i = 0; i < 500; i++) {
+            assertTrue(note.canWrite("USER" + i));
+        }
+        assertFalse(note.canRead("user500"));
+    }
 }
@@ -0,0 +1,29 @@
+package Unit;
+
+import com.example.secure_notes.model.NoteCursor;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NoteCursorTest {
+
+    @Test
+    void encodeDecodeRoundTrip() {
+        NoteCursor cursor = new NoteCursor(LocalDateTime.of(2025, 3, 14, 15, 9, 26, 535_897_000), UUID.randomUUID());
+        String token = cursor.encode();
+
+        assertTrue(token.matches("[A-Za-z0-9_-]+"), "Token must be URL-safe");
+        assertEquals(cursor, NoteCursor.decode(token));
+    }
+
+    @Test
+    void missingOrMalformedTokenMeansFirstPage() {
+        assertEquals(NoteCursor.START, NoteCursor.decode(null));
+        assertEquals(NoteCursor.START, NoteCursor.decode(""));
+        assertEquals(NoteCursor.START, NoteCursor.decode("not-a-cursor"));
+        assertEquals(NoteCursor.START, NoteCursor.decode("' OR 1=1 --"));
+    }
+}
@@ -0,0 +1,127 @@
+package Unit;
+
+import com.example.secure_notes.model.NotePatch;
+import com.example.secure_notes.model.NotePatch.Edit;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotePatchTest {
+
+    @Test
+    void editsApplyAtPositionsOfTheOriginal() {
+        NotePatch patch = new NotePatch(null, null, List.of(
+                new Edit(0, 5, "Hi"), new Edit(6, 0, "big "), new Edit(11, 0, "!")));
+        assertNull(patch.problem());
+        assertEquals("Hi big world!", patch.apply("Hello world"));
+
+        assertEquals("Hello", new NotePatch(null, null, List.of()).apply("Hello"));
+        assertEquals("Hello", new NotePatch(null, null, List.of(new Edit(5, 0, null))).apply("Hello"));
+    }
+
+    @Test
+    void editsThatDoNotFitAreRefused() {
+        assertNull(new NotePatch(null, null, List.of(new Edit(6, 0, "x"))).apply("Hello"));
+        assertNull(new NotePatch(null, null, List.of(new Edit(3, 3, ""))).apply("Hello"));
+        assertNull(new NotePatch(null, 4L, List.of(new Edit(0, 1, "J"))).apply("Hello"));
+        assertEquals("Jello", new NotePatch(null, 5L, List.of(new Edit(0, 1, "J"))).apply("Hello"));
+
+        // Inside a surrogate pair: the result would not be valid text
+        assertNull(new NotePatch(null, null, List.of(new Edit(2, 0, "x"))).apply("a😀b"));
+        assertEquals("ax😀b", new NotePatch(null, null, List.of(new Edit(1, 0, "x"))).apply("a😀b"));
+    }
+
+    @Test
+    void malformedPatchesAreReported() {
+        assertNotNull(new NotePatch(null, null, List.of(new Edit(-1, 0, "x"))).problem());
+        assertNotNull(new NotePatch(null, null, List.of(new Edit(0, -1, "x"))).problem());
+        assertNotNull(new NotePatch(null, null, List.of(new Edit(4, 2, "x"), new Edit(5, 0, "y"))).problem());
+        assertNotNull(new NotePatch(null, null, List.of(new Edit(4, 2, "x"), new Edit(2, 0, "y"))).problem());
+        assertNotNull(new NotePatch(null, null, List.of(new Edit(0, 0, "a\0b"))).problem());
+        assertNotNull(new NotePatch(null, null, Arrays.asList(new Edit[]{null})).problem());
+
+        List<Edit> tooMany = new ArrayList<>();
+        for (int i = 0; i <= NotePatch.MAX_EDITS; i++) tooMany.add(new Edit(i, 0, "x"));
+        assertNotNull(new NotePatch(null, null, tooMany).problem());
+        // Adjacent edits are fine
+        assertNull(new NotePatch(null, null, List.of(new Edit(0, 2, "x"), new Edit(2, 0, "y"))).problem());
+    }
+
+    @Test
+    void unchangedBytesAtBothEndsAreCounted() throws Exception {
+        // ü is 2 bytes, ✓ 3, 😀 4 (two chars)
+        String base = "aü✓😀|middle|😀✓üa";
+        int at = base.indexOf("middle");
+        NotePatch patch = new NotePatch(null, null, List.of(new Edit(at, 6, "MIDDLE!")));
+        StringWriter out = new StringWriter();
+        NotePatch.Applied applied = patch.apply(new StringReader(base), out);
+
+        assertEquals(base.replace("middle", "MIDDLE!"), out.toString());
+        assertEquals(1 + 2 + 3 + 4 + 1, applied.prefixBytes());
+        assertEquals(1 + 4 + 3 + 2 + 1, applied.suffixBytes());
+    }
+
+    @Test
+    void inverseGivesTheBaseBack() {
+        String base = "Hello world\nsecond line";
+        NotePatch patch = new NotePatch(null, null, List.of(
+                new Edit(0, 5, "Hi"), new Edit(12, 6, "2nd"), new Edit(23, 0, "!")));
+        String patched = patch.apply(base);
+        assertEquals("Hi world\n2nd line!", patched);
+        assertEquals(base, patch.inverse(base).apply(patched));
+    }
+
+    @Test
+    void betweenFindsTheChangedLines() {
+        String from = "one\ntwo\nthree\nfour\nfive\n";
+        String to = "one\nTWO\nthree\nfour\nfive\nsix\n";
+        NotePatch patch = NotePatch.between(from, to);
+        assertEquals(to, patch.apply(from));
+        assertEquals(List.of(new Edit(4, 3, "TWO"), new Edit(23, 0, "\nsix")), patch.edits());
+        assertEquals(List.of(), NotePatch.between(from, from).edits());
+        assertEquals(from, NotePatch.between("", from).apply(""));
+        assertEquals("", NotePatch.between(from, "").apply(from));
+
+        // Never between the halves of a surrogate pair
+        assertEquals("a😃b", NotePatch.between("a😀b", "a😃b").apply("a😀b"));
+        assertEquals("😀x", NotePatch.between("😀", "😀x").apply("😀"));
+    }
+
+    @Test
+    void betweenAndInverseRoundTripRandomEdits() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> lines = new ArrayList<>();
+            for (int i = random.nextInt(40); i > 0; i--) lines.add("line " + random.nextInt(10) + "\n");
+            String from = String.join("", lines);
+            for (int i = random.nextInt(6); i > 0; i--) {
+                int at = random.nextInt(lines.size() + 1);
+                if (random.nextBoolean() && at < lines.size()) lines.remove(at);
+                else lines.add(at, random.nextBoolean() ? "new " + round + "\n" : "😀 " + i + "\n");
+            }
+            String to = String.join("", lines);
+
+            NotePatch patch = NotePatch.between(from, to);
+            assertNull(patch.problem());
+            assertEquals(to, patch.apply(from));
+            assertEquals(from, patch.inverse(from).apply(to));
+        }
+
+        // Too many changed lines for the line diff: still one edit that fits
+        StringBuilder from = new StringBuilder();
+        StringBuilder to = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            from.append("a").append(i).append('\n');
+            to.append("b").append(i).append('\n');
+        }
+        NotePatch patch = NotePatch.between(from.toString(), to.toString());
+        assertEquals(to.toString(), patch.apply(from.toString()));
+    }
+}
@@ -0,0 +1,82 @@
+package Unit;
+
+import com.example.secure_notes.config.PermitLimitedDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PermitLimitedDataSourceTest {
+
+    // Hands out stub connections and counts how many are open
+    private static class StubDataSource extends AbstractDataSource {
+        final AtomicInteger open = new AtomicInteger();
+
+        @Override
+        public Connection getConnection() {
+            open.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("close")) open.decrementAndGet();
+                        if (method.getName().equals("isClosed")) return false;
+                        return null;
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) {
+            return getConnection();
+        }
+    }
+
+    @Test
+    void waitsForAPermitAndTimesOutWhenNoneIsReturned() throws Exception {
+        StubDataSource pool = new StubDataSource();
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        PermitLimitedDataSource limited = new PermitLimitedDataSource(pool, "master", 2, Duration.ofMillis(50), metrics);
+
+        Connection first = limited.getConnection();
+        Connection second = limited.getConnection();
+        assertThrows(SQLTransientConnectionException.class, limited::getConnection);
+        assertEquals(2, pool.open.get(), "The pool must not be asked beyond the permits");
+        assertEquals(1, metrics.get("db.permits.timeouts").counter().count());
+
+        first.close();
+        first.close(); // a second close must not return a second permit
+        Connection third = limited.getConnection();
+        assertThrows(SQLTransientConnectionException.class, limited::getConnection);
+
+        second.close();
+        third.close();
+        assertEquals(2, metrics.get("db.permits.available").gauge().value());
+    }
+
+    @Test
+    void queuedCallerGetsTheReturnedPermit() throws Exception {
+        PermitLimitedDataSource limited = new PermitLimitedDataSource(new StubDataSource(), "master", 1, Duration.ofSeconds(5),
+                new SimpleMeterRegistry());
+        Connection held = limited.getConnection();
+
+        AtomicInteger served = new AtomicInteger();
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try (Connection c = limited.getConnection()) {
+                served.incrementAndGet();
+            } catch (Exception e) {
+                // left at 0
+            }
+        });
+        Thread.sleep(50);
+        assertTrue(waiter.isAlive(), "Second caller should wait for the permit");
+
+        held.close();
+        waiter.join(2000);
+        assertEquals(1, served.get(), "Waiting caller should be served once the permit is back");
+    }
+}
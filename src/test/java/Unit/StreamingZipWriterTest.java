@@ -0,0 +1,98 @@
+package Unit;
+
+import com.example.secure_notes.service.StreamingZipWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingZipWriterTest {
+
+    @Test
+    void writesAnArchiveThatZipReadersAccept() throws Exception {
+        LocalDateTime time = LocalDateTime.of(2024, 5, 17, 13, 45, 10);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (StreamingZipWriter zip = new StreamingZipWriter(out)) {
+            zip.addEntry("notes/ünïcode.md", time, "# Title\n\nBody".getBytes(StandardCharsets.UTF_8));
+            zip.addEntry("notes/empty.md", null, new byte[0]);
+            zip.addEntry("notes/big.md", time, "x".repeat(100_000).getBytes(StandardCharsets.UTF_8));
+            zip.finish();
+        }
+
+        // Sequential reader: local headers
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()), StandardCharsets.UTF_8)) {
+            ZipEntry entry = in.getNextEntry();
+            assertEquals("notes/ünïcode.md", entry.getName());
+            assertEquals(time, entry.getTimeLocal());
+            assertEquals("# Title\n\nBody", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals("notes/empty.md", in.getNextEntry().getName());
+            assertEquals(0, in.readAllBytes().length);
+            assertEquals("notes/big.md", in.getNextEntry().getName());
+            assertEquals(100_000, in.readAllBytes().length);
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    void streamedEntriesCarryTheirSizesAfterTheData(@TempDir Path dir) throws Exception {
+        byte[] big = new byte[3_000_000];
+        new Random(42).nextBytes(big);
+        Path file = dir.resolve("streamed.zip");
+        try (OutputStream out = Files.newOutputStream(file); StreamingZipWriter zip = new StreamingZipWriter(out)) {
+            zip.addEntry("first.md", null, "before".getBytes(StandardCharsets.UTF_8));
+            zip.addEntry("streamed.bin", null, new ByteArrayInputStream(big));
+            zip.addEntry("empty.md", null, InputStream.nullInputStream());
+            zip.addEntry("last.md", null, "after".getBytes(StandardCharsets.UTF_8));
+            zip.finish();
+        }
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            assertEquals("first.md", in.getNextEntry().getName());
+            assertEquals("streamed.bin", in.getNextEntry().getName());
+            assertArrayEquals(big, in.readAllBytes());
+            assertEquals("empty.md", in.getNextEntry().getName());
+            assertEquals(0, in.readAllBytes().length);
+            assertEquals("last.md", in.getNextEntry().getName());
+            assertEquals("after", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            ZipEntry streamed = zip.getEntry("streamed.bin");
+            assertEquals(big.length, streamed.getSize());
+            assertArrayEquals(big, zip.getInputStream(streamed).readAllBytes());
+            assertEquals("after", new String(zip.getInputStream(zip.getEntry("last.md")).readAllBytes(),
+                    StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void switchesToZip64PastSixtyFiveThousandEntries(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("many.zip");
+        int count = 70_000;
+        try (OutputStream out = Files.newOutputStream(file); StreamingZipWriter zip = new StreamingZipWriter(out)) {
+            for (int i = 0; i < count; i++) {
+                zip.addEntry("n" + i + ".md", null, ("note " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            zip.finish();
+        }
+
+        // Random-access reader: central directory and Zip64 end records
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            assertEquals(count, zip.size());
+            ZipEntry last = zip.getEntry("n" + (count - 1) + ".md");
+            assertEquals("note " + (count - 1), new String(zip.getInputStream(last).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+}
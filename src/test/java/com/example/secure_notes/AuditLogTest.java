@@ -0,0 +1,162 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.User;
+import com.example.secure_notes.repository.UserRepository;
+import com.example.secure_notes.service.AuditLog;
+import com.example.secure_notes.service.DbFailoverStatusService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class AuditLogTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private TransactionTemplate tx;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.25." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("Views, edits, shares, unshares and lock steals reach the audit trail in the background")
+    public void testNoteActionsAreAudited() throws Exception {
+        String owner = newUsername();
+        String editor = newUsername();
+        createUser(editor);
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Audited\",\"content\":\"text\"}")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        String id = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asText();
+
+        mockMvc.perform(as(owner, get("/notes/" + id))).andExpect(status().isOk());
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/shares/" + editor).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"permission\":\"READ_WRITE\"}")))
+                .andExpect(status().isOk());
+        // The owner's lock, expired, taken over by the editor
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        jdbc.update("UPDATE notes SET locked_at = localtimestamp - interval '1 day' WHERE id = ?::uuid", id);
+        mockMvc.perform(as(editor, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        // Refreshing one's own lock, through the form or the API, is no steal
+        mockMvc.perform(as(editor, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        mockMvc.perform(as(editor, post("/api/notes/" + id + "/lock"))).andExpect(status().isOk());
+        mockMvc.perform(as(editor, post("/notes/" + id).with(csrf())
+                        .param("title", "Audited").param("content", "edited")))
+                .andExpect(status().is3xxRedirection());
+        mockMvc.perform(as(owner, delete("/api/notes/" + id + "/shares/" + editor)))
+                .andExpect(status().isOk());
+
+        List<Map<String, Object>> events = awaitEvents(id, 6);
+        assertEquals(List.of(
+                        List.of(owner, "CREATE", ""),
+                        List.of(owner, "VIEW", ""),
+                        List.of(owner, "SHARE", editor + " READ_WRITE"),
+                        List.of(editor, "LOCK_STEAL", owner),
+                        List.of(editor, "EDIT", ""),
+                        List.of(owner, "UNSHARE", editor)),
+                events.stream().map(e -> List.of(e.get("username"), e.get("action"),
+                        e.get("detail") == null ? "" : e.get("detail"))).toList());
+    }
+
+    @Test
+    @DisplayName("While the database cannot be written, events wait in the buffer; once it is full they are dropped")
+    public void testBufferFullDropsEvents() throws Exception {
+        DbFailoverStatusService failover = new DbFailoverStatusService(event -> {}, new SimpleMeterRegistry());
+        failover.publish(true);
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        AuditLog audit = new AuditLog(jdbc, tx, failover, meters, 3, 500, Duration.ofMillis(50), Duration.ofMillis(50));
+        String username = newUsername();
+        UUID noteId = UUID.randomUUID();
+        try {
+            for (int i = 0; i < 5; i++) audit.record(username, AuditLog.Action.VIEW, noteId, "before start " + i);
+            assertEquals(2, meters.get("audit.events.dropped").counter().count());
+
+            // The writer takes the buffer as a batch and holds it; the buffer fills again
+            audit.start();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (audit.pending() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            for (int i = 0; i < 4; i++) audit.record(username, AuditLog.Action.VIEW, noteId, "in failover " + i);
+            assertEquals(3, meters.get("audit.events.dropped").counter().count());
+            Thread.sleep(200);
+            assertEquals(0, countFor(username));
+
+            // Back on the master: everything that was kept is written
+            failover.publish(false);
+            deadline = System.currentTimeMillis() + 10_000;
+            while (countFor(username) < 6 && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            assertEquals(6, countFor(username));
+            assertEquals(6, meters.get("audit.events.written").counter().count());
+        } finally {
+            audit.destroy();
+        }
+    }
+
+    // The writer flushes every app.audit.flush-interval
+    private List<Map<String, Object>> awaitEvents(String noteId, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            List<Map<String, Object>> events = jdbc.queryForList(
+                    "SELECT username, action, detail FROM audit_events WHERE note_id = ?::uuid ORDER BY id", noteId);
+            if (events.size() >= count || System.currentTimeMillis() > deadline) return events;
+            Thread.sleep(50);
+        }
+    }
+
+    private int countFor(String username) {
+        return jdbc.queryForObject("SELECT count(*) FROM audit_events WHERE username = ?", Integer.class, username);
+    }
+
+    private void createUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("{noop}unused");
+        user.setRole("USER");
+        userRepository.save(user);
+    }
+
+    private MockHttpServletRequestBuilder as(String username, MockHttpServletRequestBuilder request) {
+        return request.with(user(username).roles("USER")).header("X-Forwarded-For", clientIp);
+    }
+
+    private static String newUsername() {
+        return "audit_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.service.ClusterRateLimiter;
+import com.example.secure_notes.service.DbFailoverStatusService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Threat K across nodes: two limiters sharing the database (as app-1 and app-2 would) must
+ * together stay within one limit, refusing at most one lease early.
+ */
+@SpringBootTest
+public class ClusterRateLimiterTest {
+
+    private static final int LIMIT = 30;
+    private static final int LEASE = 7;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private DbFailoverStatusService failoverStatus;
+
+    @Test
+    @DisplayName("Threat K: Two nodes share one limit per client")
+    public void testLimitHoldsAcrossNodes() {
+        ClusterRateLimiter node1 = newNode();
+        ClusterRateLimiter node2 = newNode();
+        String client = "test-" + UUID.randomUUID();
+
+        // Round-robin, like nginx in front of app-1 and app-2
+        int allowed = 0;
+        for (int i = 0; i < LIMIT * 3; i++) {
+            ClusterRateLimiter node = (i % 2 == 0) ? node1 : node2;
+            if (node.tryAcquire(client, 1)) allowed++;
+        }
+
+        assertTrue(allowed <= LIMIT, "Cluster admitted " + allowed + " requests, limit is " + LIMIT);
+        assertTrue(allowed >= LIMIT - LEASE, "Cluster refused more than one lease early: " + allowed);
+    }
+
+    @Test
+    @DisplayName("Threat K: Clients do not share allowances")
+    public void testClientsAreLimitedSeparately() {
+        ClusterRateLimiter node = newNode();
+        String flooder = "test-" + UUID.randomUUID();
+        for (int i = 0; i < LIMIT + 5; i++) {
+            node.tryAcquire(flooder, 1);
+        }
+
+        assertFalse(node.tryAcquire(flooder, 1));
+        assertTrue(node.tryAcquire("test-" + UUID.randomUUID(), 1));
+    }
+
+    @Test
+    @DisplayName("Threat K: A burst from one client leases one at a time, not once per request")
+    public void testConcurrentRequestsShareOneLease() throws Exception {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        ClusterRateLimiter node = newNode(meters);
+        String client = "test-" + UUID.randomUUID();
+        int requests = 64;
+
+        ExecutorService pool = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < requests; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return node.tryAcquire(client, 1);
+                }));
+            }
+            start.countDown();
+            int allowed = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get(30, TimeUnit.SECONDS)) allowed++;
+            }
+            assertEquals(LIMIT, allowed);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // ceil(LIMIT / LEASE) granting leases and the one that found the limit used up
+        double leases = meters.get("ratelimit.leases").tag("source", "database").counter().count();
+        assertEquals((LIMIT + LEASE - 1) / LEASE + 1, leases, "Concurrent requests leased separately");
+    }
+
+    private ClusterRateLimiter newNode() {
+        return newNode(new SimpleMeterRegistry());
+    }
+
+    private ClusterRateLimiter newNode(SimpleMeterRegistry meters) {
+        return new ClusterRateLimiter(jdbc, failoverStatus, meters, LIMIT, Duration.ofMinutes(1), LEASE, 1000);
+    }
+}
@@ -1,19 +1,33 @@
 package com.example.secure_notes;
 
 import com.example.secure_notes.config.FailoverDataSourceConfig;
+import com.example.secure_notes.service.DbFailoverStatusService;
+import com.example.secure_notes.service.FailoverStatus;
+import com.example.secure_notes.service.ReplicaLagService;
 import com.zaxxer.hikari.HikariDataSource;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.sql.DataSource;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -29,6 +43,61 @@ public class FailoverTest {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private DbFailoverStatusService failoverStatusService;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private TransactionTemplate tx;
+
+    @Autowired
+    private ReplicaLagService replicaLag;
+
+    @Value("${app.db.pool-size}")
+    private int poolSize;
+
+    @Test
+    @DisplayName("Read Routing: read-only transactions go to the Replica while Master is healthy")
+    public void testReadOnlyTransactionsUseReplica() {
+        TransactionTemplate readOnly = new TransactionTemplate(tx.getTransactionManager());
+        readOnly.setReadOnly(true);
+
+        // pg_is_in_recovery() is true only on the standby
+        Boolean readOnlyOnReplica = readOnly.execute(status -> jdbc.queryForObject("SELECT pg_is_in_recovery()", Boolean.class));
+        Boolean writesOnReplica = tx.execute(status -> jdbc.queryForObject("SELECT pg_is_in_recovery()", Boolean.class));
+
+        assertEquals(Boolean.TRUE, readOnlyOnReplica, "Read-only transaction should run on the Replica");
+        assertEquals(Boolean.FALSE, writesOnReplica, "Read-write transaction should run on Master");
+    }
+
+    @Test
+    @DisplayName("Connection permits: reads on the Replica do not wait for Master's permits")
+    public void testPermitsArePerPool() throws Exception {
+        TransactionTemplate readOnly = new TransactionTemplate(tx.getTransactionManager());
+        readOnly.setReadOnly(true);
+
+        // Every master permit checked out, as by a burst of writes
+        List<Connection> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                Connection conn = dataSource.getConnection();
+                held.add(conn);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("SELECT 1");
+                }
+            }
+            Boolean onReplica = assertTimeout(Duration.ofSeconds(5),
+                    () -> readOnly.execute(status -> jdbc.queryForObject("SELECT pg_is_in_recovery()", Boolean.class)));
+            assertEquals(Boolean.TRUE, onReplica, "Read-only transaction should run on the Replica");
+        } finally {
+            for (Connection conn : held) {
+                conn.close();
+            }
+        }
+    }
+
     @Test
     @DisplayName("Failover Logic: Switch to Replica when Master fails")
     public void testFailoverLogic() throws Exception {
@@ -45,6 +114,8 @@ public class FailoverTest {
         assertNotNull(masterPool, "Master pool should be initialized");
         assertEquals(masterPool, currentDataSource.get(), "Should start connected to Master");
         assertTrue(isConnectionValid(dataSource), "Master connection should be valid initially");
+        FailoverStatus initialStatus = failoverStatusService.getStatus();
+        assertFalse(initialStatus.failoverMode(), "Should not report failover while on Master");
 
         // 3. SIMULATE FAILURE: Force close the Master Pool
         System.out.println("TEST: Simulating Master Crash...");
@@ -60,10 +131,51 @@ public class FailoverTest {
         assertNotEquals(masterPool, activePoolAfterFailover, "Should have switched AWAY from Master");
         assertEquals("Hikari-replica", activePoolAfterFailover.getPoolName(), "Should have switched TO Replica");
 
+        // 5b. The switch-over is published without any DB round trip on the read side
+        FailoverStatus statusAfterFailover = failoverStatusService.getStatus();
+        assertTrue(statusAfterFailover.failoverMode(), "Failover mode should be published");
+        assertEquals(initialStatus.epoch() + 1, statusAfterFailover.epoch(), "Epoch should advance on switch-over");
+
         // 6. VERIFY AVAILABILITY: App should still be able to get connections (Read-Only)
         assertTrue(isConnectionValid(dataSource), "Application should still have a valid connection (via Replica)");
     }
 
+    @Test
+    @DisplayName("Read Routing: a user's reads wait for the Replica to replay their own writes")
+    public void testReadYourWrites() {
+        TransactionTemplate readOnly = new TransactionTemplate(tx.getTransactionManager());
+        readOnly.setReadOnly(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            // 0. Nothing is remembered without a session, nor for a read-write transaction that wrote nothing
+            tx.executeWithoutResult(status -> jdbc.update("UPDATE users SET role = role WHERE id = (SELECT min(id) FROM users)"));
+            assertNull(request.getSession(false), "Recording a write must not create a session");
+            request.setSession(new MockHttpSession());
+            tx.executeWithoutResult(status -> jdbc.update("UPDATE users SET role = role WHERE false"));
+            assertEquals(0, replicaLag.requiredReplayLsn(), "A transaction that wrote nothing should not be remembered");
+
+            // 1. A real write records the master WAL position in the session; the replica catches up with it
+            tx.executeWithoutResult(status -> jdbc.update("UPDATE users SET role = role WHERE id = (SELECT min(id) FROM users)"));
+            assertTrue(replicaLag.requiredReplayLsn() > 0, "Committed write should be remembered in the session");
+            assertEquals(Boolean.TRUE, readOnly.execute(status -> jdbc.queryForObject("SELECT pg_is_in_recovery()", Boolean.class)),
+                    "Caught-up Replica should serve the read");
+
+            // 2. A position the replica has not replayed yet sends the read to Master
+            replicaLag.recordWrite(Long.MAX_VALUE);
+            assertEquals(Boolean.FALSE, readOnly.execute(status -> jdbc.queryForObject("SELECT pg_is_in_recovery()", Boolean.class)),
+                    "Lagging Replica must not serve the user's read");
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        // 3. A Replica lagging past the limit is out of rotation for everyone
+        replicaLag.recordSample(true, 0, 0, Duration.ofHours(1));
+        assertFalse(replicaLag.isInRotation(), "Lagging Replica should leave read rotation");
+        assertEquals(Boolean.FALSE, readOnly.execute(status -> jdbc.queryForObject("SELECT pg_is_in_recovery()", Boolean.class)),
+                "Reads should use Master while the Replica is out of rotation");
+    }
+
     // Helper method to check if the datasource is alive
     private boolean isConnectionValid(DataSource ds) {
         try (Connection conn = ds.getConnection()) {
@@ -0,0 +1,75 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.LockExpirySweeper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+public class LockExpirySweeperTest {
+
+    @Autowired
+    private LockExpirySweeper sweeper;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    @DisplayName("Sweeper releases expired locks and keeps live ones")
+    public void testSweepReleasesOnlyExpiredLocks() {
+        Note expired = lockedNote("alice", LocalDateTime.now().minus(Note.LOCK_TIMEOUT).minusMinutes(5));
+        Note live = lockedNote("bob", LocalDateTime.now());
+
+        assertTrue(sweeper.sweep() >= 1, "At least the expired lock should be released");
+
+        Note afterExpired = noteRepository.findById(expired.getId()).orElseThrow();
+        assertFalse(afterExpired.isLocked(), "Expired lock must be released");
+        assertNull(afterExpired.getLockedBy());
+        assertTrue(afterExpired.getVersion() > expired.getVersion(), "Release must bump the version");
+
+        Note afterLive = noteRepository.findById(live.getId()).orElseThrow();
+        assertTrue(afterLive.isLocked(), "Live lock must be kept");
+        assertEquals("bob", afterLive.getLockedBy());
+    }
+
+    @Test
+    @DisplayName("Only one node sweeps: a held sweeper lock makes the run a no-op")
+    public void testSweepSkipsWhenAnotherNodeHoldsTheLock() throws Exception {
+        Note expired = lockedNote("alice", LocalDateTime.now().minus(Note.LOCK_TIMEOUT).minusMinutes(5));
+
+        // Simulate the other node: hold the same advisory lock on a separate session
+        try (Connection other = dataSource.getConnection(); Statement st = other.createStatement()) {
+            st.execute("SELECT pg_advisory_lock(" + LockExpirySweeper.SWEEPER_LOCK_KEY + ")");
+            try {
+                assertEquals(-1, sweeper.sweep(), "Sweep must be skipped while another node holds the lock");
+                assertTrue(noteRepository.findById(expired.getId()).orElseThrow().isLocked());
+            } finally {
+                st.execute("SELECT pg_advisory_unlock(" + LockExpirySweeper.SWEEPER_LOCK_KEY + ")");
+            }
+        }
+
+        assertTrue(sweeper.sweep() >= 1);
+        assertFalse(noteRepository.findById(expired.getId()).orElseThrow().isLocked());
+    }
+
+    private Note lockedNote(String lockedBy, LocalDateTime lockedAt) {
+        Note note = new Note("Locked", "content", "alice");
+        note.setLocked(true);
+        note.setLockedBy(lockedBy);
+        note.setLockedAt(lockedAt);
+        return noteRepository.saveAndFlush(note);
+    }
+}
@@ -8,9 +8,12 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.web.servlet.MockMvc;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestBuilders.formLogin;
 import static org.springframework.security.test.web.servlet.response.SecurityMockMvcResultMatchers.authenticated;
 import static org.springframework.security.test.web.servlet.response.SecurityMockMvcResultMatchers.unauthenticated;
@@ -286,4 +289,27 @@ class LoginSecurityTest {
                         .password("password", "testpass123"))
                 .andExpect(unauthenticated());
     }
+
+    // ==================== HASH COST UPGRADE ====================
+
+    @Test
+    @DisplayName("A hash with a lower cost than configured is upgraded at login")
+    void lowCostHash_isUpgradedOnLogin() throws Exception {
+        String username = "rehash_" + System.nanoTime() % 1_000_000;
+        userRepository.save(new User(username, new BCryptPasswordEncoder(4).encode("oldpass123"), "USER"));
+
+        mockMvc.perform(formLogin("/login")
+                        .user("username", username)
+                        .password("password", "oldpass123"))
+                .andExpect(authenticated());
+
+        String upgraded = userRepository.findByUsername(username).orElseThrow().getPassword();
+        assertFalse(upgraded.startsWith("$2a$04$"), "Hash should be re-encoded with the configured cost");
+        assertTrue(passwordEncoder.matches("oldpass123", upgraded));
+
+        mockMvc.perform(formLogin("/login")
+                        .user("username", username)
+                        .password("password", "oldpass123"))
+                .andExpect(authenticated());
+    }
 }
@@ -0,0 +1,204 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.User;
+import com.example.secure_notes.repository.UserRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteApiTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.19." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("A matching If-None-Match is answered 304 with the ETag; a stale one gets the note")
+    public void testConditionalGet() throws Exception {
+        String owner = newUsername();
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Api note\",\"content\":\"Hello\"}")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        String etag = created.getResponse().getHeader("ETag");
+        String id = json(created).get("id").asText();
+        assertEquals("\"" + json(created).get("version").asLong() + "\"", etag);
+
+        mockMvc.perform(as(owner, get("/api/notes/" + id).header("If-None-Match", etag)))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(header().string("Cache-Control", "no-cache, private"));
+
+        MvcResult fetched = mockMvc.perform(as(owner, get("/api/notes/" + id).header("If-None-Match", "\"-1\"")))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", etag))
+                .andReturn();
+        assertEquals("Hello", json(fetched).get("content").asText());
+    }
+
+    @Test
+    @DisplayName("Updates honour If-Match: a stale ETag is refused with 412, the current one saves")
+    public void testIfMatchOnUpdate() throws Exception {
+        String owner = newUsername();
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Draft\",\"content\":\"v1\"}")))
+                .andReturn();
+        String id = json(created).get("id").asText();
+        String etag = created.getResponse().getHeader("ETag");
+
+        MvcResult updated = mockMvc.perform(as(owner, put("/api/notes/" + id).header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"title\":\"Draft\",\"content\":\"v2\"}")))
+                .andExpect(status().isOk())
+                .andReturn();
+        String newEtag = updated.getResponse().getHeader("ETag");
+        assertNotEquals(etag, newEtag);
+        assertEquals("v2", json(updated).get("content").asText());
+
+        // A second writer still holding the first version
+        mockMvc.perform(as(owner, put("/api/notes/" + id).header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"title\":\"Draft\",\"content\":\"lost\"}")))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(header().string("ETag", newEtag));
+
+        MvcResult current = mockMvc.perform(as(owner, get("/api/notes/" + id))).andReturn();
+        assertEquals("v2", json(current).get("content").asText());
+    }
+
+    @Test
+    @DisplayName("Other users get 404 with or without conditional headers; sharing grants read, then write")
+    public void testAccessAndSharing() throws Exception {
+        String owner = newUsername();
+        String other = newUsername();
+        registerUser(other);
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Private\",\"content\":\"secret\"}")))
+                .andReturn();
+        String id = json(created).get("id").asText();
+
+        mockMvc.perform(as(other, get("/api/notes/" + id).header("If-None-Match", "*")))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(as(other, put("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Mine\",\"content\":\"x\"}")))
+                .andExpect(status().isNotFound());
+
+        MvcResult shared = mockMvc.perform(as(owner, put("/api/notes/" + id + "/shares/" + other)
+                        .header("If-Match", created.getResponse().getHeader("ETag"))
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"permission\":\"READ_ONLY\"}")))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertNotEquals(created.getResponse().getHeader("ETag"), shared.getResponse().getHeader("ETag"),
+                "Sharing changes the version");
+        assertEquals(other, json(shared).get("readOnlyUsers").get(0).asText());
+
+        MvcResult read = mockMvc.perform(as(other, get("/api/notes/" + id)))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals("secret", json(read).get("content").asText());
+        assertFalse(json(read).has("readOnlyUsers"), "Share lists are for the owner only");
+        mockMvc.perform(as(other, put("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Mine\",\"content\":\"x\"}")))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/shares/" + other)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"permission\":\"READ_WRITE\"}")))
+                .andExpect(status().isOk());
+        mockMvc.perform(as(other, put("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Shared\",\"content\":\"edited\"}")))
+                .andExpect(status().isOk());
+
+        MvcResult list = mockMvc.perform(as(other, get("/api/notes").param("shared", "true")))
+                .andExpect(status().isOk())
+                .andReturn();
+        JsonNode item = json(list).get("notes").get(0);
+        assertEquals(id, item.get("id").asText());
+        assertEquals("READ_WRITE", item.get("permission").asText());
+    }
+
+    @Test
+    @DisplayName("An update is refused with 409 while someone else holds the edit lock")
+    public void testLockConflict() throws Exception {
+        String owner = newUsername();
+        String writer = newUsername();
+        registerUser(writer);
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Locked\",\"content\":\"v1\"}")))
+                .andReturn();
+        String id = json(created).get("id").asText();
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/shares/" + writer)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"permission\":\"READ_WRITE\"}")))
+                .andExpect(status().isOk());
+
+        MvcResult locked = mockMvc.perform(as(owner, post("/api/notes/" + id + "/lock")))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertTrue(json(locked).get("locked").asBoolean());
+
+        mockMvc.perform(as(writer, put("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Locked\",\"content\":\"theirs\"}")))
+                .andExpect(status().isConflict());
+        mockMvc.perform(as(writer, post("/api/notes/" + id + "/lock")))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(as(owner, delete("/api/notes/" + id + "/lock")))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(as(writer, put("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Locked\",\"content\":\"theirs\"}")))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("The API asks for HTTP Basic credentials instead of redirecting to the login page")
+    public void testHttpBasic() throws Exception {
+        mockMvc.perform(get("/api/notes").header("X-Forwarded-For", clientIp))
+                .andExpect(status().isUnauthorized())
+                .andExpect(header().exists("WWW-Authenticate"));
+
+        mockMvc.perform(get("/api/notes").with(httpBasic("alice", "password")).header("X-Forwarded-For", clientIp))
+                .andExpect(status().isOk());
+    }
+
+    private MockHttpServletRequestBuilder as(String username, MockHttpServletRequestBuilder request) {
+        return request.with(user(username).roles("USER")).header("X-Forwarded-For", clientIp);
+    }
+
+    // Shares are only granted to registered users; the password is never used
+    private void registerUser(String username) {
+        userRepository.save(new User(username, "unused", "USER"));
+    }
+
+    private JsonNode json(MvcResult result) throws Exception {
+        return objectMapper.readTree(result.getResponse().getContentAsString());
+    }
+
+    private static String newUsername() {
+        return "api_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.config.SecondLevelCacheConfig;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.NoteLookup;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.cache.CacheManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The Note region is bounded by the memory its entries take, so long notes cannot pin a region's worth
+ * of entries each the size of a whole note.
+ */
+@SpringBootTest(properties = "app.entity-cache.max-note-memory=1MB")
+public class NoteCacheWeightTest {
+
+    @Autowired
+    private NoteLookup noteLookup;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private CacheManager entityCacheManager;
+
+    @Autowired
+    private TransactionTemplate tx;
+
+    @Test
+    @DisplayName("Long notes are weighed by their content and evicted to stay within max-note-memory")
+    public void testLongNotesAreBoundedByMemory() {
+        String content = "x".repeat(Note.MAX_CONTENT_LENGTH);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(noteRepository.saveAndFlush(new Note("Long " + i, content, "alice")).getId());
+        }
+        for (UUID id : ids) {
+            tx.executeWithoutResult(s -> noteLookup.findCurrent(id).orElseThrow());
+        }
+
+        com.github.benmanes.caffeine.cache.Cache<?, ?> notes = entityCacheManager
+                .getCache(SecondLevelCacheConfig.NOTE_REGION)
+                .unwrap(com.github.benmanes.caffeine.cache.Cache.class);
+        notes.cleanUp();
+        long weight = notes.policy().eviction().orElseThrow().weightedSize().orElseThrow();
+        assertTrue(weight <= 1024 * 1024, "Note region weighs " + weight + " bytes");
+        // 20 notes of 200 KB each do not fit in 1 MB
+        long cached = ids.stream().filter(id -> entityManagerFactory.getCache().contains(Note.class, id)).count();
+        assertTrue(cached > 0 && cached <= 5, cached + " of the long notes are cached");
+    }
+}
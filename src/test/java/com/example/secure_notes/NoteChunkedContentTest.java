@@ -0,0 +1,240 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.service.NoteContentStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteChunkedContentTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.21." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("Long content is stored in chunks and read back whole, by range, or conditionally")
+    public void testChunkedContentRoundTrip() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner);
+        // Multi-byte characters across chunk boundaries, well over the inline limit
+        String text = longText(Note.MAX_CONTENT_LENGTH * 2);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        MvcResult saved = mockMvc.perform(as(owner, put("/api/notes/" + id + "/content")
+                        .contentType(MediaType.TEXT_PLAIN).content(bytes)))
+                .andExpect(status().isNoContent())
+                .andReturn();
+        String etag = saved.getResponse().getHeader("ETag");
+
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        Map<String, Object> row = jdbc.queryForMap(
+                "SELECT content_length, content_hash, length(content) AS preview, " +
+                        "(SELECT count(*) FROM note_chunks c WHERE c.note_id = notes.id) AS chunks " +
+                        "FROM notes WHERE id = ?::uuid", id);
+        assertEquals((long) bytes.length, ((Number) row.get("content_length")).longValue());
+        assertEquals(hash, row.get("content_hash"));
+        assertEquals((bytes.length + NoteContentStore.CHUNK_SIZE - 1) / NoteContentStore.CHUNK_SIZE,
+                ((Number) row.get("chunks")).intValue());
+
+        JsonNode json = objectMapper.readTree(mockMvc.perform(as(owner, get("/api/notes/" + id)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+        assertFalse(json.has("content"), "Chunked content is fetched from /content");
+        assertEquals(bytes.length, json.get("contentLength").asLong());
+        assertEquals(hash, json.get("contentHash").asText());
+
+        MvcResult whole = mockMvc.perform(as(owner, get("/api/notes/" + id + "/content")))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andReturn();
+        assertArrayEquals(bytes, whole.getResponse().getContentAsByteArray());
+
+        // A range across a chunk boundary, and a suffix range
+        int from = NoteContentStore.CHUNK_SIZE - 10;
+        int to = NoteContentStore.CHUNK_SIZE + 20;
+        MvcResult part = mockMvc.perform(as(owner, get("/api/notes/" + id + "/content")
+                        .header("Range", "bytes=" + from + "-" + to)))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes " + from + "-" + to + "/" + bytes.length))
+                .andReturn();
+        assertArrayEquals(Arrays.copyOfRange(bytes, from, to + 1), part.getResponse().getContentAsByteArray());
+        MvcResult tail = mockMvc.perform(as(owner, get("/api/notes/" + id + "/content").header("Range", "bytes=-100")))
+                .andExpect(status().isPartialContent())
+                .andReturn();
+        assertArrayEquals(Arrays.copyOfRange(bytes, bytes.length - 100, bytes.length),
+                tail.getResponse().getContentAsByteArray());
+
+        mockMvc.perform(as(owner, get("/api/notes/" + id + "/content").header("Range", "bytes=" + bytes.length + "-")))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */" + bytes.length));
+        mockMvc.perform(as(owner, get("/api/notes/" + id + "/content").header("If-None-Match", etag)))
+                .andExpect(status().isNotModified());
+
+        // The page shows the preview and links to the page endpoint for the rest; the edit form is refused
+        mockMvc.perform(as(owner, get("/notes/" + id)))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("note", hasProperty("chunked", is(true))));
+        MvcResult page = mockMvc.perform(as(owner, get("/notes/" + id + "/content")))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals(bytes.length, page.getResponse().getContentAsByteArray().length);
+        Long versionBefore = jdbc.queryForObject("SELECT version FROM notes WHERE id = ?::uuid", Long.class, id);
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit")))
+                .andExpect(view().name("note_view"))
+                .andExpect(model().attributeExists("error"));
+        assertEquals(Boolean.FALSE, jdbc.queryForObject("SELECT is_locked FROM notes WHERE id = ?::uuid",
+                Boolean.class, id), "The refused edit form leaves no lock behind");
+        assertEquals(versionBefore, jdbc.queryForObject("SELECT version FROM notes WHERE id = ?::uuid", Long.class, id),
+                "The refused edit form does not touch the note");
+
+        // Other users see nothing
+        String other = newUsername();
+        mockMvc.perform(as(other, get("/api/notes/" + id + "/content"))).andExpect(status().isNotFound());
+        mockMvc.perform(as(other, put("/api/notes/" + id + "/content")
+                        .contentType(MediaType.TEXT_PLAIN).content("mine")))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Short content stays in the row; saving a chunked note with short content drops its chunks")
+    public void testBackToInline() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner);
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/content").contentType(MediaType.TEXT_PLAIN)
+                        .content(longText(Note.MAX_CONTENT_LENGTH + 1).getBytes(StandardCharsets.UTF_8))))
+                .andExpect(status().isNoContent());
+        assertTrue(chunkCount(id) > 0);
+
+        MvcResult saved = mockMvc.perform(as(owner, put("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Short again\",\"content\":\"short\"}")))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals("short", objectMapper.readTree(saved.getResponse().getContentAsString()).get("content").asText());
+        assertEquals(0, chunkCount(id));
+
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/content").contentType(MediaType.TEXT_PLAIN)
+                        .content("Grüße, inline".getBytes(StandardCharsets.UTF_8))))
+                .andExpect(status().isNoContent());
+        assertEquals(0, chunkCount(id));
+        assertEquals("Grüße, inline", jdbc.queryForObject("SELECT content FROM notes WHERE id = ?::uuid",
+                String.class, id));
+        MvcResult range = mockMvc.perform(as(owner, get("/api/notes/" + id + "/content").header("Range", "bytes=0-6")))
+                .andExpect(status().isPartialContent())
+                .andReturn();
+        assertEquals("Grüße", new String(range.getResponse().getContentAsByteArray(), StandardCharsets.UTF_8));
+
+        // Not UTF-8, and a stale If-Match
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/content").contentType(MediaType.TEXT_PLAIN)
+                        .content(new byte[]{'a', (byte) 0xC3, '('})))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/content").header("If-Match", "\"0\"")
+                        .contentType(MediaType.TEXT_PLAIN).content("lost")))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    @DisplayName("Exports carry the whole content of chunked notes")
+    public void testExportOfChunkedNote() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner);
+        String text = longText(Note.MAX_CONTENT_LENGTH + 5_000);
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/content").contentType(MediaType.TEXT_PLAIN)
+                        .content(text.getBytes(StandardCharsets.UTF_8))))
+                .andExpect(status().isNoContent());
+
+        String ndjson = mockMvc.perform(as(owner, get("/notes/export")))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        JsonNode exported = objectMapper.readTree(ndjson.strip());
+        assertEquals(id, exported.get("id").asText());
+        assertEquals(text, exported.get("content").asText());
+        assertEquals("Chunked", exported.get("title").asText());
+        assertFalse(exported.get("shared").asBoolean());
+        assertTrue(exported.has("createdAt") && exported.has("version"));
+
+        byte[] zip = mockMvc.perform(as(owner, get("/notes/export").param("format", "zip")))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip), StandardCharsets.UTF_8)) {
+            ZipEntry entry = in.getNextEntry();
+            assertTrue(entry.getName().endsWith(id + ".md"));
+            String markdown = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(markdown.startsWith("---\nid: " + id + "\n"));
+            assertTrue(markdown.endsWith("---\n\n" + text + "\n"));
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    private String createNote(String owner) throws Exception {
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Chunked\",\"content\":\"\"}")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        return objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asText();
+    }
+
+    private int chunkCount(String id) {
+        return jdbc.queryForObject("SELECT count(*) FROM note_chunks WHERE note_id = ?::uuid", Integer.class, id);
+    }
+
+    // At least `chars` characters of numbered lines, with 2-, 3- and 4-byte UTF-8 characters in each
+    private static String longText(int chars) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < chars; i++) {
+            text.append("Zeile ").append(i).append(": Grüße ✓ 😀\n");
+        }
+        return text.toString();
+    }
+
+    private MockHttpServletRequestBuilder as(String username, MockHttpServletRequestBuilder request) {
+        return request.with(user(username).roles("USER")).header("X-Forwarded-For", clientIp);
+    }
+
+    private static String newUsername() {
+        return "chunk_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteContentStorageTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.20." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("Notes longer than the old 5000 characters are saved, stored compressed and still searchable")
+    public void testLongNoteIsStoredCompressed() throws Exception {
+        String username = "content_" + UUID.randomUUID().toString().substring(0, 8);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 40_000; i++) {
+            content.append("Paragraph ").append(i).append(": the meeting notes repeat much of the same wording. ");
+        }
+        content.append("zanzibarquokka");
+
+        mockMvc.perform(post("/notes").param("title", "Long note").param("content", content.toString())
+                        .with(user(username).roles("USER")).with(csrf()).header("X-Forwarded-For", clientIp))
+                .andExpect(status().is3xxRedirection());
+
+        Map<String, Object> stored = jdbc.queryForMap(
+                "SELECT length(content) AS chars, pg_column_size(content) AS bytes, " +
+                        "search_vector @@ to_tsquery('simple', 'zanzibarquokka') AS found " +
+                        "FROM notes WHERE owner_username = ?", username);
+        assertEquals(content.length(), ((Number) stored.get("chars")).intValue());
+        assertTrue(((Number) stored.get("bytes")).intValue() < content.length() / 2,
+                "Stored size " + stored.get("bytes") + " for " + content.length() + " characters");
+        assertEquals(Boolean.TRUE, stored.get("found"));
+    }
+
+    @Test
+    @DisplayName("Content over the limit is refused with a form error, and nothing is saved")
+    public void testContentOverLimitIsRefused() throws Exception {
+        String username = "content_" + UUID.randomUUID().toString().substring(0, 8);
+
+        mockMvc.perform(post("/notes").param("title", "Too long").param("content", "x".repeat(Note.MAX_CONTENT_LENGTH + 1))
+                        .with(user(username).roles("USER")).with(csrf()).header("X-Forwarded-For", clientIp))
+                .andExpect(status().isOk())
+                .andExpect(view().name("note_form"))
+                .andExpect(model().attributeHasFieldErrors("note", "content"));
+
+        assertEquals(0, jdbc.queryForObject("SELECT count(*) FROM notes WHERE owner_username = ?",
+                Integer.class, username));
+    }
+}
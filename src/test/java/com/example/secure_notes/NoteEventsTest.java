@@ -0,0 +1,265 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.User;
+import com.example.secure_notes.repository.UserRepository;
+import com.example.secure_notes.service.LockExpirySweeper;
+import com.example.secure_notes.service.NoteEvents;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteEventsTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private NoteEvents noteEvents;
+
+    @Autowired
+    private LockExpirySweeper lockExpirySweeper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${app.notes.events.max-subscribers-per-user}")
+    private int maxPerUser;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.24." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("A note's subscribers hear when it is locked, saved, unlocked and deleted; others hear nothing")
+    public void testEventsFromNoteWrites() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner);
+        String other = createNote(owner);
+
+        int before = noteEvents.subscriberCount();
+        MockHttpServletResponse events = subscribe(owner, id);
+        MockHttpServletResponse otherEvents = subscribe(owner, other);
+        assertEquals(before + 2, noteEvents.subscriberCount());
+
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        awaitEvent(events, "lock-acquired", owner);
+        // Refreshing one's own lease is not news to anyone
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        mockMvc.perform(as(owner, post("/notes/" + id).with(csrf())
+                        .param("title", "Watched").param("content", "changed")))
+                .andExpect(status().is3xxRedirection());
+        awaitEvent(events, "note-updated", owner);
+        assertEquals(1, events.getContentAsString().split("event:lock-acquired", -1).length - 1,
+                "Lock refresh announced: " + events.getContentAsString());
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        mockMvc.perform(as(owner, post("/notes/" + id + "/cancel-edit").with(csrf())))
+                .andExpect(status().is3xxRedirection());
+        awaitEvent(events, "lock-released", owner);
+        mockMvc.perform(as(owner, post("/notes/" + id + "/delete").with(csrf())))
+                .andExpect(status().is3xxRedirection());
+        awaitEvent(events, "note-deleted", owner);
+
+        // Heartbeat comments may have arrived, events may not
+        assertFalse(otherEvents.getContentAsString().contains("event:"), otherEvents.getContentAsString());
+
+        // Only readers may subscribe
+        mockMvc.perform(as(newUsername(), get("/notes/" + other + "/events"))).andExpect(status().isForbidden());
+    }
+
+    @Test
+    @DisplayName("A user whose share is removed is told so, and their stream ends")
+    public void testRemovedShareEndsSubscription() throws Exception {
+        String owner = newUsername();
+        String reader = newUsername();
+        createUser(reader);
+        String id = createNote(owner);
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/shares/" + reader).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"permission\":\"READ_ONLY\"}")))
+                .andExpect(status().isOk());
+
+        MockHttpServletResponse ownerEvents = subscribe(owner, id);
+        MockHttpServletResponse readerEvents = subscribe(reader, id);
+        assertEquals(1, noteEvents.subscriptionsOf(reader));
+
+        mockMvc.perform(as(owner, post("/notes/" + id + "/unshare").with(csrf()).param("username", reader)))
+                .andExpect(status().is3xxRedirection());
+        awaitEvent(readerEvents, "access-revoked", "");
+        assertEquals(0, noteEvents.subscriptionsOf(reader));
+
+        // Nobody else hears of it, and the reader's stream hears nothing more
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        awaitEvent(ownerEvents, "lock-acquired", owner);
+        assertFalse(ownerEvents.getContentAsString().contains("access-revoked"), ownerEvents.getContentAsString());
+        assertFalse(readerEvents.getContentAsString().contains("lock-acquired"), readerEvents.getContentAsString());
+        mockMvc.perform(as(reader, get("/notes/" + id + "/events"))).andExpect(status().isForbidden());
+    }
+
+    @Test
+    @DisplayName("One user cannot take all of a node's subscriptions")
+    public void testSubscriptionsPerUserAreCapped() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner);
+        for (int i = 0; i < maxPerUser; i++) {
+            subscribe(owner, id);
+        }
+        assertEquals(maxPerUser, noteEvents.subscriptionsOf(owner));
+
+        mockMvc.perform(as(owner, get("/notes/" + id + "/events").accept(MediaType.TEXT_EVENT_STREAM)))
+                .andExpect(status().isServiceUnavailable());
+        assertEquals(maxPerUser, noteEvents.subscriptionsOf(owner));
+
+        // Someone else still gets theirs
+        String other = newUsername();
+        subscribe(other, createNote(other));
+        assertEquals(1, noteEvents.subscriptionsOf(other));
+    }
+
+    @Test
+    @DisplayName("The per-user cap holds while the user's subscriptions come and go concurrently")
+    public void testPerUserCapUnderConcurrentSubscribes() throws Exception {
+        String username = newUsername();
+        UUID noteId = UUID.randomUUID();
+        int before = noteEvents.subscriberCount();
+        int threads = maxPerUser * 2;
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger mostOpen = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> {
+                    // Each thread takes subscriptions until refused, then ends all of its own
+                    List<SseEmitter> held = new ArrayList<>();
+                    start.await();
+                    for (int j = 0; j < 2000; j++) {
+                        SseEmitter emitter = noteEvents.subscribe(noteId, username);
+                        if (emitter != null) {
+                            held.add(emitter);
+                            mostOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                        } else {
+                            endAll(noteId, held, open);
+                        }
+                    }
+                    endAll(noteId, held, open);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertTrue(mostOpen.get() <= maxPerUser, "User had " + mostOpen.get() + " subscriptions at once");
+        assertEquals(0, noteEvents.subscriptionsOf(username));
+        assertEquals(before, noteEvents.subscriberCount());
+    }
+
+    private void endAll(UUID noteId, List<SseEmitter> held, AtomicInteger open) {
+        for (SseEmitter emitter : held) {
+            open.decrementAndGet();
+            noteEvents.unsubscribe(noteId, emitter);
+        }
+        held.clear();
+    }
+
+    @Test
+    @DisplayName("A lock released by the sweeper is announced too")
+    public void testSweptLockIsAnnounced() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner);
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        jdbc.update("UPDATE notes SET locked_at = localtimestamp - interval '1 day' WHERE id = ?::uuid", id);
+
+        MockHttpServletResponse events = subscribe(owner, id);
+        lockExpirySweeper.sweep();
+        awaitEvent(events, "lock-released", "");
+    }
+
+    private MockHttpServletResponse subscribe(String username, String id) throws Exception {
+        MvcResult result = mockMvc.perform(as(username, get("/notes/" + id + "/events")
+                        .accept(MediaType.TEXT_EVENT_STREAM)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return result.getResponse();
+    }
+
+    // Events come through Postgres NOTIFY, so they arrive a little after the write
+    private static void awaitEvent(MockHttpServletResponse events, String name, String data) throws Exception {
+        String expected = "event:" + name + "\ndata:" + data + "\n\n";
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!events.getContentAsString().contains(expected)) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("No " + name + " event; received: " + events.getContentAsString());
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private String createNote(String owner) throws Exception {
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("title", "Watched", "content", "text")))))
+                .andExpect(status().isCreated())
+                .andReturn();
+        return objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asText();
+    }
+
+    private void createUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("{noop}unused");
+        user.setRole("USER");
+        userRepository.save(user);
+    }
+
+    private MockHttpServletRequestBuilder as(String username, MockHttpServletRequestBuilder request) {
+        return request.with(user(username).roles("USER")).header("X-Forwarded-For", clientIp);
+    }
+
+    private static String newUsername() {
+        return "events_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteExportTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    // Own client address per test: exports weigh 10 in the per-IP rate limit shared by all tests
+    private final String clientIp = "10.17." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    @DisplayName("NDJSON export has the user's own and shared notes, one per line, and no one else's")
+    public void testNdjsonExport() throws Exception {
+        String owner = "export_" + UUID.randomUUID().toString().substring(0, 8);
+        String other = "export_" + UUID.randomUUID().toString().substring(0, 8);
+        UUID first = noteRepository.save(new Note("First", "line one\nline \"two\"", owner)).getId();
+        UUID second = noteRepository.save(new Note("Second", "content", owner)).getId();
+        Note sharedNote = new Note("Shared with me", "from the other user", other);
+        sharedNote.addReadOnlyUser(owner);
+        UUID shared = noteRepository.save(sharedNote).getId();
+        UUID hidden = noteRepository.save(new Note("Not mine", "private", other)).getId();
+
+        // Empty cache, so any note the export put there would show
+        entityManagerFactory.getCache().evictAll();
+        byte[] body = mockMvc.perform(get("/notes/export").with(user(owner).roles("USER")).header("X-Forwarded-For", clientIp))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"notes.ndjson\""))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Map<String, JsonNode> byId = new HashMap<>();
+        for (String line : new String(body, StandardCharsets.UTF_8).split("\n")) {
+            JsonNode json = objectMapper.readTree(line);
+            byId.put(json.get("id").asText(), json);
+        }
+        assertEquals(3, byId.size());
+        assertEquals("line one\nline \"two\"", byId.get(first.toString()).get("content").asText());
+        assertFalse(byId.get(second.toString()).get("shared").asBoolean());
+        assertTrue(byId.get(shared.toString()).get("shared").asBoolean());
+        assertEquals(other, byId.get(shared.toString()).get("owner").asText());
+        assertFalse(byId.containsKey(hidden.toString()), "Notes not shared with the user must not be exported");
+        assertFalse(entityManagerFactory.getCache().contains(Note.class, first),
+                "An export must not fill the second-level cache");
+    }
+
+    @Test
+    @DisplayName("ZIP export has one Markdown file per note with safe file names")
+    public void testZipExport() throws Exception {
+        String owner = "export_" + UUID.randomUUID().toString().substring(0, 8);
+        UUID id = noteRepository.save(new Note("../../etc/passwd: a \"title\"", "# Heading\n\nBody", owner)).getId();
+
+        byte[] body = mockMvc.perform(get("/notes/export").param("format", "zip").with(user(owner).roles("USER")).header("X-Forwarded-For", clientIp))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/zip"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        List<String> names = new ArrayList<>();
+        String markdown = null;
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(body), StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                markdown = new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        assertEquals(List.of("notes/etc_passwd_a_title_-" + id + ".md"), names);
+        assertTrue(markdown.startsWith("---\nid: " + id + "\ntitle: \"../../etc/passwd: a \\\"title\\\"\"\n"));
+        assertTrue(markdown.endsWith("---\n\n# Heading\n\nBody\n"));
+    }
+
+    @Test
+    @DisplayName("Unknown export formats are rejected, anonymous users are sent to login")
+    public void testExportRejectsBadRequests() throws Exception {
+        mockMvc.perform(get("/notes/export").param("format", "pdf").with(user("Alice").roles("USER")).header("X-Forwarded-For", clientIp))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/notes/export"))
+                .andExpect(status().is3xxRedirection());
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.service.NoteRevisions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.flash;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteHistoryTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private TransactionTemplate tx;
+
+    @Autowired
+    private NoteRevisions noteRevisions;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.23." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("Every save keeps the version it replaced, mostly as a small delta, and each is shown as it was")
+    public void testHistoryOfSaves() throws Exception {
+        String owner = newUsername();
+        String content = text(0);
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content(json("History", content))))
+                .andExpect(status().isCreated())
+                .andReturn();
+        JsonNode note = objectMapper.readTree(created.getResponse().getContentAsString());
+        String id = note.get("id").asText();
+        long version = note.get("version").asLong();
+        Map<Long, String> contents = new TreeMap<>();
+        Map<Long, String> titles = new TreeMap<>();
+
+        // API saves, past one snapshot
+        for (int i = 1; i <= 24; i++) {
+            contents.put(version, content);
+            titles.put(version, "History");
+            content = text(i);
+            version = putNote(owner, id, "History", content);
+        }
+        // A patch
+        contents.put(version, content);
+        titles.put(version, "History");
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", "\"" + version + "\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"edits\":[{\"at\":0,\"delete\":4,\"insert\":\"LINE\"}]}")))
+                .andExpect(status().isNoContent());
+        content = "LINE" + content.substring(4);
+        // The edit form, whole content and one edit (line breaks as the browser sends them); taking the lock
+        // is a new version too
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        version = currentVersion(id);
+        contents.put(version, content);
+        titles.put(version, "History");
+        content = content + "From the form\n";
+        mockMvc.perform(as(owner, post("/notes/" + id).with(csrf())
+                        .param("title", "Renamed").param("content", content)))
+                .andExpect(status().is3xxRedirection());
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        version = currentVersion(id);
+        contents.put(version, content);
+        titles.put(version, "Renamed");
+        mockMvc.perform(as(owner, post("/notes/" + id).with(csrf())
+                        .param("title", "Renamed").param("baseVersion", String.valueOf(version))
+                        .param("editAt", "0").param("editDelete", "0").param("editInsert", "Top\r\n")))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(flash().attributeCount(0));
+        content = "Top\r\n" + content.replace("\n", "\r\n");
+        version = currentVersion(id);
+        // Title only; then nothing changed, which keeps no revision
+        contents.put(version, content);
+        titles.put(version, "Renamed");
+        version = putNote(owner, id, "Renamed again", content);
+        version = putNote(owner, id, "Renamed again", content);
+
+        assertEquals(contents.keySet(), Set.copyOf(versions(id)));
+        for (Map.Entry<Long, String> entry : contents.entrySet()) {
+            MvcResult shown = mockMvc.perform(as(owner, get("/notes/" + id + "/history/" + entry.getKey())))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            assertEquals(entry.getValue(), shown.getModelAndView().getModel().get("content"),
+                    "content of version " + entry.getKey());
+            NoteRevisions.Revision revision =
+                    (NoteRevisions.Revision) shown.getModelAndView().getModel().get("revision");
+            assertEquals(titles.get(entry.getKey()), revision.title());
+            assertEquals(owner, revision.replacedBy());
+        }
+
+        // Whole copies only every snapshot-every revisions, or where every line changed (the form's line breaks);
+        // the deltas are about the size of the change
+        List<Map<String, Object>> kinds = jdbc.queryForList(
+                "SELECT kind, length(body) AS length FROM note_revisions WHERE note_id = ?::uuid", id);
+        assertEquals(2, kinds.stream().filter(k -> "S".equals(k.get("kind"))).count(), kinds.toString());
+        assertTrue(kinds.stream().filter(k -> "D".equals(k.get("kind")))
+                .allMatch(k -> ((Number) k.get("length")).intValue() < 100), kinds.toString());
+
+        mockMvc.perform(as(owner, get("/notes/" + id + "/history"))).andExpect(status().isOk());
+        mockMvc.perform(as(newUsername(), get("/notes/" + id + "/history"))).andExpect(status().isForbidden());
+        mockMvc.perform(as(owner, get("/notes/" + id + "/history/" + version))).andExpect(status().isForbidden());
+    }
+
+    @Test
+    @DisplayName("Chunked content is not kept, and pruning drops the oldest revisions without breaking the rest")
+    public void testChunkedAndPruned() throws Exception {
+        String owner = newUsername();
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content(json("Long", "short"))))
+                .andExpect(status().isCreated())
+                .andReturn();
+        JsonNode note = objectMapper.readTree(created.getResponse().getContentAsString());
+        UUID id = UUID.fromString(note.get("id").asText());
+        long first = note.get("version").asLong();
+
+        String longText = "x".repeat(150_000);
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/content").contentType(MediaType.TEXT_PLAIN)
+                        .content(longText)))
+                .andExpect(status().is2xxSuccessful());
+        mockMvc.perform(as(owner, put("/api/notes/" + id + "/content").contentType(MediaType.TEXT_PLAIN)
+                        .content("short again")))
+                .andExpect(status().is2xxSuccessful());
+        assertEquals(Optional.of("short"), noteRevisions.content(id, first));
+        assertEquals(Optional.empty(), noteRevisions.content(id, first + 1));
+        assertFalse(noteRevisions.history(id).get(0).contentKept());
+        MvcResult shown = mockMvc.perform(as(owner, get("/notes/" + id + "/history/" + (first + 1))))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertNull(shown.getModelAndView().getModel().get("content"));
+
+        // Past max-revisions, the oldest go first
+        for (int i = 1; i <= 105; i++) {
+            save(id, text(i));
+        }
+        List<Long> versions = versions(id);
+        assertEquals(100, versions.size());
+        long oldest = versions.get(versions.size() - 1);
+        assertEquals(text(oldest - first - 2), noteRevisions.content(id, oldest).orElseThrow());
+
+        // By age
+        jdbc.update("UPDATE note_revisions SET replaced_at = localtimestamp - interval '100 days' " +
+                "WHERE note_id = ? AND version < ?", id, oldest + 50);
+        assertTrue(noteRevisions.prune() >= 50);
+        assertEquals(50, versions(id).size());
+        assertEquals(text(oldest + 50 - first - 2), noteRevisions.content(id, oldest + 50).orElseThrow());
+    }
+
+    // A save as the controllers make it, without the requests (the rate limit allows 100 per test)
+    private void save(UUID id, String content) {
+        tx.executeWithoutResult(status -> {
+            NoteRevisions.Before before = noteRevisions.lock(id);
+            jdbc.update("UPDATE notes SET content = ?, version = version + 1 WHERE id = ?", content, id);
+            noteRevisions.record(before, before.title(), content, null, "history_test");
+        });
+    }
+
+    // Fifty lines, one of them changed in each version
+    private static String text(long version) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            text.append(i == version % 50 ? "Changed in version " + version : "Line " + i + " of the note").append('\n');
+        }
+        return text.toString();
+    }
+
+    private long putNote(String owner, String id, String title, String content) throws Exception {
+        MvcResult saved = mockMvc.perform(as(owner, put("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content(json(title, content))))
+                .andExpect(status().isOk())
+                .andReturn();
+        return objectMapper.readTree(saved.getResponse().getContentAsString()).get("version").asLong();
+    }
+
+    private long currentVersion(String id) {
+        return jdbc.queryForObject("SELECT version FROM notes WHERE id = ?::uuid", Long.class, id);
+    }
+
+    private List<Long> versions(Object id) {
+        return jdbc.queryForList("SELECT version FROM note_revisions WHERE note_id = ?::uuid ORDER BY version DESC",
+                Long.class, id.toString());
+    }
+
+    private String json(String title, String content) throws Exception {
+        return objectMapper.writeValueAsString(Map.of("title", title, "content", content));
+    }
+
+    private MockHttpServletRequestBuilder as(String username, MockHttpServletRequestBuilder request) {
+        return request.with(user(username).roles("USER")).header("X-Forwarded-For", clientIp);
+    }
+
+    private static String newUsername() {
+        return "history_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.flash;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteImportTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    // Own client address per test: imports weigh 10 in the per-IP rate limit shared by all tests
+    private final String clientIp = "10.18." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    @DisplayName("Form upload imports valid NDJSON notes as the uploader's and skips the rest")
+    public void testFormUploadOfNdjson() throws Exception {
+        String username = newUsername();
+        String ndjson = """
+                {"title":"One","content":"first","createdAt":"2020-01-02T03:04:05"}
+                {"title":"Two","content":"second","owner":"someone-else","id":"ignored"}
+                {"title":"  ","content":"no title"}
+                {"title":"Theirs","content":"x","shared":true}
+                {"title":"Three"}
+                """;
+        MockMultipartFile file = new MockMultipartFile("file", "notes.ndjson", "application/x-ndjson",
+                ndjson.getBytes(StandardCharsets.UTF_8));
+
+        mockMvc.perform(multipart("/notes/import").file(file).with(user(username).roles("USER")).header("X-Forwarded-For", clientIp).with(csrf()))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/notes"))
+                .andExpect(flash().attribute("importMessage", "Imported 3 note(s), skipped 2."));
+
+        List<String> titles = jdbc.queryForList(
+                "SELECT title FROM notes WHERE owner_username = ? ORDER BY title", String.class, username);
+        assertEquals(List.of("One", "Three", "Two"), titles);
+        assertEquals(LocalDateTime.of(2020, 1, 2, 3, 4, 5), jdbc.queryForObject(
+                "SELECT created_at FROM notes WHERE owner_username = ? AND title = 'One'", LocalDateTime.class, username));
+        assertEquals("", jdbc.queryForObject(
+                "SELECT content FROM notes WHERE owner_username = ? AND title = 'Three'", String.class, username));
+    }
+
+    @Test
+    @DisplayName("A ZIP export imported as a raw request body recreates the notes, with progress lines")
+    public void testZipRoundTripThroughStreamingEndpoint() throws Exception {
+        String source = newUsername();
+        String target = newUsername();
+        for (int i = 0; i < 3; i++) {
+            noteRepository.save(new Note("Note \"" + i + "\": a/b", "# Heading\n\nBody " + i + "\n", source));
+        }
+        byte[] zip = mockMvc.perform(get("/notes/export").param("format", "zip").with(user(source).roles("USER")).header("X-Forwarded-For", clientIp))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        String response = mockMvc.perform(post("/notes/import").contentType("application/zip").content(zip)
+                        .with(user(target).roles("USER")).header("X-Forwarded-For", clientIp).with(csrf()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = response.split("\n");
+        assertEquals(3, objectMapper.readTree(lines[0]).get("imported").asLong(), "One progress line per batch");
+        JsonNode result = objectMapper.readTree(lines[lines.length - 1]);
+        assertEquals(3, result.get("imported").asLong());
+        assertEquals(0, result.get("skipped").asLong());
+        assertTrue(result.get("error").isNull());
+
+        assertEquals(jdbc.queryForList("SELECT title || '|' || content FROM notes WHERE owner_username = ? ORDER BY title",
+                        String.class, source),
+                jdbc.queryForList("SELECT title || '|' || content FROM notes WHERE owner_username = ? ORDER BY title",
+                        String.class, target));
+    }
+
+    @Test
+    @DisplayName("A chunked note survives export and re-import, as NDJSON and as ZIP")
+    public void testChunkedNoteRoundTrip() throws Exception {
+        String source = newUsername();
+        UUID id = noteRepository.save(new Note("Long", "short for now", source)).getId();
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; longText.length() <= Note.MAX_CONTENT_LENGTH * 2; i++) {
+            longText.append("Line ").append(i).append(" of a long note, ünïcödé 🙂\n");
+        }
+        mockMvc.perform(put("/api/notes/" + id + "/content").contentType(MediaType.TEXT_PLAIN)
+                        .content(longText.toString().getBytes(StandardCharsets.UTF_8))
+                        .with(user(source).roles("USER")).header("X-Forwarded-For", clientIp))
+                .andExpect(status().isNoContent());
+        String hash = jdbc.queryForObject("SELECT content_hash FROM notes WHERE id = ?", String.class, id);
+        assertNotNull(hash, "The note should be chunked");
+
+        for (String format : List.of("ndjson", "zip")) {
+            String target = newUsername();
+            MvcResult export = mockMvc.perform(get("/notes/export").param("format", format)
+                            .with(user(source).roles("USER")).header("X-Forwarded-For", clientIp))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            String response = mockMvc.perform(post("/notes/import")
+                            .contentType(format.equals("zip") ? "application/zip" : "application/x-ndjson")
+                            .content(export.getResponse().getContentAsByteArray())
+                            .with(user(target).roles("USER")).header("X-Forwarded-For", clientIp).with(csrf()))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+
+            String[] lines = response.split("\n");
+            JsonNode result = objectMapper.readTree(lines[lines.length - 1]);
+            assertEquals(1, result.get("imported").asLong(), format + ": " + response);
+            assertEquals(0, result.get("skipped").asLong(), format + ": " + response);
+            assertEquals(List.of("Long|" + hash), jdbc.queryForList(
+                    "SELECT title || '|' || content_hash FROM notes WHERE owner_username = ?", String.class, target),
+                    format + ": the whole content should come back");
+            UUID imported = jdbc.queryForObject("SELECT id FROM notes WHERE owner_username = ?", UUID.class, target);
+            byte[] content = mockMvc.perform(get("/api/notes/" + imported + "/content")
+                            .with(user(target).roles("USER")).header("X-Forwarded-For", clientIp))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsByteArray();
+            assertEquals(longText.toString(), new String(content, StandardCharsets.UTF_8), format);
+        }
+    }
+
+    @Test
+    @DisplayName("Malformed input stops the import but keeps the notes read before it")
+    public void testMalformedNdjsonKeepsEarlierNotes() throws Exception {
+        String username = newUsername();
+        String ndjson = "{\"title\":\"Good\",\"content\":\"ok\"}\n{\"title\": broken\n{\"title\":\"Never\"}\n";
+
+        String response = mockMvc.perform(post("/notes/import").contentType("application/x-ndjson")
+                        .content(ndjson).with(user(username).roles("USER")).header("X-Forwarded-For", clientIp).with(csrf()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = response.split("\n");
+        JsonNode result = objectMapper.readTree(lines[lines.length - 1]);
+        assertEquals(1, result.get("imported").asLong());
+        assertEquals("Invalid JSON at line 2", result.get("error").asText());
+        assertEquals(List.of("Good"), jdbc.queryForList(
+                "SELECT title FROM notes WHERE owner_username = ?", String.class, username));
+    }
+
+    private static String newUsername() {
+        return "import_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
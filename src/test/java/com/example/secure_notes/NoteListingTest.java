@@ -0,0 +1,220 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.NoteCursor;
+import com.example.secure_notes.model.NoteSummary;
+import com.example.secure_notes.model.SharePermission;
+import com.example.secure_notes.repository.NoteRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The list views read NoteSummary projections: the columns a list shows, never the note content, one keyset
+ * page at a time. Every SQL statement Hibernate sends is recorded, to check what the list pages read.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=" +
+        "com.example.secure_notes.NoteListingTest$RecordingInspector")
+@AutoConfigureMockMvc
+public class NoteListingTest {
+
+    // notes.content as a column, not content_length or content_hash
+    private static final Pattern CONTENT_COLUMN = Pattern.compile("\\bcontent\\b(?!_)");
+
+    public static class RecordingInspector implements StatementInspector {
+        static final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public String inspect(String sql) {
+            statements.add(sql);
+            return sql;
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.23." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("Shared pages map the permission column to SharePermission and created_at to LocalDateTime")
+    public void testSummaryMapping() {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String owner = "list-owner-" + suffix;
+        String reader = "list-reader-" + suffix;
+        String writer = "list-writer-" + suffix;
+        // Microseconds, as Postgres keeps them
+        LocalDateTime createdAt = LocalDateTime.of(2024, 5, 6, 7, 8, 9, 123_456_000);
+
+        Note note = new Note("Summary", "content", owner);
+        note.setCreatedAt(createdAt);
+        note.addReadOnlyUser(reader);
+        note.addReadWriteUser(writer);
+        UUID id = noteRepository.saveAndFlush(note).getId();
+
+        NoteSummary read = sharedSummary(reader, id);
+        assertSame(SharePermission.READ_ONLY, read.getPermission());
+        assertFalse(read.isReadWrite());
+        assertEquals(createdAt, read.getCreatedAt());
+        assertEquals(owner, read.getOwnerUsername());
+        assertEquals("Summary", read.getTitle());
+
+        NoteSummary written = sharedSummary(writer, id);
+        assertSame(SharePermission.READ_WRITE, written.getPermission());
+        assertTrue(written.isReadWrite());
+        assertEquals(createdAt, written.getCreatedAt());
+
+        // The owner's own page has no permission column
+        NoteSummary own = noteRepository.findOwnedPage(owner, NoteCursor.START.createdAt(), NoteCursor.START.id(),
+                PageRequest.ofSize(10)).getContent().get(0);
+        assertEquals(id, own.getId());
+        assertNull(own.getPermission());
+        assertEquals(createdAt, own.getCreatedAt());
+        assertEquals(Boolean.FALSE, own.getLocked());
+    }
+
+    @Test
+    @DisplayName("The list page and the list API do not read notes.content")
+    public void testListingDoesNotReadContent() throws Exception {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String owner = "list-owner-" + suffix;
+        String reader = "list-reader-" + suffix;
+        Note note = new Note("Listed", "x".repeat(Note.MAX_CONTENT_LENGTH), owner);
+        note.addReadOnlyUser(reader);
+        noteRepository.saveAndFlush(note);
+
+        RecordingInspector.statements.clear();
+        mockMvc.perform(as(owner, get("/notes"))).andExpect(status().isOk());
+        mockMvc.perform(as(reader, get("/notes"))).andExpect(status().isOk());
+        mockMvc.perform(as(owner, get("/api/notes"))).andExpect(status().isOk());
+        mockMvc.perform(as(reader, get("/api/notes").param("shared", "true"))).andExpect(status().isOk());
+
+        List<String> statements = List.copyOf(RecordingInspector.statements);
+        assertTrue(statements.stream().anyMatch(sql -> sql.contains("note_shares")), "No shared page query: " + statements);
+        assertTrue(statements.stream().anyMatch(sql -> sql.contains("owner_username")), "No owned page query: " + statements);
+        for (String sql : statements) {
+            assertFalse(CONTENT_COLUMN.matcher(sql).find(), "Reads content: " + sql);
+        }
+    }
+
+    @Test
+    @DisplayName("Walking the owned and shared lists page by page returns every note once, also across equal created_at")
+    public void testKeysetPagesHaveNoGapsOrDuplicates() throws Exception {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String owner = "page-owner-" + suffix;
+        String reader = "page-reader-" + suffix;
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+        // 130 notes in runs of 7 with the same created_at, so runs straddle the API pages (50) and the small ones
+        Map<UUID, SharePermission> expected = new HashMap<>();
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 130; i++) {
+            Note note = new Note("Page " + i, "content", owner);
+            note.setCreatedAt(base.minusMinutes(i / 7));
+            if (i % 2 == 0) note.addReadOnlyUser(reader);
+            else note.addReadWriteUser(reader);
+            notes.add(note);
+        }
+        for (Note note : noteRepository.saveAllAndFlush(notes)) {
+            expected.put(note.getId(), note.canWrite(reader) ? SharePermission.READ_WRITE : SharePermission.READ_ONLY);
+        }
+
+        for (int size : new int[]{3, 7, 50}) {
+            assertEquals(expected.keySet(), walk(owner, false, size).keySet(), "Owned, pages of " + size);
+            assertEquals(expected, walk(reader, true, size), "Shared, pages of " + size);
+        }
+
+        // The API, following its next links
+        Map<UUID, SharePermission> owned = new HashMap<>();
+        Map<UUID, SharePermission> shared = new HashMap<>();
+        apiWalk(owner, false, owned);
+        apiWalk(reader, true, shared);
+        assertEquals(expected.keySet(), owned.keySet());
+        assertEquals(expected, shared);
+    }
+
+    // Every note of one list, page by page; fails on a note seen twice or out of order
+    private Map<UUID, SharePermission> walk(String username, boolean shared, int size) {
+        Map<UUID, SharePermission> seen = new HashMap<>();
+        NoteCursor cursor = NoteCursor.START;
+        Slice<NoteSummary> page;
+        do {
+            page = shared
+                    ? noteRepository.findSharedPage(Note.normalizeUsername(username), cursor.createdAt(), cursor.id(),
+                            PageRequest.ofSize(size))
+                    : noteRepository.findOwnedPage(username, cursor.createdAt(), cursor.id(), PageRequest.ofSize(size));
+            assertTrue(page.getNumberOfElements() <= size);
+            for (NoteSummary note : page) {
+                assertFalse(seen.containsKey(note.getId()), "Listed twice: " + note.getId());
+                assertFalse(note.getCreatedAt().isAfter(cursor.createdAt()), "Out of order: " + note.getId());
+                seen.put(note.getId(), note.getPermission());
+                cursor = new NoteCursor(note.getCreatedAt(), note.getId());
+            }
+        } while (page.hasNext());
+        return seen;
+    }
+
+    private void apiWalk(String username, boolean shared, Map<UUID, SharePermission> seen) throws Exception {
+        String next = null;
+        int pages = 0;
+        do {
+            MockHttpServletRequestBuilder request = get("/api/notes").param("shared", String.valueOf(shared));
+            if (next != null) request.param("after", next);
+            JsonNode page = objectMapper.readTree(mockMvc.perform(as(username, request))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString());
+            for (JsonNode note : page.get("notes")) {
+                UUID id = UUID.fromString(note.get("id").asText());
+                SharePermission permission = note.hasNonNull("permission")
+                        ? SharePermission.valueOf(note.get("permission").asText()) : null;
+                assertFalse(seen.containsKey(id), "Listed twice: " + id);
+                seen.put(id, permission);
+            }
+            next = page.hasNonNull("next") ? page.get("next").asText() : null;
+            pages++;
+        } while (next != null);
+        assertEquals(3, pages);
+    }
+
+    private NoteSummary sharedSummary(String username, UUID id) {
+        return noteRepository.findSharedPage(Note.normalizeUsername(username), NoteCursor.START.createdAt(),
+                        NoteCursor.START.id(), PageRequest.ofSize(10)).stream()
+                .filter(n -> n.getId().equals(id))
+                .findFirst().orElseThrow();
+    }
+
+    private MockHttpServletRequestBuilder as(String username, MockHttpServletRequestBuilder request) {
+        return request.with(user(username).roles("USER")).header("X-Forwarded-For", clientIp);
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.service.NoteContentStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.flash;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NotePatchUpdateTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    // Own client address per test, so the per-IP rate limit shared by all tests does not interfere
+    private final String clientIp = "10.22." + ThreadLocalRandom.current().nextInt(256) + "." + ThreadLocalRandom.current().nextInt(256);
+
+    @Test
+    @DisplayName("A patch changes the content at the given positions, only against the version it was made for")
+    public void testPatchAgainstVersion() throws Exception {
+        String owner = newUsername();
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Patched\",\"content\":\"Hello world\\nsecond line\"}")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        String id = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asText();
+        String etag = created.getResponse().getHeader("ETag");
+
+        String edits = "{\"title\":\" Renamed \",\"edits\":[{\"at\":6,\"delete\":5,\"insert\":\"there\"}," +
+                "{\"at\":23,\"delete\":0,\"insert\":\"!\"}]}";
+        MvcResult patched = mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON).content(edits)))
+                .andExpect(status().isNoContent())
+                .andReturn();
+        String newEtag = patched.getResponse().getHeader("ETag");
+        assertNotEquals(etag, newEtag);
+        JsonNode note = objectMapper.readTree(mockMvc.perform(as(owner, get("/api/notes/" + id)))
+                .andReturn().getResponse().getContentAsString());
+        assertEquals("Hello there\nsecond line!", note.get("content").asText());
+        assertEquals("Renamed", note.get("title").asText());
+        assertEquals("\"" + note.get("version").asLong() + "\"", newEtag);
+
+        // The same patch again: its positions refer to the old version
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON).content(edits)))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).contentType(MediaType.APPLICATION_JSON).content(edits)))
+                .andExpect(status().isPreconditionRequired());
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", "*")
+                        .contentType(MediaType.APPLICATION_JSON).content(edits)))
+                .andExpect(status().isPreconditionRequired());
+
+        // Past the end, another base length, overlapping edits
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", newEtag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"edits\":[{\"at\":100,\"delete\":0,\"insert\":\"x\"}]}")))
+                .andExpect(status().isUnprocessableEntity());
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", newEtag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"baseLength\":3,\"edits\":[{\"at\":0,\"delete\":1,\"insert\":\"J\"}]}")))
+                .andExpect(status().isUnprocessableEntity());
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", newEtag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"edits\":[{\"at\":2,\"delete\":3},{\"at\":3,\"delete\":0,\"insert\":\"x\"}]}")))
+                .andExpect(status().isBadRequest());
+        assertEquals("Hello there\nsecond line!", jdbc.queryForObject(
+                "SELECT content FROM notes WHERE id = ?::uuid", String.class, id));
+
+        // Title only: the content is left alone
+        mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", newEtag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"title\":\"Title only\"}")))
+                .andExpect(status().isNoContent());
+        assertEquals("Hello there\nsecond line!", jdbc.queryForObject(
+                "SELECT content FROM notes WHERE id = ?::uuid", String.class, id));
+
+        // Others cannot patch it
+        mockMvc.perform(as(newUsername(), patch("/api/notes/" + id).header("If-Match", newEtag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"title\":\"Mine\"}")))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Patching a chunked note rewrites only the chunks from the first edit on")
+    public void testPatchChunkedNote() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner, "");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < Note.MAX_CONTENT_LENGTH * 4; i++) {
+            text.append("Zeile ").append(i).append(": Grüße ✓ 😀\n");
+        }
+        String etag = mockMvc.perform(as(owner, put("/api/notes/" + id + "/content")
+                        .contentType(MediaType.TEXT_PLAIN).content(text.toString().getBytes(StandardCharsets.UTF_8))))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("ETag");
+        int chunks = chunkCount(id);
+        assertTrue(chunks > 4);
+
+        // Same length in bytes, in the middle: only the chunk holding it is written
+        int at = text.indexOf("Zeile 7000:") + 6;
+        text.replace(at, at + 4, "SEVN");
+        Map<Integer, String> before = chunkVersions(id);
+        etag = patchContent(owner, id, etag, "{\"edits\":[{\"at\":" + at + ",\"delete\":4,\"insert\":\"SEVN\"}]}");
+        Map<Integer, String> after = chunkVersions(id);
+        int offset = text.substring(0, at).getBytes(StandardCharsets.UTF_8).length;
+        int firstChanged = offset / NoteContentStore.CHUNK_SIZE;
+        int lastChanged = (offset + 3) / NoteContentStore.CHUNK_SIZE;
+        assertEquals(chunks, after.size());
+        for (int seq = 0; seq < chunks; seq++) {
+            boolean changed = seq >= firstChanged && seq <= lastChanged;
+            assertEquals(!changed, before.get(seq).equals(after.get(seq)), "chunk " + seq);
+        }
+        assertStored(owner, id, text.toString());
+
+        // Appended: only the last chunk (and any new one) is written
+        before = chunkVersions(id);
+        int length = text.length();
+        text.append("Ende ✓");
+        etag = patchContent(owner, id, etag, "{\"edits\":[{\"at\":" + length + ",\"delete\":0,\"insert\":\"Ende ✓\"}]}");
+        after = chunkVersions(id);
+        for (int seq = 0; seq < chunks - 1; seq++) {
+            assertEquals(before.get(seq), after.get(seq), "chunk " + seq);
+        }
+        assertNotEquals(before.get(chunks - 1), after.get(chunks - 1));
+        assertStored(owner, id, text.toString());
+
+        // Cut down to a few characters: back in the row
+        patchContent(owner, id, etag, "{\"edits\":[{\"at\":5,\"delete\":" + (text.length() - 5) + "}]}");
+        assertEquals(0, chunkCount(id));
+        assertEquals("Zeile", jdbc.queryForObject("SELECT content FROM notes WHERE id = ?::uuid", String.class, id));
+        assertNull(jdbc.queryForObject("SELECT content_hash FROM notes WHERE id = ?::uuid", String.class, id));
+    }
+
+    @Test
+    @DisplayName("The edit form's script sends one edit, counted with CRLF line breaks, against the form's version")
+    public void testEditFormPatch() throws Exception {
+        String owner = newUsername();
+        String id = createNote(owner, "line one\nline two");
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        long version = jdbc.queryForObject("SELECT version FROM notes WHERE id = ?::uuid", Long.class, id);
+
+        // As the browser sends it: "line one\r\nline two", "two" (at 15) replaced
+        mockMvc.perform(as(owner, post("/notes/" + id).with(csrf())
+                        .param("title", "Form")
+                        .param("baseVersion", String.valueOf(version))
+                        .param("baseLength", "18")
+                        .param("editAt", "15")
+                        .param("editDelete", "3")
+                        .param("editInsert", "2")))
+                .andExpect(redirectedUrl("/notes/" + id));
+        Map<String, Object> row = jdbc.queryForMap("SELECT title, content, is_locked FROM notes WHERE id = ?::uuid", id);
+        assertEquals("Form", row.get("title"));
+        assertEquals("line one\r\nline 2", row.get("content"));
+        assertEquals(false, row.get("is_locked"));
+
+        // Opened again, but saved against the old version: nothing is saved
+        mockMvc.perform(as(owner, get("/notes/" + id + "/edit"))).andExpect(status().isOk());
+        mockMvc.perform(as(owner, post("/notes/" + id).with(csrf())
+                        .param("title", "Stale")
+                        .param("baseVersion", String.valueOf(version))
+                        .param("editAt", "0")
+                        .param("editDelete", "4")
+                        .param("editInsert", "LINE")))
+                .andExpect(redirectedUrl("/notes/" + id))
+                .andExpect(flash().attribute("error", containsString("changed while you were editing")));
+        assertEquals("line one\r\nline 2", jdbc.queryForObject(
+                "SELECT content FROM notes WHERE id = ?::uuid", String.class, id));
+
+        // Grown past what the row holds: refused, rather than turned into a chunked note the form cannot edit
+        long current = jdbc.queryForObject("SELECT version FROM notes WHERE id = ?::uuid", Long.class, id);
+        mockMvc.perform(as(owner, post("/notes/" + id).with(csrf())
+                        .param("title", "Form")
+                        .param("baseVersion", String.valueOf(current))
+                        .param("editAt", "0")
+                        .param("editDelete", "0")
+                        .param("editInsert", "x".repeat(Note.MAX_CONTENT_LENGTH))))
+                .andExpect(redirectedUrl("/notes/" + id))
+                .andExpect(flash().attribute("error", containsString("at most " + Note.MAX_CONTENT_LENGTH)));
+        assertEquals(0, chunkCount(id));
+        assertEquals("line one\r\nline 2", jdbc.queryForObject(
+                "SELECT content FROM notes WHERE id = ?::uuid", String.class, id));
+
+        // The lock is gone by the time the form is saved: the user is told, nothing is saved
+        jdbc.update("UPDATE notes SET is_locked = false, locked_by = NULL, locked_at = NULL WHERE id = ?::uuid", id);
+        mockMvc.perform(as(owner, post("/notes/" + id).with(csrf())
+                        .param("title", "Form")
+                        .param("baseVersion", String.valueOf(current))
+                        .param("editAt", "0")
+                        .param("editDelete", "4")
+                        .param("editInsert", "LINE")))
+                .andExpect(redirectedUrl("/notes/" + id))
+                .andExpect(flash().attribute("error", containsString("no longer hold the edit lock")));
+        assertEquals("line one\r\nline 2", jdbc.queryForObject(
+                "SELECT content FROM notes WHERE id = ?::uuid", String.class, id));
+    }
+
+    private String patchContent(String owner, String id, String etag, String body) throws Exception {
+        return mockMvc.perform(as(owner, patch("/api/notes/" + id).header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON).content(body)))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("ETag");
+    }
+
+    private void assertStored(String owner, String id, String text) throws Exception {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] read = mockMvc.perform(as(owner, get("/api/notes/" + id + "/content")))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals(text, new String(read, StandardCharsets.UTF_8));
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)),
+                jdbc.queryForObject("SELECT content_hash FROM notes WHERE id = ?::uuid", String.class, id));
+        assertEquals(text.substring(0, Note.PREVIEW_LENGTH), jdbc.queryForObject(
+                "SELECT content FROM notes WHERE id = ?::uuid", String.class, id));
+    }
+
+    // The transaction that last wrote each chunk row
+    private Map<Integer, String> chunkVersions(String id) {
+        Map<Integer, String> versions = new HashMap<>();
+        jdbc.query("SELECT seq, xmin::text AS xmin FROM note_chunks WHERE note_id = ?::uuid",
+                rs -> { versions.put(rs.getInt("seq"), rs.getString("xmin")); }, id);
+        return versions;
+    }
+
+    private int chunkCount(String id) {
+        return jdbc.queryForObject("SELECT count(*) FROM note_chunks WHERE note_id = ?::uuid", Integer.class, id);
+    }
+
+    private String createNote(String owner, String content) throws Exception {
+        MvcResult created = mockMvc.perform(as(owner, post("/api/notes").contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("title", "Patched", "content", content)))))
+                .andExpect(status().isCreated())
+                .andReturn();
+        return objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asText();
+    }
+
+    private MockHttpServletRequestBuilder as(String username, MockHttpServletRequestBuilder request) {
+        return request.with(user(username).roles("USER")).header("X-Forwarded-For", clientIp);
+    }
+
+    private static String newUsername() {
+        return "patch_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
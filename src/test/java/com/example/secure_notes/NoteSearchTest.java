@@ -0,0 +1,111 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class NoteSearchTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    @DisplayName("Search finds the owner's notes, highlights matches and hides other users' notes")
+    public void testSearchIsRestrictedToReadableNotes() throws Exception {
+        // Unique word, so earlier runs against the same database do not interfere
+        String word = "kw" + UUID.randomUUID().toString().replace("-", "");
+        MockHttpSession aliceSession = new MockHttpSession();
+
+        mockMvc.perform(post("/notes")
+                        .session(aliceSession)
+                        .with(user("Alice").roles("USER"))
+                        .param("title", "Search target")
+                        .param("content", "Before <script>alert(1)</script> " + word + " after")
+                        .with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        // 1. Owner finds it; the match is highlighted and no note markup reaches the page
+        mockMvc.perform(get("/notes/search").param("q", word)
+                        .session(aliceSession)
+                        .with(user("Alice").roles("USER")))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("Search target")))
+                .andExpect(content().string(containsString("<mark>" + word + "</mark>")))
+                .andExpect(content().string(not(containsString("<script>alert(1)</script>"))));
+
+        // 2. Another user gets nothing (filtered in SQL)
+        mockMvc.perform(get("/notes/search").param("q", word)
+                        .with(user("Bob").roles("USER")))
+                .andExpect(status().isOk())
+                .andExpect(content().string(not(containsString("Search target"))))
+                .andExpect(content().string(containsString("No notes match your search.")));
+    }
+
+    @Test
+    @DisplayName("Search syntax is data, not SQL or tsquery syntax errors")
+    public void testSearchHandlesOddInput() throws Exception {
+        for (String q : new String[]{"' OR 1=1 --", "a & | ! (", "\"unclosed", "-", "   "}) {
+            mockMvc.perform(get("/notes/search").param("q", q)
+                            .with(user("Alice").roles("USER")))
+                    .andExpect(status().isOk());
+        }
+    }
+
+    @Test
+    @DisplayName("Chunked notes are found by words in their preview only, as the search page says")
+    public void testChunkedNotesAreSearchedByTheirPreview() throws Exception {
+        String owner = "search_" + UUID.randomUUID().toString().substring(0, 8);
+        String early = "kw" + UUID.randomUUID().toString().replace("-", "");
+        String late = "kw" + UUID.randomUUID().toString().replace("-", "");
+
+        MvcResult created = mockMvc.perform(post("/api/notes").with(user(owner).roles("USER"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Long search target\",\"content\":\"\"}"))
+                .andExpect(status().isCreated())
+                .andReturn();
+        String id = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asText();
+        // One word at the start, one past the preview, in content long enough to be chunked
+        String text = early + " " + "filler words ".repeat(Note.MAX_CONTENT_LENGTH / 13 + 1) + late;
+        mockMvc.perform(put("/api/notes/" + id + "/content").with(user(owner).roles("USER"))
+                        .contentType(MediaType.TEXT_PLAIN).content(text.getBytes(StandardCharsets.UTF_8)))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/notes/search").param("q", early).with(user(owner).roles("USER")))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("Long search target")));
+
+        // The limit is documented where the search is
+        mockMvc.perform(get("/notes/search").param("q", late).with(user(owner).roles("USER")))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("No notes match your search.")))
+                .andExpect(content().string(containsString("in notes longer than")))
+                .andExpect(content().string(containsString(String.format(Locale.ROOT, "%,d", Note.PREVIEW_LENGTH))));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.repository.NoteRepository;
+import com.example.secure_notes.service.NoteLookup;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Notes are served from the second-level cache, but never in a version older than the database's,
+ * and a change made outside this node's Hibernate (the other node, the lock sweeper) evicts them.
+ */
+@SpringBootTest
+public class NoteSecondLevelCacheTest {
+
+    @Autowired
+    private NoteLookup noteLookup;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private TransactionTemplate tx;
+
+    @Test
+    @DisplayName("A loaded note is cached with its shares")
+    public void testNoteIsCached() {
+        Note note = new Note("Cached", "content", "alice");
+        note.addReadOnlyUser("bob");
+        UUID id = noteRepository.saveAndFlush(note).getId();
+        entityManagerFactory.getCache().evict(Note.class, id);
+
+        tx.executeWithoutResult(s -> assertTrue(noteLookup.findCurrent(id).orElseThrow().canRead("bob")));
+        assertTrue(entityManagerFactory.getCache().contains(Note.class, id));
+
+        Note again = tx.execute(s -> {
+            Note n = noteLookup.findCurrent(id).orElseThrow();
+            n.canRead("bob"); // load the shares inside the transaction
+            return n;
+        });
+        assertEquals("Cached", again.getTitle());
+        assertEquals(List.of("bob"), again.getReadOnlyUsers());
+    }
+
+    @Test
+    @DisplayName("A write made outside this node's Hibernate is never served from the cache")
+    public void testExternalWriteIsNotServedStale() throws Exception {
+        UUID id = noteRepository.saveAndFlush(new Note("Before", "content", "alice")).getId();
+        tx.executeWithoutResult(s -> noteLookup.findCurrent(id).orElseThrow());
+        assertTrue(entityManagerFactory.getCache().contains(Note.class, id));
+
+        // As the other node would: plain SQL, version bumped
+        jdbc.update("UPDATE notes SET title = 'After', version = version + 1 WHERE id = ?", id);
+
+        // Right away: the version check catches it, whether or not the notification has arrived
+        assertEquals("After", tx.execute(s -> noteLookup.findCurrent(id).orElseThrow().getTitle()));
+
+        // And the notification evicts the entry on every node
+        jdbc.update("UPDATE notes SET title = 'Again', version = version + 1 WHERE id = ?", id);
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (entityManagerFactory.getCache().contains(Note.class, id)) {
+            assertTrue(System.nanoTime() < deadline, "Notification should evict the cached note");
+            Thread.sleep(50);
+        }
+        assertEquals("Again", tx.execute(s -> noteLookup.findCurrent(id).orElseThrow().getTitle()));
+    }
+
+    @Test
+    @DisplayName("A deleted note is not found even if it was cached")
+    public void testDeletedNoteIsNotFound() {
+        UUID id = noteRepository.saveAndFlush(new Note("Gone", "content", "alice")).getId();
+        tx.executeWithoutResult(s -> noteLookup.findCurrent(id).orElseThrow());
+
+        jdbc.update("DELETE FROM notes WHERE id = ?", id);
+
+        assertTrue(tx.execute(s -> noteLookup.findCurrent(id)).isEmpty());
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.config.SchemaMigrations;
+import com.example.secure_notes.model.Note;
+import com.example.secure_notes.model.NoteCursor;
+import com.example.secure_notes.model.NoteSummary;
+import com.example.secure_notes.repository.NoteRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SchemaMigrations runs on every start and drops what it has migrated, so what it does to existing data is
+ * tested here: the migrations themselves, and what happens when one of them cannot run.
+ */
+@SpringBootTest
+public class SchemaMigrationsTest {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private TransactionTemplate tx;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Value("${spring.datasource.master.url}")
+    private String masterUrl;
+
+    @Value("${spring.datasource.replica.url}")
+    private String replicaUrl;
+
+    @Value("${spring.datasource.master.username}")
+    private String dbUser;
+
+    @Value("${spring.datasource.master.password}")
+    private String dbPassword;
+
+    @Test
+    @DisplayName("On a read-only database (failover mode) the migrations are skipped and the start goes on")
+    public void testReadOnlyDatabaseSkipsMigrations() {
+        assertDoesNotThrow(() -> runnerOn(replicaUrl).run());
+    }
+
+    @Test
+    @DisplayName("Any other failure stops the start instead of leaving a half-migrated schema")
+    public void testFailedMigrationStopsTheStart() {
+        // A schema without the tables: the first step that touches notes fails
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> runnerOn(masterUrl + "?currentSchema=no_such_schema").run());
+        assertTrue(e.getMessage().startsWith("Schema migration "), e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Legacy share lists move to note_shares with the access the old lists gave, and the listing shows the same notes")
+    public void testShareListsMoveToNoteShares() throws Exception {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String owner = "mig-owner-" + suffix;
+        String a = "mig-a-" + suffix;
+        String b = "mig-b-" + suffix;
+        String c = "mig-c-" + suffix;
+
+        // read-only list, read-write list, as the old columns held them
+        List<String[]> lists = List.of(
+                // duplicates, and the same name differing in case or whitespace
+                new String[]{a + "," + a + ", " + a + " ," + a.toUpperCase(), null},
+                // in both lists: read-write wins
+                new String[]{" " + b.toUpperCase() + " ," + a, b + "," + a.toUpperCase() + " "},
+                // the owner's own name, in either list
+                new String[]{owner + "," + c, " " + owner.toUpperCase() + " "},
+                // empty entries only
+                new String[]{",, ,", ""},
+                // empty entries between names
+                new String[]{a + ",," + b + ",", ",," + c},
+                // not shared
+                new String[]{null, null});
+
+        jdbc.execute("ALTER TABLE notes ADD COLUMN IF NOT EXISTS shared_read_only varchar(255), " +
+                "ADD COLUMN IF NOT EXISTS shared_read_write varchar(255)");
+        List<UUID> ids = new ArrayList<>();
+        for (String[] list : lists) {
+            UUID id = noteRepository.saveAndFlush(new Note("Shared " + ids.size(), "content", owner)).getId();
+            jdbc.update("UPDATE notes SET shared_read_only = ?, shared_read_write = ? WHERE id = ?",
+                    list[0], list[1], id);
+            ids.add(id);
+        }
+
+        runner(jdbc, tx).run();
+
+        // The legacy columns are gone, so the next start does not move anything again
+        Integer legacyColumns = jdbc.queryForObject("SELECT count(*) FROM information_schema.columns " +
+                "WHERE table_schema = current_schema() AND table_name = 'notes' " +
+                "AND column_name IN ('shared_read_only', 'shared_read_write')", Integer.class);
+        assertEquals(0, legacyColumns);
+
+        for (String user : List.of(a, b, c, owner)) {
+            // What the old list page showed the user: note -> readwrite?
+            Map<UUID, Boolean> expected = new HashMap<>();
+            for (int i = 0; i < lists.size(); i++) {
+                String[] list = lists.get(i);
+                boolean write = legacyContains(list[1], user);
+                boolean read = write || legacyContains(list[0], user);
+                if (read && !user.equals(owner)) expected.put(ids.get(i), write);
+            }
+
+            // One row per note and user, normalized
+            Map<UUID, Boolean> rows = new HashMap<>();
+            jdbc.query("SELECT note_id, permission FROM note_shares WHERE username = ? AND note_id = ANY (?)",
+                    rs -> {
+                        UUID id = rs.getObject(1, UUID.class);
+                        assertNull(rows.put(id, "READ_WRITE".equals(rs.getString(2))), "Duplicate share of " + id);
+                    },
+                    user, ids.toArray(UUID[]::new));
+            assertEquals(expected, rows, "Shares of " + user);
+
+            // The indexed listing, walked in pages of two, returns the same notes as the old one
+            Map<UUID, Boolean> listed = new HashMap<>();
+            NoteCursor cursor = NoteCursor.START;
+            Slice<NoteSummary> page;
+            do {
+                page = noteRepository.findSharedPage(Note.normalizeUsername(user), cursor.createdAt(), cursor.id(),
+                        PageRequest.ofSize(2));
+                for (NoteSummary note : page) {
+                    assertNull(listed.put(note.getId(), note.isReadWrite()), "Listed twice: " + note.getId());
+                    cursor = new NoteCursor(note.getCreatedAt(), note.getId());
+                }
+            } while (page.hasNext());
+            listed.keySet().retainAll(ids);
+            assertEquals(expected, listed, "Shared notes listed for " + user);
+        }
+
+        // Only the names in the lists got a share; everything else is on the notes the test created
+        Integer strangers = jdbc.queryForObject("SELECT count(*) FROM note_shares WHERE note_id = ANY (?) " +
+                "AND username NOT IN (?, ?, ?)", Integer.class, ids.toArray(UUID[]::new), a, b, c);
+        assertEquals(0, strangers);
+    }
+
+    // Note.containsUser before note_shares: split on commas, trim, compare ignoring case
+    private static boolean legacyContains(String list, String username) {
+        if (list == null || list.isBlank()) return false;
+        for (String u : list.split(",")) {
+            if (u.trim().equalsIgnoreCase(username)) return true;
+        }
+        return false;
+    }
+
+    private CommandLineRunner runnerOn(String url) throws Exception {
+        DriverManagerDataSource ds = new DriverManagerDataSource(url, dbUser, dbPassword);
+        return runner(new JdbcTemplate(ds), new TransactionTemplate(new DataSourceTransactionManager(ds)));
+    }
+
+    private static CommandLineRunner runner(JdbcTemplate jdbc, TransactionTemplate tx) throws Exception {
+        // A plain instance: the configuration bean would hand out its own runner, whatever the arguments
+        Method migrateSchema = SchemaMigrations.class.getDeclaredMethod("migrateSchema", JdbcTemplate.class,
+                TransactionTemplate.class);
+        migrateSchema.setAccessible(true);
+        return (CommandLineRunner) migrateSchema.invoke(new SchemaMigrations(), jdbc, tx);
+    }
+}
@@ -154,4 +154,35 @@ class ThreatGSimultaneousWriteConflictTest {
         assertEquals("New content", updated.getContent());
         assertFalse(updated.isLocked(), "Lock must be released after save");
     }
+
+    @Test
+    @DisplayName("Threat G: An expired lock can be taken over by another writer")
+    void threatG_expiredLockCanBeTakenOver() throws Exception {
+        UUID id = sharedNote.getId();
+
+        // Alice's lock is older than the lease
+        sharedNote.setLocked(true);
+        sharedNote.setLockedBy("alice");
+        sharedNote.setLockedAt(LocalDateTime.now().minus(Note.LOCK_TIMEOUT).minusMinutes(1));
+        noteRepository.saveAndFlush(sharedNote);
+
+        mockMvc.perform(get("/notes/{id}/edit", id)
+                        .with(user("bob").roles("USER")))
+                .andExpect(status().isOk())
+                .andExpect(view().name("note_form"));
+
+        Note afterTakeOver = noteRepository.findById(id).orElseThrow();
+        assertTrue(afterTakeOver.isLocked());
+        assertEquals("bob", afterTakeOver.getLockedBy(), "Expired lock must pass to Bob");
+
+        // Alice no longer holds the lock, so her save is refused
+        mockMvc.perform(post("/notes/{id}", id)
+                        .with(user("alice").roles("USER"))
+                        .with(csrf())
+                        .param("title", "Stale Alice")
+                        .param("content", "Stale Alice"))
+                .andExpect(status().is3xxRedirection());
+
+        assertEquals("Initial", noteRepository.findById(id).orElseThrow().getTitle());
+    }
 }
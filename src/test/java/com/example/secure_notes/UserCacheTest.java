@@ -0,0 +1,95 @@
+package com.example.secure_notes;
+
+import com.example.secure_notes.model.UserSnapshot;
+import com.example.secure_notes.repository.UserRepository;
+import com.example.secure_notes.service.DbNotificationListener;
+import com.example.secure_notes.service.UserCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The user cache keeps repeated lookups off the users table, and a change made elsewhere
+ * (another node, or a manual UPDATE) reaches it through LISTEN/NOTIFY.
+ */
+@SpringBootTest
+public class UserCacheTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Value("${spring.datasource.master.url}")
+    private String url;
+
+    @Value("${spring.datasource.master.username}")
+    private String user;
+
+    @Value("${spring.datasource.master.password}")
+    private String pass;
+
+    @Test
+    @DisplayName("Repeated lookups are served from the cache, unknown users are not cached")
+    public void testRepeatedLookupsHitTheCache() {
+        String username = newUser("USER");
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        UserCache cache = new UserCache(userRepository, new DbNotificationListener(url, user, pass), metrics,
+                100, Duration.ofMinutes(5));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("USER", cache.find(username).orElseThrow().role());
+        }
+        assertTrue(cache.find("nobody-" + UUID.randomUUID()).isEmpty());
+
+        assertEquals(4, metrics.get("users.cache.gets").tag("result", "hit").counter().count());
+        assertEquals(2, metrics.get("users.cache.gets").tag("result", "miss").counter().count());
+        assertEquals(1, cache.size(), "Only the existing user should be cached");
+    }
+
+    @Test
+    @DisplayName("A role change in the database invalidates the cached user through NOTIFY")
+    public void testRoleChangeInvalidatesCachedUser() throws Exception {
+        String username = newUser("USER");
+        DbNotificationListener listener = new DbNotificationListener(url, user, pass);
+        UserCache cache = new UserCache(userRepository, listener, new SimpleMeterRegistry(), 100, Duration.ofMinutes(5));
+        listener.start();
+        try {
+            awaitUntil(listener::isConnected, "listener should connect to the master");
+            assertEquals("USER", cache.find(username).orElseThrow().role());
+
+            // As if done by the other node or by hand: not through this cache
+            jdbc.update("UPDATE users SET role = 'ADMIN' WHERE username = ?", username);
+
+            awaitUntil(() -> cache.size() == 0, "cached user should be dropped by the notification");
+            UserSnapshot reloaded = cache.find(username).orElseThrow();
+            assertEquals("ADMIN", reloaded.role());
+        } finally {
+            listener.destroy();
+        }
+    }
+
+    private String newUser(String role) {
+        String username = "cache_" + UUID.randomUUID().toString().substring(0, 8);
+        jdbc.update("INSERT INTO users (username, password, role) VALUES (?, 'x', ?)", username, role);
+        return username;
+    }
+
+    private static void awaitUntil(java.util.function.BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out: " + message);
+            Thread.sleep(50);
+        }
+    }
+}